@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ExecuteRequest;
+import org.eclipse.leshan.core.request.ObserveRequest;
+import org.eclipse.leshan.core.request.ReadRequest;
+import org.eclipse.leshan.core.request.WriteRequest;
+import org.eclipse.leshan.core.response.ExecuteResponse;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ObserveResponse;
+import org.eclipse.leshan.core.response.ReadResponse;
+import org.eclipse.leshan.core.response.WriteResponse;
+import org.eclipse.leshan.server.cluster.serialization.DownlinkRequestSerDes;
+import org.eclipse.leshan.server.cluster.serialization.ResponseSerDes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JSON and the compact binary formats of {@link DownlinkRequestSerDes} and {@link ResponseSerDes} for the
+ * messages exchanged by the cluster instances:
+ * <ul>
+ * <li>"read": a read request and its response with a 1KB opaque value,</li>
+ * <li>"write": a write request of an object instance with one resource of each type, and its response,</li>
+ * <li>"observe": an observe request and a float notification,</li>
+ * <li>"execute": an execute request with parameters and its response.</li>
+ * </ul>
+ * The size of the serialized request and response is printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusterMessageSerDesBenchmark {
+
+    @Param({ "json", "compact" })
+    public String format;
+
+    @Param({ "read", "write", "observe", "execute" })
+    public String payload;
+
+    private DownlinkRequest<?> request;
+    private LwM2mResponse response;
+    private byte[] serializedRequest;
+    private byte[] serializedResponse;
+
+    @Setup
+    public void setup() {
+        switch (payload) {
+        case "read":
+            byte[] opaque = new byte[1024];
+            new Random(0).nextBytes(opaque);
+            request = new ReadRequest(ContentFormat.TLV, 5, 0, 0);
+            response = ReadResponse.success(LwM2mSingleResource.newBinaryResource(0, opaque));
+            break;
+        case "write":
+            request = new WriteRequest(WriteRequest.Mode.REPLACE, ContentFormat.TLV, 3442, 0,
+                    new LwM2mResource[] { LwM2mSingleResource.newStringResource(110, "initial value"),
+                                            LwM2mSingleResource.newIntegerResource(120, 64),
+                                            LwM2mSingleResource.newFloatResource(130, 3.14159d),
+                                            LwM2mSingleResource.newBooleanResource(140, true),
+                                            LwM2mSingleResource.newBinaryResource(150, new byte[] { 1, 2, 3, 4 }),
+                                            LwM2mSingleResource.newDateResource(160, new Date(1500000000000L)) });
+            response = WriteResponse.success();
+            break;
+        case "observe":
+            request = new ObserveRequest(ContentFormat.TLV, 3303, 0, 5700);
+            response = ObserveResponse.success(LwM2mSingleResource.newFloatResource(5700, 21.5d));
+            break;
+        case "execute":
+            request = new ExecuteRequest(3, 0, 4, "param1,param2='value'");
+            response = ExecuteResponse.success();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown payload " + payload);
+        }
+        serializedRequest = serializeRequest();
+        serializedResponse = serializeResponse();
+        System.out.println(String.format("%n%s %s: request %d bytes, response %d bytes", format, payload,
+                serializedRequest.length, serializedResponse.length));
+    }
+
+    @Benchmark
+    public byte[] serializeRequest() {
+        if ("compact".equals(format))
+            return DownlinkRequestSerDes.serializeCompact(request);
+        return DownlinkRequestSerDes.bSerialize(request);
+    }
+
+    @Benchmark
+    public DownlinkRequest<?> deserializeRequest() {
+        return DownlinkRequestSerDes.deserialize(serializedRequest);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() {
+        if ("compact".equals(format))
+            return ResponseSerDes.serializeCompact(response);
+        return ResponseSerDes.bSerialize(response);
+    }
+
+    @Benchmark
+    public LwM2mResponse deserializeResponse() {
+        return ResponseSerDes.deserialize(serializedResponse);
+    }
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.benchmarks.registration.Registrations;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ReadRequest;
+import org.eclipse.leshan.core.response.ErrorCallback;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ReadResponse;
+import org.eclipse.leshan.core.response.ResponseCallback;
+import org.eclipse.leshan.server.LwM2mServer;
+import org.eclipse.leshan.server.cluster.RedisRequestPublisher;
+import org.eclipse.leshan.server.cluster.RedisRequestQueue;
+import org.eclipse.leshan.server.cluster.RedisRequestResponseHandler;
+import org.eclipse.leshan.server.cluster.RedisTokenHandler;
+import org.eclipse.leshan.server.cluster.serialization.DownlinkRequestSerDes;
+import org.eclipse.leshan.server.model.LwM2mModelProvider;
+import org.eclipse.leshan.server.observation.ObservationListener;
+import org.eclipse.leshan.server.observation.ObservationService;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationListener;
+import org.eclipse.leshan.server.registration.RegistrationService;
+import org.eclipse.leshan.server.security.SecurityStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.util.Pool;
+
+/**
+ * Measures the throughput of the cluster downlink requests as instances are added. Each instance is a
+ * {@link RedisRequestResponseHandler} whose LWM2M server answers immediately, the endpoints are spread over the
+ * instances.
+ * <p>
+ * The requests are either broadcast on {@code LESHAN_REQ} (each instance parses them and checks whether it is
+ * responsible), or sent to the responsible instance by {@link RedisRequestPublisher}: on its channel ("direct"), on
+ * its durable queue ("queue", see {@link RedisRequestQueue}) or on its channel in the binary format ("compact"). Each
+ * operation is a request published until its response is received on {@code LESHAN_RESP}, {@value #IN_FLIGHT} requests
+ * are in flight.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClusterRequestBenchmark {
+
+    private static final int IN_FLIGHT = 100;
+    private static final String RESPONSE_CHANNEL = "LESHAN_RESP";
+
+    @Param({ "redis://localhost:6379" })
+    public String uri;
+
+    @Param({ "1", "2", "4", "8" })
+    public int nodes;
+
+    @Param({ "broadcast", "direct", "queue", "compact" })
+    public String routing;
+
+    private Pool<Jedis> pool;
+    private Pool<Jedis>[] nodePools; // each instance has its own connections
+    private Registration[] registrations;
+    private RedisTokenHandler[] tokenHandlers;
+    private RedisRequestResponseHandler[] handlers;
+    private RedisRequestPublisher publisher;
+    private ResponseCollector collector;
+    private ReadRequest readRequest;
+    private String request;
+    private final AtomicLong tickets = new AtomicLong();
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        pool = new JedisPool(new URI(uri));
+        registrations = Registrations.create(1000);
+        readRequest = new ReadRequest(3, 0, 13);
+        request = DownlinkRequestSerDes.sSerialize(readRequest);
+
+        tokenHandlers = new RedisTokenHandler[nodes];
+        handlers = new RedisRequestResponseHandler[nodes];
+        nodePools = new Pool[nodes];
+        for (int i = 0; i < nodes; i++) {
+            nodePools[i] = new JedisPool(new URI(uri));
+            String instanceUID = "bench-node-" + i;
+            tokenHandlers[i] = new RedisTokenHandler(nodePools[i], instanceUID);
+            RedisRequestQueue requestQueue = null;
+            if ("queue".equals(routing)) {
+                requestQueue = new RedisRequestQueue(nodePools[i], instanceUID);
+            }
+            handlers[i] = new RedisRequestResponseHandler(nodePools[i], new AnsweringServer(),
+                    new StaticRegistrationService(), tokenHandlers[i], new NoObservationService(), requestQueue);
+        }
+        for (int i = 0; i < registrations.length; i++) {
+            tokenHandlers[i % nodes].registered(registrations[i], null, Collections.<Observation> emptyList());
+        }
+
+        publisher = new RedisRequestPublisher(pool, "queue".equals(routing), "compact".equals(routing));
+        collector = new ResponseCollector();
+        collector.start();
+        // let the instances subscribe
+        Thread.sleep(500);
+    }
+
+    @TearDown
+    public void tearDown() {
+        collector.stop();
+        for (RedisRequestResponseHandler handler : handlers) {
+            handler.stop();
+        }
+        for (int i = 0; i < registrations.length; i++) {
+            tokenHandlers[i % nodes].unregistered(registrations[i], Collections.<Observation> emptyList(), false,
+                    null);
+        }
+        for (Pool<Jedis> nodePool : nodePools) {
+            nodePool.destroy();
+        }
+        pool.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public void request() throws InterruptedException {
+        collector.responses.acquire(IN_FLIGHT);
+        try (Jedis j = pool.getResource()) {
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                Registration registration = registrations[(int) (tickets.incrementAndGet() % registrations.length)];
+                if ("compact".equals(routing)) {
+                    publisher.send(String.valueOf(tickets.get()), registration.getEndpoint(), readRequest);
+                    continue;
+                }
+                String message = "{\"ticket\":\"" + tickets.get() + "\",\"ep\":\"" + registration.getEndpoint()
+                        + "\",\"req\":" + request + "}";
+                if (!"broadcast".equals(routing)) {
+                    publisher.publish(registration.getEndpoint(), message);
+                } else {
+                    j.publish("LESHAN_REQ", message);
+                }
+            }
+        }
+        // wait for the responses
+        collector.responses.acquire(IN_FLIGHT);
+        collector.responses.release(IN_FLIGHT);
+    }
+
+    /**
+     * Releases a permit for each response (acknowledgements are ignored).
+     */
+    private class ResponseCollector extends JedisPubSub implements Runnable {
+        private final Semaphore responses = new Semaphore(IN_FLIGHT);
+        private Thread thread;
+
+        void start() throws InterruptedException {
+            thread = new Thread(this, "Response collector");
+            thread.setDaemon(true);
+            thread.start();
+            while (!isSubscribed()) {
+                Thread.sleep(10);
+            }
+        }
+
+        void stop() {
+            unsubscribe();
+        }
+
+        @Override
+        public void run() {
+            try (Jedis j = pool.getResource()) {
+                j.subscribe(this, RESPONSE_CHANNEL);
+            }
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            JsonObject m = (JsonObject) Json.parse(message);
+            if (m.get("rep") != null || m.get("err") != null) {
+                responses.release();
+            }
+        }
+    }
+
+    private static class AnsweringServer implements LwM2mServer {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends LwM2mResponse> void send(Registration destination, DownlinkRequest<T> request,
+                ResponseCallback<T> responseCallback, ErrorCallback errorCallback) {
+            responseCallback.onResponse((T) ReadResponse.success(13, "value"));
+        }
+
+        @Override
+        public <T extends LwM2mResponse> T send(Registration destination, DownlinkRequest<T> request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends LwM2mResponse> T send(Registration destination, DownlinkRequest<T> request, long timeout) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public RegistrationService getRegistrationService() {
+            return null;
+        }
+
+        @Override
+        public ObservationService getObservationService() {
+            return null;
+        }
+
+        @Override
+        public SecurityStore getSecurityStore() {
+            return null;
+        }
+
+        @Override
+        public LwM2mModelProvider getModelProvider() {
+            return null;
+        }
+    }
+
+    private class StaticRegistrationService implements RegistrationService {
+
+        @Override
+        public Registration getById(String id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Registration getByEndpoint(String endpoint) {
+            return registrations[0];
+        }
+
+        @Override
+        public Iterator<Registration> getAllRegistrations() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addListener(RegistrationListener listener) {
+        }
+
+        @Override
+        public void removeListener(RegistrationListener listener) {
+        }
+    }
+
+    private static class NoObservationService implements ObservationService {
+
+        @Override
+        public int cancelObservations(Registration registration) {
+            return 0;
+        }
+
+        @Override
+        public int cancelObservations(Registration registration, String resourcepath) {
+            return 0;
+        }
+
+        @Override
+        public void cancelObservation(Observation observation) {
+        }
+
+        @Override
+        public Set<Observation> getObservations(Registration registration) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void addListener(ObservationListener listener) {
+        }
+
+        @Override
+        public void removeListener(ObservationListener listener) {
+        }
+    }
+}
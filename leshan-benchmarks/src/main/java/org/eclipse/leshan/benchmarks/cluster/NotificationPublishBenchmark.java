@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.response.ObserveResponse;
+import org.eclipse.leshan.server.cluster.RedisBatchPublisher;
+import org.eclipse.leshan.server.cluster.serialization.ResponseSerDes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.util.Pool;
+
+/**
+ * Measures the throughput of the notification messages published on a channel by the worker threads of a cluster
+ * instance: one {@code PUBLISH} per message ("single"), or by batches with a {@link RedisBatchPublisher}, as a
+ * pipeline ("pipelined") or as a JSON array ("framed").
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class NotificationPublishBenchmark {
+
+    private static final String CHANNEL = "LESHAN_RESP_BENCH";
+
+    @Param({ "redis://localhost:6379" })
+    public String uri;
+
+    @Param({ "single", "pipelined", "framed" })
+    public String mode;
+
+    private Pool<Jedis> pool;
+    private RedisBatchPublisher publisher;
+    private String message;
+
+    @Setup
+    public void setup() throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(16);
+        pool = new JedisPool(config, new URI(uri));
+        if (!"single".equals(mode)) {
+            publisher = new RedisBatchPublisher(pool, CHANNEL, RedisBatchPublisher.DEFAULT_MAX_BATCH_SIZE,
+                    RedisBatchPublisher.DEFAULT_WINDOW, "framed".equals(mode));
+            publisher.start();
+        }
+
+        JsonObject m = Json.object();
+        m.add("ticket", "1234567890");
+        m.add("rep", ResponseSerDes
+                .jSerialize(ObserveResponse.success(LwM2mSingleResource.newFloatResource(5700, 21.5d))));
+        message = m.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (publisher != null)
+            publisher.stop();
+        pool.destroy();
+    }
+
+    @Benchmark
+    public void publish() {
+        if (publisher != null) {
+            publisher.publish(message);
+        } else {
+            try (Jedis j = pool.getResource()) {
+                j.publish(CHANNEL, message);
+            }
+        }
+    }
+}
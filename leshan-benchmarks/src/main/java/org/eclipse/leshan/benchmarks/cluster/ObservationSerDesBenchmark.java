@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.benchmarks.registration.Observations;
+import org.eclipse.leshan.benchmarks.registration.Registrations;
+import org.eclipse.leshan.server.cluster.serialization.ObservationSerDes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JSON and the compact binary formats of {@link ObservationSerDes}. The deserialization is done for each
+ * notification received by a cluster node. The size of the serialized observation is printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationSerDesBenchmark {
+
+    @Param({ "json", "compact" })
+    public String format;
+
+    private Observation observation;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        observation = Observations.create(Registrations.create(1)[0], "/3303/0/5700");
+        serialized = serialize();
+        System.out.println(String.format("%n%s format: %d bytes", format, serialized.length));
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        if ("compact".equals(format))
+            return ObservationSerDes.serializeCompact(observation);
+        return ObservationSerDes.serialize(observation);
+    }
+
+    @Benchmark
+    public Observation deserialize() {
+        return ObservationSerDes.deserialize(serialized);
+    }
+}
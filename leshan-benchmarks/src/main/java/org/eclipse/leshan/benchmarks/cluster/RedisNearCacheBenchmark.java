@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.benchmarks.registration.Observations;
+import org.eclipse.leshan.benchmarks.registration.Registrations;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.cluster.RedisNearCache;
+import org.eclipse.leshan.server.cluster.RedisRegistrationStore;
+import org.eclipse.leshan.server.registration.Registration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+/**
+ * Measures the store lookups done for each notification (the observation by token, then its registration) with and
+ * without {@link RedisNearCache}. The cache statistics are printed at the end of the trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisNearCacheBenchmark {
+
+    @Param({ "redis://localhost:6379" })
+    public String uri;
+
+    @Param({ "1000" })
+    public int size;
+
+    @Param({ "none", "near" })
+    public String cache;
+
+    private Pool<Jedis> pool;
+    private RedisNearCache nearCache;
+    private RedisRegistrationStore store;
+    private Registration[] registrations;
+    private byte[][] observedTokens;
+
+    @Setup
+    public void setup() throws URISyntaxException, InterruptedException {
+        pool = new JedisPool(new URI(uri));
+        if ("near".equals(cache)) {
+            nearCache = new RedisNearCache(pool, size * 2, 60);
+        }
+        store = new RedisRegistrationStore(pool, Executors.newSingleThreadScheduledExecutor(), 3600, 0, nearCache);
+        store.start();
+
+        registrations = Registrations.create(size);
+        observedTokens = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            store.addRegistration(registrations[i]);
+            org.eclipse.californium.core.observe.Observation observation = Observations.create(registrations[i],
+                    "/3303/0/5700");
+            store.add(observation);
+            observedTokens[i] = observation.getRequest().getToken();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (nearCache != null) {
+            System.out.println();
+            System.out.println(nearCache);
+        }
+        store.stop();
+        for (Registration registration : registrations) {
+            Registration current = store.getRegistrationByEndpoint(registration.getEndpoint());
+            if (current != null) {
+                store.removeRegistration(current.getId());
+            }
+        }
+        pool.destroy();
+    }
+
+    @Benchmark
+    public Object notification() {
+        int i = ThreadLocalRandom.current().nextInt(size);
+        Observation observation = store.getObservation(registrations[i].getId(), observedTokens[i]);
+        return store.getRegistration(observation.getRegistrationId());
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.benchmarks.registration.Observations;
+import org.eclipse.leshan.benchmarks.registration.Registrations;
+import org.eclipse.leshan.server.cluster.RedisRegistrationStore;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+/**
+ * Measures the latency of the {@link RedisRegistrationStore} operations against a running Redis server (see the
+ * <code>uri</code> parameter, e.g. <code>-p uri=redis://localhost:6379</code>).
+ * <p>
+ * The registrations created by the benchmark are removed at the end of the trial, but the benchmark should not be run
+ * against a production Redis.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisRegistrationStoreBenchmark {
+
+    @Param({ "redis://localhost:6379" })
+    public String uri;
+
+    @Param({ "1000" })
+    public int size;
+
+    /** format of the stored registrations and observations */
+    @Param({ "compact", "json" })
+    public String format;
+
+    private Pool<Jedis> pool;
+    private RedisRegistrationStore store;
+    private Registration[] registrations;
+    private byte[][] observedTokens;
+    private final AtomicLong regIds = new AtomicLong();
+
+    @Setup
+    public void setup() throws URISyntaxException {
+        pool = new JedisPool(new URI(uri));
+        store = new RedisRegistrationStore(pool);
+        store.setCompactFormat("compact".equals(format));
+        registrations = Registrations.create(size);
+        observedTokens = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            store.addRegistration(registrations[i]);
+            org.eclipse.californium.core.observe.Observation observation = Observations.create(registrations[i],
+                    "/3303/0/5700");
+            store.add(observation);
+            observedTokens[i] = observation.getRequest().getToken();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Registration registration : registrations) {
+            Registration current = store.getRegistrationByEndpoint(registration.getEndpoint());
+            if (current != null) {
+                store.removeRegistration(current.getId());
+            }
+        }
+        pool.destroy();
+    }
+
+    @Benchmark
+    public Object getRegistration() {
+        return store.getRegistration(registrations[ThreadLocalRandom.current().nextInt(size)].getId());
+    }
+
+    /** The observation lookup done by Californium for each notification */
+    @Benchmark
+    public Object getObservation() {
+        return store.get(observedTokens[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public Object updateRegistration() {
+        Registration r = registrations[ThreadLocalRandom.current().nextInt(size)];
+        return store.updateRegistration(
+                new RegistrationUpdate(r.getId(), r.getAddress(), r.getPort(), null, null, null, null));
+    }
+
+    /** Updates of the same registration by several threads */
+    @Benchmark
+    @Threads(4)
+    public Object contendedUpdateRegistration() {
+        Registration r = registrations[0];
+        return store.updateRegistration(
+                new RegistrationUpdate(r.getId(), r.getAddress(), r.getPort(), null, null, null, null));
+    }
+
+    /** A new registration replacing the registration of an existing endpoint, then restoring it */
+    @Benchmark
+    public Object registerAndDeregister() {
+        Registration r = registrations[ThreadLocalRandom.current().nextInt(size)];
+        Registration newRegistration = new Registration.Builder("bench-" + regIds.incrementAndGet(), r.getEndpoint(),
+                r.getAddress(), r.getPort(), r.getRegistrationEndpointAddress()).lifeTimeInSec(r.getLifeTimeInSec())
+                        .bindingMode(r.getBindingMode()).objectLinks(r.getObjectLinks()).build();
+        store.addRegistration(newRegistration);
+        // restore the initial registration
+        return store.addRegistration(r);
+    }
+
+    /** An observation followed by its cancellation */
+    @Benchmark
+    public Object observeAndCancel() {
+        Registration r = registrations[ThreadLocalRandom.current().nextInt(size)];
+        org.eclipse.californium.core.observe.Observation observation = Observations.create(r, "/3/0/13");
+        store.add(observation);
+        store.remove(observation.getRequest().getToken());
+        return observation;
+    }
+}
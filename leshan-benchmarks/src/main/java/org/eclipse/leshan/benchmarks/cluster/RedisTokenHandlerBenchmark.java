@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.benchmarks.registration.Registrations;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.cluster.RedisTokenHandler;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+/**
+ * Measures the ownership check done for each cluster request and the registration update of
+ * {@link RedisTokenHandler}, with the ownership read from Redis ("redis") or kept locally ("local", the handler is
+ * started with the ownership notifications).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisTokenHandlerBenchmark {
+
+    @Param({ "redis://localhost:6379" })
+    public String uri;
+
+    @Param({ "redis", "local" })
+    public String ownership;
+
+    private Pool<Jedis> pool;
+    private RedisTokenHandler tokenHandler;
+    private Registration[] registrations;
+
+    @Setup
+    public void setup() throws Exception {
+        pool = new JedisPool(new URI(uri));
+        boolean local = "local".equals(ownership);
+        tokenHandler = new RedisTokenHandler(pool, "bench-node", RedisTokenHandler.DEFAULT_REFRESH_PERIOD, local);
+        if (local) {
+            tokenHandler.start();
+        }
+        registrations = Registrations.create(1000);
+        for (Registration registration : registrations) {
+            tokenHandler.registered(registration, null, Collections.<Observation> emptyList());
+        }
+        // let the handler subscribe to the ownership notifications
+        Thread.sleep(500);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tokenHandler.stop();
+        for (Registration registration : registrations) {
+            tokenHandler.unregistered(registration, Collections.<Observation> emptyList(), false, null);
+        }
+        pool.destroy();
+    }
+
+    @Benchmark
+    public boolean isResponsible() {
+        Registration registration = registrations[ThreadLocalRandom.current().nextInt(registrations.length)];
+        return tokenHandler.isResponsible(registration.getEndpoint());
+    }
+
+    @Benchmark
+    public void updated() {
+        Registration registration = registrations[ThreadLocalRandom.current().nextInt(registrations.length)];
+        tokenHandler.updated(new RegistrationUpdate(registration.getId(), registration.getAddress(),
+                registration.getPort(), null, null, null, null), registration, registration);
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.cluster;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.cluster.serialization.RegistrationSerDes;
+import org.eclipse.leshan.server.registration.Registration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JSON and the compact binary formats of {@link RegistrationSerDes} on a registration with 24 object
+ * links. The size of the serialized registration is printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationSerDesBenchmark {
+
+    private static final String OBJECT_LINKS = "</>;rt=\"oma.lwm2m\";ct=11543,</1/0>,</1/1>,</2/0>,</2/1>,</2/2>,"
+            + "</3/0>;ver=\"1.1\",</4/0>;ver=\"1.1\",</5/0>,</6/0>,</7/0>,</10241/0>;ver=\"1.0\",</10242/0>;ver=\"1.0\","
+            + "</3303/0>;ver=\"1.1\",</3303/1>;ver=\"1.1\",</3304/0>;ver=\"1.1\",</3311/0>;ver=\"1.1\","
+            + "</3311/1>;ver=\"1.1\",</3312/0>,</3313/0>,</3314/0>,</3315/0>,</3336/0>,</3341/0>";
+
+    @Param({ "json", "compact" })
+    public String format;
+
+    private Registration registration;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() throws Exception {
+        // a resolved registration address: resolving a host name would dominate the deserialization
+        registration = new Registration.Builder("MHsV0bT6lP", "urn:imei:359072061234567",
+                InetAddress.getByName("10.12.34.56"), 49152,
+                new InetSocketAddress(InetAddress.getByName("192.168.0.1"), 5683)).lifeTimeInSec(86400L)
+                        .bindingMode(BindingMode.UQ).lwM2mVersion("1.0")
+                        .objectLinks(Link.parse(OBJECT_LINKS.getBytes(StandardCharsets.UTF_8)))
+                        .registrationDate(new Date(1490000000000L)).lastUpdate(new Date(1490000360000L)).build();
+        serialized = serialize();
+        System.out.println(String.format("%n%s format: %d bytes for %d object links", format, serialized.length,
+                registration.getObjectLinks().length));
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        if ("compact".equals(format))
+            return RegistrationSerDes.serializeCompact(registration);
+        return RegistrationSerDes.bSerialize(registration);
+    }
+
+    @Benchmark
+    public Registration deserialize() {
+        return RegistrationSerDes.deserialize(serialized);
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvDecoder;
+import org.eclipse.leshan.util.Hex;
+
+/**
+ * The nodes and payloads shared by the codec benchmarks, as a client sends them:
+ * <ul>
+ * <li>the device object (<code>/3</code>, 15 resources, 3 of them multi-instance),</li>
+ * <li>the connectivity monitoring object (<code>/4</code>, 11 resources, 4 of them multi-instance),</li>
+ * <li>a series of timestamped samples of a sensor value (<code>/3303/0/5700</code>), as in a notification,</li>
+ * <li>the object links of a registration.</li>
+ * </ul>
+ */
+class CodecFixtures {
+
+    /** The objects and instances of a client, as sent in a register request. */
+    static final String REGISTRATION_LINKS = "</>;rt=\"oma.lwm2m\";ct=11543,</1/0>,</2>,</3/0>,</4/0>,</5/0>,</6/0>,"
+            + "</7/0>,</3303/0>,</3303/1>,</3304/0>,</3311/0>,</3311/1>,</3341/0>,</10241/0>;ver=\"1.1\"";
+
+    private CodecFixtures() {
+    }
+
+    static LwM2mModel model() {
+        return new LwM2mModel(ObjectLoader.loadDefault());
+    }
+
+    /**
+     * @param path <code>/3/0</code>, <code>/4/0</code>, <code>/3</code> or <code>/4</code>
+     */
+    static LwM2mNode node(String path) throws CodecException {
+        switch (path) {
+        case "/3/0":
+            return deviceInstance();
+        case "/4/0":
+            return connectivityInstance();
+        case "/3":
+            return new LwM2mObject(3, deviceInstance());
+        case "/4":
+            return new LwM2mObject(4, connectivityInstance());
+        default:
+            throw new IllegalArgumentException("No node for path " + path);
+        }
+    }
+
+    static LwM2mObjectInstance deviceInstance() throws CodecException {
+        return LwM2mNodeTlvDecoder.decode(Hex.decodeHex(TlvDecoderBenchmark.DEVICE_INSTANCE.toCharArray()),
+                new LwM2mPath(3, 0), model(), LwM2mObjectInstance.class);
+    }
+
+    static LwM2mObjectInstance connectivityInstance() {
+        Map<Integer, Long> availableBearers = new HashMap<>();
+        availableBearers.put(0, 0L); // GSM
+        availableBearers.put(1, 6L); // LTE-FDD
+        availableBearers.put(2, 21L); // WLAN
+        Map<Integer, String> ipAddresses = new HashMap<>();
+        ipAddresses.put(0, "192.168.0.100");
+        ipAddresses.put(1, "fe80::1c2b:3cff:fe4d:5e6f");
+        Map<Integer, String> routerIpAddresses = new HashMap<>();
+        routerIpAddresses.put(0, "192.168.1.1");
+        Map<Integer, String> apns = new HashMap<>();
+        apns.put(0, "internet");
+        apns.put(1, "iot.operator.com");
+
+        return new LwM2mObjectInstance(0, LwM2mSingleResource.newIntegerResource(0, 6),
+                LwM2mMultipleResource.newIntegerResource(1, availableBearers),
+                LwM2mSingleResource.newIntegerResource(2, -92), LwM2mSingleResource.newIntegerResource(3, 2),
+                LwM2mMultipleResource.newStringResource(4, ipAddresses),
+                LwM2mMultipleResource.newStringResource(5, routerIpAddresses),
+                LwM2mSingleResource.newIntegerResource(6, 42), LwM2mMultipleResource.newStringResource(7, apns),
+                LwM2mSingleResource.newIntegerResource(8, 69124354), LwM2mSingleResource.newIntegerResource(9, 15),
+                LwM2mSingleResource.newIntegerResource(10, 208));
+    }
+
+    /**
+     * @return the samples of the temperature sensor <code>/3303/0/5700</code>, one every 10 seconds.
+     */
+    static List<TimestampedLwM2mNode> temperatureSamples(int count) {
+        List<TimestampedLwM2mNode> samples = new ArrayList<>(count);
+        long timestamp = 1500000000L;
+        for (int i = 0; i < count; i++) {
+            samples.add(new TimestampedLwM2mNode(timestamp + i * 10,
+                    LwM2mSingleResource.newFloatResource(5700, 20 + (i % 100) * 0.1)));
+        }
+        return samples;
+    }
+}
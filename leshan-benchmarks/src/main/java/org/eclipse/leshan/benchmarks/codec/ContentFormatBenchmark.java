@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the content formats on the same nodes: the device and connectivity monitoring objects and instances in TLV,
+ * JSON and SenML CBOR, and a series of 500 timestamped samples of a sensor value in JSON and SenML CBOR (see
+ * {@link CodecFixtures}). The nodes are encoded and decoded through the default encoder and decoder, as for requests
+ * and responses.
+ * <p>
+ * The payload sizes are printed by the setup. Run it with the GC profiler (<code>-prof gc</code>) to get the
+ * allocation per encoded or decoded payload (<code>gc.alloc.rate.norm</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentFormatBenchmark {
+
+    private static final int SAMPLES = 500;
+
+    private static final LwM2mModel MODEL = CodecFixtures.model();
+    private static final LwM2mNodeEncoder ENCODER = new DefaultLwM2mNodeEncoder();
+    private static final LwM2mNodeDecoder DECODER = new DefaultLwM2mNodeDecoder();
+
+    @State(Scope.Benchmark)
+    public static class NodeState {
+
+        @Param({ "/3/0", "/4/0", "/3", "/4" })
+        private String node;
+
+        @Param({ "TLV", "JSON", "SENML_CBOR" })
+        private String nodeFormat;
+
+        private ContentFormat format;
+        private LwM2mPath path;
+        private LwM2mNode value;
+        private byte[] content;
+
+        @Setup
+        public void setup() throws CodecException {
+            format = ContentFormat.fromName(nodeFormat);
+            path = new LwM2mPath(node);
+            value = CodecFixtures.node(node);
+            content = ENCODER.encode(value, format, path, MODEL);
+            System.out.printf("%n%s %s: %d bytes%n", format.getName(), node, content.length);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SamplesState {
+
+        @Param({ "JSON", "SENML_CBOR" })
+        private String samplesFormat;
+
+        private ContentFormat format;
+        private LwM2mPath path;
+        private List<TimestampedLwM2mNode> samples;
+        private byte[] content;
+
+        @Setup
+        public void setup() throws CodecException {
+            format = ContentFormat.fromName(samplesFormat);
+            path = new LwM2mPath(3303, 0, 5700);
+            samples = CodecFixtures.temperatureSamples(SAMPLES);
+            content = ENCODER.encodeTimestampedData(samples, format, path, MODEL);
+            System.out.printf("%n%s %d timestamped samples: %d bytes%n", format.getName(), SAMPLES, content.length);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeNode(NodeState state) throws CodecException {
+        return ENCODER.encode(state.value, state.format, state.path, MODEL);
+    }
+
+    @Benchmark
+    public LwM2mNode decodeNode(NodeState state) throws CodecException {
+        return DECODER.decode(state.content, state.format, state.path, MODEL);
+    }
+
+    @Benchmark
+    public byte[] encodeTimestampedSamples(SamplesState state) throws CodecException {
+        return ENCODER.encodeTimestampedData(state.samples, state.format, state.path, MODEL);
+    }
+
+    @Benchmark
+    public List<TimestampedLwM2mNode> decodeTimestampedSamples(SamplesState state) throws CodecException {
+        return DECODER.decodeTimestampedData(state.content, state.format, state.path, MODEL);
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.json.LwM2mNodeJsonEncoder;
+import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvDecoder;
+import org.eclipse.leshan.util.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes in LWM2M JSON a device object instance (<code>/3/0</code>, 15 resources) and a series of 500 timestamped
+ * samples of a sensor value (<code>/3303/0/5700</code>).
+ * <p>
+ * Run it with the GC profiler (<code>-prof gc</code>) to get the allocation per encoded document
+ * (<code>gc.alloc.rate.norm</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonEncoderBenchmark {
+
+    private static final int SAMPLES = 500;
+
+    private LwM2mModel model;
+    private LwM2mValueConverter converter;
+    private LwM2mPath instancePath;
+    private LwM2mObjectInstance instance;
+    private LwM2mPath samplesPath;
+    private List<TimestampedLwM2mNode> samples;
+
+    @Setup
+    public void setup() throws CodecException {
+        model = new LwM2mModel(ObjectLoader.loadDefault());
+        converter = new DefaultLwM2mValueConverter();
+        instancePath = new LwM2mPath(3, 0);
+        instance = LwM2mNodeTlvDecoder.decode(Hex.decodeHex(TlvDecoderBenchmark.DEVICE_INSTANCE.toCharArray()),
+                instancePath, model, LwM2mObjectInstance.class);
+
+        samplesPath = new LwM2mPath(3303, 0, 5700);
+        samples = CodecFixtures.temperatureSamples(SAMPLES);
+    }
+
+    @Benchmark
+    public byte[] encodeObjectInstance() throws CodecException {
+        return LwM2mNodeJsonEncoder.encode(instance, instancePath, model, converter);
+    }
+
+    @Benchmark
+    public byte[] encodeTimestampedSamples() throws CodecException {
+        return LwM2mNodeJsonEncoder.encodeTimestampedData(samples, samplesPath, model, converter);
+    }
+}
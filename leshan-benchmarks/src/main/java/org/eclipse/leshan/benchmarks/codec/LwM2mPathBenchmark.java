@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses and formats {@link LwM2mPath}s, as done for each request target, each observation and each name of a JSON
+ * entry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LwM2mPathBenchmark {
+
+    @Param({ "/3", "/3/0/13", "/3303/0/5700/0" })
+    private String path;
+
+    private LwM2mPath lwm2mPath;
+
+    @Setup
+    public void setup() {
+        lwm2mPath = new LwM2mPath(path);
+    }
+
+    @Benchmark
+    public LwM2mPath parse() {
+        return new LwM2mPath(path);
+    }
+
+    @Benchmark
+    public String format() {
+        return lwm2mPath.toString();
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvDecoder;
+import org.eclipse.leshan.tlv.Tlv;
+import org.eclipse.leshan.tlv.Tlv.TlvType;
+import org.eclipse.leshan.tlv.TlvDecoder;
+import org.eclipse.leshan.tlv.TlvException;
+import org.eclipse.leshan.tlv.TlvReader;
+import org.eclipse.leshan.util.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes the TLV content of a device object instance (<code>/3/0</code>, 15 resources).
+ * <p>
+ * Run it with the GC profiler (<code>-prof gc</code>) to get the allocation per decoded instance
+ * (<code>gc.alloc.rate.norm</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TlvDecoderBenchmark {
+
+    static final String DEVICE_INSTANCE = "C800144F70656E204D6F62696C6520416C6C69616E6365C801164C6967687477"
+            + "6569676874204D324D20436C69656E74C80209333435303030313233C303312E30860641000141010588070842000ED84201138887"
+            + "0841007D42010384C10964C10A0F830B410000C40D5182428FC60E2B30323A3030C10F55";
+
+    private LwM2mModel model;
+    private LwM2mPath path;
+    private byte[] content;
+
+    @Setup
+    public void setup() {
+        model = new LwM2mModel(ObjectLoader.loadDefault());
+        path = new LwM2mPath(3, 0);
+        content = Hex.decodeHex(DEVICE_INSTANCE.toCharArray());
+    }
+
+    /**
+     * Builds the {@link Tlv} tree of the instance.
+     */
+    @Benchmark
+    public Tlv[] decodeTlvTree() throws TlvException {
+        return TlvDecoder.decode(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Visits the TLVs of the instance, without building a tree.
+     */
+    @Benchmark
+    public int readTlv() throws TlvException {
+        return read(new TlvReader(ByteBuffer.wrap(content)));
+    }
+
+    /**
+     * Decodes the instance node, as done for a read response.
+     */
+    @Benchmark
+    public LwM2mObjectInstance decodeObjectInstance() throws CodecException {
+        return LwM2mNodeTlvDecoder.decode(content, path, model, LwM2mObjectInstance.class);
+    }
+
+    private static int read(TlvReader reader) throws TlvException {
+        int sum = 0;
+        while (reader.next()) {
+            sum += reader.getIdentifier();
+            if (reader.getType() == TlvType.MULTIPLE_RESOURCE || reader.getType() == TlvType.OBJECT_INSTANCE) {
+                reader.enter();
+                sum += read(reader);
+                reader.exit();
+            } else {
+                sum += reader.getValueLength();
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.codec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.tlv.TlvDecoder;
+import org.eclipse.leshan.tlv.TlvException;
+import org.eclipse.leshan.util.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes a TLV value of each scalar type, from a byte array or in place. Run it with the GC profiler (<code>-prof gc</code>) to get the allocation
+ * per decoded value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TlvValueDecoderBenchmark {
+
+    @Param({ "STRING", "INTEGER", "FLOAT", "BOOLEAN", "TIME", "OBJLNK" })
+    public Type type;
+
+    private byte[] value;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        String hex;
+        switch (type) {
+        case STRING:
+            hex = "4F70656E204D6F62696C6520416C6C69616E6365"; // "Open Mobile Alliance"
+            break;
+        case INTEGER:
+            hex = "0001E240"; // 123456
+            break;
+        case FLOAT:
+            hex = "40091EB851EB851F"; // 3.14
+            break;
+        case BOOLEAN:
+            hex = "01";
+            break;
+        case TIME:
+            hex = "5182428F";
+            break;
+        case OBJLNK:
+            hex = "0D050001";
+            break;
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+        value = Hex.decodeHex(hex.toCharArray());
+        buffer = ByteBuffer.wrap(value);
+    }
+
+    /**
+     * Decodes a byte array, as the value of a {@link org.eclipse.leshan.tlv.Tlv}.
+     */
+    @Benchmark
+    public Object decodeArray() throws TlvException {
+        switch (type) {
+        case STRING:
+            return TlvDecoder.decodeString(value);
+        case INTEGER:
+            return TlvDecoder.decodeInteger(value).longValue();
+        case FLOAT:
+            return TlvDecoder.decodeFloat(value).doubleValue();
+        case BOOLEAN:
+            return TlvDecoder.decodeBoolean(value);
+        case TIME:
+            return TlvDecoder.decodeDate(value);
+        case OBJLNK:
+            return TlvDecoder.decodeObjlnk(value);
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+
+    /**
+     * Decodes the value in place, as read by a {@link org.eclipse.leshan.tlv.TlvReader}.
+     */
+    @Benchmark
+    public Object decodeBuffer() throws TlvException {
+        switch (type) {
+        case STRING:
+            return TlvDecoder.decodeString(buffer, 0, value.length);
+        case INTEGER:
+            return TlvDecoder.decodeLong(buffer, 0, value.length);
+        case FLOAT:
+            return TlvDecoder.decodeFloat(buffer, 0, value.length);
+        case BOOLEAN:
+            return TlvDecoder.decodeBoolean(buffer, 0, value.length);
+        case TIME:
+            return TlvDecoder.decodeDate(buffer, 0, value.length);
+        case OBJLNK:
+            return TlvDecoder.decodeObjlnk(buffer, 0, value.length);
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.registration;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.californium.impl.InMemoryRegistrationStore;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the {@link InMemoryRegistrationStore} lookups which are done on each registration update,
+ * de-registration and observation. The cost of a lookup should not depend on the number of registrations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InMemoryRegistrationStoreBenchmark {
+
+    @Param({ "1000", "10000", "100000", "300000" })
+    public int size;
+
+    private InMemoryRegistrationStore store;
+    private Registration[] registrations;
+    private InetSocketAddress[] addresses;
+
+    @Setup
+    public void setup() {
+        store = new InMemoryRegistrationStore();
+        registrations = Registrations.create(size);
+        addresses = new InetSocketAddress[size];
+        for (int i = 0; i < size; i++) {
+            store.addRegistration(registrations[i]);
+            addresses[i] = new InetSocketAddress(registrations[i].getAddress(), registrations[i].getPort());
+        }
+    }
+
+    @Benchmark
+    public Registration getRegistration() {
+        return store.getRegistration(registrations[ThreadLocalRandom.current().nextInt(size)].getId());
+    }
+
+    @Benchmark
+    public Registration getRegistrationByAdress() {
+        return store.getRegistrationByAdress(addresses[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    @Benchmark
+    public Registration getRegistrationByEndpoint() {
+        return store.getRegistrationByEndpoint(registrations[ThreadLocalRandom.current().nextInt(size)].getEndpoint());
+    }
+
+    @Benchmark
+    public Object updateRegistration() {
+        Registration r = registrations[ThreadLocalRandom.current().nextInt(size)];
+        return store.updateRegistration(
+                new RegistrationUpdate(r.getId(), r.getAddress(), r.getPort(), null, null, null, null));
+    }
+}
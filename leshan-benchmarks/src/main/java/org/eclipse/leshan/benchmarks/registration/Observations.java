@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.registration;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.server.californium.impl.CoapRequestBuilder;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Fixtures for observation benchmarks.
+ */
+public class Observations {
+
+    private static final AtomicLong TOKEN = new AtomicLong();
+
+    /**
+     * Creates a Californium observation of the given path for the given registration, with a unique token.
+     */
+    public static Observation create(Registration registration, String path) {
+        LwM2mPath target = new LwM2mPath(path);
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(ByteBuffer.allocate(8).putLong(TOKEN.incrementAndGet()).array());
+        coapRequest.getOptions().setUriPath(target.toString());
+        coapRequest.setObserve();
+        coapRequest.setDestination(registration.getAddress());
+        coapRequest.setDestinationPort(registration.getPort());
+
+        Map<String, String> context = new HashMap<>();
+        context.put(CoapRequestBuilder.CTX_ENDPOINT, registration.getEndpoint());
+        context.put(CoapRequestBuilder.CTX_REGID, registration.getId());
+        context.put(CoapRequestBuilder.CTX_LWM2M_PATH, target.toString());
+        coapRequest.setUserContext(context);
+
+        return new Observation(coapRequest, null);
+    }
+}
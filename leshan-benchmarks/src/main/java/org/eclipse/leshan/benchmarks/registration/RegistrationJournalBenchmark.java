@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.registration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.californium.impl.InMemoryRegistrationStore;
+import org.eclipse.leshan.server.californium.impl.RegistrationJournal;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the overhead of the {@link RegistrationJournal} on registration updates: without journal, with a journal
+ * written to the file system and with a journal forced to the storage device on each update.
+ * <p>
+ * The journal is written in the default temporary directory, use <code>-Djava.io.tmpdir</code> to select the
+ * device.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationJournalBenchmark {
+
+    @Param({ "none", "journal", "journal-sync" })
+    public String persistence;
+
+    @Param({ "100000" })
+    public int size;
+
+    private File directory;
+    private InMemoryRegistrationStore store;
+    private Registration[] registrations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        RegistrationJournal journal = null;
+        if (!"none".equals(persistence)) {
+            directory = Files.createTempDirectory("leshan-journal").toFile();
+            // no compaction during the measurement
+            journal = new RegistrationJournal(directory, Integer.MAX_VALUE, "journal-sync".equals(persistence));
+        }
+        store = new InMemoryRegistrationStore(Executors.newSingleThreadScheduledExecutor(), 3600, 0, journal);
+        store.start();
+
+        registrations = Registrations.create(size);
+        for (int i = 0; i < size; i++) {
+            store.addRegistration(registrations[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.stop();
+        if (directory != null) {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public Object updateRegistration() {
+        Registration r = registrations[ThreadLocalRandom.current().nextInt(size)];
+        return store.updateRegistration(
+                new RegistrationUpdate(r.getId(), r.getAddress(), r.getPort(), null, null, null, null));
+    }
+}
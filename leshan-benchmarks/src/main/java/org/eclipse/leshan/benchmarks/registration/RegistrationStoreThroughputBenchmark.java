@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.registration;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.californium.CaliforniumRegistrationStore;
+import org.eclipse.leshan.server.californium.impl.ConcurrentInMemoryRegistrationStore;
+import org.eclipse.leshan.server.californium.impl.InMemoryRegistrationStore;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the registration stores when they are used by several threads, as during a registration
+ * storm: registration updates on random endpoints while Californium looks up observations for incoming notifications.
+ * <p>
+ * The number of threads can be changed with the JMH <code>-t</code> option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationStoreThroughputBenchmark {
+
+    @Param({ "InMemoryRegistrationStore", "ConcurrentInMemoryRegistrationStore" })
+    public String store;
+
+    @Param({ "100000" })
+    public int size;
+
+    private CaliforniumRegistrationStore registrationStore;
+    private Registration[] registrations;
+    private byte[][] tokens;
+
+    @Setup
+    public void setup() {
+        switch (store) {
+        case "InMemoryRegistrationStore":
+            registrationStore = new InMemoryRegistrationStore();
+            break;
+        case "ConcurrentInMemoryRegistrationStore":
+            registrationStore = new ConcurrentInMemoryRegistrationStore();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown store " + store);
+        }
+
+        registrations = Registrations.create(size);
+        tokens = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            registrationStore.addRegistration(registrations[i]);
+            org.eclipse.californium.core.observe.Observation observation = Observations
+                    .create(registrations[i], "/3/0/13");
+            registrationStore.add(observation);
+            tokens[i] = observation.getRequest().getToken();
+        }
+    }
+
+    private Registration randomRegistration() {
+        return registrations[ThreadLocalRandom.current().nextInt(size)];
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object updateRegistration() {
+        Registration r = randomRegistration();
+        return registrationStore.updateRegistration(
+                new RegistrationUpdate(r.getId(), r.getAddress(), r.getPort(), null, null, null, null));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object getObservation() {
+        return registrationStore.get(tokens[ThreadLocalRandom.current().nextInt(size)]);
+    }
+
+    /* Registration updates and notifications at the same time */
+
+    @Benchmark
+    @Group("updatesAndNotifications")
+    @GroupThreads(4)
+    public Object updates() {
+        return updateRegistration();
+    }
+
+    @Benchmark
+    @Group("updatesAndNotifications")
+    @GroupThreads(4)
+    public Object notifications() {
+        return getObservation();
+    }
+
+    /* Registrations and address lookups (as done for DTLS sessions) at the same time */
+
+    @Benchmark
+    @Group("registrationsAndLookups")
+    @GroupThreads(4)
+    public Object registrations() {
+        return registrationStore.addRegistration(randomRegistration());
+    }
+
+    @Benchmark
+    @Group("registrationsAndLookups")
+    @GroupThreads(4)
+    public Object lookups() {
+        Registration r = randomRegistration();
+        return registrationStore.getRegistrationByAdress(new InetSocketAddress(r.getAddress(), r.getPort()));
+    }
+}
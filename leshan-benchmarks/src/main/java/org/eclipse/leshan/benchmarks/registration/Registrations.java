@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.benchmarks.registration;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * Fixtures for registration benchmarks.
+ */
+public class Registrations {
+
+    private static final InetSocketAddress SERVER_ADDRESS = InetSocketAddress.createUnresolved("localhost", 5683);
+
+    private static final String OBJECT_LINKS = "</>;rt=\"oma.lwm2m\",</1/0>,</3/0>,</4/0>,</5/0>,</6/0>,</7/0>,"
+            + "</3303/0>,</3303/1>,</3304/0>,</3311/0>,</3311/1>";
+
+    /**
+     * Creates <code>count</code> registrations with distinct endpoints, registration ids and socket addresses.
+     */
+    public static Registration[] create(int count) {
+        Link[] objectLinks = Link.parse(OBJECT_LINKS.getBytes(StandardCharsets.UTF_8));
+        Registration[] registrations = new Registration[count];
+        for (int i = 0; i < count; i++) {
+            registrations[i] = new Registration.Builder("regid" + i, "urn:imei:" + (100000000000000L + i),
+                    address(i), 5683 + i % 50000, SERVER_ADDRESS).lifeTimeInSec(86400L)
+                            .bindingMode(BindingMode.U).objectLinks(objectLinks).build();
+        }
+        return registrations;
+    }
+
+    private static InetAddress address(int i) {
+        try {
+            return InetAddress.getByAddress(new byte[] { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i });
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.cbor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A cursor over CBOR data items (RFC 7049), in the manner of {@link org.eclipse.leshan.tlv.TlvReader}.
+ * <p>
+ * {@link #next()} reads the next data item. The items of an array or a map follow it: they are read by the next calls
+ * of {@link #next()}, or skipped with {@link #skip()}. A map item is a key followed by its value.
+ * 
+ * <pre>
+ * CborReader reader = new CborReader(buffer);
+ * reader.next(); // an array
+ * for (int i = 0; i < reader.getLength(); i++) {
+ *     reader.next(); // an item, a text string: reader.getText()
+ * }
+ * </pre>
+ * 
+ * Indefinite length arrays and maps end with a {@link CborType#BREAK} item. Tags are ignored and indefinite length
+ * strings are not supported. The reader uses absolute reads only, the position of the buffer is never changed. A
+ * reader is not thread-safe.
+ */
+public class CborReader {
+
+    public enum CborType {
+        UNSIGNED_INTEGER, NEGATIVE_INTEGER, BYTE_STRING, TEXT_STRING, ARRAY, MAP, FALSE, TRUE, NULL, UNDEFINED, FLOAT,
+        BREAK
+    }
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    // the position of the next data item
+    private int position;
+
+    // the current data item
+    private CborType type;
+    private long argument;
+    private boolean indefinite;
+    private int valueOffset;
+    private double floatValue;
+
+    /**
+     * Creates a reader of the data items between the position and the limit of the buffer.
+     */
+    public CborReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.end = buffer.limit();
+        this.position = start;
+    }
+
+    /**
+     * @return <code>true</code> if there is a data item after the current one.
+     */
+    public boolean hasNext() {
+        return position < end;
+    }
+
+    /**
+     * Moves to the next data item.
+     * 
+     * @return the type of the data item.
+     * @throws CborException if the data item is invalid or truncated.
+     */
+    public CborType next() throws CborException {
+        int offset = position;
+        int initialByte;
+        int majorType;
+        int info;
+        // skip the tags
+        do {
+            if (offset >= end) {
+                throw error("Unexpected end of content", offset);
+            }
+            initialByte = buffer.get(offset++) & 0xFF;
+            majorType = initialByte >>> 5;
+            info = initialByte & 0x1F;
+            offset = readArgument(offset, info);
+        } while (majorType == 6);
+
+        indefinite = info == 31;
+        switch (majorType) {
+        case 0:
+            type = checkDefinite(CborType.UNSIGNED_INTEGER);
+            break;
+        case 1:
+            type = checkDefinite(CborType.NEGATIVE_INTEGER);
+            break;
+        case 2:
+        case 3:
+            if (indefinite) {
+                throw error("Indefinite length strings are not supported", position);
+            }
+            if (argument < 0 || argument > end - offset) {
+                throw error("Invalid string length", position);
+            }
+            type = majorType == 2 ? CborType.BYTE_STRING : CborType.TEXT_STRING;
+            valueOffset = offset;
+            offset += (int) argument;
+            break;
+        case 4:
+        case 5:
+            if (!indefinite && (argument < 0 || argument > Integer.MAX_VALUE)) {
+                throw error("Invalid size", position);
+            }
+            type = majorType == 4 ? CborType.ARRAY : CborType.MAP;
+            break;
+        default:
+            type = simpleValue(info);
+            break;
+        }
+        position = offset;
+        return type;
+    }
+
+    /**
+     * Skips the items of the current array or map, the next data item is the one which follows them. Nothing is done
+     * for the other types.
+     * 
+     * @throws CborException if an item is invalid or truncated.
+     */
+    public void skip() throws CborException {
+        if (type != CborType.ARRAY && type != CborType.MAP) {
+            return;
+        }
+        long items = type == CborType.MAP ? argument * 2 : argument;
+        if (indefinite) {
+            while (next() != CborType.BREAK) {
+                skip();
+            }
+        } else {
+            for (long i = 0; i < items; i++) {
+                next();
+                skip();
+            }
+        }
+    }
+
+    /**
+     * @return the type of the current data item, <code>null</code> before the first one.
+     */
+    public CborType getType() {
+        return type;
+    }
+
+    /**
+     * @return <code>true</code> if the current array or map has an indefinite length.
+     */
+    public boolean isIndefinite() {
+        return indefinite;
+    }
+
+    /**
+     * @return the size of the current array or map, or the number of bytes of the current string. It is
+     *         <code>-1</code> for an indefinite length array or map.
+     */
+    public int getLength() {
+        return indefinite ? -1 : (int) argument;
+    }
+
+    /**
+     * @return the value of the current integer.
+     * @throws CborException if it does not fit in a long.
+     */
+    public long getLong() throws CborException {
+        if (type != CborType.UNSIGNED_INTEGER && type != CborType.NEGATIVE_INTEGER) {
+            throw new IllegalStateException("The current data item is not an integer but " + type);
+        }
+        if (argument < 0) {
+            throw error("Integer too large", position);
+        }
+        return type == CborType.UNSIGNED_INTEGER ? argument : -1 - argument;
+    }
+
+    /**
+     * @return the value of the current float, half, single or double precision.
+     */
+    public double getDouble() {
+        if (type != CborType.FLOAT) {
+            throw new IllegalStateException("The current data item is not a float but " + type);
+        }
+        return floatValue;
+    }
+
+    /**
+     * @return the UTF-8 decoded value of the current text string.
+     */
+    public String getText() {
+        if (type != CborType.TEXT_STRING) {
+            throw new IllegalStateException("The current data item is not a text string but " + type);
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + valueOffset, (int) argument,
+                    StandardCharsets.UTF_8);
+        }
+        return new String(copyValue(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a copy of the current byte string.
+     */
+    public byte[] getBytes() {
+        if (type != CborType.BYTE_STRING) {
+            throw new IllegalStateException("The current data item is not a byte string but " + type);
+        }
+        return copyValue();
+    }
+
+    /* *************** Low level reading **************** */
+
+    // reads the argument following the initial byte, returns the offset after it
+    private int readArgument(int offset, int info) throws CborException {
+        int length;
+        if (info < 24) {
+            argument = info;
+            return offset;
+        } else if (info == 24) {
+            length = 1;
+        } else if (info == 25) {
+            length = 2;
+        } else if (info == 26) {
+            length = 4;
+        } else if (info == 27) {
+            length = 8;
+        } else if (info == 31) {
+            argument = 0;
+            return offset;
+        } else {
+            throw error("Invalid additional information", offset - 1);
+        }
+
+        if (offset + length > end) {
+            throw error("Unexpected end of content", offset - 1);
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer.get(offset + i) & 0xFF);
+        }
+        argument = value;
+        return offset + length;
+    }
+
+    private CborType checkDefinite(CborType type) throws CborException {
+        if (indefinite) {
+            throw error("Invalid additional information", position);
+        }
+        return type;
+    }
+
+    private CborType simpleValue(int info) throws CborException {
+        switch (info) {
+        case 20:
+            return CborType.FALSE;
+        case 21:
+            return CborType.TRUE;
+        case 22:
+            return CborType.NULL;
+        case 23:
+            return CborType.UNDEFINED;
+        case 25:
+            floatValue = halfToDouble((int) argument);
+            return CborType.FLOAT;
+        case 26:
+            floatValue = Float.intBitsToFloat((int) argument);
+            return CborType.FLOAT;
+        case 27:
+            floatValue = Double.longBitsToDouble(argument);
+            return CborType.FLOAT;
+        case 31:
+            return CborType.BREAK;
+        default:
+            throw error("Unsupported simple value", position);
+        }
+    }
+
+    // from the appendix D of the RFC 7049
+    private static double halfToDouble(int half) {
+        int exponent = (half >> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        double value;
+        if (exponent == 0) {
+            value = mantissa * Math.pow(2, -24);
+        } else if (exponent != 31) {
+            value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+        } else {
+            value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+    private byte[] copyValue() {
+        byte[] value = new byte[(int) argument];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + valueOffset, value, 0, value.length);
+        } else {
+            for (int i = 0; i < value.length; i++) {
+                value[i] = buffer.get(valueOffset + i);
+            }
+        }
+        return value;
+    }
+
+    private CborException error(String message, int offset) {
+        return new CborException(String.format("%s at index %d (CBOR content of %d bytes at index %d)", message,
+                offset, end - start, start));
+    }
+}
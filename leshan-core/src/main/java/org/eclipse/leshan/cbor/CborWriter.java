@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.cbor;
+
+import java.util.Arrays;
+
+/**
+ * Writes CBOR data items (RFC 7049) in a growable buffer. Arrays and maps have a definite length: their items are
+ * written after {@link #startArray(int)} or {@link #startMap(int)}, a map item being a key followed by its value.
+ * 
+ * <pre>
+ * writer.startMap(2);
+ * writer.writeInt(0);
+ * writer.writeText("9");
+ * writer.writeInt(2);
+ * writer.writeInt(95);
+ * </pre>
+ * 
+ * writes <code>A2 00 61 39 02 18 5F</code>. A writer is not thread-safe.
+ */
+public class CborWriter {
+
+    private static final int UNSIGNED_INTEGER = 0;
+    private static final int NEGATIVE_INTEGER = 1 << 5;
+    private static final int BYTE_STRING = 2 << 5;
+    private static final int TEXT_STRING = 3 << 5;
+    private static final int ARRAY = 4 << 5;
+    private static final int MAP = 5 << 5;
+
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int FLOAT32 = 0xFA;
+    private static final int FLOAT64 = 0xFB;
+
+    private byte[] bytes;
+    private int count;
+
+    public CborWriter() {
+        this(64);
+    }
+
+    /**
+     * @param capacity the initial size of the output buffer, it grows as needed.
+     */
+    public CborWriter(int capacity) {
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Starts an array of the given number of items.
+     */
+    public void startArray(int size) {
+        writeHead(ARRAY, size);
+    }
+
+    /**
+     * Starts a map of the given number of key/value pairs.
+     */
+    public void startMap(int size) {
+        writeHead(MAP, size);
+    }
+
+    public void writeInt(long value) {
+        if (value < 0) {
+            // -1 - n, without overflow for Long.MIN_VALUE
+            writeHead(NEGATIVE_INTEGER, ~value);
+        } else {
+            writeHead(UNSIGNED_INTEGER, value);
+        }
+    }
+
+    /**
+     * Writes a single precision float if it holds the same value, else a double precision float.
+     */
+    public void writeFloat(double value) {
+        float f = (float) value;
+        if (f == value || Double.isNaN(value)) {
+            ensureCapacity(5);
+            bytes[count++] = (byte) FLOAT32;
+            writeBits(Float.floatToIntBits(f), 4);
+        } else {
+            ensureCapacity(9);
+            bytes[count++] = (byte) FLOAT64;
+            writeBits(Double.doubleToLongBits(value), 8);
+        }
+    }
+
+    public void writeBoolean(boolean value) {
+        writeByte(value ? TRUE : FALSE);
+    }
+
+    public void writeNull() {
+        writeByte(NULL);
+    }
+
+    /**
+     * Writes a text string, encoded in UTF-8 as {@link String#getBytes(java.nio.charset.Charset)} does, without
+     * intermediate copy.
+     */
+    public void writeText(String value) {
+        int length = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (isSurrogatePair(value, i)) {
+                utf8Length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+
+        writeHead(TEXT_STRING, utf8Length);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[count++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[count++] = (byte) (0xC0 | (c >> 6));
+                bytes[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // malformed, replaced by '?' as String.getBytes() does
+                bytes[count++] = '?';
+            } else {
+                bytes[count++] = (byte) (0xE0 | (c >> 12));
+                bytes[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    public void writeByteString(byte[] value) {
+        writeHead(BYTE_STRING, value.length);
+        writeRaw(value);
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    /* *************** Low level writing **************** */
+
+    // the major type and the argument: a length, a size or an unsigned integer
+    private void writeHead(int majorType, long argument) {
+        if (argument >= 0 && argument < 24) {
+            writeByte(majorType | (int) argument);
+        } else if (argument >= 0 && argument <= 0xFF) {
+            ensureCapacity(2);
+            bytes[count++] = (byte) (majorType | 24);
+            bytes[count++] = (byte) argument;
+        } else if (argument >= 0 && argument <= 0xFFFF) {
+            ensureCapacity(3);
+            bytes[count++] = (byte) (majorType | 25);
+            writeBits(argument, 2);
+        } else if (argument >= 0 && argument <= 0xFFFFFFFFL) {
+            ensureCapacity(5);
+            bytes[count++] = (byte) (majorType | 26);
+            writeBits(argument, 4);
+        } else {
+            // a negative argument is an unsigned integer greater than Long.MAX_VALUE
+            ensureCapacity(9);
+            bytes[count++] = (byte) (majorType | 27);
+            writeBits(argument, 8);
+        }
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    // big endian
+    private void writeBits(long bits, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[count++] = (byte) (bits >> (8 * i));
+        }
+    }
+
+    private void writeRaw(byte[] value) {
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, bytes, count, value.length);
+        count += value.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + length));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.model;
+
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * An {@link ObjectModel} compiled for the codecs: its resource models (type, multiple, operations) are indexed by
+ * resource id in an array, to be found in constant time, without boxing the id nor hashing it.
+ * <p>
+ * It is immutable and built once for each object of a {@link LwM2mModel}, see
+ * {@link LwM2mModel#getCompiledObjectModel(int)}.
+ */
+public class CompiledObjectModel {
+
+    // above this span of resource ids, the array would be too sparse: the map of the object model is used
+    private static final int MAX_ID_SPAN = 4096;
+
+    public final ObjectModel objectModel;
+
+    private final int firstResourceId;
+    private final ResourceModel[] resources; // resources by ID - firstResourceId, null if the span is too large
+
+    public CompiledObjectModel(ObjectModel objectModel) {
+        Validate.notNull(objectModel);
+        this.objectModel = objectModel;
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (Integer resourceId : objectModel.resources.keySet()) {
+            min = Math.min(min, resourceId);
+            max = Math.max(max, resourceId);
+        }
+
+        if (objectModel.resources.isEmpty()) {
+            firstResourceId = 0;
+            resources = new ResourceModel[0];
+        } else if ((long) max - min < MAX_ID_SPAN) {
+            firstResourceId = min;
+            resources = new ResourceModel[max - min + 1];
+            for (ResourceModel resource : objectModel.resources.values()) {
+                resources[resource.id - min] = resource;
+            }
+        } else {
+            firstResourceId = 0;
+            resources = null;
+        }
+    }
+
+    /**
+     * @return the object identifier.
+     */
+    public int getId() {
+        return objectModel.id;
+    }
+
+    /**
+     * Returns the description of a given resource.
+     *
+     * @param resourceId the resource identifier
+     * @return the resource specification or <code>null</code> if not found
+     */
+    public ResourceModel getResourceModel(int resourceId) {
+        if (resources == null) {
+            return objectModel.resources.get(resourceId);
+        }
+        int index = resourceId - firstResourceId;
+        return index >= 0 && index < resources.length ? resources[index] : null;
+    }
+
+    /**
+     * @param resourceId the resource identifier
+     * @return the type of the resource or <code>null</code> if the resource is not found or has no type
+     */
+    public Type getResourceType(int resourceId) {
+        ResourceModel resource = getResourceModel(resourceId);
+        return resource != null ? resource.type : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompiledObjectModel [objectModel=%s]", objectModel);
+    }
+}
@@ -32,6 +32,7 @@ public class LwM2mModel {
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mModel.class);
 
     private final Map<Integer, ObjectModel> objects; // objects by ID
+    private final Map<Integer, CompiledObjectModel> compiledObjects; // compiled objects by ID
 
     public LwM2mModel(ObjectModel... objectModels) {
         this(Arrays.asList(objectModels));
@@ -40,6 +41,7 @@ public class LwM2mModel {
     public LwM2mModel(Collection<ObjectModel> objectModels) {
         if (objectModels == null) {
             objects = new HashMap<>();
+            compiledObjects = new HashMap<>();
         } else {
             Map<Integer, ObjectModel> map = new HashMap<>();
             for (ObjectModel model : objectModels) {
@@ -49,6 +51,12 @@ public class LwM2mModel {
                 }
             }
             objects = Collections.unmodifiableMap(map);
+
+            Map<Integer, CompiledObjectModel> compiledMap = new HashMap<>();
+            for (ObjectModel model : objects.values()) {
+                compiledMap.put(model.id, new CompiledObjectModel(model));
+            }
+            compiledObjects = Collections.unmodifiableMap(compiledMap);
         }
     }
 
@@ -60,9 +68,9 @@ public class LwM2mModel {
      * @return the resource specification or <code>null</code> if not found
      */
     public ResourceModel getResourceModel(int objectId, int resourceId) {
-        ObjectModel object = objects.get(objectId);
+        CompiledObjectModel object = compiledObjects.get(objectId);
         if (object != null) {
-            return object.resources.get(resourceId);
+            return object.getResourceModel(resourceId);
         }
         return null;
     }
@@ -77,6 +85,16 @@ public class LwM2mModel {
         return objects.get(objectId);
     }
 
+    /**
+     * Returns the compiled description of a given object, to find the descriptions of many of its resources.
+     *
+     * @param objectId the object identifier
+     * @return the compiled object definition or <code>null</code> if not found
+     */
+    public CompiledObjectModel getCompiledObjectModel(int objectId) {
+        return compiledObjects.get(objectId);
+    }
+
     /**
      * @return all the objects descriptions known.
      */
@@ -135,7 +135,17 @@ public class LwM2mPath {
      * @return a new path which is the concatenation of this path and the given one in parameter.
      */
     public LwM2mPath append(int end) {
-        return append(String.valueOf(end));
+        if (isRoot()) {
+            return new LwM2mPath(end);
+        } else if (isObject()) {
+            return new LwM2mPath(objectId, end);
+        } else if (isObjectInstance()) {
+            return new LwM2mPath(objectId, objectInstanceId, end);
+        } else if (isResource()) {
+            return new LwM2mPath(objectId, objectInstanceId, resourceId, end);
+        } else {
+            return append(String.valueOf(end));
+        }
     }
 
     /**
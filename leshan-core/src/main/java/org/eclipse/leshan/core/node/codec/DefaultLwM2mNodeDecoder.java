@@ -29,6 +29,7 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.json.LwM2mNodeJsonDecoder;
 import org.eclipse.leshan.core.node.codec.opaque.LwM2mNodeOpaqueDecoder;
+import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLCborDecoder;
 import org.eclipse.leshan.core.node.codec.text.LwM2mNodeTextDecoder;
 import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvDecoder;
 import org.eclipse.leshan.core.request.ContentFormat;
@@ -70,6 +71,8 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
             return LwM2mNodeJsonDecoder.decode(content, path, model, nodeClass);
+        case ContentFormat.SENML_CBOR_CODE:
+            return LwM2mNodeSenMLCborDecoder.decode(content, path, model, nodeClass);
         case ContentFormat.LINK_CODE:
             throw new CodecException("Content format %s not yet implemented [%s]", format, path);
         default:
@@ -99,6 +102,8 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
             return LwM2mNodeJsonDecoder.decodeTimestamped(content, path, model, nodeClassFromPath(path));
+        case ContentFormat.SENML_CBOR_CODE:
+            return LwM2mNodeSenMLCborDecoder.decodeTimestamped(content, path, model, nodeClassFromPath(path));
         case ContentFormat.LINK_CODE:
             throw new CodecException("Content format %s not yet implemented [%s]", format, path);
         default:
@@ -106,6 +111,35 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         }
     }
 
+    @Override
+    public void decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path, LwM2mModel model,
+            TimestampedLwM2mNodeHandler handler) throws CodecException {
+        Validate.notNull(handler);
+
+        // only the JSON and SenML CBOR contents can hold several time-stamped nodes
+        if (format != null) {
+            switch (format.getCode()) {
+            case ContentFormat.JSON_CODE:
+            case ContentFormat.OLD_JSON_CODE:
+                LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+                Validate.notNull(path);
+                LwM2mNodeJsonDecoder.decodeTimestamped(content, path, model, nodeClassFromPath(path), handler);
+                return;
+            case ContentFormat.SENML_CBOR_CODE:
+                LOG.debug("Decoding value for path {} and format {}: {}", path, format, content);
+                Validate.notNull(path);
+                LwM2mNodeSenMLCborDecoder.decodeTimestamped(content, path, model, nodeClassFromPath(path), handler);
+                return;
+            default:
+                break;
+            }
+        }
+
+        for (TimestampedLwM2mNode timestampedNode : decodeTimestampedData(content, format, path, model)) {
+            handler.onTimestampedNode(timestampedNode);
+        }
+    }
+
     private static List<TimestampedLwM2mNode> toTimestampedNodes(LwM2mNode node) {
         if (node == null)
             return Collections.emptyList();
@@ -135,6 +169,7 @@ public class DefaultLwM2mNodeDecoder implements LwM2mNodeDecoder {
         case ContentFormat.OPAQUE_CODE:
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
+        case ContentFormat.SENML_CBOR_CODE:
             return true;
         default:
             return false;
@@ -24,6 +24,7 @@ import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.json.LwM2mNodeJsonEncoder;
 import org.eclipse.leshan.core.node.codec.opaque.LwM2mNodeOpaqueEncoder;
+import org.eclipse.leshan.core.node.codec.senml.LwM2mNodeSenMLCborEncoder;
 import org.eclipse.leshan.core.node.codec.text.LwM2mNodeTextEncoder;
 import org.eclipse.leshan.core.node.codec.tlv.LwM2mNodeTlvEncoder;
 import org.eclipse.leshan.core.request.ContentFormat;
@@ -71,6 +72,9 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         case ContentFormat.OLD_JSON_CODE:
             encoded = LwM2mNodeJsonEncoder.encode(node, path, model, converter);
             break;
+        case ContentFormat.SENML_CBOR_CODE:
+            encoded = LwM2mNodeSenMLCborEncoder.encode(node, path, model, converter);
+            break;
         default:
             throw new CodecException("Cannot encode %s:%s with format %s.", path, node, format);
         }
@@ -93,6 +97,9 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         case ContentFormat.JSON_CODE:
             encoded = LwM2mNodeJsonEncoder.encodeTimestampedData(timestampedNodes, path, model, converter);
             break;
+        case ContentFormat.SENML_CBOR_CODE:
+            encoded = LwM2mNodeSenMLCborEncoder.encodeTimestampedData(timestampedNodes, path, model, converter);
+            break;
         default:
             throw new CodecException("Cannot encode timestampedNode with format %s. [%s]", format, path);
         }
@@ -110,6 +117,7 @@ public class DefaultLwM2mNodeEncoder implements LwM2mNodeEncoder {
         case ContentFormat.OPAQUE_CODE:
         case ContentFormat.JSON_CODE:
         case ContentFormat.OLD_JSON_CODE:
+        case ContentFormat.SENML_CBOR_CODE:
             return true;
         default:
             return false;
@@ -66,6 +66,24 @@ public interface LwM2mNodeDecoder {
     List<TimestampedLwM2mNode> decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path,
             LwM2mModel model) throws CodecException;
 
+    /**
+     * Deserializes a binary content into time-stamped {@link LwM2mNode}s given to the handler one by one, as soon as
+     * they are decoded. Large contents with many time-stamps are not fully decoded in memory.
+     * <p>
+     * The nodes are given in the order of the content: unlike
+     * {@link #decodeTimestampedData(byte[], ContentFormat, LwM2mPath, LwM2mModel)}, they are not ordered by time-stamp.
+     *
+     * @param content the content
+     * @param format the content format
+     * @param path the path of the node to build
+     * @param model the collection of supported object models
+     * @param handler the handler of the decoded time-stamped {@link LwM2mNode}s
+     * @exception CodecException if there payload is malformed. The nodes decoded before the error were already given to
+     *            the handler.
+     */
+    void decodeTimestampedData(byte[] content, ContentFormat format, LwM2mPath path, LwM2mModel model,
+            TimestampedLwM2mNodeHandler handler) throws CodecException;
+
     /**
      * return true is the given {@link ContentFormat} is supported
      */
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec;
+
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+
+/**
+ * Receives the time-stamped nodes of a content, one by one, while the content is decoded.
+ *
+ * @see LwM2mNodeDecoder#decodeTimestampedData(byte[], org.eclipse.leshan.core.request.ContentFormat,
+ *      org.eclipse.leshan.core.node.LwM2mPath, org.eclipse.leshan.core.model.LwM2mModel, TimestampedLwM2mNodeHandler)
+ */
+public interface TimestampedLwM2mNodeHandler {
+
+    /**
+     * Called for each decoded time-stamped node.
+     * 
+     * @param timestampedNode the decoded node
+     */
+    void onTimestampedNode(TimestampedLwM2mNode timestampedNode);
+}
@@ -15,6 +15,10 @@
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.json;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +31,7 @@ import java.util.Map.Entry;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
+import org.eclipse.leshan.core.model.CompiledObjectModel;
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ResourceModel;
 import org.eclipse.leshan.core.model.ResourceModel.Type;
@@ -39,6 +44,7 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.TimestampedLwM2mNodeHandler;
 import org.eclipse.leshan.json.JsonArrayEntry;
 import org.eclipse.leshan.json.JsonRootObject;
 import org.eclipse.leshan.json.LwM2mJson;
@@ -47,6 +53,12 @@ import org.eclipse.leshan.util.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonHandler;
+import com.eclipsesource.json.JsonParser;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+
 public class LwM2mNodeJsonDecoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeJsonDecoder.class);
@@ -80,6 +92,40 @@ public class LwM2mNodeJsonDecoder {
         }
     }
 
+    /**
+     * Decodes the time-stamped nodes of a JSON content as a stream: each node is given to the handler as soon as its
+     * entries are parsed, the whole content is never decoded in memory.
+     * <p>
+     * Consecutive entries with the same time are grouped in one node and the nodes are given in the order of the
+     * content. {@link #decodeTimestamped(byte[], LwM2mPath, LwM2mModel, Class)} groups all the entries with the same
+     * time and sorts the nodes, most recent first.
+     *
+     * @return the number of nodes given to the handler.
+     * @throws CodecException if the content is malformed, the nodes decoded before the error were already given to the
+     *         handler.
+     */
+    public static int decodeTimestamped(byte[] content, LwM2mPath path, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass, TimestampedLwM2mNodeHandler handler) throws CodecException {
+        if (content == null)
+            content = new byte[0];
+
+        try {
+            // the base name and the base time can follow the entries but they are needed to decode them
+            JsonRootObject root = scanRootMembers(content);
+            LwM2mPath baseName = extractAndValidateBaseName(root, path);
+            if (baseName == null)
+                baseName = path; // if no base name, use request path as base name
+
+            TimestampedNodeParser parser = new TimestampedNodeParser(path, baseName, root.getBaseTime(), model,
+                    nodeClass, handler);
+            new JsonParser(parser).parse(new InputStreamReader(new ByteArrayInputStream(content),
+                    StandardCharsets.UTF_8));
+            return parser.end();
+        } catch (ParseException | NumberFormatException | IOException e) {
+            throw new CodecException(e, "Unable to deserialize json [path:%s]", path);
+        }
+    }
+
     private static List<TimestampedLwM2mNode> parseJSON(JsonRootObject jsonObject, LwM2mPath path, LwM2mModel model,
             Class<? extends LwM2mNode> nodeClass) throws CodecException {
 
@@ -97,52 +143,8 @@ public class LwM2mNodeJsonDecoder {
         List<TimestampedLwM2mNode> timestampedNodes = new ArrayList<>();
         for (Entry<Long, Collection<JsonArrayEntry>> entryByTimestamp : jsonEntryByTimestamp.entrySet()) {
 
-            // Group JSON entry by instance
-            Map<Integer, Collection<JsonArrayEntry>> jsonEntryByInstanceId = groupJsonEntryByInstanceId(
-                    entryByTimestamp.getValue(), baseName);
-
             // Create lwm2m node
-            LwM2mNode node;
-            if (nodeClass == LwM2mObject.class) {
-                Collection<LwM2mObjectInstance> instances = new ArrayList<>();
-                for (Entry<Integer, Collection<JsonArrayEntry>> entryByInstanceId : jsonEntryByInstanceId.entrySet()) {
-                    Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(entryByInstanceId.getValue(),
-                            baseName, model);
-
-                    instances.add(new LwM2mObjectInstance(entryByInstanceId.getKey(), resourcesMap.values()));
-                }
-
-                node = new LwM2mObject(baseName.getObjectId(), instances);
-            } else if (nodeClass == LwM2mObjectInstance.class) {
-                // validate we have resources for only 1 instance
-                if (jsonEntryByInstanceId.size() != 1)
-                    throw new CodecException("One instance expected in the payload [path:%s]", path);
-
-                // Extract resources
-                Entry<Integer, Collection<JsonArrayEntry>> instanceEntry = jsonEntryByInstanceId.entrySet().iterator()
-                        .next();
-                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(instanceEntry.getValue(), baseName,
-                        model);
-
-                // Create instance
-                node = new LwM2mObjectInstance(instanceEntry.getKey(), resourcesMap.values());
-            } else if (nodeClass == LwM2mResource.class) {
-                // validate we have resources for only 1 instance
-                if (jsonEntryByInstanceId.size() > 1)
-                    throw new CodecException("Only one instance expected in the payload [path:%s]", path);
-
-                // Extract resources
-                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(
-                        jsonEntryByInstanceId.values().iterator().next(), baseName, model);
-
-                // validate there is only 1 resource
-                if (resourcesMap.size() != 1)
-                    throw new CodecException("One resource should be present in the payload [path:%s]", path);
-
-                node = resourcesMap.values().iterator().next();
-            } else {
-                throw new IllegalArgumentException("invalid node class: " + nodeClass);
-            }
+            LwM2mNode node = createNode(entryByTimestamp.getValue(), baseName, path, model, nodeClass);
 
             // compute time-stamp
             Long timestamp = computeTimestamp(jsonObject.getBaseTime(), entryByTimestamp.getKey());
@@ -155,6 +157,54 @@ public class LwM2mNodeJsonDecoder {
 
     }
 
+    private static LwM2mNode createNode(Collection<JsonArrayEntry> jsonEntries, LwM2mPath baseName, LwM2mPath path,
+            LwM2mModel model, Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        // Group JSON entry by instance
+        Map<Integer, Collection<JsonArrayEntry>> jsonEntryByInstanceId = groupJsonEntryByInstanceId(jsonEntries,
+                baseName);
+
+        // Create lwm2m node
+        if (nodeClass == LwM2mObject.class) {
+            Collection<LwM2mObjectInstance> instances = new ArrayList<>();
+            for (Entry<Integer, Collection<JsonArrayEntry>> entryByInstanceId : jsonEntryByInstanceId.entrySet()) {
+                Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(entryByInstanceId.getValue(),
+                        baseName, model);
+
+                instances.add(new LwM2mObjectInstance(entryByInstanceId.getKey(), resourcesMap.values()));
+            }
+
+            return new LwM2mObject(baseName.getObjectId(), instances);
+        } else if (nodeClass == LwM2mObjectInstance.class) {
+            // validate we have resources for only 1 instance
+            if (jsonEntryByInstanceId.size() != 1)
+                throw new CodecException("One instance expected in the payload [path:%s]", path);
+
+            // Extract resources
+            Entry<Integer, Collection<JsonArrayEntry>> instanceEntry = jsonEntryByInstanceId.entrySet().iterator()
+                    .next();
+            Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(instanceEntry.getValue(), baseName, model);
+
+            // Create instance
+            return new LwM2mObjectInstance(instanceEntry.getKey(), resourcesMap.values());
+        } else if (nodeClass == LwM2mResource.class) {
+            // validate we have resources for only 1 instance
+            if (jsonEntryByInstanceId.size() > 1)
+                throw new CodecException("Only one instance expected in the payload [path:%s]", path);
+
+            // Extract resources
+            Map<Integer, LwM2mResource> resourcesMap = extractLwM2mResources(
+                    jsonEntryByInstanceId.values().iterator().next(), baseName, model);
+
+            // validate there is only 1 resource
+            if (resourcesMap.size() != 1)
+                throw new CodecException("One resource should be present in the payload [path:%s]", path);
+
+            return resourcesMap.values().iterator().next();
+        } else {
+            throw new IllegalArgumentException("invalid node class: " + nodeClass);
+        }
+    }
+
     private static Long computeTimestamp(Long baseTime, Long time) {
         Long timestamp;
         if (baseTime != null) {
@@ -292,10 +342,13 @@ public class LwM2mNodeJsonDecoder {
         // Extract LWM2M resources from JSON resource list
         Map<Integer, LwM2mResource> lwM2mResourceMap = new HashMap<>();
         Map<LwM2mPath, Map<Integer, JsonArrayEntry>> multiResourceMap = new HashMap<>();
+        // the entries are usually all of the same object: its compiled model is looked up once
+        CompiledObjectModel objectModel = null;
         for (JsonArrayEntry resourceElt : jsonArrayEntries) {
 
             // Build resource path
             LwM2mPath nodePath = baseName.append(resourceElt.getName());
+            objectModel = getCompiledObjectModel(objectModel, nodePath, model);
 
             // handle LWM2M resources
             if (nodePath.isResourceInstance()) {
@@ -312,7 +365,7 @@ public class LwM2mNodeJsonDecoder {
                 multiResource.put(nodePath.getResourceInstanceId(), resourceElt);
             } else if (nodePath.isResource()) {
                 // Single resource
-                Type expectedType = getResourceType(nodePath, model, resourceElt);
+                Type expectedType = getResourceType(objectModel, nodePath, resourceElt);
                 LwM2mResource res = LwM2mSingleResource.newResource(nodePath.getResourceId(),
                         parseJsonValue(resourceElt.getResourceValue(), expectedType, nodePath), expectedType);
                 lwM2mResourceMap.put(nodePath.getResourceId(), res);
@@ -329,7 +382,8 @@ public class LwM2mNodeJsonDecoder {
             Map<Integer, JsonArrayEntry> jsonEntries = entry.getValue();
 
             if (jsonEntries != null && !jsonEntries.isEmpty()) {
-                Type expectedType = getResourceType(resourcePath, model, jsonEntries.values().iterator().next());
+                objectModel = getCompiledObjectModel(objectModel, resourcePath, model);
+                Type expectedType = getResourceType(objectModel, resourcePath, jsonEntries.values().iterator().next());
                 Map<Integer, Object> values = new HashMap<>();
                 for (Entry<Integer, JsonArrayEntry> e : jsonEntries.entrySet()) {
                     Integer resourceInstanceId = e.getKey();
@@ -386,11 +440,292 @@ public class LwM2mNodeJsonDecoder {
         }
     }
 
+    /* *************** Streaming decoding **************** */
+
+    /**
+     * Finds the base name and the base time of a JSON content, without parsing its entries.
+     */
+    private static JsonRootObject scanRootMembers(byte[] content) {
+        JsonRootObject root = new JsonRootObject();
+        int depth = 0;
+        for (int i = 0; i < content.length; i++) {
+            switch (content[i]) {
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                break;
+            case '"':
+                int end = skipString(content, i);
+                if (depth == 1) {
+                    // a member name is followed by its value
+                    int value = skipWhitespaces(content, end + 1);
+                    if (value < content.length && content[value] == ':') {
+                        value = skipWhitespaces(content, value + 1);
+                        if (isName(content, i, end, "bn")) {
+                            JsonValue bn = parseValue(content, value);
+                            if (bn != null && bn.isString())
+                                root.setBaseName(bn.asString());
+                        } else if (isName(content, i, end, "bt")) {
+                            JsonValue bt = parseValue(content, value);
+                            if (bt != null && bt.isNumber())
+                                root.setBaseTime(bt.asLong());
+                        }
+                    }
+                }
+                i = end;
+                break;
+            default:
+                break;
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the index of the closing quote of the string starting at the given index.
+     */
+    private static int skipString(byte[] content, int start) {
+        int i = start + 1;
+        while (i < content.length) {
+            if (content[i] == '\\') {
+                i += 2;
+            } else if (content[i] == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return content.length;
+    }
+
+    private static int skipWhitespaces(byte[] content, int start) {
+        int i = start;
+        while (i < content.length
+                && (content[i] == ' ' || content[i] == '\t' || content[i] == '\n' || content[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isName(byte[] content, int start, int end, String name) {
+        if (end - start - 1 != name.length())
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (content[start + 1 + i] != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses a string or a number value.
+     * 
+     * @return the value or <code>null</code> for an other kind of value.
+     */
+    private static JsonValue parseValue(byte[] content, int start) {
+        if (start >= content.length)
+            return null;
+
+        int end;
+        if (content[start] == '"') {
+            end = skipString(content, start) + 1;
+        } else {
+            end = start;
+            while (end < content.length && (content[end] >= '0' && content[end] <= '9' || content[end] == '-'
+                    || content[end] == '+' || content[end] == '.' || content[end] == 'e' || content[end] == 'E')) {
+                end++;
+            }
+        }
+        if (end == start || end > content.length)
+            return null;
+        return Json.parse(new String(content, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates the time-stamped nodes while the JSON content is parsed, the entries with the same time are kept until
+     * an entry with another time is parsed.
+     */
+    private static class TimestampedNodeParser extends JsonHandler<Object, Object> {
+
+        private final LwM2mPath path;
+        private final LwM2mPath baseName;
+        private final Long baseTime;
+        private final LwM2mModel model;
+        private final Class<? extends LwM2mNode> nodeClass;
+        private final TimestampedLwM2mNodeHandler handler;
+
+        // position in the content
+        private int depth;
+        private boolean rootObject;
+        private String rootMember;
+        private boolean inEntries;
+        private String entryMember;
+        private JsonArrayEntry entry;
+
+        // the entries of the next node
+        private final List<JsonArrayEntry> entries = new ArrayList<>();
+        private Long time;
+        private int count;
+
+        public TimestampedNodeParser(LwM2mPath path, LwM2mPath baseName, Long baseTime, LwM2mModel model,
+                Class<? extends LwM2mNode> nodeClass, TimestampedLwM2mNodeHandler handler) {
+            this.path = path;
+            this.baseName = baseName;
+            this.baseTime = baseTime;
+            this.model = model;
+            this.nodeClass = nodeClass;
+            this.handler = handler;
+        }
+
+        @Override
+        public Object startArray() {
+            depth++;
+            if (depth == 2 && rootObject && "e".equals(rootMember))
+                inEntries = true;
+            return null;
+        }
+
+        @Override
+        public void endArray(Object array) {
+            if (depth == 2)
+                inEntries = false;
+            depth--;
+        }
+
+        @Override
+        public Object startObject() {
+            depth++;
+            if (depth == 1) {
+                rootObject = true;
+            } else if (depth == 3 && inEntries) {
+                entry = new JsonArrayEntry();
+                entryMember = null;
+            }
+            return null;
+        }
+
+        @Override
+        public void endObject(Object object) {
+            if (depth == 3 && entry != null) {
+                addEntry(entry);
+                entry = null;
+            }
+            depth--;
+        }
+
+        @Override
+        public void startObjectValue(Object object, String name) {
+            if (depth == 1) {
+                rootMember = name;
+            } else if (depth == 3) {
+                entryMember = name;
+            }
+        }
+
+        @Override
+        public void endString(String value) {
+            if (depth != 3 || entry == null || entryMember == null)
+                return;
+
+            switch (entryMember) {
+            case "n":
+                entry.setName(value);
+                break;
+            case "sv":
+                entry.setStringValue(value);
+                break;
+            case "ov":
+                entry.setObjectLinkValue(value);
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public void endNumber(String value) {
+            if (depth != 3 || entry == null || entryMember == null)
+                return;
+
+            switch (entryMember) {
+            case "v":
+                entry.setFloatValue(Double.parseDouble(value));
+                break;
+            case "t":
+                entry.setTime(Long.parseLong(value));
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public void endBoolean(boolean value) {
+            if (depth == 3 && entry != null && "bv".equals(entryMember))
+                entry.setBooleanValue(value);
+        }
+
+        private void addEntry(JsonArrayEntry entry) {
+            // time null means 0, as when all the entries are grouped by time-stamp
+            if (!entries.isEmpty() && toLong(time) != toLong(entry.getTime()))
+                flush();
+
+            if (entries.isEmpty())
+                time = entry.getTime();
+            entries.add(entry);
+        }
+
+        private void flush() {
+            LwM2mNode node = createNode(entries, baseName, path, model, nodeClass);
+            handler.onTimestampedNode(new TimestampedLwM2mNode(computeTimestamp(baseTime, time), node));
+            entries.clear();
+            time = null;
+            count++;
+        }
+
+        /**
+         * Creates the last node, or an empty one if there is no entry.
+         * 
+         * @return the number of created nodes.
+         */
+        public int end() {
+            if (!rootObject)
+                throw new CodecException("Unable to deserialize json [path:%s]: a JSON object is expected", path);
+
+            if (!entries.isEmpty() || count == 0)
+                flush();
+            return count;
+        }
+
+        private static long toLong(Long time) {
+            return time == null ? 0 : time;
+        }
+    }
+
     public static Type getResourceType(LwM2mPath rscPath, LwM2mModel model, JsonArrayEntry resourceElt) {
+        return getResourceType(model.getCompiledObjectModel(rscPath.getObjectId()), rscPath, resourceElt);
+    }
+
+    private static CompiledObjectModel getCompiledObjectModel(CompiledObjectModel previous, LwM2mPath path,
+            LwM2mModel model) {
+        if (previous != null && previous.getId() == path.getObjectId()) {
+            return previous;
+        }
+        return model.getCompiledObjectModel(path.getObjectId());
+    }
+
+    private static Type getResourceType(CompiledObjectModel objectModel, LwM2mPath rscPath,
+            JsonArrayEntry resourceElt) {
         // Use model type in priority
-        ResourceModel rscDesc = model.getResourceModel(rscPath.getObjectId(), rscPath.getResourceId());
-        if (rscDesc != null && rscDesc.type != null)
-            return rscDesc.type;
+        if (objectModel != null) {
+            Type type = objectModel.getResourceType(rscPath.getResourceId());
+            if (type != null)
+                return type;
+        }
 
         // Then json type
         if (resourceElt != null) {
@@ -15,7 +15,6 @@
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.json;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map.Entry;
@@ -32,14 +31,15 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
-import org.eclipse.leshan.json.JsonArrayEntry;
-import org.eclipse.leshan.json.JsonRootObject;
-import org.eclipse.leshan.json.LwM2mJson;
+import org.eclipse.leshan.json.LwM2mJsonWriter;
 import org.eclipse.leshan.util.Base64;
 import org.eclipse.leshan.util.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * LWM2M JSON encoder for {@link LwM2mNode}. The document is written entry by entry while the node is visited.
+ */
 public class LwM2mNodeJsonEncoder {
 
     private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeJsonEncoder.class);
@@ -55,11 +55,10 @@ public class LwM2mNodeJsonEncoder {
         internalEncoder.model = model;
         internalEncoder.requestPath = path;
         internalEncoder.converter = converter;
+        internalEncoder.writer.startDocument(path.toString());
         node.accept(internalEncoder);
-        JsonRootObject jsonObject = new JsonRootObject();
-        jsonObject.setResourceList(internalEncoder.resourceList);
-        jsonObject.setBaseName(path.toString());
-        return LwM2mJson.toJsonLwM2m(jsonObject).getBytes();
+        internalEncoder.writer.endDocument();
+        return internalEncoder.writer.toByteArray();
     }
 
     public static byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, LwM2mPath path,
@@ -69,21 +68,17 @@ public class LwM2mNodeJsonEncoder {
         Validate.notNull(model);
 
         InternalEncoder internalEncoder = new InternalEncoder();
-        ArrayList<JsonArrayEntry> entries = new ArrayList<>();
+        internalEncoder.objectId = path.getObjectId();
+        internalEncoder.model = model;
+        internalEncoder.requestPath = path;
+        internalEncoder.converter = converter;
+        internalEncoder.writer.startDocument(path.toString());
         for (TimestampedLwM2mNode timestampedLwM2mNode : timestampedNodes) {
-            internalEncoder.objectId = path.getObjectId();
-            internalEncoder.model = model;
-            internalEncoder.requestPath = path;
-            internalEncoder.converter = converter;
-            internalEncoder.resourceList = null;
             internalEncoder.timestamp = timestampedLwM2mNode.getTimestamp();
             timestampedLwM2mNode.getNode().accept(internalEncoder);
-            entries.addAll(internalEncoder.resourceList);
         }
-        JsonRootObject jsonObject = new JsonRootObject();
-        jsonObject.setResourceList(entries);
-        jsonObject.setBaseName(path.toString());
-        return LwM2mJson.toJsonLwM2m(jsonObject).getBytes();
+        internalEncoder.writer.endDocument();
+        return internalEncoder.writer.toByteArray();
     }
 
     private static class InternalEncoder implements LwM2mNodeVisitor {
@@ -95,7 +90,7 @@ public class LwM2mNodeJsonEncoder {
         private LwM2mValueConverter converter;
 
         // visitor output
-        private ArrayList<JsonArrayEntry> resourceList = null;
+        private final LwM2mJsonWriter writer = new LwM2mJsonWriter();
 
         @Override
         public void visit(LwM2mObject object) {
@@ -106,11 +101,9 @@ public class LwM2mNodeJsonEncoder {
             }
 
             // Create resources
-            resourceList = new ArrayList<>();
             for (LwM2mObjectInstance instance : object.getInstances().values()) {
                 for (LwM2mResource resource : instance.getResources().values()) {
-                    String prefixPath = Integer.toString(instance.getId()) + "/" + Integer.toString(resource.getId());
-                    resourceList.addAll(lwM2mResourceToJsonArrayEntry(prefixPath, timestamp, resource));
+                    writeResource(instance.getId(), true, resource);
                 }
             }
         }
@@ -118,19 +111,15 @@ public class LwM2mNodeJsonEncoder {
         @Override
         public void visit(LwM2mObjectInstance instance) {
             LOG.trace("Encoding object instance {} into JSON", instance);
-            resourceList = new ArrayList<>();
             for (LwM2mResource resource : instance.getResources().values()) {
                 // Validate request path & compute resource path
-                String prefixPath;
                 if (requestPath.isObject()) {
-                    prefixPath = instance.getId() + "/" + resource.getId();
+                    writeResource(instance.getId(), true, resource);
                 } else if (requestPath.isObjectInstance()) {
-                    prefixPath = Integer.toString(resource.getId());
+                    writeResource(0, false, resource);
                 } else {
                     throw new CodecException("Invalid request path %s for JSON instance encoding", requestPath);
                 }
-                // Create resources
-                resourceList.addAll(lwM2mResourceToJsonArrayEntry(prefixPath, timestamp, resource));
             }
         }
 
@@ -141,83 +130,103 @@ public class LwM2mNodeJsonEncoder {
                 throw new CodecException("Invalid request path %s for JSON resource encoding", requestPath);
             }
 
-            resourceList = lwM2mResourceToJsonArrayEntry("", timestamp, resource);
+            writeResource(0, false, resource);
         }
 
-        private ArrayList<JsonArrayEntry> lwM2mResourceToJsonArrayEntry(String resourcePath, Long timestamp,
-                LwM2mResource resource) {
+        /**
+         * Writes the entries of a resource. Their name is relative to the request path: it starts with the instance id
+         * and the resource id for an object request, with the resource id for an object instance request.
+         *
+         * @param instanceId the instance id, only used with the resource id
+         * @param withIds <code>true</code> for the instance and the resource ids at the start of the name, else the
+         *        name starts with the resource id for an object instance request, and is empty for a resource request.
+         */
+        private void writeResource(int instanceId, boolean withIds, LwM2mResource resource) {
             // get type for this resource
             ResourceModel rSpec = model.getResourceModel(objectId, resource.getId());
             Type expectedType = rSpec != null ? rSpec.type : resource.getType();
-            ArrayList<JsonArrayEntry> resourcesList = new ArrayList<>();
+            boolean withResourceId = withIds || requestPath.isObjectInstance();
 
             // create JSON resource element
             if (resource.isMultiInstances()) {
                 for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
                     // compute resource instance path
-                    String resourceInstancePath;
-                    if (resourcePath == null || resourcePath.isEmpty()) {
-                        resourceInstancePath = Integer.toString(entry.getKey());
+                    writer.startEntry();
+                    LwM2mPath resourceInstancePath;
+                    if (withIds) {
+                        writer.appendName(instanceId);
+                        writer.appendName(resource.getId());
+                        writer.appendName(entry.getKey());
+                        resourceInstancePath = new LwM2mPath(instanceId, resource.getId(), entry.getKey());
+                    } else if (withResourceId) {
+                        writer.appendName(resource.getId());
+                        writer.appendName(entry.getKey());
+                        resourceInstancePath = new LwM2mPath(resource.getId(), entry.getKey());
                     } else {
-                        resourceInstancePath = resourcePath + "/" + entry.getKey();
+                        writer.appendName(entry.getKey());
+                        resourceInstancePath = new LwM2mPath(entry.getKey());
                     }
 
-                    // Create resource element
-                    JsonArrayEntry jsonResourceElt = new JsonArrayEntry();
-                    jsonResourceElt.setName(resourceInstancePath);
-                    jsonResourceElt.setTime(timestamp);
-
                     // Convert value using expected type
-                    LwM2mPath lwM2mResourceInstancePath = new LwM2mPath(resourceInstancePath);
                     Object convertedValue = converter.convertValue(entry.getValue(), resource.getType(), expectedType,
-                            lwM2mResourceInstancePath);
-                    this.setResourceValue(convertedValue, expectedType, jsonResourceElt, lwM2mResourceInstancePath);
-
-                    // Add it to the List
-                    resourcesList.add(jsonResourceElt);
+                            resourceInstancePath);
+                    writeValue(convertedValue, expectedType, resourceInstancePath);
+                    writeTime();
+                    writer.endEntry();
                 }
             } else {
-                // Create resource element
-                JsonArrayEntry jsonResourceElt = new JsonArrayEntry();
-                jsonResourceElt.setName(resourcePath);
-                jsonResourceElt.setTime(timestamp);
+                writer.startEntry();
+                LwM2mPath resourcePath;
+                if (withIds) {
+                    writer.appendName(instanceId);
+                    writer.appendName(resource.getId());
+                    resourcePath = new LwM2mPath(instanceId, resource.getId());
+                } else if (withResourceId) {
+                    writer.appendName(resource.getId());
+                    resourcePath = new LwM2mPath(resource.getId());
+                } else {
+                    resourcePath = LwM2mPath.ROOTPATH;
+                }
 
                 // Convert value using expected type
-                LwM2mPath lwM2mResourcePath = new LwM2mPath(resourcePath);
-                this.setResourceValue(converter.convertValue(resource.getValue(), resource.getType(), expectedType,
-                        lwM2mResourcePath), expectedType, jsonResourceElt, lwM2mResourcePath);
-
-                // Add it to the List
-                resourcesList.add(jsonResourceElt);
+                writeValue(converter.convertValue(resource.getValue(), resource.getType(), expectedType, resourcePath),
+                        expectedType, resourcePath);
+                writeTime();
+                writer.endEntry();
             }
-            return resourcesList;
         }
 
-        private void setResourceValue(Object value, Type type, JsonArrayEntry jsonResource, LwM2mPath resourcePath) {
+        private void writeValue(Object value, Type type, LwM2mPath resourcePath) {
             LOG.trace("Encoding value {} in JSON", value);
             // Following table 20 in the Specs
             switch (type) {
             case STRING:
-                jsonResource.setStringValue((String) value);
+                writer.stringValue((String) value);
                 break;
             case INTEGER:
             case FLOAT:
-                jsonResource.setFloatValue((Number) value);
+                writer.floatValue(((Number) value).doubleValue());
                 break;
             case BOOLEAN:
-                jsonResource.setBooleanValue((Boolean) value);
+                writer.booleanValue((Boolean) value);
                 break;
             case TIME:
                 // Specs device object example page 44, rec 13 is Time
                 // represented as float?
-                jsonResource.setFloatValue((((Date) value).getTime() / 1000L));
+                writer.floatValue((((Date) value).getTime() / 1000L));
                 break;
             case OPAQUE:
-                jsonResource.setStringValue(Base64.encodeBase64String((byte[]) value));
+                writer.stringValue(Base64.encodeBase64String((byte[]) value));
                 break;
             default:
                 throw new CodecException("Invalid value type %s for %s", type, resourcePath);
             }
         }
+
+        private void writeTime() {
+            if (timestamp != null) {
+                writer.time(timestamp);
+            }
+        }
     }
-}
\ No newline at end of file
+}
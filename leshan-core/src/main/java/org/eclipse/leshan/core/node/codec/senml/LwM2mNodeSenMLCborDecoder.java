@@ -0,0 +1,531 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+import static org.eclipse.leshan.core.node.codec.senml.SenMLCborLabels.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.leshan.cbor.CborException;
+import org.eclipse.leshan.cbor.CborReader;
+import org.eclipse.leshan.cbor.CborReader.CborType;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.TimestampedLwM2mNodeHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SenML CBOR decoder for {@link LwM2mNode}, see {@link LwM2mNodeSenMLCborEncoder} for the representation.
+ * <p>
+ * The name of a record is the concatenation of the base name and of its name, it must be a resource or a resource
+ * instance path under the requested path. The base name and the base time apply to the following records until they
+ * change. The type of a value is given by the model, or by its representation for the resources not described by the
+ * model. Unknown labels are ignored, unless they end with '_' (mandatory to understand).
+ */
+public class LwM2mNodeSenMLCborDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeSenMLCborDecoder.class);
+
+    @SuppressWarnings("unchecked")
+    public static <T extends LwM2mNode> T decode(byte[] content, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
+            throws CodecException {
+        List<TimestampedLwM2mNode> timestampedNodes = decodeTimestamped(content, path, model, nodeClass);
+        if (timestampedNodes.size() == 0) {
+            return null;
+        } else {
+            // return the most recent value
+            return (T) timestampedNodes.get(0).getNode();
+        }
+    }
+
+    /**
+     * Decodes the time-stamped nodes of a SenML CBOR content: the records with the same time are grouped in one node
+     * and the nodes are sorted, most recent first.
+     */
+    public static List<TimestampedLwM2mNode> decodeTimestamped(byte[] content, LwM2mPath path, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        LOG.trace("Parsing SenML CBOR content for path {}", path);
+        try {
+            // Group records by time-stamp
+            SortedMap<Long, List<Record>> recordsByTimestamp = new TreeMap<>(new Comparator<Long>() {
+                @Override
+                public int compare(Long o1, Long o2) {
+                    // time null means 0, most recent value in first
+                    return Long.compare(o2 == null ? 0 : o2, o1 == null ? 0 : o1);
+                }
+            });
+            RecordReader reader = new RecordReader(content, path);
+            Record record;
+            while ((record = reader.next()) != null) {
+                List<Record> records = recordsByTimestamp.get(record.timestamp);
+                if (records == null) {
+                    records = new ArrayList<>();
+                    recordsByTimestamp.put(record.timestamp, records);
+                }
+                records.add(record);
+            }
+
+            // Ensure there is at least one node
+            if (recordsByTimestamp.isEmpty()) {
+                recordsByTimestamp.put((Long) null, Collections.<Record> emptyList());
+            }
+
+            List<TimestampedLwM2mNode> timestampedNodes = new ArrayList<>(recordsByTimestamp.size());
+            for (Entry<Long, List<Record>> entry : recordsByTimestamp.entrySet()) {
+                timestampedNodes.add(new TimestampedLwM2mNode(entry.getKey(),
+                        createNode(entry.getValue(), path, model, nodeClass)));
+            }
+            return timestampedNodes;
+        } catch (CborException e) {
+            throw new CodecException(e, "Unable to decode SenML CBOR [path:%s]", path);
+        }
+    }
+
+    /**
+     * Decodes the time-stamped nodes of a SenML CBOR content as a stream: each node is given to the handler as soon as
+     * its records are read.
+     * <p>
+     * Consecutive records with the same time are grouped in one node and the nodes are given in the order of the
+     * content.
+     *
+     * @return the number of nodes given to the handler.
+     * @throws CodecException if the content is malformed, the nodes decoded before the error were already given to the
+     *         handler.
+     */
+    public static int decodeTimestamped(byte[] content, LwM2mPath path, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass, TimestampedLwM2mNodeHandler handler) throws CodecException {
+        LOG.trace("Parsing SenML CBOR content for path {}", path);
+        try {
+            int nodes = 0;
+            List<Record> records = new ArrayList<>();
+            Long timestamp = null;
+            RecordReader reader = new RecordReader(content, path);
+            Record record;
+            while ((record = reader.next()) != null) {
+                if (!records.isEmpty() && !sameTime(timestamp, record.timestamp)) {
+                    handler.onTimestampedNode(
+                            new TimestampedLwM2mNode(timestamp, createNode(records, path, model, nodeClass)));
+                    nodes++;
+                    records = new ArrayList<>();
+                }
+                if (records.isEmpty()) {
+                    timestamp = record.timestamp;
+                }
+                records.add(record);
+            }
+
+            // the last node, or an empty one for an empty content
+            if (!records.isEmpty() || nodes == 0) {
+                handler.onTimestampedNode(
+                        new TimestampedLwM2mNode(timestamp, createNode(records, path, model, nodeClass)));
+                nodes++;
+            }
+            return nodes;
+        } catch (CborException e) {
+            throw new CodecException(e, "Unable to decode SenML CBOR [path:%s]", path);
+        }
+    }
+
+    private static boolean sameTime(Long t1, Long t2) {
+        // time null means 0
+        return (t1 == null ? 0 : t1) == (t2 == null ? 0 : t2);
+    }
+
+    /* *************** Node building **************** */
+
+    private static LwM2mNode createNode(List<Record> records, LwM2mPath path, LwM2mModel model,
+            Class<? extends LwM2mNode> nodeClass) throws CodecException {
+        // Extract resources by instance id, in the order of the content
+        Map<Integer, Map<Integer, LwM2mResource>> resourcesByInstanceId = new LinkedHashMap<>();
+        Map<LwM2mPath, Map<Integer, Object>> multipleValues = new LinkedHashMap<>();
+        Map<LwM2mPath, Type> multipleTypes = new HashMap<>();
+        for (Record record : records) {
+            LwM2mPath nodePath = record.path;
+            if (nodePath.isResourceInstance()) {
+                // Multi-instance resource, built once all its values are known
+                LwM2mPath resourcePath = new LwM2mPath(nodePath.getObjectId(), nodePath.getObjectInstanceId(),
+                        nodePath.getResourceId());
+                Map<Integer, Object> values = multipleValues.get(resourcePath);
+                if (values == null) {
+                    values = new HashMap<>();
+                    multipleValues.put(resourcePath, values);
+                    multipleTypes.put(resourcePath, getResourceType(nodePath, model, record.type));
+                }
+                values.put(nodePath.getResourceInstanceId(), convertValue(record, multipleTypes.get(resourcePath)));
+            } else {
+                // Single resource
+                Type expectedType = getResourceType(nodePath, model, record.type);
+                resources(resourcesByInstanceId, nodePath.getObjectInstanceId()).put(nodePath.getResourceId(),
+                        LwM2mSingleResource.newResource(nodePath.getResourceId(), convertValue(record, expectedType),
+                                expectedType));
+            }
+        }
+        for (Entry<LwM2mPath, Map<Integer, Object>> entry : multipleValues.entrySet()) {
+            LwM2mPath resourcePath = entry.getKey();
+            resources(resourcesByInstanceId, resourcePath.getObjectInstanceId()).put(resourcePath.getResourceId(),
+                    LwM2mMultipleResource.newResource(resourcePath.getResourceId(), entry.getValue(),
+                            multipleTypes.get(resourcePath)));
+        }
+
+        // Create lwm2m node
+        if (nodeClass == LwM2mObject.class) {
+            List<LwM2mObjectInstance> instances = new ArrayList<>(resourcesByInstanceId.size());
+            for (Entry<Integer, Map<Integer, LwM2mResource>> entry : resourcesByInstanceId.entrySet()) {
+                instances.add(new LwM2mObjectInstance(entry.getKey(), entry.getValue().values()));
+            }
+            return new LwM2mObject(path.getObjectId(), instances);
+        } else if (nodeClass == LwM2mObjectInstance.class) {
+            // an empty instance if possible
+            if (resourcesByInstanceId.isEmpty() && path.getObjectInstanceId() != null) {
+                return new LwM2mObjectInstance(path.getObjectInstanceId(), Collections.<LwM2mResource> emptyList());
+            }
+            // validate we have resources for only 1 instance
+            if (resourcesByInstanceId.size() != 1)
+                throw new CodecException("One instance expected in the payload [path:%s]", path);
+
+            Entry<Integer, Map<Integer, LwM2mResource>> entry = resourcesByInstanceId.entrySet().iterator().next();
+            return new LwM2mObjectInstance(entry.getKey(), entry.getValue().values());
+        } else if (nodeClass == LwM2mResource.class) {
+            // records are under the requested resource path
+            if (resourcesByInstanceId.isEmpty() && path.isResource()) {
+                // we try to create an empty multi-instance resource, only if this respect the model
+                ResourceModel resourceModel = model.getResourceModel(path.getObjectId(), path.getResourceId());
+                if (resourceModel == null || resourceModel.multiple) {
+                    return LwM2mMultipleResource.newResource(path.getResourceId(), new HashMap<Integer, Object>(),
+                            getResourceType(path, model, null));
+                }
+            }
+            if (resourcesByInstanceId.size() != 1)
+                throw new CodecException("One resource should be present in the payload [path:%s]", path);
+            return resourcesByInstanceId.values().iterator().next().values().iterator().next();
+        } else {
+            throw new IllegalArgumentException("invalid node class: " + nodeClass);
+        }
+    }
+
+    private static Map<Integer, LwM2mResource> resources(
+            Map<Integer, Map<Integer, LwM2mResource>> resourcesByInstanceId, Integer instanceId) {
+        Map<Integer, LwM2mResource> resources = resourcesByInstanceId.get(instanceId);
+        if (resources == null) {
+            resources = new LinkedHashMap<>();
+            resourcesByInstanceId.put(instanceId, resources);
+        }
+        return resources;
+    }
+
+    private static Type getResourceType(LwM2mPath rscPath, LwM2mModel model, Type recordType) {
+        // Use model type in priority
+        ResourceModel rscDesc = model.getResourceModel(rscPath.getObjectId(), rscPath.getResourceId());
+        if (rscDesc != null && rscDesc.type != null)
+            return rscDesc.type;
+
+        // Then the type of the value
+        if (recordType != null)
+            return recordType;
+
+        // Else use String as default
+        LOG.trace("unknown type for resource use string as default: {}", rscPath);
+        return Type.STRING;
+    }
+
+    private static Object convertValue(Record record, Type expectedType) throws CodecException {
+        Object value = record.value;
+        switch (expectedType) {
+        case INTEGER:
+            if (value instanceof Number)
+                return ((Number) value).longValue();
+            break;
+        case FLOAT:
+            if (value instanceof Number)
+                return ((Number) value).doubleValue();
+            break;
+        case TIME:
+            // time values are in seconds
+            if (value instanceof Number)
+                return new Date(((Number) value).longValue() * 1000L);
+            break;
+        case BOOLEAN:
+            if (value instanceof Boolean)
+                return value;
+            break;
+        case STRING:
+            if (value instanceof String)
+                return value;
+            break;
+        case OPAQUE:
+            if (value instanceof byte[])
+                return value;
+            break;
+        case OBJLNK:
+            if (value instanceof ObjectLink)
+                return value;
+            break;
+        default:
+            break;
+        }
+        throw new CodecException("Invalid content [%s] for type %s for path %s", value, expectedType, record.path);
+    }
+
+    /* *************** Record reading **************** */
+
+    // a SenML record, its path and time-stamp are resolved with the base name and the base time
+    private static class Record {
+        private final LwM2mPath path;
+        private final Object value;
+        private final Type type;
+        private final Long timestamp;
+
+        private Record(LwM2mPath path, Object value, Type type, Long timestamp) {
+            this.path = path;
+            this.value = value;
+            this.type = type;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static class RecordReader {
+        private final CborReader reader;
+        private final LwM2mPath requestPath;
+
+        // the number of records left, -1 for an indefinite length array
+        private int remaining;
+
+        private String baseName;
+        private Long baseTime;
+
+        // the labels of the current record
+        private String name;
+        private Object value;
+        private Type type;
+        private Long time;
+
+        private RecordReader(byte[] content, LwM2mPath requestPath) throws CborException {
+            this.reader = new CborReader(ByteBuffer.wrap(content != null ? content : new byte[0]));
+            this.requestPath = requestPath;
+            if (reader.next() != CborType.ARRAY)
+                throw new CodecException("A SenML pack must be a CBOR array [path:%s]", requestPath);
+            remaining = reader.getLength();
+        }
+
+        /**
+         * @return the next record, <code>null</code> at the end of the pack.
+         */
+        private Record next() throws CborException {
+            if (remaining == 0) {
+                checkEnd();
+                return null;
+            }
+            CborType itemType = reader.next();
+            if (remaining < 0 && itemType == CborType.BREAK) {
+                checkEnd();
+                return null;
+            }
+            if (remaining > 0) {
+                remaining--;
+            }
+            if (itemType != CborType.MAP)
+                throw new CodecException("A SenML record must be a CBOR map, not %s [path:%s]", itemType, requestPath);
+
+            name = null;
+            value = null;
+            type = null;
+            time = null;
+            int size = reader.getLength();
+            for (int i = 0; size < 0 || i < size; i++) {
+                CborType labelType = reader.next();
+                if (size < 0 && labelType == CborType.BREAK)
+                    break;
+                readLabel(labelType);
+            }
+
+            if (value == null)
+                throw new CodecException("No value for the SenML record %s [path:%s]", name, requestPath);
+            LwM2mPath path = resolvePath();
+
+            // compute time-stamp
+            Long timestamp = time;
+            if (baseTime != null) {
+                timestamp = time != null ? baseTime + time : baseTime;
+            }
+            return new Record(path, value, type, timestamp);
+        }
+
+        private void readLabel(CborType labelType) throws CborException {
+            if (labelType == CborType.UNSIGNED_INTEGER || labelType == CborType.NEGATIVE_INTEGER) {
+                long label = reader.getLong();
+                if (label != (int) label) {
+                    skipValue();
+                    return;
+                }
+                switch ((int) label) {
+                case BASE_NAME:
+                    baseName = readText();
+                    break;
+                case BASE_TIME:
+                    baseTime = readTime();
+                    break;
+                case NAME:
+                    name = readText();
+                    break;
+                case TIME:
+                    time = readTime();
+                    break;
+                case VALUE:
+                    CborType valueType = reader.next();
+                    if (valueType == CborType.FLOAT) {
+                        value = reader.getDouble();
+                        type = Type.FLOAT;
+                    } else if (valueType == CborType.UNSIGNED_INTEGER || valueType == CborType.NEGATIVE_INTEGER) {
+                        value = reader.getLong();
+                        type = Type.INTEGER;
+                    } else {
+                        throw invalidValue(label, valueType);
+                    }
+                    break;
+                case STRING_VALUE:
+                    value = readText();
+                    type = Type.STRING;
+                    break;
+                case BOOLEAN_VALUE:
+                    CborType booleanType = reader.next();
+                    if (booleanType != CborType.TRUE && booleanType != CborType.FALSE)
+                        throw invalidValue(label, booleanType);
+                    value = booleanType == CborType.TRUE;
+                    type = Type.BOOLEAN;
+                    break;
+                case DATA_VALUE:
+                    CborType dataType = reader.next();
+                    if (dataType != CborType.BYTE_STRING)
+                        throw invalidValue(label, dataType);
+                    value = reader.getBytes();
+                    type = Type.OPAQUE;
+                    break;
+                default:
+                    // unknown label
+                    skipValue();
+                    break;
+                }
+            } else if (labelType == CborType.TEXT_STRING) {
+                String label = reader.getText();
+                if (OBJECT_LINK_VALUE.equals(label)) {
+                    value = parseObjectLink(readText());
+                    type = Type.OBJLNK;
+                } else if (label.endsWith("_")) {
+                    throw new CodecException("Unsupported mandatory SenML label %s [path:%s]", label, requestPath);
+                } else {
+                    skipValue();
+                }
+            } else {
+                throw new CodecException("Invalid SenML label type %s [path:%s]", labelType, requestPath);
+            }
+        }
+
+        private LwM2mPath resolvePath() {
+            String fullName = (baseName != null ? baseName : "") + (name != null ? name : "");
+            LwM2mPath path;
+            try {
+                path = new LwM2mPath(fullName);
+            } catch (IllegalArgumentException e) {
+                throw new CodecException(e, "Invalid path [%s] for resource [path:%s]", fullName, requestPath);
+            }
+
+            // Validate path
+            if (!path.isResourceInstance() && !path.isResource()) {
+                throw new CodecException(
+                        "Invalid path [%s] for resource, it should be a resource or a resource instance path", path);
+            }
+
+            // check the path is under requested path
+            if (!path.getObjectId().equals(requestPath.getObjectId())
+                    || requestPath.getObjectInstanceId() != null
+                            && !path.getObjectInstanceId().equals(requestPath.getObjectInstanceId())
+                    || requestPath.getResourceId() != null
+                            && !path.getResourceId().equals(requestPath.getResourceId())) {
+                throw new CodecException("Path [%s] does not match requested path [%s].", path, requestPath);
+            }
+            return path;
+        }
+
+        private ObjectLink parseObjectLink(String link) {
+            int separator = link.indexOf(':');
+            try {
+                if (separator >= 0) {
+                    return new ObjectLink(Integer.parseInt(link.substring(0, separator)),
+                            Integer.parseInt(link.substring(separator + 1)));
+                }
+            } catch (IllegalArgumentException e) {
+                // an invalid number or identifier, NumberFormatException is an IllegalArgumentException
+                throw new CodecException(e, "Invalid object link [%s] [path:%s]", link, requestPath);
+            }
+            throw new CodecException("Invalid object link [%s] [path:%s]", link, requestPath);
+        }
+
+        private String readText() throws CborException {
+            CborType itemType = reader.next();
+            if (itemType != CborType.TEXT_STRING)
+                throw new CodecException("Text string expected, not %s [path:%s]", itemType, requestPath);
+            return reader.getText();
+        }
+
+        // a time in seconds, the fractional part of a float is ignored
+        private Long readTime() throws CborException {
+            CborType itemType = reader.next();
+            if (itemType == CborType.UNSIGNED_INTEGER || itemType == CborType.NEGATIVE_INTEGER)
+                return reader.getLong();
+            if (itemType == CborType.FLOAT)
+                return (long) reader.getDouble();
+            throw new CodecException("Number expected for a time, not %s [path:%s]", itemType, requestPath);
+        }
+
+        private void skipValue() throws CborException {
+            reader.next();
+            reader.skip();
+        }
+
+        private CodecException invalidValue(long label, CborType valueType) {
+            return new CodecException("Invalid value type %s for the SenML label %d [path:%s]", valueType, label,
+                    requestPath);
+        }
+
+        private void checkEnd() {
+            if (reader.hasNext())
+                throw new CodecException("Unexpected content after the SenML pack [path:%s]", requestPath);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+import static org.eclipse.leshan.core.node.codec.senml.SenMLCborLabels.*;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.eclipse.leshan.cbor.CborWriter;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ResourceModel;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mNodeVisitor;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SenML CBOR encoder for {@link LwM2mNode}: a CBOR array of SenML records (RFC 8428), one for each resource value.
+ * <p>
+ * The base name of the first record is the path of the object instance, or of the object for an object request, with
+ * a trailing '/'. The record names are relative to it: <code>"resourceId"</code> or
+ * <code>"resourceId/resourceInstanceId"</code>, prefixed by <code>"instanceId/"</code> for an object request.
+ * Integers, floats and times (in seconds) are numeric values, opaque values are data values and object links are
+ * <code>"vlo"</code> values, as in LWM2M 1.1. For time-stamped nodes, the base time is the time-stamp of the first
+ * node and the time of the records is relative to it.
+ */
+public class LwM2mNodeSenMLCborEncoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LwM2mNodeSenMLCborEncoder.class);
+
+    public static byte[] encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter)
+            throws CodecException {
+        Validate.notNull(node);
+        Validate.notNull(path);
+        Validate.notNull(model);
+
+        RecordCounter counter = new RecordCounter();
+        node.accept(counter);
+
+        InternalEncoder internalEncoder = new InternalEncoder(path, model, converter, null);
+        internalEncoder.writer.startArray(counter.records);
+        node.accept(internalEncoder);
+        return internalEncoder.writer.toByteArray();
+    }
+
+    public static byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, LwM2mPath path,
+            LwM2mModel model, LwM2mValueConverter converter) throws CodecException {
+        Validate.notNull(timestampedNodes);
+        Validate.notNull(path);
+        Validate.notNull(model);
+
+        RecordCounter counter = new RecordCounter();
+        for (TimestampedLwM2mNode timestampedNode : timestampedNodes) {
+            timestampedNode.getNode().accept(counter);
+        }
+
+        Long baseTime = timestampedNodes.isEmpty() ? null : timestampedNodes.get(0).getTimestamp();
+        InternalEncoder internalEncoder = new InternalEncoder(path, model, converter, baseTime);
+        internalEncoder.writer.startArray(counter.records);
+        for (TimestampedLwM2mNode timestampedNode : timestampedNodes) {
+            internalEncoder.timestamp = timestampedNode.getTimestamp();
+            timestampedNode.getNode().accept(internalEncoder);
+        }
+        return internalEncoder.writer.toByteArray();
+    }
+
+    private static class RecordCounter implements LwM2mNodeVisitor {
+
+        private int records;
+
+        @Override
+        public void visit(LwM2mObject object) {
+            for (LwM2mObjectInstance instance : object.getInstances().values()) {
+                visit(instance);
+            }
+        }
+
+        @Override
+        public void visit(LwM2mObjectInstance instance) {
+            for (LwM2mResource resource : instance.getResources().values()) {
+                visit(resource);
+            }
+        }
+
+        @Override
+        public void visit(LwM2mResource resource) {
+            records += resource.isMultiInstances() ? resource.getValues().size() : 1;
+        }
+    }
+
+    private static class InternalEncoder implements LwM2mNodeVisitor {
+        // visitor inputs
+        private final LwM2mPath requestPath;
+        private final LwM2mModel model;
+        private final LwM2mValueConverter converter;
+        private final Long baseTime;
+        private Long timestamp;
+
+        // visitor output
+        private final CborWriter writer = new CborWriter();
+        private boolean firstRecord = true;
+
+        public InternalEncoder(LwM2mPath requestPath, LwM2mModel model, LwM2mValueConverter converter,
+                Long baseTime) {
+            this.requestPath = requestPath;
+            this.model = model;
+            this.converter = converter;
+            this.baseTime = baseTime;
+        }
+
+        @Override
+        public void visit(LwM2mObject object) {
+            LOG.trace("Encoding Object {} into SenML CBOR", object);
+            // Validate request path
+            if (!requestPath.isObject()) {
+                throw new CodecException("Invalid request path %s for SenML CBOR object encoding", requestPath);
+            }
+
+            for (LwM2mObjectInstance instance : object.getInstances().values()) {
+                for (LwM2mResource resource : instance.getResources().values()) {
+                    writeResource(instance.getId(), resource);
+                }
+            }
+        }
+
+        @Override
+        public void visit(LwM2mObjectInstance instance) {
+            LOG.trace("Encoding object instance {} into SenML CBOR", instance);
+            // Validate request path
+            if (!requestPath.isObject() && !requestPath.isObjectInstance()) {
+                throw new CodecException("Invalid request path %s for SenML CBOR instance encoding", requestPath);
+            }
+
+            for (LwM2mResource resource : instance.getResources().values()) {
+                writeResource(instance.getId(), resource);
+            }
+        }
+
+        @Override
+        public void visit(LwM2mResource resource) {
+            LOG.trace("Encoding resource {} into SenML CBOR", resource);
+            // Validate request path
+            if (!requestPath.isResource()) {
+                throw new CodecException("Invalid request path %s for SenML CBOR resource encoding", requestPath);
+            }
+
+            writeResource(requestPath.getObjectInstanceId(), resource);
+        }
+
+        private void writeResource(int instanceId, LwM2mResource resource) {
+            // get type for this resource
+            ResourceModel rSpec = model.getResourceModel(requestPath.getObjectId(), resource.getId());
+            Type expectedType = rSpec != null ? rSpec.type : resource.getType();
+
+            String prefix = requestPath.isObject() ? instanceId + "/" + resource.getId()
+                    : Integer.toString(resource.getId());
+            if (resource.isMultiInstances()) {
+                for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
+                    LwM2mPath resourceInstancePath = new LwM2mPath(requestPath.getObjectId(), instanceId,
+                            resource.getId(), entry.getKey());
+                    Object value = converter.convertValue(entry.getValue(), resource.getType(), expectedType,
+                            resourceInstancePath);
+                    writeRecord(prefix + "/" + entry.getKey(), value, expectedType, resourceInstancePath);
+                }
+            } else {
+                LwM2mPath resourcePath = new LwM2mPath(requestPath.getObjectId(), instanceId, resource.getId());
+                Object value = converter.convertValue(resource.getValue(), resource.getType(), expectedType,
+                        resourcePath);
+                writeRecord(prefix, value, expectedType, resourcePath);
+            }
+        }
+
+        private void writeRecord(String name, Object value, Type type, LwM2mPath resourcePath) {
+            // the time is relative to the base time
+            long time = 0;
+            boolean withTime = false;
+            if (timestamp != null) {
+                time = baseTime != null ? timestamp - baseTime : timestamp;
+                withTime = time != 0 || baseTime == null;
+            }
+
+            int size = 2;
+            if (firstRecord)
+                size += baseTime != null ? 2 : 1;
+            if (withTime)
+                size++;
+            writer.startMap(size);
+
+            if (firstRecord) {
+                writer.writeInt(BASE_NAME);
+                writer.writeText(baseName());
+                if (baseTime != null) {
+                    writer.writeInt(BASE_TIME);
+                    writer.writeInt(baseTime);
+                }
+                firstRecord = false;
+            }
+            writer.writeInt(NAME);
+            writer.writeText(name);
+            writeValue(value, type, resourcePath);
+            if (withTime) {
+                writer.writeInt(TIME);
+                writer.writeInt(time);
+            }
+        }
+
+        private String baseName() {
+            if (requestPath.isObject()) {
+                return "/" + requestPath.getObjectId() + "/";
+            } else {
+                return "/" + requestPath.getObjectId() + "/" + requestPath.getObjectInstanceId() + "/";
+            }
+        }
+
+        private void writeValue(Object value, Type type, LwM2mPath resourcePath) {
+            LOG.trace("Encoding value {} in SenML CBOR", value);
+            switch (type) {
+            case STRING:
+                writer.writeInt(STRING_VALUE);
+                writer.writeText((String) value);
+                break;
+            case INTEGER:
+                writer.writeInt(VALUE);
+                writer.writeInt(((Number) value).longValue());
+                break;
+            case FLOAT:
+                writer.writeInt(VALUE);
+                writer.writeFloat(((Number) value).doubleValue());
+                break;
+            case BOOLEAN:
+                writer.writeInt(BOOLEAN_VALUE);
+                writer.writeBoolean((Boolean) value);
+                break;
+            case TIME:
+                writer.writeInt(VALUE);
+                writer.writeInt(((Date) value).getTime() / 1000L);
+                break;
+            case OPAQUE:
+                writer.writeInt(DATA_VALUE);
+                writer.writeByteString((byte[]) value);
+                break;
+            case OBJLNK:
+                ObjectLink link = (ObjectLink) value;
+                writer.writeText(OBJECT_LINK_VALUE);
+                writer.writeText(link.getObjectId() + ":" + link.getObjectInstanceId());
+                break;
+            default:
+                throw new CodecException("Invalid value type %s for %s", type, resourcePath);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+/**
+ * The labels of the SenML CBOR records (RFC 8428, table 6) used by the LWM2M SenML CBOR codec.
+ */
+class SenMLCborLabels {
+
+    static final int BASE_NAME = -2;
+    static final int BASE_TIME = -3;
+    static final int NAME = 0;
+    static final int VALUE = 2;
+    static final int STRING_VALUE = 3;
+    static final int BOOLEAN_VALUE = 4;
+    static final int TIME = 6;
+    static final int DATA_VALUE = 8;
+
+    // the object link value of LWM2M, "objectId:instanceId"
+    static final String OBJECT_LINK_VALUE = "vlo";
+
+    private SenMLCborLabels() {
+    }
+}
@@ -21,8 +21,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.leshan.core.model.CompiledObjectModel;
 import org.eclipse.leshan.core.model.LwM2mModel;
-import org.eclipse.leshan.core.model.ObjectModel;
 import org.eclipse.leshan.core.model.ResourceModel;
 import org.eclipse.leshan.core.model.ResourceModel.Type;
 import org.eclipse.leshan.core.node.LwM2mMultipleResource;
@@ -33,10 +33,10 @@ import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.codec.CodecException;
-import org.eclipse.leshan.tlv.Tlv;
 import org.eclipse.leshan.tlv.Tlv.TlvType;
 import org.eclipse.leshan.tlv.TlvDecoder;
 import org.eclipse.leshan.tlv.TlvException;
+import org.eclipse.leshan.tlv.TlvReader;
 import org.eclipse.leshan.util.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,47 +48,49 @@ public class LwM2mNodeTlvDecoder {
     public static <T extends LwM2mNode> T decode(byte[] content, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
             throws CodecException {
         try {
-            Tlv[] tlvs = TlvDecoder.decode(ByteBuffer.wrap(content != null ? content : new byte[0]));
-            return parseTlv(tlvs, path, model, nodeClass);
+            TlvReader reader = new TlvReader(ByteBuffer.wrap(content != null ? content : new byte[0]));
+            return parseTlv(reader, path, model, nodeClass);
         } catch (TlvException e) {
             throw new CodecException(String.format("Unable to decode tlv for path [%s]", path), e);
         }
     }
 
     @SuppressWarnings("unchecked")
-    private static <T extends LwM2mNode> T parseTlv(Tlv[] tlvs, LwM2mPath path, LwM2mModel model, Class<T> nodeClass)
-            throws CodecException {
-        LOG.trace("Parsing TLV content for path {}: {}", path, tlvs);
+    private static <T extends LwM2mNode> T parseTlv(TlvReader reader, LwM2mPath path, LwM2mModel model,
+            Class<T> nodeClass) throws CodecException, TlvException {
+        LOG.trace("Parsing TLV content for path {}", path);
+
+        // the types of the resources are resolved with the compiled model of the object
+        CompiledObjectModel objectModel = model.getCompiledObjectModel(path.getObjectId());
 
         // Object
         if (nodeClass == LwM2mObject.class) {
             List<LwM2mObjectInstance> instances = new ArrayList<>();
 
             // is it an array of TLV resources?
-            if (tlvs.length > 0 && //
-                    (tlvs[0].getType() == TlvType.MULTIPLE_RESOURCE || tlvs[0].getType() == TlvType.RESOURCE_VALUE)) {
+            if (reader.next() && //
+                    (reader.getType() == TlvType.MULTIPLE_RESOURCE || reader.getType() == TlvType.RESOURCE_VALUE)) {
+                reader.rewind();
 
-                ObjectModel oModel = model.getObjectModel(path.getObjectId());
-                if (oModel == null) {
+                if (objectModel == null) {
                     LOG.warn("No model for object {}. The tlv is decoded assuming this is a single instance object",
                             path.getObjectId());
-                    instances.add(parseObjectInstanceTlv(tlvs, path.getObjectId(), 0, model));
-                } else if (!oModel.multiple) {
-                    instances.add(parseObjectInstanceTlv(tlvs, path.getObjectId(), 0, model));
+                    instances.add(parseObjectInstanceTlv(reader, path.getObjectId(), 0, objectModel));
+                } else if (!objectModel.objectModel.multiple) {
+                    instances.add(parseObjectInstanceTlv(reader, path.getObjectId(), 0, objectModel));
                 } else {
                     throw new CodecException("Object instance TLV is mandatory for multiple instances object [path:%s]",
                             path);
                 }
 
-            } else {
-                for (Tlv tlv : tlvs) {
-                    if (tlv.getType() != TlvType.OBJECT_INSTANCE)
+            } else if (reader.getType() != null) {
+                do {
+                    if (reader.getType() != TlvType.OBJECT_INSTANCE)
                         throw new CodecException("Expected TLV of type OBJECT_INSTANCE but was %s  [path:%s]",
-                                tlv.getType().name(), path);
+                                reader.getType().name(), path);
 
-                    instances.add(
-                            parseObjectInstanceTlv(tlv.getChildren(), path.getObjectId(), tlv.getIdentifier(), model));
-                }
+                    instances.add(parseObjectInstanceTlv(reader, path.getObjectId(), objectModel));
+                } while (reader.next());
             }
             return (T) new LwM2mObject(path.getObjectId(), instances);
         }
@@ -96,49 +98,52 @@ public class LwM2mNodeTlvDecoder {
         // Object instance
         else if (nodeClass == LwM2mObjectInstance.class) {
 
-            if (tlvs.length == 1 && tlvs[0].getType() == TlvType.OBJECT_INSTANCE) {
-                if (path.isObjectInstance() && tlvs[0].getIdentifier() != path.getObjectInstanceId()) {
+            if (reader.next() && reader.getType() == TlvType.OBJECT_INSTANCE && !reader.hasNext()) {
+                if (path.isObjectInstance() && reader.getIdentifier() != path.getObjectInstanceId()) {
                     throw new CodecException("Id conflict between path [%s] and instance TLV [%d]", path,
-                            tlvs[0].getIdentifier());
+                            reader.getIdentifier());
                 }
                 // object instance TLV
-                return (T) parseObjectInstanceTlv(tlvs[0].getChildren(), path.getObjectId(), tlvs[0].getIdentifier(),
-                        model);
+                return (T) parseObjectInstanceTlv(reader, path.getObjectId(), objectModel);
             } else {
                 // array of TLV resources
+                reader.rewind();
                 // try to retrieve the instanceId from the path or the model
                 Integer instanceId = path.getObjectInstanceId();
                 if (instanceId == null) {
                     // single instance object?
-                    ObjectModel oModel = model.getObjectModel(path.getObjectId());
-                    if (oModel != null && !oModel.multiple) {
+                    if (objectModel != null && !objectModel.objectModel.multiple) {
                         instanceId = 0;
                     } else {
                         instanceId = LwM2mObjectInstance.UNDEFINED;
                     }
                 }
-                return (T) parseObjectInstanceTlv(tlvs, path.getObjectId(), instanceId, model);
+                return (T) parseObjectInstanceTlv(reader, path.getObjectId(), instanceId, objectModel);
             }
         }
 
         // Resource
         else if (nodeClass == LwM2mResource.class) {
-            ResourceModel resourceModel = model.getResourceModel(path.getObjectId(), path.getResourceId());
-            if (tlvs.length == 0 && resourceModel != null && !resourceModel.multiple) {
+            ResourceModel resourceModel = objectModel != null ? objectModel.getResourceModel(path.getResourceId())
+                    : null;
+            boolean empty = !reader.next();
+            if (empty && resourceModel != null && !resourceModel.multiple) {
                 // If there is no TlV value and we know that this resource is a single resource we raise an exception
                 // else we consider this is a multi-instance resource
                 throw new CodecException("TLV payload is mandatory for single resource %s", path);
 
-            } else if (tlvs.length == 1 && tlvs[0].getType() != TlvType.RESOURCE_INSTANCE) {
-                if (path.isResource() && path.getResourceId() != tlvs[0].getIdentifier()) {
+            } else if (!empty && !reader.hasNext() && reader.getType() != TlvType.RESOURCE_INSTANCE) {
+                if (path.isResource() && path.getResourceId() != reader.getIdentifier()) {
                     throw new CodecException("Id conflict between path [%s] and resource TLV [%s]", path,
-                            tlvs[0].getIdentifier());
+                            reader.getIdentifier());
                 }
-                return (T) parseResourceTlv(tlvs[0], path.getObjectId(), path.getObjectInstanceId(), model);
+                return (T) parseResourceTlv(reader, path.getObjectId(), path.getObjectInstanceId(), objectModel);
             } else {
-                Type expectedRscType = getResourceType(path, model);
-                return (T) LwM2mMultipleResource.newResource(path.getResourceId(),
-                        parseTlvValues(tlvs, expectedRscType, path), expectedRscType);
+                reader.rewind();
+                Type expectedRscType = getResourceType(objectModel, path.getResourceId());
+                return (T) LwM2mMultipleResource.newResource(path.getResourceId(), parseTlvValues(reader,
+                        expectedRscType, path.getObjectId(), path.getObjectInstanceId(), path.getResourceId()),
+                        expectedRscType);
             }
         } else {
             throw new IllegalArgumentException("invalid node class: " + nodeClass);
@@ -146,86 +151,121 @@ public class LwM2mNodeTlvDecoder {
 
     }
 
-    private static LwM2mObjectInstance parseObjectInstanceTlv(Tlv[] rscTlvs, int objectId, int instanceId,
-            LwM2mModel model) throws CodecException {
+    /**
+     * Parses the resources of the current OBJECT_INSTANCE TLV.
+     */
+    private static LwM2mObjectInstance parseObjectInstanceTlv(TlvReader reader, int objectId,
+            CompiledObjectModel objectModel) throws CodecException, TlvException {
+        int instanceId = reader.getIdentifier();
+        reader.enter();
+        LwM2mObjectInstance instance = parseObjectInstanceTlv(reader, objectId, instanceId, objectModel);
+        reader.exit();
+        return instance;
+    }
+
+    /**
+     * Parses the remaining TLVs of the current level as resources.
+     */
+    private static LwM2mObjectInstance parseObjectInstanceTlv(TlvReader reader, int objectId, int instanceId,
+            CompiledObjectModel objectModel) throws CodecException, TlvException {
         // read resources
-        List<LwM2mResource> resources = new ArrayList<>(rscTlvs.length);
-        for (Tlv rscTlv : rscTlvs) {
-            resources.add(parseResourceTlv(rscTlv, objectId, instanceId, model));
+        List<LwM2mResource> resources = new ArrayList<>();
+        while (reader.next()) {
+            resources.add(parseResourceTlv(reader, objectId, instanceId, objectModel));
         }
         return new LwM2mObjectInstance(instanceId, resources);
     }
 
-    private static LwM2mResource parseResourceTlv(Tlv tlv, int objectId, int objectInstanceId, LwM2mModel model)
-            throws CodecException {
-        LwM2mPath resourcePath = new LwM2mPath(objectId, objectInstanceId, tlv.getIdentifier());
-        Type expectedType = getResourceType(resourcePath, model);
-        Integer resourceId = tlv.getIdentifier();
-        switch (tlv.getType()) {
+    // the path of the resource is only built for the errors and the traces
+    private static LwM2mResource parseResourceTlv(TlvReader reader, int objectId, int objectInstanceId,
+            CompiledObjectModel objectModel) throws CodecException, TlvException {
+        int resourceId = reader.getIdentifier();
+        Type expectedType = getResourceType(objectModel, resourceId);
+        switch (reader.getType()) {
         case MULTIPLE_RESOURCE:
-            return LwM2mMultipleResource.newResource(resourceId,
-                    parseTlvValues(tlv.getChildren(), expectedType, resourcePath), expectedType);
+            reader.enter();
+            Map<Integer, Object> values = parseTlvValues(reader, expectedType, objectId, objectInstanceId,
+                    resourceId);
+            reader.exit();
+            return LwM2mMultipleResource.newResource(resourceId, values, expectedType);
         case RESOURCE_VALUE:
             return LwM2mSingleResource.newResource(resourceId,
-                    parseTlvValue(tlv.getValue(), expectedType, resourcePath), expectedType);
+                    parseTlvValue(reader, expectedType, objectId, objectInstanceId, resourceId), expectedType);
         default:
-            throw new CodecException("Invalid TLV type %s for resource %s", tlv.getType(), resourcePath);
+            throw new CodecException("Invalid TLV type %s for resource %s", reader.getType(),
+                    new LwM2mPath(objectId, objectInstanceId, resourceId));
         }
     }
 
-    private static Map<Integer, Object> parseTlvValues(Tlv[] tlvs, Type expectedType, LwM2mPath path)
-            throws CodecException {
+    private static Map<Integer, Object> parseTlvValues(TlvReader reader, Type expectedType, int objectId,
+            int objectInstanceId, int resourceId) throws CodecException, TlvException {
         Map<Integer, Object> values = new HashMap<>();
-        for (Tlv tlvChild : tlvs) {
-            if (tlvChild.getType() != TlvType.RESOURCE_INSTANCE)
+        while (reader.next()) {
+            if (reader.getType() != TlvType.RESOURCE_INSTANCE)
                 throw new CodecException("Expected TLV of type RESOURCE_INSTANCE but was %s for path %s",
-                        tlvChild.getType().name(), path);
+                        reader.getType().name(), new LwM2mPath(objectId, objectInstanceId, resourceId));
 
-            Object resourceInstance = parseTlvValue(tlvChild.getValue(), expectedType, path);
-            Object previousResourceInstance = values.put(tlvChild.getIdentifier(), resourceInstance);
+            Object resourceInstance = parseTlvValue(reader, expectedType, objectId, objectInstanceId, resourceId);
+            Object previousResourceInstance = values.put(reader.getIdentifier(), resourceInstance);
             if (previousResourceInstance != null) {
                 throw new CodecException("2 RESOURCE_INSTANCE (%s,%s) with the same identifier %d for path %s",
-                        previousResourceInstance, resourceInstance, tlvChild.getIdentifier(), path);
+                        previousResourceInstance, resourceInstance, reader.getIdentifier(),
+                        new LwM2mPath(objectId, objectInstanceId, resourceId));
             }
         }
         return values;
     }
 
-    private static Object parseTlvValue(byte[] value, Type expectedType, LwM2mPath path) throws CodecException {
+    private static Object parseTlvValue(TlvReader reader, Type expectedType, int objectId, int objectInstanceId,
+            int resourceId) throws CodecException {
+        ByteBuffer buffer = reader.getBuffer();
+        int offset = reader.getValueOffset();
+        int length = reader.getValueLength();
         try {
-            LOG.trace("TLV value for path {} and expected type {}: {}", path, expectedType, value);
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("TLV value for path {} and expected type {}: {}",
+                        new LwM2mPath(objectId, objectInstanceId, resourceId), expectedType,
+                        Hex.encodeHexString(reader.getValue()));
+            }
             switch (expectedType) {
             case STRING:
-                return TlvDecoder.decodeString(value);
+                return TlvDecoder.decodeString(buffer, offset, length);
             case INTEGER:
-                return TlvDecoder.decodeInteger(value).longValue();
+                return TlvDecoder.decodeLong(buffer, offset, length);
             case FLOAT:
-                return TlvDecoder.decodeFloat(value).doubleValue();
+                return TlvDecoder.decodeFloat(buffer, offset, length);
             case BOOLEAN:
-                return TlvDecoder.decodeBoolean(value);
+                return TlvDecoder.decodeBoolean(buffer, offset, length);
             case TIME:
-                return TlvDecoder.decodeDate(value);
+                return TlvDecoder.decodeDate(buffer, offset, length);
             case OPAQUE:
-                return value;
+                return reader.getValue();
             case OBJLNK:
-                return TlvDecoder.decodeObjlnk(value);
+                return TlvDecoder.decodeObjlnk(buffer, offset, length);
             default:
-                throw new CodecException("Unsupported type %s for path %s", expectedType, path);
+                throw new CodecException("Unsupported type %s for path %s", expectedType,
+                        new LwM2mPath(objectId, objectInstanceId, resourceId));
             }
         } catch (TlvException e) {
-            throw new CodecException(e, "Invalid content [%s] for type %s for path %s", Hex.encodeHexString(value),
-                    expectedType, path);
+            throw new CodecException(e, "Invalid content [%s] for type %s for path %s",
+                    Hex.encodeHexString(reader.getValue()), expectedType,
+                    new LwM2mPath(objectId, objectInstanceId, resourceId));
         }
     }
 
     public static Type getResourceType(LwM2mPath rscPath, LwM2mModel model) throws CodecException {
-        ResourceModel rscDesc = model.getResourceModel(rscPath.getObjectId(), rscPath.getResourceId());
-        if (rscDesc == null || rscDesc.type == null) {
-            LOG.trace("unknown type for resource : {}", rscPath);
+        return getResourceType(model.getCompiledObjectModel(rscPath.getObjectId()), rscPath.getResourceId());
+    }
+
+    private static Type getResourceType(CompiledObjectModel objectModel, int resourceId) {
+        Type type = objectModel != null ? objectModel.getResourceType(resourceId) : null;
+        if (type == null) {
+            LOG.trace("unknown type for resource {} of object {}", resourceId,
+                    objectModel != null ? objectModel.getId() : null);
             // no resource description... opaque
             return Type.OPAQUE;
         } else {
-            return rscDesc.type;
+            return type;
         }
     }
 }
@@ -15,8 +15,9 @@
  *******************************************************************************/
 package org.eclipse.leshan.core.node.codec.tlv;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Map.Entry;
@@ -34,7 +35,6 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.ObjectLink;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
-import org.eclipse.leshan.tlv.Tlv;
 import org.eclipse.leshan.tlv.Tlv.TlvType;
 import org.eclipse.leshan.tlv.TlvEncoder;
 import org.eclipse.leshan.util.Validate;
@@ -43,6 +43,9 @@ import org.slf4j.LoggerFactory;
 
 /**
  * TLV encoder for {@link LwM2mNode}.
+ * <p>
+ * The node is visited once to list the TLVs to write with their length, then they are written directly into the
+ * output buffer.
  */
 public class LwM2mNodeTlvEncoder {
 
@@ -50,6 +53,30 @@ public class LwM2mNodeTlvEncoder {
 
     public static byte[] encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter)
             throws CodecException {
+        InternalEncoder internalEncoder = prepare(node, path, model, converter);
+        ByteBuffer buffer = ByteBuffer.allocate(internalEncoder.size);
+        internalEncoder.write(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes a node into the given buffer, from its current position.
+     *
+     * @return the number of bytes written.
+     * @throws BufferOverflowException if the remaining space of the buffer is too small, nothing is written then.
+     */
+    public static int encode(LwM2mNode node, LwM2mPath path, LwM2mModel model, LwM2mValueConverter converter,
+            ByteBuffer buffer) throws CodecException {
+        InternalEncoder internalEncoder = prepare(node, path, model, converter);
+        if (buffer.remaining() < internalEncoder.size) {
+            throw new BufferOverflowException();
+        }
+        internalEncoder.write(buffer);
+        return internalEncoder.size;
+    }
+
+    private static InternalEncoder prepare(LwM2mNode node, LwM2mPath path, LwM2mModel model,
+            LwM2mValueConverter converter) {
         Validate.notNull(node);
         Validate.notNull(path);
         Validate.notNull(model);
@@ -59,7 +86,7 @@ public class LwM2mNodeTlvEncoder {
         internalEncoder.model = model;
         internalEncoder.converter = converter;
         node.accept(internalEncoder);
-        return internalEncoder.out.toByteArray();
+        return internalEncoder;
     }
 
     private static class InternalEncoder implements LwM2mNodeVisitor {
@@ -69,60 +96,48 @@ public class LwM2mNodeTlvEncoder {
         private LwM2mModel model;
         private LwM2mValueConverter converter;
 
-        // visitor output
-        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // visitor output: the TLVs to write, in order, and their total size
+        private TlvType[] types = new TlvType[16];
+        private int[] identifiers = new int[16];
+        private int[] lengths = new int[16];
+        private Object[] values = new Object[16]; // the converted values, null for the TLVs with children
+        private Type[] valueTypes = new Type[16];
+        private int count;
+        private int size;
 
         @Override
         public void visit(LwM2mObject object) {
             LOG.trace("Encoding object {} into TLV", object);
 
-            Tlv[] tlvs;
-
             ObjectModel objectModel = model.getObjectModel(object.getId());
             if (objectModel != null && !objectModel.multiple) {
                 // single instance object, the instance is level is not needed
-                tlvs = encodeResources(object.getInstance(0).getResources().values(), new LwM2mPath(object.getId(), 0));
+                encodeResources(object.getInstance(0).getResources().values(), new LwM2mPath(object.getId(), 0));
             } else {
                 // encoded as an array of instances
-                tlvs = new Tlv[object.getInstances().size()];
-                int i = 0;
                 for (Entry<Integer, LwM2mObjectInstance> instance : object.getInstances().entrySet()) {
-                    Tlv[] resources = encodeResources(instance.getValue().getResources().values(),
+                    int tlv = startTlv(TlvType.OBJECT_INSTANCE, instance.getKey());
+                    encodeResources(instance.getValue().getResources().values(),
                             new LwM2mPath(object.getId(), instance.getKey()));
-                    tlvs[i] = new Tlv(TlvType.OBJECT_INSTANCE, resources, null, instance.getKey());
-                    i++;
+                    endTlv(tlv);
                 }
             }
-
-            try {
-                out.write(TlvEncoder.encode(tlvs).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
         }
 
         @Override
         public void visit(LwM2mObjectInstance instance) {
             LOG.trace("Encoding object instance {} into TLV", instance);
 
-            Tlv[] tlvs;
             if (path.isObjectInstance() || instance.getId() == LwM2mObjectInstance.UNDEFINED) {
                 // the instanceId is part of the request path or is undefined
                 // so the instance TLV layer is not needed.
                 // encoded as an array of resource TLVs
-                tlvs = encodeResources(instance.getResources().values(),
-                        new LwM2mPath(path.getObjectId(), instance.getId()));
+                encodeResources(instance.getResources().values(), new LwM2mPath(path.getObjectId(), instance.getId()));
             } else {
                 // encoded as an instance TLV
-                Tlv[] resources = encodeResources(instance.getResources().values(),
-                        new LwM2mPath(path.getObjectId(), instance.getId()));
-                tlvs = new Tlv[] { new Tlv(TlvType.OBJECT_INSTANCE, resources, null, instance.getId()) };
-            }
-
-            try {
-                out.write(TlvEncoder.encode(tlvs).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                int tlv = startTlv(TlvType.OBJECT_INSTANCE, instance.getId());
+                encodeResources(instance.getResources().values(), new LwM2mPath(path.getObjectId(), instance.getId()));
+                endTlv(tlv);
             }
         }
 
@@ -130,69 +145,100 @@ public class LwM2mNodeTlvEncoder {
         public void visit(LwM2mResource resource) {
             LOG.trace("Encoding resource {} into TLV", resource);
 
-            Tlv rTlv = encodeResource(resource, path);
-
-            try {
-                out.write(TlvEncoder.encode(new Tlv[] { rTlv }).array());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            encodeResource(resource, path);
         }
 
-        private Tlv[] encodeResources(Collection<LwM2mResource> resources, LwM2mPath instancePath) {
-            Tlv[] rTlvs = new Tlv[resources.size()];
-            int i = 0;
+        private void encodeResources(Collection<LwM2mResource> resources, LwM2mPath instancePath) {
             for (LwM2mResource resource : resources) {
-                rTlvs[i] = encodeResource(resource, instancePath.append(resource.getId()));
-                i++;
+                encodeResource(resource, instancePath.append(resource.getId()));
             }
-            return rTlvs;
         }
 
-        private Tlv encodeResource(LwM2mResource resource, LwM2mPath resourcePath) {
+        private void encodeResource(LwM2mResource resource, LwM2mPath resourcePath) {
             ResourceModel rSpec = model.getResourceModel(path.getObjectId(), resource.getId());
             Type expectedType = rSpec != null ? rSpec.type : resource.getType();
 
-            Tlv rTlv;
             if (resource.isMultiInstances()) {
-                Tlv[] instances = new Tlv[resource.getValues().size()];
-                int i = 0;
+                int tlv = startTlv(TlvType.MULTIPLE_RESOURCE, resource.getId());
                 for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
                     LwM2mPath resourceInstancePath = resourcePath.append(entry.getKey());
                     Object convertedValue = converter.convertValue(entry.getValue(), resource.getType(), expectedType,
                             resourceInstancePath);
-                    instances[i] = new Tlv(TlvType.RESOURCE_INSTANCE, null,
-                            this.encodeTlvValue(convertedValue, expectedType, resourceInstancePath), entry.getKey());
-                    i++;
+                    addValueTlv(TlvType.RESOURCE_INSTANCE, entry.getKey(), convertedValue, expectedType,
+                            resourceInstancePath);
                 }
-                rTlv = new Tlv(TlvType.MULTIPLE_RESOURCE, instances, null, resource.getId());
+                endTlv(tlv);
             } else {
                 Object convertedValue = converter.convertValue(resource.getValue(), resource.getType(), expectedType,
                         resourcePath);
-                rTlv = new Tlv(TlvType.RESOURCE_VALUE, null,
-                        this.encodeTlvValue(convertedValue, expectedType, resourcePath), resource.getId());
+                addValueTlv(TlvType.RESOURCE_VALUE, resource.getId(), convertedValue, expectedType, resourcePath);
             }
-            return rTlv;
         }
 
-        private byte[] encodeTlvValue(Object value, Type type, LwM2mPath path) {
+        /**
+         * Adds a TLV with children, which must be added before calling {@link #endTlv(int)}.
+         *
+         * @return the index of the TLV.
+         */
+        private int startTlv(TlvType type, int identifier) {
+            // the length is the size of the TLVs added before the children, until the end of the TLV
+            return add(type, identifier, size, null, null);
+        }
+
+        private void endTlv(int tlv) {
+            int length = size - lengths[tlv];
+            lengths[tlv] = length;
+            size += TlvEncoder.encodedSize(identifiers[tlv], length) - length;
+        }
+
+        private void addValueTlv(TlvType type, int identifier, Object value, Type valueType, LwM2mPath path) {
+            int length = valueLength(value, valueType, path);
+            add(type, identifier, length, value, valueType);
+            size += TlvEncoder.encodedSize(identifier, length);
+        }
+
+        private int add(TlvType type, int identifier, int length, Object value, Type valueType) {
+            if (count == types.length) {
+                int capacity = count * 2;
+                types = Arrays.copyOf(types, capacity);
+                identifiers = Arrays.copyOf(identifiers, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                values = Arrays.copyOf(values, capacity);
+                valueTypes = Arrays.copyOf(valueTypes, capacity);
+            }
+            types[count] = type;
+            identifiers[count] = identifier;
+            lengths[count] = length;
+            values[count] = value;
+            valueTypes[count] = valueType;
+            return count++;
+        }
+
+        private int valueLength(Object value, Type type, LwM2mPath path) {
             LOG.trace("Encoding value {} in TLV", value);
+            // the values are checked here, before anything is written
+            if (value == null) {
+                throw new CodecException("Invalid value %s for type %s of %s", value, type, path);
+            }
             try {
                 switch (type) {
                 case STRING:
-                    return TlvEncoder.encodeString((String) value);
+                    return TlvEncoder.stringLength((String) value);
                 case INTEGER:
-                    return TlvEncoder.encodeInteger((Number) value);
+                    return TlvEncoder.integerLength(((Number) value).longValue());
                 case FLOAT:
-                    return TlvEncoder.encodeFloat((Number) value);
+                    return TlvEncoder.floatLength((Number) value);
                 case BOOLEAN:
-                    return TlvEncoder.encodeBoolean((Boolean) value);
+                    Boolean.class.cast(value);
+                    return 1;
                 case TIME:
-                    return TlvEncoder.encodeDate((Date) value);
+                    Date.class.cast(value);
+                    return 4;
                 case OPAQUE:
-                    return (byte[]) value;
+                    return ((byte[]) value).length;
                 case OBJLNK:
-                    return TlvEncoder.encodeObjlnk((ObjectLink) value);
+                    ObjectLink.class.cast(value);
+                    return 4;
                 default:
                     throw new CodecException("Invalid value %s for type %s of %s", value, type, path);
                 }
@@ -200,5 +246,42 @@ public class LwM2mNodeTlvEncoder {
                 throw new CodecException(e, "Invalid value %s for type %s of %s", value, type, path);
             }
         }
+
+        private void write(ByteBuffer b) {
+            for (int i = 0; i < count; i++) {
+                TlvEncoder.encodeHeader(types[i], identifiers[i], lengths[i], b);
+                if (valueTypes[i] != null) {
+                    writeValue(values[i], valueTypes[i], b);
+                }
+            }
+        }
+
+        private void writeValue(Object value, Type type, ByteBuffer b) {
+            switch (type) {
+            case STRING:
+                TlvEncoder.encodeString((String) value, b);
+                break;
+            case INTEGER:
+                TlvEncoder.encodeInteger(((Number) value).longValue(), b);
+                break;
+            case FLOAT:
+                TlvEncoder.encodeFloat((Number) value, b);
+                break;
+            case BOOLEAN:
+                b.put((byte) ((Boolean) value ? 1 : 0));
+                break;
+            case TIME:
+                TlvEncoder.encodeDate((Date) value, b);
+                break;
+            case OPAQUE:
+                b.put((byte[]) value);
+                break;
+            case OBJLNK:
+                TlvEncoder.encodeObjlnk((ObjectLink) value, b);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected value type " + type);
+            }
+        }
     }
-}
\ No newline at end of file
+}
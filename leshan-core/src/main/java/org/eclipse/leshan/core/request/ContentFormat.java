@@ -24,6 +24,7 @@ public class ContentFormat {
     public static final int TEXT_CODE = 0;
     public static final int OPAQUE_CODE = 42;
     public static final int LINK_CODE = 40;
+    public static final int SENML_CBOR_CODE = 112;
 
     // Keep old code for backward-compatibility
     public static final int OLD_JSON_CODE = 1543;
@@ -34,8 +35,11 @@ public class ContentFormat {
     public static final ContentFormat TEXT = new ContentFormat("TEXT", "text/plain", TEXT_CODE);
     public static final ContentFormat OPAQUE = new ContentFormat("OPAQUE", "application/octet-stream", OPAQUE_CODE);
     public static final ContentFormat LINK = new ContentFormat("LINK", "application/link-format", LINK_CODE);
+    public static final ContentFormat SENML_CBOR = new ContentFormat("SENML_CBOR", "application/senml+cbor",
+            SENML_CBOR_CODE);
 
-    private static final ContentFormat knownContentFormat[] = new ContentFormat[] { TLV, JSON, TEXT, OPAQUE, LINK };
+    private static final ContentFormat knownContentFormat[] = new ContentFormat[] { TLV, JSON, TEXT, OPAQUE, LINK,
+                                    SENML_CBOR };
 
     private final String name;
     private final String mediaType;
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.json;
+
+import java.util.Arrays;
+
+/**
+ * Writes a LWM2M JSON document in UTF-8, entry by entry, without building {@link JsonRootObject} and
+ * {@link JsonArrayEntry} objects. The output is the same as {@link LwM2mJson#toJsonLwM2m(JsonRootObject)}.
+ *
+ * <pre>
+ * writer.startDocument("/3/0/");
+ * writer.startEntry();
+ * writer.appendName(9);
+ * writer.floatValue(95);
+ * writer.time(1500000000L);
+ * writer.endEntry();
+ * writer.endDocument();
+ * </pre>
+ *
+ * writes <code>{"bn":"/3/0/","e":[{"n":"9","v":95,"t":1500000000}]}</code>. The entry name is written segment by
+ * segment, separated by '/'. A writer is not thread-safe.
+ */
+public class LwM2mJsonWriter {
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private byte[] bytes;
+    private int count;
+
+    // scratch space for the digits of a number
+    private final byte[] digits = new byte[20];
+
+    private boolean firstEntry;
+    private boolean inName;
+    private boolean firstNameSegment;
+
+    public LwM2mJsonWriter() {
+        this(256);
+    }
+
+    /**
+     * @param capacity the initial size of the output buffer, it grows as needed.
+     */
+    public LwM2mJsonWriter(int capacity) {
+        this.bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Starts the document and its array of entries.
+     *
+     * @param baseName the base name of the entries, not written if <code>null</code>.
+     */
+    public void startDocument(String baseName) {
+        writeByte('{');
+        if (baseName != null) {
+            writeAscii("\"bn\":");
+            writeString(baseName);
+            writeByte(',');
+        }
+        writeAscii("\"e\":[");
+        firstEntry = true;
+    }
+
+    /**
+     * Starts an entry and its name. The name is empty until a segment is appended.
+     */
+    public void startEntry() {
+        if (!firstEntry) {
+            writeByte(',');
+        }
+        firstEntry = false;
+        writeAscii("{\"n\":\"");
+        inName = true;
+        firstNameSegment = true;
+    }
+
+    /**
+     * Appends an identifier to the name of the entry.
+     */
+    public void appendName(int id) {
+        if (!inName) {
+            throw new IllegalStateException("The entry name is already written");
+        }
+        if (!firstNameSegment) {
+            writeByte('/');
+        }
+        firstNameSegment = false;
+        writeLong(id);
+    }
+
+    public void floatValue(double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new IllegalArgumentException("Infinite and NaN values not permitted in JSON");
+        }
+        endName();
+        writeAscii(",\"v\":");
+        writeDouble(value);
+    }
+
+    public void booleanValue(boolean value) {
+        endName();
+        writeAscii(value ? ",\"bv\":true" : ",\"bv\":false");
+    }
+
+    public void objectLinkValue(String value) {
+        endName();
+        writeAscii(",\"ov\":");
+        writeString(value);
+    }
+
+    public void stringValue(String value) {
+        endName();
+        writeAscii(",\"sv\":");
+        writeString(value);
+    }
+
+    /**
+     * Writes the time of the entry, after its value.
+     */
+    public void time(long time) {
+        endName();
+        writeAscii(",\"t\":");
+        writeLong(time);
+    }
+
+    public void endEntry() {
+        endName();
+        writeByte('}');
+    }
+
+    public void endDocument() {
+        writeAscii("]}");
+    }
+
+    /**
+     * @return the number of bytes written.
+     */
+    public int size() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, count);
+    }
+
+    /* *************** Low level writing **************** */
+
+    private void endName() {
+        if (inName) {
+            writeByte('"');
+            inName = false;
+        }
+    }
+
+    // as Double.toString() without the ".0" of the integers, like minimal-json
+    private void writeDouble(double value) {
+        // Double.toString() uses the computerized scientific notation from 10^7
+        if (value == (long) value && Math.abs(value) < 1e7 && !(value == 0 && 1 / value < 0)) {
+            writeLong((long) value);
+            return;
+        }
+        String s = Double.toString(value);
+        writeAscii(s.endsWith(".0") ? s.substring(0, s.length() - 2) : s);
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            writeByte('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        ensureCapacity(digits.length - i);
+        System.arraycopy(digits, i, bytes, count, digits.length - i);
+        count += digits.length - i;
+    }
+
+    // a JSON string, escaped like minimal-json does
+    private void writeString(String value) {
+        ensureCapacity(value.length() + 2);
+        bytes[count++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                writeAscii("\\\"");
+                break;
+            case '\\':
+                writeAscii("\\\\");
+                break;
+            case '\n':
+                writeAscii("\\n");
+                break;
+            case '\r':
+                writeAscii("\\r");
+                break;
+            case '\t':
+                writeAscii("\\t");
+                break;
+            case '\u2028':
+                writeAscii("\\u2028");
+                break;
+            case '\u2029':
+                writeAscii("\\u2029");
+                break;
+            default:
+                if (c < 0x20) {
+                    writeAscii("\\u00");
+                    writeByte(HEX_DIGITS[c >> 4]);
+                    writeByte(HEX_DIGITS[c & 0xF]);
+                } else if (c < 0x80) {
+                    writeByte(c);
+                } else if (c < 0x800) {
+                    writeByte(0xC0 | (c >> 6));
+                    writeByte(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    writeByte(0xF0 | (codePoint >> 18));
+                    writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                    writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                    writeByte(0x80 | (codePoint & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    // malformed, replaced by '?' as String.getBytes() does
+                    writeByte('?');
+                } else {
+                    writeByte(0xE0 | (c >> 12));
+                    writeByte(0x80 | ((c >> 6) & 0x3F));
+                    writeByte(0x80 | (c & 0x3F));
+                }
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            bytes[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int length) {
+        if (count + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + length));
+        }
+    }
+}
@@ -15,7 +15,6 @@
  *******************************************************************************/
 package org.eclipse.leshan.tlv;
 
-import java.math.BigInteger;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -156,64 +155,109 @@ public class TlvDecoder {
         return new String(value, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into a string value.
+     */
+    public static String decodeString(ByteBuffer buffer, int index, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + index, length, StandardCharsets.UTF_8);
+        }
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = buffer.get(index + i);
+        }
+        return decodeString(value);
+    }
+
     /**
      * Decodes a byte array into a boolean value.
      */
     public static boolean decodeBoolean(byte[] value) throws TlvException {
-        if (value.length == 1) {
-            if (value[0] == 0) {
+        return decodeBoolean(ByteBuffer.wrap(value), 0, value.length);
+    }
+
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into a boolean value.
+     */
+    public static boolean decodeBoolean(ByteBuffer buffer, int index, int length) throws TlvException {
+        if (length == 1) {
+            byte value = buffer.get(index);
+            if (value == 0) {
                 return false;
-            } else if (value[0] == 1) {
+            } else if (value == 1) {
                 return true;
             } else {
-                LOG.warn("Boolean value should be encoded as integer with value 0 or 1, not {}", value[0]);
+                LOG.warn("Boolean value should be encoded as integer with value 0 or 1, not {}", value);
                 return false;
             }
         }
-        throw new TlvException("Invalid length for a boolean value: " + value.length);
+        throw new TlvException("Invalid length for a boolean value: " + length);
     }
 
     /**
      * Decodes a byte array into a date value.
      */
     public static Date decodeDate(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
-        if (value.length <= 8) {
-            return new Date(bi.longValue() * 1000L);
-        } else {
-            throw new TlvException("Invalid length for a time value: " + value.length);
+        return decodeDate(ByteBuffer.wrap(value), 0, value.length);
+    }
+
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into a date value.
+     */
+    public static Date decodeDate(ByteBuffer buffer, int index, int length) throws TlvException {
+        if (length < 1 || length > 8) {
+            throw new TlvException("Invalid length for a time value: " + length);
         }
+        return new Date(readSigned(buffer, index, length) * 1000L);
     }
 
     /**
      * Decodes a byte array into a objlnk value.
      */
     public static ObjectLink decodeObjlnk(byte[] value) throws TlvException {
-        ByteBuffer bff = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
-        bff.put(value);
-        int val1 = bff.getShort(0) & 0xFFFF;
-        int val2 = bff.getShort(2) & 0xFFFF;
-        return new ObjectLink(val1, val2);
+        return decodeObjlnk(ByteBuffer.wrap(value), 0, value.length);
+    }
+
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into a objlnk value.
+     */
+    public static ObjectLink decodeObjlnk(ByteBuffer buffer, int index, int length) throws TlvException {
+        if (length != 4) {
+            throw new TlvException("Invalid length for an objlnk value: " + length);
+        }
+        return new ObjectLink((int) readBits(buffer, index, 2), (int) readBits(buffer, index + 2, 2));
     }
 
     /**
      * Decodes a byte array into an integer value.
+     *
+     * @return a {@link Byte}, a {@link Short}, an {@link Integer} or a {@link Long} depending on the length of the
+     *         value.
      */
     public static Number decodeInteger(byte[] value) throws TlvException {
-        BigInteger bi = new BigInteger(value);
+        long l = decodeLong(ByteBuffer.wrap(value), 0, value.length);
         if (value.length == 1) {
-            return bi.byteValue();
+            return (byte) l;
         } else if (value.length <= 2) {
-            return bi.shortValue();
+            return (short) l;
         } else if (value.length <= 4) {
-            return bi.intValue();
-        } else if (value.length <= 8) {
-            return bi.longValue();
+            return (int) l;
         } else {
-            throw new TlvException("Invalid length for an integer value: " + value.length);
+            return l;
         }
     }
 
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into an integer value.
+     * The value is a signed big-endian integer of 1 to 8 bytes.
+     */
+    public static long decodeLong(ByteBuffer buffer, int index, int length) throws TlvException {
+        if (length < 1 || length > 8) {
+            throw new TlvException("Invalid length for an integer value: " + length);
+        }
+        return readSigned(buffer, index, length);
+    }
+
     /**
      * Decodes a byte array into a float value.
      */
@@ -227,4 +271,33 @@ public class TlvDecoder {
             throw new TlvException("Invalid length for a float value: " + value.length);
         }
     }
+
+    /**
+     * Decodes the <code>length</code> bytes at the absolute <code>index</code> of a buffer into a float value, whatever
+     * the byte order of the buffer.
+     */
+    public static double decodeFloat(ByteBuffer buffer, int index, int length) throws TlvException {
+        if (length == 4) {
+            return Float.intBitsToFloat((int) readBits(buffer, index, 4));
+        } else if (length == 8) {
+            return Double.longBitsToDouble(readBits(buffer, index, 8));
+        } else {
+            throw new TlvException("Invalid length for a float value: " + length);
+        }
+    }
+
+    // reads up to 8 big-endian bytes, as a signed value
+    private static long readSigned(ByteBuffer buffer, int index, int length) {
+        int shift = 64 - 8 * length;
+        return (readBits(buffer, index, length) << shift) >> shift;
+    }
+
+    // reads up to 8 big-endian bytes
+    private static long readBits(ByteBuffer buffer, int index, int length) {
+        long bits = 0;
+        for (int i = 0; i < length; i++) {
+            bits = (bits << 8) | (buffer.get(index + i) & 0xFF);
+        }
+        return bits;
+    }
 }
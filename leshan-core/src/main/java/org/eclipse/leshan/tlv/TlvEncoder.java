@@ -21,6 +21,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.tlv.Tlv.TlvType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,22 +60,32 @@ public class TlvEncoder {
      * Encodes an integer value.
      */
     public static byte[] encodeInteger(Number number) {
-        ByteBuffer iBuf;
         long lValue = number.longValue();
-        if (lValue >= Byte.MIN_VALUE && lValue <= Byte.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(1);
-            iBuf.put((byte) lValue);
-        } else if (lValue >= Short.MIN_VALUE && lValue <= Short.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(2);
-            iBuf.putShort((short) lValue);
-        } else if (lValue >= Integer.MIN_VALUE && lValue <= Integer.MAX_VALUE) {
-            iBuf = ByteBuffer.allocate(4);
-            iBuf.putInt((int) lValue);
+        ByteBuffer iBuf = ByteBuffer.allocate(integerLength(lValue));
+        encodeInteger(lValue, iBuf);
+        return iBuf.array();
+    }
+
+    /**
+     * @return the length of the encoded integer value: 1, 2, 4 or 8 bytes.
+     */
+    public static int integerLength(long value) {
+        if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return 1;
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return 2;
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return 4;
         } else {
-            iBuf = ByteBuffer.allocate(8);
-            iBuf.putLong(lValue);
+            return 8;
         }
-        return iBuf.array();
+    }
+
+    /**
+     * Encodes an integer value into a buffer, on {@link #integerLength(long)} bytes.
+     */
+    public static void encodeInteger(long value, ByteBuffer b) {
+        putBits(b, value, integerLength(value));
     }
 
     /**
@@ -92,6 +103,24 @@ public class TlvEncoder {
         return fBuf.array();
     }
 
+    /**
+     * @return the length of the encoded floating point value: 4 bytes for a {@link Float}, 8 bytes else.
+     */
+    public static int floatLength(Number number) {
+        return number instanceof Float ? 4 : 8;
+    }
+
+    /**
+     * Encodes a floating point value into a buffer, on {@link #floatLength(Number)} bytes.
+     */
+    public static void encodeFloat(Number number, ByteBuffer b) {
+        if (number instanceof Float) {
+            putBits(b, Float.floatToIntBits(number.floatValue()), 4);
+        } else {
+            putBits(b, Double.doubleToLongBits(number.doubleValue()), 8);
+        }
+    }
+
     /**
      * Encodes a boolean value.
      */
@@ -106,6 +135,59 @@ public class TlvEncoder {
         return value.getBytes(StandardCharsets.UTF_8);
     }
 
+    /**
+     * @return the length of the UTF-8 encoded string value.
+     */
+    public static int stringLength(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // malformed, replaced by '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes a string value into a buffer, in UTF-8, the same way as {@link #encodeString(String)}.
+     */
+    public static void encodeString(String value, ByteBuffer b) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                b.put((byte) c);
+            } else if (c < 0x800) {
+                b.put((byte) (0xC0 | (c >> 6)));
+                b.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                b.put((byte) (0xF0 | (codePoint >> 18)));
+                b.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                b.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                b.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                b.put((byte) '?');
+            } else {
+                b.put((byte) (0xE0 | (c >> 12)));
+                b.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                b.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
     /**
      * Encodes a date value.
      */
@@ -115,6 +197,13 @@ public class TlvEncoder {
         return tBuf.array();
     }
 
+    /**
+     * Encodes a date value into a buffer, on 4 bytes.
+     */
+    public static void encodeDate(Date value, ByteBuffer b) {
+        putBits(b, (int) (value.getTime() / 1000L), 4);
+    }
+
     /**
      * Encodes a Objlnk value.
      */
@@ -125,9 +214,21 @@ public class TlvEncoder {
         return objlnkBuffer.array();
     }
 
-    private static int tlvEncodedSize(Tlv tlv, int length) {
+    /**
+     * Encodes a Objlnk value into a buffer, on 4 bytes.
+     */
+    public static void encodeObjlnk(ObjectLink value, ByteBuffer b) {
+        putBits(b, value.getObjectId(), 2);
+        putBits(b, value.getObjectInstanceId(), 2);
+    }
+
+    /**
+     * @param length the length of the value (or of the encoded children).
+     * @return the size of an encoded TLV: its header and its value (or its children).
+     */
+    public static int encodedSize(int identifier, int length) {
         int size = 1 /* HEADER */;
-        size += (tlv.getIdentifier() < MAX_LENGTH_8BIT) ? 1 : 2; /* 8 bits or 16 bits identifiers */
+        size += (identifier < MAX_LENGTH_8BIT) ? 1 : 2; /* 8 bits or 16 bits identifiers */
 
         if (length < 8) {
             size += 0;
@@ -145,30 +246,16 @@ public class TlvEncoder {
         return size;
     }
 
-    private static int tlvEncodedLength(Tlv tlv) {
-        int length;
-        switch (tlv.getType()) {
-        case RESOURCE_VALUE:
-        case RESOURCE_INSTANCE:
-            length = tlv.getValue().length;
-            break;
-        default:
-            length = 0;
-            for (Tlv child : tlv.getChildren()) {
-                int subLength = tlvEncodedLength(child);
-                length += tlvEncodedSize(child, subLength);
-            }
-        }
-
-        return length;
-    }
-
-    private static void encode(Tlv tlv, ByteBuffer b) {
-        int length;
-        length = tlvEncodedLength(tlv);
+    /**
+     * Encodes the header of a TLV (type, identifier and length) into a buffer. The value (or the children) must be
+     * written next.
+     *
+     * @param length the length of the value (or of the encoded children).
+     */
+    public static void encodeHeader(TlvType type, int identifier, int length, ByteBuffer b) {
         int typeByte;
 
-        switch (tlv.getType()) {
+        switch (type) {
         case OBJECT_INSTANCE:
             typeByte = 0b00_000000;
             break;
@@ -183,11 +270,11 @@ public class TlvEncoder {
             typeByte = 0b11_000000;
             break;
         default:
-            throw new IllegalArgumentException("unknown TLV type : '" + tlv.getType() + "'");
+            throw new IllegalArgumentException("unknown TLV type : '" + type + "'");
         }
 
         // encode identifier length
-        typeByte |= (tlv.getIdentifier() < MAX_LENGTH_8BIT) ? 0b00_0000 : 0b10_0000;
+        typeByte |= (identifier < MAX_LENGTH_8BIT) ? 0b00_0000 : 0b10_0000;
 
         // type of length
         if (length < 8) {
@@ -202,27 +289,53 @@ public class TlvEncoder {
 
         // fill the buffer
         b.put((byte) typeByte);
-        if (tlv.getIdentifier() < MAX_LENGTH_8BIT) {
-            b.put((byte) tlv.getIdentifier());
-        } else {
-            b.putShort((short) tlv.getIdentifier());
-        }
+        putBits(b, identifier, identifier < MAX_LENGTH_8BIT ? 1 : 2);
 
         // write length
-
         if (length >= 8) {
             if (length < MAX_LENGTH_8BIT) {
-                b.put((byte) length);
+                putBits(b, length, 1);
             } else if (length < MAX_LENGTH_16BIT) {
-                b.putShort((short) length);
+                putBits(b, length, 2);
             } else {
-                int msb = (length & 0xFF_00_00) >> 16;
-                b.put((byte) msb);
-                b.putShort((short) (length & 0xFF_FF));
-                typeByte |= 0b0001_1000;
+                putBits(b, length, 3);
+            }
+        }
+    }
+
+    // writes the given number of low-order bytes, big-endian, whatever the byte order of the buffer
+    private static void putBits(ByteBuffer b, long bits, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            b.put((byte) (bits >> (8 * i)));
+        }
+    }
+
+    private static int tlvEncodedSize(Tlv tlv, int length) {
+        return encodedSize(tlv.getIdentifier(), length);
+    }
+
+    private static int tlvEncodedLength(Tlv tlv) {
+        int length;
+        switch (tlv.getType()) {
+        case RESOURCE_VALUE:
+        case RESOURCE_INSTANCE:
+            length = tlv.getValue().length;
+            break;
+        default:
+            length = 0;
+            for (Tlv child : tlv.getChildren()) {
+                int subLength = tlvEncodedLength(child);
+                length += tlvEncodedSize(child, subLength);
             }
         }
 
+        return length;
+    }
+
+    private static void encode(Tlv tlv, ByteBuffer b) {
+        int length = tlvEncodedLength(tlv);
+        encodeHeader(tlv.getType(), tlv.getIdentifier(), length, b);
+
         switch (tlv.getType()) {
         case RESOURCE_VALUE:
         case RESOURCE_INSTANCE:
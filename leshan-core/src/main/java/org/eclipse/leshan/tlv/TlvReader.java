@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.tlv;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.leshan.tlv.Tlv.TlvType;
+
+/**
+ * A cursor over TLV content, the streaming alternative of {@link TlvDecoder#decode(ByteBuffer)}.
+ * <p>
+ * The reader does not build a {@link Tlv} tree and does not copy the values: the current TLV is described by its type,
+ * its identifier and the position of its value in the buffer. It does not allocate anything once created.
+ *
+ * <pre>
+ * TlvReader reader = new TlvReader(buffer);
+ * while (reader.next()) {
+ *     if (reader.getType() == TlvType.MULTIPLE_RESOURCE) {
+ *         reader.enter();
+ *         while (reader.next()) {
+ *             // a resource instance
+ *         }
+ *         reader.exit();
+ *     } else {
+ *         // a single resource: reader.getValueOffset(), reader.getValueLength()
+ *     }
+ * }
+ * </pre>
+ *
+ * The reader uses absolute reads only, the position of the buffer is never changed. A reader is not thread-safe.
+ */
+public class TlvReader {
+
+    // valid content has 2 levels at most: object instances contain multiple resources, which contain resource
+    // instances
+    private static final int MAX_DEPTH = 8;
+
+    private final ByteBuffer buffer;
+
+    // the start and the end of the current level and its parents
+    private final int[] starts = new int[MAX_DEPTH + 1];
+    private final int[] ends = new int[MAX_DEPTH + 1];
+    private int depth;
+
+    // the position of the next TLV header of the current level
+    private int position;
+
+    // the current TLV
+    private TlvType type;
+    private int identifier;
+    private int valueOffset;
+    private int valueLength;
+
+    /**
+     * Creates a reader of the TLVs between the position and the limit of the buffer.
+     */
+    public TlvReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.starts[0] = buffer.position();
+        this.ends[0] = buffer.limit();
+        this.position = starts[0];
+    }
+
+    /**
+     * Moves to the next TLV of the current level.
+     *
+     * @return <code>false</code> if there is no more TLV at this level.
+     * @throws TlvException if the TLV header is invalid or if the value does not fit in the current level.
+     */
+    public boolean next() throws TlvException {
+        int end = ends[depth];
+        if (position >= end) {
+            type = null;
+            return false;
+        }
+        int offset = position;
+
+        // decode type
+        int typeByte = buffer.get(offset++) & 0xFF;
+        TlvType tlvType;
+        switch (typeByte & 0b1100_0000) {
+        case 0b0000_0000:
+            tlvType = TlvType.OBJECT_INSTANCE;
+            break;
+        case 0b0100_0000:
+            tlvType = TlvType.RESOURCE_INSTANCE;
+            break;
+        case 0b1000_0000:
+            tlvType = TlvType.MULTIPLE_RESOURCE;
+            break;
+        default:
+            tlvType = TlvType.RESOURCE_VALUE;
+            break;
+        }
+
+        // decode identifier
+        int idLength = (typeByte & 0b0010_0000) == 0 ? 1 : 2;
+        if (offset + idLength > end) {
+            throw error("Invalid 'identifier' length", position);
+        }
+        int id = (int) readUnsigned(offset, idLength);
+        offset += idLength;
+
+        // decode length
+        int length;
+        int lengthLength = (typeByte & 0b0001_1000) >> 3;
+        if (lengthLength == 0) {
+            length = typeByte & 0b0000_0111;
+        } else {
+            if (offset + lengthLength > end) {
+                throw error("Invalid 'length' length", position);
+            }
+            length = (int) readUnsigned(offset, lengthLength);
+            offset += lengthLength;
+        }
+
+        if (offset + length > end) {
+            throw error("Invalid 'value' length", position);
+        }
+
+        this.type = tlvType;
+        this.identifier = id;
+        this.valueOffset = offset;
+        this.valueLength = length;
+        this.position = offset + length;
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> if there is a TLV after the current one at this level.
+     */
+    public boolean hasNext() {
+        return position < ends[depth];
+    }
+
+    /**
+     * Moves back before the first TLV of the current level.
+     */
+    public void rewind() {
+        position = starts[depth];
+        type = null;
+    }
+
+    /**
+     * Enters the current TLV, an {@link TlvType#OBJECT_INSTANCE} or a {@link TlvType#MULTIPLE_RESOURCE}:
+     * {@link #next()} then moves over its children.
+     *
+     * @throws TlvException if the TLVs are nested too deeply.
+     * @throws IllegalStateException if the current TLV has no children.
+     */
+    public void enter() throws TlvException {
+        if (type != TlvType.OBJECT_INSTANCE && type != TlvType.MULTIPLE_RESOURCE) {
+            throw new IllegalStateException("Only an OBJECT_INSTANCE or a MULTIPLE_RESOURCE TLV can be entered, not "
+                    + type);
+        }
+        if (depth == MAX_DEPTH) {
+            throw error("Too many nested TLVs", valueOffset);
+        }
+        depth++;
+        starts[depth] = valueOffset;
+        ends[depth] = valueOffset + valueLength;
+        position = valueOffset;
+        type = null;
+    }
+
+    /**
+     * Leaves the current level, skipping its remaining TLVs: {@link #next()} then moves to the TLV which follows the
+     * entered one.
+     */
+    public void exit() {
+        if (depth == 0) {
+            throw new IllegalStateException("No TLV was entered");
+        }
+        position = ends[depth];
+        depth--;
+        type = null;
+    }
+
+    /**
+     * @return the number of entered TLVs.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the type of the current TLV, <code>null</code> if there is no current TLV.
+     */
+    public TlvType getType() {
+        return type;
+    }
+
+    public int getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * @return the buffer read, containing the value of the current TLV.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the absolute index of the value of the current TLV in the buffer.
+     */
+    public int getValueOffset() {
+        return valueOffset;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    /**
+     * @return a view of the value of the current TLV, sharing the content of the buffer.
+     */
+    public ByteBuffer getValueSlice() {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(valueOffset + valueLength);
+        slice.position(valueOffset);
+        return slice.slice();
+    }
+
+    /**
+     * @return a copy of the value of the current TLV.
+     */
+    public byte[] getValue() {
+        byte[] value = new byte[valueLength];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + valueOffset, value, 0, valueLength);
+        } else {
+            for (int i = 0; i < valueLength; i++) {
+                value[i] = buffer.get(valueOffset + i);
+            }
+        }
+        return value;
+    }
+
+    private long readUnsigned(int offset, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (buffer.get(offset + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private TlvException error(String message, int offset) {
+        return new TlvException(String.format("%s at index %d (TLV content of %d bytes at index %d)", message, offset,
+                ends[0] - starts[0], starts[0]));
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.cbor;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.leshan.cbor.CborReader.CborType;
+import org.eclipse.leshan.util.Hex;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CborReader}, with the examples of RFC 7049 appendix A.
+ */
+public class CborReaderTest {
+
+    @Test
+    public void read_integers() throws CborException {
+        CborReader reader = reader("00" + "1818" + "1b000000e8d4a51000" + "3903e7" + "3b7fffffffffffffff");
+
+        assertEquals(CborType.UNSIGNED_INTEGER, reader.next());
+        assertEquals(0, reader.getLong());
+        assertEquals(CborType.UNSIGNED_INTEGER, reader.next());
+        assertEquals(24, reader.getLong());
+        assertEquals(CborType.UNSIGNED_INTEGER, reader.next());
+        assertEquals(1000000000000L, reader.getLong());
+        assertEquals(CborType.NEGATIVE_INTEGER, reader.next());
+        assertEquals(-1000, reader.getLong());
+        assertEquals(CborType.NEGATIVE_INTEGER, reader.next());
+        assertEquals(Long.MIN_VALUE, reader.getLong());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = CborException.class)
+    public void integer_too_large_for_a_long() throws CborException {
+        CborReader reader = reader("1bffffffffffffffff");
+        reader.next();
+        reader.getLong();
+    }
+
+    @Test
+    public void read_half_single_and_double_precision_floats() throws CborException {
+        CborReader reader = reader("f93e00" + "f97c00" + "f90001" + "f98000" + "fa47c35000" + "fbc010666666666666");
+
+        assertEquals(1.5, readDouble(reader), 0);
+        assertEquals(Double.POSITIVE_INFINITY, readDouble(reader), 0);
+        assertEquals(5.960464477539063e-8, readDouble(reader), 0);
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(readDouble(reader)));
+        assertEquals(100000.0, readDouble(reader), 0);
+        assertEquals(-4.1, readDouble(reader), 0);
+    }
+
+    @Test
+    public void read_simple_values_and_strings() throws CborException {
+        CborReader reader = reader("f4f5f6f7" + "6449455446" + "63e6b0b4" + "4401020304");
+
+        assertEquals(CborType.FALSE, reader.next());
+        assertEquals(CborType.TRUE, reader.next());
+        assertEquals(CborType.NULL, reader.next());
+        assertEquals(CborType.UNDEFINED, reader.next());
+        assertEquals(CborType.TEXT_STRING, reader.next());
+        assertEquals("IETF", reader.getText());
+        assertEquals(CborType.TEXT_STRING, reader.next());
+        assertEquals("水", reader.getText());
+        assertEquals(CborType.BYTE_STRING, reader.next());
+        assertArrayEquals(new byte[] { 1, 2, 3, 4 }, reader.getBytes());
+    }
+
+    @Test
+    public void read_indefinite_length_arrays() throws CborException {
+        // [_ 1, [2, 3], [_ 4, 5]]
+        CborReader reader = reader("9f018202039f0405ffff");
+
+        assertEquals(CborType.ARRAY, reader.next());
+        assertTrue(reader.isIndefinite());
+        assertEquals(-1, reader.getLength());
+        assertEquals(CborType.UNSIGNED_INTEGER, reader.next());
+        assertEquals(CborType.ARRAY, reader.next());
+        assertEquals(2, reader.getLength());
+        reader.skip();
+        assertEquals(CborType.ARRAY, reader.next());
+        assertTrue(reader.isIndefinite());
+        reader.skip();
+        assertEquals(CborType.BREAK, reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void skip_nested_maps_and_tags() throws CborException {
+        // {"a": 1, "b": [2, 3]}, 0("2013-03-21T20:04:00Z"), 1
+        CborReader reader = reader("a26161016162820203" + "c074323031332d30332d32315432303a30343a30305a" + "01");
+
+        assertEquals(CborType.MAP, reader.next());
+        assertEquals(2, reader.getLength());
+        reader.skip();
+        assertEquals(CborType.TEXT_STRING, reader.next());
+        assertEquals("2013-03-21T20:04:00Z", reader.getText());
+        assertEquals(CborType.UNSIGNED_INTEGER, reader.next());
+        assertEquals(1, reader.getLong());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void read_what_the_writer_writes() throws CborException {
+        CborWriter writer = new CborWriter();
+        writer.startMap(3);
+        writer.writeInt(-2);
+        writer.writeText("/3/0/");
+        writer.writeInt(2);
+        writer.writeFloat(-12.5);
+        writer.writeText("vb");
+        writer.writeBoolean(true);
+        CborReader reader = new CborReader(ByteBuffer.wrap(writer.toByteArray()));
+
+        assertEquals(CborType.MAP, reader.next());
+        assertEquals(3, reader.getLength());
+        assertEquals(CborType.NEGATIVE_INTEGER, reader.next());
+        assertEquals(-2, reader.getLong());
+        assertEquals(CborType.TEXT_STRING, reader.next());
+        assertEquals("/3/0/", reader.getText());
+        reader.next();
+        assertEquals(2, reader.getLong());
+        assertEquals(-12.5, readDouble(reader), 0);
+        reader.next();
+        assertEquals("vb", reader.getText());
+        assertEquals(CborType.TRUE, reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void truncated_content() throws CborException {
+        CborReader reader = reader("8301" + "6449");
+        reader.next();
+        reader.next();
+        try {
+            reader.next();
+            fail();
+        } catch (CborException e) {
+            assertEquals("Invalid string length at index 2 (CBOR content of 4 bytes at index 0)", e.getMessage());
+        }
+    }
+
+    private static double readDouble(CborReader reader) throws CborException {
+        assertEquals(CborType.FLOAT, reader.next());
+        return reader.getDouble();
+    }
+
+    private static CborReader reader(String hex) {
+        return new CborReader(ByteBuffer.wrap(Hex.decodeHex(hex.toCharArray())));
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.cbor;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.leshan.util.Hex;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CborWriter}, with the examples of RFC 7049 appendix A.
+ */
+public class CborWriterTest {
+
+    @Test
+    public void write_integers() {
+        assertEquals("00", integer(0));
+        assertEquals("17", integer(23));
+        assertEquals("1818", integer(24));
+        assertEquals("1903e8", integer(1000));
+        assertEquals("1a000f4240", integer(1000000));
+        assertEquals("1b000000e8d4a51000", integer(1000000000000L));
+        assertEquals("20", integer(-1));
+        assertEquals("3863", integer(-100));
+        assertEquals("3903e7", integer(-1000));
+        assertEquals("1b7fffffffffffffff", integer(Long.MAX_VALUE));
+        assertEquals("3b7fffffffffffffff", integer(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void write_floats_in_the_shortest_exact_precision() {
+        assertEquals("fa47c35000", floating(100000.0));
+        assertEquals("fa7f7fffff", floating(3.4028234663852886e+38));
+        assertEquals("fb3ff199999999999a", floating(1.1));
+        assertEquals("fb7e37e43c8800759c", floating(1.0e+300));
+        assertEquals("fbc010666666666666", floating(-4.1));
+        assertEquals("fa7f800000", floating(Double.POSITIVE_INFINITY));
+        assertEquals("fa7fc00000", floating(Double.NaN));
+    }
+
+    @Test
+    public void write_simple_values_and_strings() {
+        CborWriter writer = new CborWriter(1);
+        writer.writeBoolean(false);
+        writer.writeBoolean(true);
+        writer.writeNull();
+        writer.writeText("");
+        writer.writeText("IETF");
+        writer.writeText("ü水𐅑");
+        writer.writeByteString(new byte[] { 1, 2, 3, 4 });
+
+        assertEquals("f4f5f6" + "60" + "6449455446" + "69c3bce6b0b4f0908591" + "4401020304", hex(writer));
+        assertEquals(24, writer.size());
+    }
+
+    @Test
+    public void write_nested_arrays_and_maps() {
+        // [1, [2, 3], {"a": 1, "b": [2, 3]}]
+        CborWriter writer = new CborWriter();
+        writer.startArray(3);
+        writer.writeInt(1);
+        writer.startArray(2);
+        writer.writeInt(2);
+        writer.writeInt(3);
+        writer.startMap(2);
+        writer.writeText("a");
+        writer.writeInt(1);
+        writer.writeText("b");
+        writer.startArray(2);
+        writer.writeInt(2);
+        writer.writeInt(3);
+
+        assertEquals("8301820203" + "a26161016162820203", hex(writer));
+    }
+
+    @Test
+    public void write_text_as_string_get_bytes() {
+        // 1 to 4 bytes characters and malformed surrogates
+        String[] values = { "a/0", "\u07ff\u0800\uffff", "\ud83d\ude00", "\ud83d", "a\ude00b\ud83d" };
+        for (String value : values) {
+            CborWriter writer = new CborWriter();
+            writer.writeText(value);
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(utf8, Arrays.copyOfRange(writer.toByteArray(), 1, writer.size()));
+            assertEquals(0x60 | utf8.length, writer.toByteArray()[0]);
+        }
+    }
+
+    private static String integer(long value) {
+        CborWriter writer = new CborWriter();
+        writer.writeInt(value);
+        return hex(writer);
+    }
+
+    private static String floating(double value) {
+        CborWriter writer = new CborWriter();
+        writer.writeFloat(value);
+        return hex(writer);
+    }
+
+    private static String hex(CborWriter writer) {
+        return Hex.encodeHexString(writer.toByteArray());
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.eclipse.leshan.core.model.ResourceModel.Operations;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.junit.Test;
+
+public class CompiledObjectModelTest {
+
+    @Test
+    public void compiled_models_match_the_default_object_models() {
+        LwM2mModel model = new LwM2mModel(ObjectLoader.loadDefault());
+        for (ObjectModel objectModel : model.getObjectModels()) {
+            CompiledObjectModel compiled = model.getCompiledObjectModel(objectModel.id);
+            assertSame(objectModel, compiled.objectModel);
+            assertEquals(objectModel.id, compiled.getId());
+            for (int resourceId = -1; resourceId < 30; resourceId++) {
+                assertSame(objectModel.resources.get(resourceId), compiled.getResourceModel(resourceId));
+                assertSame(model.getResourceModel(objectModel.id, resourceId), compiled.getResourceModel(resourceId));
+            }
+            for (ResourceModel resource : objectModel.resources.values()) {
+                assertSame(resource, compiled.getResourceModel(resource.id));
+                assertEquals(resource.type, compiled.getResourceType(resource.id));
+            }
+        }
+        assertNull(model.getCompiledObjectModel(20000));
+    }
+
+    @Test
+    public void unknown_resources_are_not_found() {
+        CompiledObjectModel compiled = new CompiledObjectModel(
+                new ObjectModel(20000, "object", "", false, false, resource(5), resource(7)));
+        assertNotNull(compiled.getResourceModel(5));
+        assertNull(compiled.getResourceModel(6));
+        assertNotNull(compiled.getResourceModel(7));
+        assertNull(compiled.getResourceModel(4));
+        assertNull(compiled.getResourceModel(8));
+        assertNull(compiled.getResourceModel(Integer.MIN_VALUE));
+        assertNull(compiled.getResourceModel(Integer.MAX_VALUE));
+        assertNull(compiled.getResourceType(6));
+    }
+
+    @Test
+    public void sparse_resource_ids_are_found() {
+        CompiledObjectModel compiled = new CompiledObjectModel(
+                new ObjectModel(20000, "object", "", false, false, resource(0), resource(65535)));
+        assertEquals(Type.INTEGER, compiled.getResourceType(0));
+        assertEquals(Type.INTEGER, compiled.getResourceType(65535));
+        assertNull(compiled.getResourceModel(1));
+    }
+
+    @Test
+    public void object_without_resources() {
+        CompiledObjectModel compiled = new CompiledObjectModel(new ObjectModel(20000, "object", "", false, false,
+                Collections.<ResourceModel> emptyList()));
+        assertNull(compiled.getResourceModel(0));
+        assertNull(compiled.getResourceType(0));
+    }
+
+    private static ResourceModel resource(int id) {
+        return new ResourceModel(id, "resource", Operations.R, false, false, Type.INTEGER, null, null, null);
+    }
+}
@@ -19,6 +19,7 @@ package org.eclipse.leshan.core.node.codec;
 import static org.junit.Assert.*;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -37,6 +38,7 @@ import org.eclipse.leshan.core.request.ContentFormat;
 import org.eclipse.leshan.tlv.Tlv;
 import org.eclipse.leshan.tlv.Tlv.TlvType;
 import org.eclipse.leshan.tlv.TlvEncoder;
+import org.eclipse.leshan.util.Hex;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -426,6 +428,170 @@ public class LwM2mNodeDecoderTest {
                 ((LwM2mObject) timestampedResources.get(2).getNode()).getInstance(0).getResource(1).getValue());
     }
 
+    @Test
+    public void json_timestamped_resources_as_stream() throws CodecException {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"e\":[");
+        b.append("{\"n\":\"\",\"v\":22.9,\"t\":-30},");
+        b.append("{\"n\":\"\",\"v\":22.4,\"t\":-5},");
+        b.append("{\"n\":\"\",\"v\":24.1,\"t\":-50}],");
+        b.append("\"bt\":25462634}");
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        decoder.decodeTimestampedData(b.toString().getBytes(), ContentFormat.JSON, new LwM2mPath(1024, 0, 1), model,
+                nodes);
+
+        // in the order of the content
+        assertEquals(3, nodes.size());
+        assertEquals(Long.valueOf(25462634L - 30), nodes.get(0).getTimestamp());
+        assertEquals(22.9d, ((LwM2mResource) nodes.get(0).getNode()).getValue());
+        assertEquals(Long.valueOf(25462634L - 5), nodes.get(1).getTimestamp());
+        assertEquals(22.4d, ((LwM2mResource) nodes.get(1).getNode()).getValue());
+        assertEquals(Long.valueOf(25462634L - 50), nodes.get(2).getTimestamp());
+        assertEquals(24.1d, ((LwM2mResource) nodes.get(2).getNode()).getValue());
+    }
+
+    @Test
+    public void json_timestamped_instances_as_stream() throws CodecException {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/1024/0/\",\"bt\":25462634,\"e\":[");
+        b.append("{\"n\":\"1\",\"v\":22.9,\"t\":-30},");
+        b.append("{\"n\":\"1\",\"v\":22.4,\"t\":-5},");
+        b.append("{\"n\":\"0\",\"sv\":\"a string\",\"t\":-5},");
+        b.append("{\"n\":\"1\",\"v\":24.1}]}");
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        decoder.decodeTimestampedData(b.toString().getBytes(), ContentFormat.JSON, new LwM2mPath(1024, 0), model,
+                nodes);
+
+        // consecutive entries with the same time are in the same node
+        assertEquals(3, nodes.size());
+        assertEquals(Long.valueOf(25462634L - 30), nodes.get(0).getTimestamp());
+        assertEquals(22.9d, ((LwM2mObjectInstance) nodes.get(0).getNode()).getResource(1).getValue());
+        assertEquals(Long.valueOf(25462634L - 5), nodes.get(1).getTimestamp());
+        assertEquals("a string", ((LwM2mObjectInstance) nodes.get(1).getNode()).getResource(0).getValue());
+        assertEquals(22.4d, ((LwM2mObjectInstance) nodes.get(1).getNode()).getResource(1).getValue());
+        assertEquals(Long.valueOf(25462634L), nodes.get(2).getTimestamp());
+        assertEquals(24.1d, ((LwM2mObjectInstance) nodes.get(2).getNode()).getResource(1).getValue());
+    }
+
+    @Test
+    public void json_many_timestamped_resources_as_stream() throws CodecException {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/3303/0/5700\",\"e\":[");
+        for (int i = 0; i < 20000; i++) {
+            if (i > 0)
+                b.append(",");
+            b.append("{\"n\":\"\",\"v\":").append(i % 100).append(".5,\"t\":").append(1500000000 + i).append("}");
+        }
+        b.append("]}");
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        decoder.decodeTimestampedData(b.toString().getBytes(), ContentFormat.JSON, new LwM2mPath(3303, 0, 5700),
+                model, nodes);
+
+        assertEquals(20000, nodes.size());
+        assertEquals(Long.valueOf(1500000000L + 19999), nodes.get(19999).getTimestamp());
+        assertEquals(99.5d, ((LwM2mResource) nodes.get(19999).getNode()).getValue());
+    }
+
+    @Test
+    public void json_malformed_timestamped_resources_as_stream() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"e\":[");
+        b.append("{\"n\":\"\",\"v\":22.9,\"t\":-30},");
+        b.append("{\"n\":\"\",\"v\":22.4,\"t\":-5},");
+        b.append("{\"n\":\"\",\"v\":24.1,\"t\":-50");
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        try {
+            decoder.decodeTimestampedData(b.toString().getBytes(), ContentFormat.JSON, new LwM2mPath(1024, 0, 1),
+                    model, nodes);
+            fail();
+        } catch (CodecException e) {
+            // the first node is complete before the error, the second one could have more entries
+            assertEquals(1, nodes.size());
+        }
+    }
+
+    @Test
+    public void tlv_timestamped_resource_as_stream() throws CodecException {
+        byte[] content = TlvEncoder
+                .encode(new Tlv[] { new Tlv(TlvType.RESOURCE_VALUE, null, TlvEncoder.encodeInteger(42), 9) }).array();
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        decoder.decodeTimestampedData(content, ContentFormat.TLV, new LwM2mPath(3, 0, 9), model, nodes);
+
+        assertEquals(1, nodes.size());
+        assertFalse(nodes.get(0).isTimestamped());
+    }
+
+    @Test
+    public void senml_cbor_timestamped_resources_as_stream() throws CodecException {
+        // [{-2: "/1024/0/", -3: 500, 0: "1", 2: 22.5}, {0: "1", 2: 22.25, 6: 10}, {0: "1", 2: 24, 6: -20}]
+        byte[] content = Hex.decodeHex(("83" + "a4" + "21682f313032342f302f" + "221901f4" + "006131" + "02fa41b40000"
+                + "a3" + "006131" + "02fa41b20000" + "060a" + "a3" + "006131" + "021818" + "0633").toCharArray());
+
+        TimestampedNodes nodes = new TimestampedNodes();
+        decoder.decodeTimestampedData(content, ContentFormat.SENML_CBOR, new LwM2mPath(1024, 0, 1), model, nodes);
+
+        // in the order of the content, the type comes from the value
+        assertEquals(3, nodes.size());
+        assertEquals(Long.valueOf(500L), nodes.get(0).getTimestamp());
+        assertEquals(22.5d, ((LwM2mResource) nodes.get(0).getNode()).getValue());
+        assertEquals(Long.valueOf(510L), nodes.get(1).getTimestamp());
+        assertEquals(22.25d, ((LwM2mResource) nodes.get(1).getNode()).getValue());
+        assertEquals(Long.valueOf(480L), nodes.get(2).getTimestamp());
+        assertEquals(24L, ((LwM2mResource) nodes.get(2).getNode()).getValue());
+
+        // the list is sorted, most recent first
+        List<TimestampedLwM2mNode> timestampedNodes = decoder.decodeTimestampedData(content, ContentFormat.SENML_CBOR,
+                new LwM2mPath(1024, 0, 1), model);
+        assertEquals(Long.valueOf(510L), timestampedNodes.get(0).getTimestamp());
+        assertEquals(Long.valueOf(480L), timestampedNodes.get(2).getTimestamp());
+    }
+
+    @Test
+    public void senml_cbor_multi_instance_resource_and_object_link() throws CodecException {
+        // [{-2: "/3/0/", 0: "7/0", 2: 3800}, {0: "7/1", 2: 5000}, {0: "22", "vlo": "3:0", "unknown": [1]}]
+        byte[] content = Hex.decodeHex(("83" + "a3" + "21652f332f302f" + "0063372f30" + "02190ed8" + "a2"
+                + "0063372f31" + "02191388" + "a3" + "00623232" + "63766c6f" + "63333a30" + "67756e6b6e6f776e" + "8101")
+                        .toCharArray());
+
+        LwM2mObjectInstance instance = (LwM2mObjectInstance) decoder.decode(content, ContentFormat.SENML_CBOR,
+                new LwM2mPath(3, 0), model);
+
+        assertEquals(0, instance.getId());
+        assertEquals(Type.INTEGER, instance.getResource(7).getType());
+        assertEquals(3800L, instance.getResource(7).getValue(0));
+        assertEquals(5000L, instance.getResource(7).getValue(1));
+        assertEquals(new ObjectLink(3, 0), instance.getResource(22).getValue());
+    }
+
+    @Test
+    public void senml_cbor_unsupported_mandatory_label() {
+        // [{-2: "/3/0/", 0: "9", 2: 95, "x_": 1}]
+        byte[] content = Hex.decodeHex(("81a421652f332f302f0061390218" + "5f" + "62785f01").toCharArray());
+        try {
+            decoder.decode(content, ContentFormat.SENML_CBOR, new LwM2mPath(3, 0, 9), model);
+            fail();
+        } catch (CodecException e) {
+            assertEquals("Unsupported mandatory SenML label x_ [path:/3/0/9]", e.getMessage());
+        }
+    }
+
+    @Test
+    public void senml_cbor_path_not_under_the_requested_path() {
+        // [{-2: "/3/1/", 0: "9", 2: 95}]
+        byte[] content = Hex.decodeHex("81a321652f332f312f00613902185f".toCharArray());
+        try {
+            decoder.decode(content, ContentFormat.SENML_CBOR, new LwM2mPath(3, 0), model);
+            fail();
+        } catch (CodecException e) {
+            assertEquals("Path [/3/1/9] does not match requested path [/3/0].", e.getMessage());
+        }
+    }
+
     @Test
     public void json_empty_object() {
         // Completely empty
@@ -524,4 +690,15 @@ public class LwM2mNodeDecoderTest {
         assertEquals(6, resource.getId());
         assertTrue(resource.getValues().isEmpty());
     }
+
+    private static class TimestampedNodes extends ArrayList<TimestampedLwM2mNode> implements
+            TimestampedLwM2mNodeHandler {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onTimestampedNode(TimestampedLwM2mNode timestampedNode) {
+            add(timestampedNode);
+        }
+    }
 }
@@ -34,6 +34,7 @@ import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.util.Hex;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -274,4 +275,31 @@ public class LwM2mNodeEncoderTest {
         String expected = b.toString();
         Assert.assertEquals(expected, new String(encoded));
     }
+
+    @Test
+    public void senml_cbor_encode_device_object_instance() {
+
+        LwM2mObjectInstance oInstance = new LwM2mObjectInstance(0, getDeviceResources());
+        byte[] encoded = encoder.encode(oInstance, ContentFormat.SENML_CBOR, new LwM2mPath("/3/0"), model);
+
+        // the time resource is written in seconds, as an integer
+        Assert.assertEquals(oInstance, new DefaultLwM2mNodeDecoder().decode(encoded, ContentFormat.SENML_CBOR,
+                new LwM2mPath("/3/0"), model));
+    }
+
+    @Test
+    public void senml_cbor_encode_timestamped_resources() throws CodecException {
+        List<TimestampedLwM2mNode> data = new ArrayList<>();
+        data.add(new TimestampedLwM2mNode(500L, LwM2mSingleResource.newFloatResource(1, 22.5)));
+        data.add(new TimestampedLwM2mNode(510L, LwM2mSingleResource.newFloatResource(1, 22.25)));
+        data.add(new TimestampedLwM2mNode(520L, LwM2mSingleResource.newFloatResource(1, 24.0)));
+
+        byte[] encoded = encoder.encodeTimestampedData(data, ContentFormat.SENML_CBOR, new LwM2mPath(1024, 0, 1),
+                model);
+
+        // [{-2: "/1024/0/", -3: 500, 0: "1", 2: 22.5}, {0: "1", 2: 22.25, 6: 10}, {0: "1", 2: 24.0, 6: 20}]
+        String expected = "83" + "a4" + "21682f313032342f302f" + "221901f4" + "006131" + "02fa41b40000" + "a3"
+                + "006131" + "02fa41b20000" + "060a" + "a3" + "006131" + "02fa41c00000" + "0614";
+        Assert.assertEquals(expected, Hex.encodeHexString(encoded));
+    }
 }
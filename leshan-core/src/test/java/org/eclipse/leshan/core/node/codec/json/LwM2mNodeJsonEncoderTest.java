@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.json;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
+import org.eclipse.leshan.json.JsonArrayEntry;
+import org.eclipse.leshan.json.JsonRootObject;
+import org.eclipse.leshan.json.LwM2mJson;
+import org.eclipse.leshan.util.Base64;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that {@link LwM2mNodeJsonEncoder} encodes random nodes the same way as the {@link JsonRootObject} based
+ * serializer.
+ */
+public class LwM2mNodeJsonEncoderTest {
+
+    private static final int NODES = 500;
+    // objects not described by the model
+    private static final int OBJECT_ID = 20000;
+
+    private static LwM2mModel model;
+    private static LwM2mValueConverter converter;
+
+    @BeforeClass
+    public static void loadModel() {
+        model = new LwM2mModel(ObjectLoader.loadDefault());
+        converter = new DefaultLwM2mValueConverter();
+    }
+
+    @Test
+    public void random_nodes_are_encoded_as_json_entries() {
+        Random random = new Random(0x7157);
+        for (int i = 0; i < NODES; i++) {
+            LwM2mObject object = randomObject(random);
+            LwM2mPath objectPath = new LwM2mPath(OBJECT_ID);
+            assertSameEncoding(object, objectPath, entries(object, null));
+
+            for (LwM2mObjectInstance instance : object.getInstances().values()) {
+                assertSameEncoding(instance, objectPath, entries(instance, true, null));
+                assertSameEncoding(instance, new LwM2mPath(OBJECT_ID, instance.getId()),
+                        entries(instance, false, null));
+
+                for (LwM2mResource resource : instance.getResources().values()) {
+                    assertSameEncoding(resource, new LwM2mPath(OBJECT_ID, instance.getId(), resource.getId()),
+                            entries(null, resource, null));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void random_timestamped_nodes_are_encoded_as_json_entries() {
+        Random random = new Random(0x7157);
+        for (int i = 0; i < NODES; i++) {
+            LwM2mPath path = new LwM2mPath(OBJECT_ID, 0);
+            List<TimestampedLwM2mNode> nodes = new ArrayList<>();
+            List<JsonArrayEntry> expected = new ArrayList<>();
+            int count = random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                LwM2mObjectInstance instance = randomInstance(random, 0);
+                Long timestamp = random.nextInt(4) == 0 ? null : random.nextLong() >> random.nextInt(64);
+                nodes.add(new TimestampedLwM2mNode(timestamp, instance));
+                expected.addAll(entries(instance, false, timestamp));
+            }
+
+            assertArrayEquals(reference(path, expected),
+                    LwM2mNodeJsonEncoder.encodeTimestampedData(nodes, path, model, converter));
+        }
+    }
+
+    @Test
+    public void object_link_is_not_supported() {
+        LwM2mResource resource = LwM2mSingleResource.newObjectLinkResource(1, new ObjectLink(3, 0));
+        try {
+            LwM2mNodeJsonEncoder.encode(resource, new LwM2mPath(OBJECT_ID, 0, 1), model, converter);
+            fail();
+        } catch (CodecException e) {
+            assertEquals("Invalid value type OBJLNK for /", e.getMessage());
+        }
+    }
+
+    private static void assertSameEncoding(LwM2mObject object, LwM2mPath path, List<JsonArrayEntry> expected) {
+        assertArrayEquals(reference(path, expected), LwM2mNodeJsonEncoder.encode(object, path, model, converter));
+    }
+
+    private static void assertSameEncoding(LwM2mObjectInstance instance, LwM2mPath path,
+            List<JsonArrayEntry> expected) {
+        assertArrayEquals(reference(path, expected), LwM2mNodeJsonEncoder.encode(instance, path, model, converter));
+    }
+
+    private static void assertSameEncoding(LwM2mResource resource, LwM2mPath path, List<JsonArrayEntry> expected) {
+        assertArrayEquals(reference(path, expected), LwM2mNodeJsonEncoder.encode(resource, path, model, converter));
+    }
+
+    /* *************** JsonRootObject based encoding **************** */
+
+    private static byte[] reference(LwM2mPath path, List<JsonArrayEntry> entries) {
+        JsonRootObject jsonObject = new JsonRootObject();
+        jsonObject.setResourceList(entries);
+        jsonObject.setBaseName(path.toString());
+        return LwM2mJson.toJsonLwM2m(jsonObject).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<JsonArrayEntry> entries(LwM2mObject object, Long timestamp) {
+        List<JsonArrayEntry> entries = new ArrayList<>();
+        for (LwM2mObjectInstance instance : object.getInstances().values()) {
+            entries.addAll(entries(instance, true, timestamp));
+        }
+        return entries;
+    }
+
+    private static List<JsonArrayEntry> entries(LwM2mObjectInstance instance, boolean withInstanceId,
+            Long timestamp) {
+        List<JsonArrayEntry> entries = new ArrayList<>();
+        for (LwM2mResource resource : instance.getResources().values()) {
+            String prefix = withInstanceId ? instance.getId() + "/" + resource.getId()
+                    : Integer.toString(resource.getId());
+            entries.addAll(entries(prefix, resource, timestamp));
+        }
+        return entries;
+    }
+
+    private static List<JsonArrayEntry> entries(String prefix, LwM2mResource resource, Long timestamp) {
+        List<JsonArrayEntry> entries = new ArrayList<>();
+        if (resource.isMultiInstances()) {
+            for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
+                String name = prefix == null ? entry.getKey().toString() : prefix + "/" + entry.getKey();
+                entries.add(entry(name, entry.getValue(), resource.getType(), timestamp));
+            }
+        } else {
+            entries.add(entry(prefix == null ? "" : prefix, resource.getValue(), resource.getType(), timestamp));
+        }
+        return entries;
+    }
+
+    private static JsonArrayEntry entry(String name, Object value, Type type, Long timestamp) {
+        JsonArrayEntry entry = new JsonArrayEntry();
+        entry.setName(name);
+        entry.setTime(timestamp);
+        switch (type) {
+        case STRING:
+            entry.setStringValue((String) value);
+            break;
+        case INTEGER:
+        case FLOAT:
+            entry.setFloatValue((Number) value);
+            break;
+        case BOOLEAN:
+            entry.setBooleanValue((Boolean) value);
+            break;
+        case TIME:
+            entry.setFloatValue(((Date) value).getTime() / 1000L);
+            break;
+        case OPAQUE:
+            entry.setStringValue(Base64.encodeBase64String((byte[]) value));
+            break;
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+        return entry;
+    }
+
+    /* *************** Random nodes **************** */
+
+    private static LwM2mObject randomObject(Random random) {
+        List<LwM2mObjectInstance> instances = new ArrayList<>();
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            instances.add(randomInstance(random, i * 100 + random.nextInt(100)));
+        }
+        return new LwM2mObject(OBJECT_ID, instances);
+    }
+
+    private static LwM2mObjectInstance randomInstance(Random random, int id) {
+        Map<Integer, LwM2mResource> resources = new HashMap<>();
+        int count = random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            int resourceId = random.nextInt(300);
+            Type type = randomType(random);
+            if (random.nextInt(4) == 0) {
+                Map<Integer, Object> values = new HashMap<>();
+                int valueCount = random.nextInt(5);
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(random.nextInt(300), randomValue(random, type));
+                }
+                resources.put(resourceId, LwM2mMultipleResource.newResource(resourceId, values, type));
+            } else {
+                resources.put(resourceId, LwM2mSingleResource.newResource(resourceId, randomValue(random, type), type));
+            }
+        }
+        return new LwM2mObjectInstance(id, resources.values());
+    }
+
+    private static Type randomType(Random random) {
+        // object links are not supported by the JSON encoder
+        Type[] types = { Type.STRING, Type.INTEGER, Type.FLOAT, Type.BOOLEAN, Type.TIME, Type.OPAQUE };
+        return types[random.nextInt(types.length)];
+    }
+
+    private static Object randomValue(Random random, Type type) {
+        switch (type) {
+        case STRING:
+            return randomString(random);
+        case INTEGER:
+            // small integers and integers written with an exponent
+            return random.nextLong() >> random.nextInt(64);
+        case FLOAT:
+            return randomDouble(random);
+        case BOOLEAN:
+            return random.nextBoolean();
+        case TIME:
+            return new Date((random.nextLong() >> 24) * 1000L);
+        case OPAQUE:
+            byte[] value = new byte[random.nextInt(16)];
+            random.nextBytes(value);
+            return value;
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+
+    private static double randomDouble(Random random) {
+        double[] specials = { 0.0, -0.0, 1e7, -1e7, 9999999.0, 1e-3, 1e-4, 0.5, Double.MIN_VALUE, Double.MAX_VALUE,
+                                Long.MAX_VALUE, Long.MIN_VALUE };
+        switch (random.nextInt(4)) {
+        case 0:
+            return specials[random.nextInt(specials.length)];
+        case 1:
+            // integral values
+            return (double) (random.nextLong() >> random.nextInt(64));
+        case 2:
+            return random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+        default:
+            return (random.nextBoolean() ? 1 : -1) * (double) random.nextFloat() * 1000;
+        }
+    }
+
+    private static String randomString(Random random) {
+        // characters to escape, control characters, 2 and 3 bytes UTF-8 characters, surrogate pairs and malformed
+        // surrogates
+        char[][] alphabets = { { 'a', 'Z', '0', ' ', '/' }, { '"', '\\', '\n', '\r', '\t', '\u2028', '\u2029' },
+                                { '\u0000', '\u0001', '\u001f', '\u007f' }, { 'é', '߿' }, { '€', '漢', '￿' },
+                                { '\ud83d', '\ude00' } };
+        int length = random.nextInt(8) == 0 ? random.nextInt(300) : random.nextInt(12);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            char[] alphabet = alphabets[random.nextInt(alphabets.length)];
+            if (alphabet.length == 2 && Character.isSurrogate(alphabet[0]) && random.nextBoolean()) {
+                b.append(alphabet[0]).append(alphabet[1]);
+            } else {
+                b.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+        }
+        return b.toString();
+    }
+}
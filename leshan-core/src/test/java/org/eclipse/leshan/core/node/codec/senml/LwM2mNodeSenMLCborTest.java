@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.senml;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.TimestampedLwM2mNodeHandler;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that random nodes encoded by {@link LwM2mNodeSenMLCborEncoder} are decoded by
+ * {@link LwM2mNodeSenMLCborDecoder} as they were.
+ */
+public class LwM2mNodeSenMLCborTest {
+
+    private static final int NODES = 500;
+    // objects not described by the model, the types come from the values
+    private static final int OBJECT_ID = 20000;
+
+    private static LwM2mModel model;
+    private static LwM2mValueConverter converter;
+
+    @BeforeClass
+    public static void loadModel() {
+        model = new LwM2mModel(ObjectLoader.loadDefault());
+        converter = new DefaultLwM2mValueConverter();
+    }
+
+    @Test
+    public void random_nodes_round_trip() {
+        Random random = new Random(0x5e41);
+        for (int i = 0; i < NODES; i++) {
+            LwM2mObject object = randomObject(random);
+            LwM2mPath objectPath = new LwM2mPath(OBJECT_ID);
+            assertEquals(object, roundTrip(object, objectPath, LwM2mObject.class));
+
+            for (LwM2mObjectInstance instance : object.getInstances().values()) {
+                assertEquals(instance, roundTrip(instance, objectPath, LwM2mObjectInstance.class));
+                assertEquals(instance,
+                        roundTrip(instance, new LwM2mPath(OBJECT_ID, instance.getId()), LwM2mObjectInstance.class));
+
+                for (LwM2mResource resource : instance.getResources().values()) {
+                    assertEquals(resource, roundTrip(resource,
+                            new LwM2mPath(OBJECT_ID, instance.getId(), resource.getId()), LwM2mResource.class));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void random_timestamped_nodes_round_trip() {
+        Random random = new Random(0x5e41);
+        for (int i = 0; i < NODES; i++) {
+            LwM2mPath path = new LwM2mPath(OBJECT_ID, 0);
+            List<TimestampedLwM2mNode> nodes = new ArrayList<>();
+            // distinct time-stamps, in the order of the content
+            long timestamp = random.nextInt(4) == 0 ? 0 : random.nextLong() >> random.nextInt(40);
+            int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                timestamp += 1 + random.nextInt(1000);
+                nodes.add(new TimestampedLwM2mNode(timestamp, randomInstance(random, 0)));
+            }
+
+            byte[] encoded = LwM2mNodeSenMLCborEncoder.encodeTimestampedData(nodes, path, model, converter);
+            final List<TimestampedLwM2mNode> decoded = new ArrayList<>();
+            int decodedCount = LwM2mNodeSenMLCborDecoder.decodeTimestamped(encoded, path, model,
+                    LwM2mObjectInstance.class, new TimestampedLwM2mNodeHandler() {
+                        @Override
+                        public void onTimestampedNode(TimestampedLwM2mNode timestampedNode) {
+                            decoded.add(timestampedNode);
+                        }
+                    });
+            assertEquals(count, decodedCount);
+            assertEquals(nodes, decoded);
+        }
+    }
+
+    private static LwM2mObject roundTrip(LwM2mObject object, LwM2mPath path, Class<LwM2mObject> nodeClass) {
+        byte[] encoded = LwM2mNodeSenMLCborEncoder.encode(object, path, model, converter);
+        return LwM2mNodeSenMLCborDecoder.decode(encoded, path, model, nodeClass);
+    }
+
+    private static LwM2mObjectInstance roundTrip(LwM2mObjectInstance instance, LwM2mPath path,
+            Class<LwM2mObjectInstance> nodeClass) {
+        byte[] encoded = LwM2mNodeSenMLCborEncoder.encode(instance, path, model, converter);
+        return LwM2mNodeSenMLCborDecoder.decode(encoded, path, model, nodeClass);
+    }
+
+    private static LwM2mResource roundTrip(LwM2mResource resource, LwM2mPath path, Class<LwM2mResource> nodeClass) {
+        byte[] encoded = LwM2mNodeSenMLCborEncoder.encode(resource, path, model, converter);
+        return LwM2mNodeSenMLCborDecoder.decode(encoded, path, model, nodeClass);
+    }
+
+    /* *************** Random nodes **************** */
+
+    private static LwM2mObject randomObject(Random random) {
+        List<LwM2mObjectInstance> instances = new ArrayList<>();
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            instances.add(randomInstance(random, i * 100 + random.nextInt(100)));
+        }
+        return new LwM2mObject(OBJECT_ID, instances);
+    }
+
+    // at least one resource and one value by resource: there is no record for an empty node
+    private static LwM2mObjectInstance randomInstance(Random random, int id) {
+        Map<Integer, LwM2mResource> resources = new HashMap<>();
+        int count = 1 + random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            int resourceId = random.nextInt(300);
+            Type type = randomType(random);
+            if (random.nextInt(4) == 0) {
+                Map<Integer, Object> values = new HashMap<>();
+                int valueCount = 1 + random.nextInt(5);
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(random.nextInt(300), randomValue(random, type));
+                }
+                resources.put(resourceId, LwM2mMultipleResource.newResource(resourceId, values, type));
+            } else {
+                resources.put(resourceId, LwM2mSingleResource.newResource(resourceId, randomValue(random, type), type));
+            }
+        }
+        return new LwM2mObjectInstance(id, resources.values());
+    }
+
+    private static Type randomType(Random random) {
+        // times are decoded as integers without a model
+        Type[] types = { Type.STRING, Type.INTEGER, Type.FLOAT, Type.BOOLEAN, Type.OPAQUE, Type.OBJLNK };
+        return types[random.nextInt(types.length)];
+    }
+
+    private static Object randomValue(Random random, Type type) {
+        switch (type) {
+        case STRING:
+            return randomString(random);
+        case INTEGER:
+            return random.nextLong() >> random.nextInt(64);
+        case FLOAT:
+            return randomDouble(random);
+        case BOOLEAN:
+            return random.nextBoolean();
+        case OPAQUE:
+            byte[] value = new byte[random.nextInt(16)];
+            random.nextBytes(value);
+            return value;
+        case OBJLNK:
+            return new ObjectLink(random.nextInt(65535), random.nextInt(65535));
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+
+    private static double randomDouble(Random random) {
+        double[] specials = { 0.0, -0.0, 1.5, Float.MAX_VALUE, Float.MIN_VALUE, Double.MIN_VALUE, Double.MAX_VALUE,
+                                Double.POSITIVE_INFINITY, Double.NaN };
+        switch (random.nextInt(4)) {
+        case 0:
+            return specials[random.nextInt(specials.length)];
+        case 1:
+            // integral values
+            return (double) (random.nextLong() >> random.nextInt(64));
+        case 2:
+            return random.nextDouble() * Math.pow(10, random.nextInt(40) - 20);
+        default:
+            // single precision values
+            return (random.nextBoolean() ? 1 : -1) * (double) random.nextFloat() * 1000;
+        }
+    }
+
+    private static String randomString(Random random) {
+        // 1, 2, 3 and 4 bytes UTF-8 characters
+        String[] alphabet = { "a", "Z", "0", " ", "/", "\u0000", "é", "€", "漢", "😀" };
+        int length = random.nextInt(8) == 0 ? random.nextInt(300) : random.nextInt(12);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            b.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return b.toString();
+    }
+}
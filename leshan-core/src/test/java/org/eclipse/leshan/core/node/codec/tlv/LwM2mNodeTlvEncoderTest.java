@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.core.node.codec.tlv;
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.model.ObjectLoader;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mValueConverter;
+import org.eclipse.leshan.core.node.codec.LwM2mValueConverter;
+import org.eclipse.leshan.tlv.Tlv;
+import org.eclipse.leshan.tlv.Tlv.TlvType;
+import org.eclipse.leshan.tlv.TlvEncoder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that {@link LwM2mNodeTlvEncoder} encodes random nodes the same way as the {@link Tlv} tree based encoder.
+ */
+public class LwM2mNodeTlvEncoderTest {
+
+    private static final int NODES = 500;
+    // objects not described by the model
+    private static final int OBJECT_ID = 20000;
+
+    private static LwM2mModel model;
+    private static LwM2mValueConverter converter;
+
+    @BeforeClass
+    public static void loadModel() {
+        model = new LwM2mModel(ObjectLoader.loadDefault());
+        converter = new DefaultLwM2mValueConverter();
+    }
+
+    @Test
+    public void random_nodes_are_encoded_as_tlv_trees() {
+        Random random = new Random(0x7157);
+        for (int i = 0; i < NODES; i++) {
+            LwM2mObject object = randomObject(random);
+            assertSameEncoding(object, new LwM2mPath(OBJECT_ID));
+
+            for (LwM2mObjectInstance instance : object.getInstances().values()) {
+                assertSameEncoding(instance, new LwM2mPath(OBJECT_ID));
+                assertSameEncoding(instance, new LwM2mPath(OBJECT_ID, instance.getId()));
+
+                for (LwM2mResource resource : instance.getResources().values()) {
+                    assertSameEncoding(resource, new LwM2mPath(OBJECT_ID, instance.getId(), resource.getId()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void long_values_are_encoded_as_tlv_trees() {
+        byte[] value = new byte[70_000];
+        new Random(0x7157).nextBytes(value);
+        Map<Integer, byte[]> values = new HashMap<>();
+        values.put(1, value);
+        values.put(300, new byte[300]);
+        LwM2mObjectInstance instance = new LwM2mObjectInstance(0, LwM2mSingleResource.newBinaryResource(1, value),
+                LwM2mMultipleResource.newBinaryResource(2, values));
+
+        assertSameEncoding(instance, new LwM2mPath(OBJECT_ID));
+    }
+
+    @Test
+    public void encode_into_a_given_buffer() {
+        LwM2mObjectInstance instance = new LwM2mObjectInstance(0, LwM2mSingleResource.newStringResource(0, "leshan"),
+                LwM2mSingleResource.newIntegerResource(1, 123456789L));
+        LwM2mPath path = new LwM2mPath(OBJECT_ID, 0);
+        byte[] expected = LwM2mNodeTlvEncoder.encode(instance, path, model, converter);
+
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 2);
+        buffer.put((byte) 0xFF);
+        assertEquals(expected.length, LwM2mNodeTlvEncoder.encode(instance, path, model, converter, buffer));
+        assertEquals(expected.length + 1, buffer.position());
+        byte[] written = new byte[expected.length];
+        System.arraycopy(buffer.array(), 1, written, 0, expected.length);
+        assertArrayEquals(expected, written);
+
+        try {
+            LwM2mNodeTlvEncoder.encode(instance, path, model, converter, buffer);
+            fail();
+        } catch (BufferOverflowException e) {
+            // nothing written
+            assertEquals(expected.length + 1, buffer.position());
+        }
+    }
+
+    private static void assertSameEncoding(LwM2mObject object, LwM2mPath path) {
+        List<Tlv> tlvs = new ArrayList<>();
+        for (LwM2mObjectInstance instance : object.getInstances().values()) {
+            tlvs.add(new Tlv(TlvType.OBJECT_INSTANCE, resourceTlvs(instance.getResources().values()), null,
+                    instance.getId()));
+        }
+        assertArrayEquals(TlvEncoder.encode(tlvs.toArray(new Tlv[0])).array(),
+                LwM2mNodeTlvEncoder.encode(object, path, model, converter));
+    }
+
+    private static void assertSameEncoding(LwM2mObjectInstance instance, LwM2mPath path) {
+        Tlv[] tlvs = resourceTlvs(instance.getResources().values());
+        if (!path.isObjectInstance()) {
+            tlvs = new Tlv[] { new Tlv(TlvType.OBJECT_INSTANCE, tlvs, null, instance.getId()) };
+        }
+        assertArrayEquals(TlvEncoder.encode(tlvs).array(),
+                LwM2mNodeTlvEncoder.encode(instance, path, model, converter));
+    }
+
+    private static void assertSameEncoding(LwM2mResource resource, LwM2mPath path) {
+        assertArrayEquals(TlvEncoder.encode(new Tlv[] { resourceTlv(resource) }).array(),
+                LwM2mNodeTlvEncoder.encode(resource, path, model, converter));
+    }
+
+    /* *************** Tlv tree based encoding **************** */
+
+    private static Tlv[] resourceTlvs(Collection<LwM2mResource> resources) {
+        List<Tlv> tlvs = new ArrayList<>();
+        for (LwM2mResource resource : resources) {
+            tlvs.add(resourceTlv(resource));
+        }
+        return tlvs.toArray(new Tlv[0]);
+    }
+
+    private static Tlv resourceTlv(LwM2mResource resource) {
+        if (!resource.isMultiInstances()) {
+            return new Tlv(TlvType.RESOURCE_VALUE, null, tlvValue(resource.getValue(), resource.getType()),
+                    resource.getId());
+        }
+        List<Tlv> instances = new ArrayList<>();
+        for (Entry<Integer, ?> entry : resource.getValues().entrySet()) {
+            instances.add(new Tlv(TlvType.RESOURCE_INSTANCE, null, tlvValue(entry.getValue(), resource.getType()),
+                    entry.getKey()));
+        }
+        return new Tlv(TlvType.MULTIPLE_RESOURCE, instances.toArray(new Tlv[0]), null, resource.getId());
+    }
+
+    private static byte[] tlvValue(Object value, Type type) {
+        switch (type) {
+        case STRING:
+            return TlvEncoder.encodeString((String) value);
+        case INTEGER:
+            return TlvEncoder.encodeInteger((Number) value);
+        case FLOAT:
+            return TlvEncoder.encodeFloat((Number) value);
+        case BOOLEAN:
+            return TlvEncoder.encodeBoolean((Boolean) value);
+        case TIME:
+            return TlvEncoder.encodeDate((Date) value);
+        case OPAQUE:
+            return (byte[]) value;
+        case OBJLNK:
+            return TlvEncoder.encodeObjlnk((ObjectLink) value);
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+
+    /* *************** Random nodes **************** */
+
+    private static LwM2mObject randomObject(Random random) {
+        List<LwM2mObjectInstance> instances = new ArrayList<>();
+        int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            instances.add(randomInstance(random, i * 100 + random.nextInt(100)));
+        }
+        return new LwM2mObject(OBJECT_ID, instances);
+    }
+
+    private static LwM2mObjectInstance randomInstance(Random random, int id) {
+        Map<Integer, LwM2mResource> resources = new HashMap<>();
+        int count = random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            // some identifiers need 16 bits
+            int resourceId = random.nextInt(300);
+            Type type = randomType(random);
+            if (random.nextInt(4) == 0) {
+                Map<Integer, Object> values = new HashMap<>();
+                int valueCount = random.nextInt(5);
+                for (int j = 0; j < valueCount; j++) {
+                    values.put(random.nextInt(300), randomValue(random, type));
+                }
+                resources.put(resourceId, LwM2mMultipleResource.newResource(resourceId, values, type));
+            } else {
+                resources.put(resourceId, LwM2mSingleResource.newResource(resourceId, randomValue(random, type), type));
+            }
+        }
+        return new LwM2mObjectInstance(id, resources.values());
+    }
+
+    private static Type randomType(Random random) {
+        Type[] types = { Type.STRING, Type.INTEGER, Type.FLOAT, Type.BOOLEAN, Type.TIME, Type.OPAQUE, Type.OBJLNK };
+        return types[random.nextInt(types.length)];
+    }
+
+    private static Object randomValue(Random random, Type type) {
+        switch (type) {
+        case STRING:
+            return randomString(random);
+        case INTEGER:
+            // 1, 2, 4 and 8 bytes integers
+            return random.nextLong() >> random.nextInt(64);
+        case FLOAT:
+            return random.nextBoolean() ? random.nextDouble() * 1000 : (double) random.nextFloat();
+        case BOOLEAN:
+            return random.nextBoolean();
+        case TIME:
+            return new Date((random.nextLong() >> 24) * 1000L);
+        case OPAQUE:
+            byte[] value = new byte[random.nextInt(8) == 0 ? random.nextInt(400) : random.nextInt(16)];
+            random.nextBytes(value);
+            return value;
+        case OBJLNK:
+            return new ObjectLink(random.nextInt(0x10000), random.nextInt(0x10000));
+        default:
+            throw new IllegalArgumentException("unexpected type " + type);
+        }
+    }
+
+    private static String randomString(Random random) {
+        // ASCII, 2 and 3 bytes UTF-8 characters, surrogate pairs and malformed surrogates
+        char[][] alphabets = { { 'a', 'Z', '0', ' ', '"' }, { 'é', '߿' }, { '€', '漢', '￿' },
+                                { '\ud83d', '\ude00' } };
+        int length = random.nextInt(8) == 0 ? random.nextInt(300) : random.nextInt(12);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            char[] alphabet = alphabets[random.nextInt(alphabets.length)];
+            if (alphabet.length == 2 && Character.isSurrogate(alphabet[0]) && random.nextBoolean()) {
+                b.append(alphabet[0]).append(alphabet[1]);
+            } else {
+                b.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+        }
+        return b.toString();
+    }
+}
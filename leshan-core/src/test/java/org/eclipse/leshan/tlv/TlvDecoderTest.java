@@ -77,4 +77,42 @@ public class TlvDecoderTest {
         assertEquals(0xffff, objlnk.getObjectId());
         assertEquals(0xffff, objlnk.getObjectInstanceId());
     }
+
+    @Test
+    public void decode_integers() throws TlvException {
+        assertEquals(-1L, TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("FF".toCharArray())), 0, 1));
+        assertEquals(127L, TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("7F".toCharArray())), 0, 1));
+        assertEquals(-32768L, TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("8000".toCharArray())), 0, 2));
+        assertEquals(123456L, TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("0001E240".toCharArray())), 0, 4));
+        assertEquals(Long.MIN_VALUE,
+                TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("8000000000000000".toCharArray())), 0, 8));
+        // 3 bytes, read in the middle of a buffer
+        assertEquals(-2L, TlvDecoder.decodeLong(ByteBuffer.wrap(Hex.decodeHex("00FFFFFE00".toCharArray())), 1, 3));
+
+        // the type of the number depends on the length
+        assertEquals(Byte.valueOf((byte) -1), TlvDecoder.decodeInteger(Hex.decodeHex("FF".toCharArray())));
+        assertEquals(Integer.valueOf(-2), TlvDecoder.decodeInteger(Hex.decodeHex("FFFFFE".toCharArray())));
+        assertEquals(Long.valueOf(1L << 32), TlvDecoder.decodeInteger(Hex.decodeHex("0100000000".toCharArray())));
+    }
+
+    @Test(expected = TlvException.class)
+    public void decode_too_long_integer() throws TlvException {
+        TlvDecoder.decodeInteger(new byte[9]);
+    }
+
+    @Test(expected = TlvException.class)
+    public void decode_empty_integer() throws TlvException {
+        TlvDecoder.decodeLong(ByteBuffer.allocate(4), 0, 0);
+    }
+
+    @Test
+    public void decode_date() throws TlvException {
+        assertEquals(1367491215000L, TlvDecoder.decodeDate(Hex.decodeHex("5182428F".toCharArray())).getTime());
+        assertEquals(-1000L, TlvDecoder.decodeDate(Hex.decodeHex("FF".toCharArray())).getTime());
+    }
+
+    @Test(expected = TlvException.class)
+    public void decode_object_link_of_invalid_length() throws TlvException {
+        TlvDecoder.decodeObjlnk(Hex.decodeHex("123456".toCharArray()));
+    }
 }
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.tlv;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.leshan.tlv.Tlv.TlvType;
+import org.eclipse.leshan.util.Hex;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TlvReader}
+ */
+public class TlvReaderTest {
+
+    @Test
+    public void read_device_object() throws TlvException {
+        // the /3/0 from liblwm2m
+        String dataStr = "C800144F70656E204D6F62696C6520416C6C69616E6365C801164C69676874776569676874204D324D20436C69656E74C80209333435303030313233C303312E30860641000141010588070842000ED842011388870841007D42010384C10964C10A0F830B410000C40D5182428FC60E2B30323A3030C10F55";
+        ByteBuffer b = ByteBuffer.wrap(Hex.decodeHex(dataStr.toCharArray()));
+
+        // the reader sees the same TLVs as the decoder
+        assertArrayEquals(TlvDecoder.decode(b.duplicate()), read(new TlvReader(b)));
+        assertEquals(0, b.position());
+    }
+
+    @Test
+    public void read_nested_tlvs() throws TlvException {
+        byte[] longValue = new byte[300];
+        Arrays.fill(longValue, (byte) 0x42);
+        Tlv[] tlvs = new Tlv[] {
+                                new Tlv(TlvType.OBJECT_INSTANCE, new Tlv[] {
+                                                        new Tlv(TlvType.RESOURCE_VALUE, null, new byte[] { 1 }, 0),
+                                                        new Tlv(TlvType.MULTIPLE_RESOURCE, new Tlv[] {
+                                                                                new Tlv(TlvType.RESOURCE_INSTANCE, null,
+                                                                                        longValue, 1000),
+                                                                                new Tlv(TlvType.RESOURCE_INSTANCE, null,
+                                                                                        new byte[0], 1) },
+                                                                null, 2) },
+                                        null, 1),
+                                new Tlv(TlvType.OBJECT_INSTANCE, new Tlv[0], null, 2) };
+        ByteBuffer b = TlvEncoder.encode(tlvs);
+
+        assertArrayEquals(tlvs, read(new TlvReader(b)));
+    }
+
+    @Test
+    public void exit_skips_the_remaining_children() throws TlvException {
+        Tlv[] tlvs = new Tlv[] { new Tlv(TlvType.MULTIPLE_RESOURCE, new Tlv[] {
+                                new Tlv(TlvType.RESOURCE_INSTANCE, null, new byte[] { 1 }, 0),
+                                new Tlv(TlvType.RESOURCE_INSTANCE, null, new byte[] { 2 }, 1) }, null, 6),
+                                new Tlv(TlvType.RESOURCE_VALUE, null, new byte[] { 3 }, 7) };
+        TlvReader reader = new TlvReader(TlvEncoder.encode(tlvs));
+
+        assertTrue(reader.next());
+        reader.enter();
+        assertTrue(reader.next());
+        assertEquals(0, reader.getIdentifier());
+        assertTrue(reader.hasNext());
+        reader.exit();
+
+        assertTrue(reader.next());
+        assertEquals(TlvType.RESOURCE_VALUE, reader.getType());
+        assertEquals(7, reader.getIdentifier());
+        assertEquals(3, reader.getBuffer().get(reader.getValueOffset()));
+        assertFalse(reader.hasNext());
+        assertFalse(reader.next());
+        assertNull(reader.getType());
+
+        reader.rewind();
+        assertTrue(reader.next());
+        assertEquals(6, reader.getIdentifier());
+    }
+
+    @Test
+    public void read_between_position_and_limit() throws TlvException {
+        byte[] bytes = Hex.decodeHex("FFC10964C10A0FFF".toCharArray());
+        ByteBuffer b = ByteBuffer.wrap(bytes, 1, 6);
+
+        TlvReader reader = new TlvReader(b);
+        assertTrue(reader.next());
+        assertEquals(9, reader.getIdentifier());
+        assertEquals(3, reader.getValueOffset());
+        assertArrayEquals(new byte[] { 0x64 }, reader.getValue());
+        assertTrue(reader.next());
+        assertEquals(ByteBuffer.wrap(new byte[] { 0x0F }), reader.getValueSlice());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void truncated_value_is_an_error() {
+        // a resource value of 5 bytes with 4 bytes only
+        byte[] bytes = Hex.decodeHex("C10964C50A01020304".toCharArray());
+        TlvReader reader = new TlvReader(ByteBuffer.wrap(bytes));
+
+        try {
+            assertTrue(reader.next());
+            reader.next();
+            fail();
+        } catch (TlvException e) {
+            assertEquals("Invalid 'value' length at index 3 (TLV content of 9 bytes at index 0)", e.getMessage());
+        }
+    }
+
+    @Test
+    public void child_larger_than_its_parent_is_an_error() {
+        // a multiple resource of 2 bytes, which contains a resource instance of 3 bytes
+        byte[] bytes = Hex.decodeHex("820241000E".toCharArray());
+        TlvReader reader = new TlvReader(ByteBuffer.wrap(bytes));
+
+        try {
+            assertTrue(reader.next());
+            reader.enter();
+            reader.next();
+            fail();
+        } catch (TlvException e) {
+            assertEquals("Invalid 'value' length at index 2 (TLV content of 5 bytes at index 0)", e.getMessage());
+        }
+    }
+
+    private static Tlv[] read(TlvReader reader) throws TlvException {
+        List<Tlv> tlvs = new ArrayList<>();
+        while (reader.next()) {
+            TlvType type = reader.getType();
+            int identifier = reader.getIdentifier();
+            if (type == TlvType.OBJECT_INSTANCE || type == TlvType.MULTIPLE_RESOURCE) {
+                reader.enter();
+                Tlv[] children = read(reader);
+                reader.exit();
+                tlvs.add(new Tlv(type, children, null, identifier));
+            } else {
+                tlvs.add(new Tlv(type, null, reader.getValue(), identifier));
+            }
+        }
+        return tlvs.toArray(new Tlv[0]);
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.leshan.server.cluster.RedisBatchPublisher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eclipsesource.json.JsonObject;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.util.Pool;
+
+public class RedisBatchPublisherTest {
+
+    Pool<Jedis> pool;
+    String channel;
+    Subscriber subscriber;
+    RedisBatchPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        channel = "TEST_CHANNEL#" + UUID.randomUUID();
+        subscriber = new Subscriber();
+        subscriber.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (publisher != null)
+            publisher.stop();
+        subscriber.stop();
+        pool.destroy();
+    }
+
+    @Test
+    public void pipelined_messages_are_received_in_order() throws InterruptedException {
+        publisher = new RedisBatchPublisher(pool, channel, 16, 2, false);
+        publisher.start();
+
+        publish(1000);
+
+        assertReceivedInOrder(1000);
+        Assert.assertEquals(1000, subscriber.payloads.get());
+        Assert.assertTrue(publisher.getBatchCount() < 1000);
+    }
+
+    @Test
+    public void framed_messages_are_split_by_the_consumer() throws InterruptedException {
+        publisher = new RedisBatchPublisher(pool, channel, 16, 2, true);
+        publisher.start();
+
+        publish(1000);
+
+        assertReceivedInOrder(1000);
+        // several messages by payload
+        Assert.assertTrue(subscriber.payloads.get() < 1000);
+    }
+
+    @Test
+    public void waiting_messages_are_sent_on_stop() throws InterruptedException {
+        publisher = new RedisBatchPublisher(pool, channel, 256, 1000, true);
+        publisher.start();
+
+        publish(10);
+        publisher.stop();
+
+        assertReceivedInOrder(10);
+    }
+
+    private void publish(int count) {
+        for (int i = 0; i < count; i++) {
+            publisher.publish("{\"n\":" + i + "}");
+        }
+    }
+
+    private void assertReceivedInOrder(int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            JsonObject message = subscriber.messages.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull("message not received", message);
+            Assert.assertEquals(i, message.getInt("n", -1));
+        }
+    }
+
+    private class Subscriber extends JedisPubSub {
+        final BlockingQueue<JsonObject> messages = new LinkedBlockingQueue<>();
+        final AtomicInteger payloads = new AtomicInteger();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        Thread thread;
+
+        void start() throws InterruptedException {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Jedis j = pool.getResource()) {
+                        j.subscribe(Subscriber.this, channel);
+                    }
+                }
+            });
+            thread.start();
+            Assert.assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+        }
+
+        void stop() {
+            if (isSubscribed())
+                unsubscribe();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            payloads.incrementAndGet();
+            messages.addAll(RedisBatchPublisher.decode(message));
+        }
+    }
+}
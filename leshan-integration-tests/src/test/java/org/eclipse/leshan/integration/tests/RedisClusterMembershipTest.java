@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.leshan.server.cluster.RedisClusterMembership;
+import org.eclipse.leshan.server.cluster.RedisTokenHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+public class RedisClusterMembershipTest {
+
+    private static final long HEARTBEAT_PERIOD = 100; // in milliseconds
+
+    Pool<Jedis> pool;
+    RedisClusterMembership membership1;
+    RedisClusterMembership membership2;
+    RedisTokenHandler handler1;
+    RedisTokenHandler handler2;
+    List<String> endpoints = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        String uid1 = "instance-" + UUID.randomUUID();
+        String uid2 = "instance-" + UUID.randomUUID();
+        membership1 = new RedisClusterMembership(pool, uid1, HEARTBEAT_PERIOD, 64);
+        membership2 = new RedisClusterMembership(pool, uid2, HEARTBEAT_PERIOD, 64);
+        handler1 = new RedisTokenHandler(pool, uid1, 100, true);
+        handler2 = new RedisTokenHandler(pool, uid2, 100, true);
+        for (int i = 0; i < 20; i++) {
+            endpoints.add("urn:endpoint:" + UUID.randomUUID());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        membership1.stop();
+        membership2.stop();
+        handler1.stop();
+        handler2.stop();
+        try (Jedis j = pool.getResource()) {
+            for (String endpoint : endpoints) {
+                j.del("EP#UID#" + endpoint);
+            }
+            j.del("CLUSTER:EPS#" + handler1.getInstanceUID(), "CLUSTER:EPS#" + handler2.getInstanceUID());
+        }
+        pool.destroy();
+    }
+
+    @Test
+    public void live_instances_share_the_same_ring() throws InterruptedException {
+        membership1.start();
+        membership2.start();
+        waitForMembers(membership1, 2);
+        waitForMembers(membership2, 2);
+
+        for (String endpoint : endpoints) {
+            Assert.assertNotNull(membership1.getOwner(endpoint));
+            Assert.assertEquals(membership1.getOwner(endpoint), membership2.getOwner(endpoint));
+        }
+
+        // a stopped instance leaves the ring
+        membership2.stop();
+        waitForMembers(membership1, 1);
+        for (String endpoint : endpoints) {
+            Assert.assertEquals(membership1.getInstanceUID(), membership1.getOwner(endpoint));
+        }
+    }
+
+    @Test
+    public void draining_instance_hands_its_endpoints_over() throws InterruptedException {
+        membership1.start();
+        membership2.start();
+        waitForMembers(membership1, 2);
+        givenEndpointsOwnedBy(handler1);
+        handler1.start();
+        waitForSubscription(handler1);
+        for (String endpoint : endpoints) {
+            Assert.assertTrue(handler1.isResponsible(endpoint));
+        }
+
+        membership1.drain();
+        Map<String, String> handedOver = handler1.handOver(membership1);
+
+        Assert.assertEquals(endpoints.size(), handedOver.size());
+        try (Jedis j = pool.getResource()) {
+            for (String endpoint : endpoints) {
+                Assert.assertFalse(handler1.isResponsible(endpoint));
+                Assert.assertEquals(membership2.getInstanceUID(), j.get("EP#UID#" + endpoint));
+                Assert.assertTrue(j.sismember("CLUSTER:EPS#" + membership2.getInstanceUID(), endpoint));
+                // the lease end is kept
+                Assert.assertTrue(j.ttl("EP#UID#" + endpoint) > 3000);
+                // the new owner learns about it when a request is routed to it
+                Assert.assertTrue(handler2.adopt(endpoint));
+                Assert.assertTrue(handler2.isResponsible(endpoint));
+            }
+        }
+
+        // the other instance sees the draining one off the ring
+        waitForOwner(membership2, endpoints.get(0), membership2.getInstanceUID());
+    }
+
+    @Test
+    public void endpoints_of_a_dead_instance_are_adopted() throws InterruptedException {
+        // an instance which stopped its heartbeats without leaving the cluster
+        String deadUID = "instance-" + UUID.randomUUID();
+        try (Jedis j = pool.getResource()) {
+            List<String> time = j.time();
+            j.zadd("CLUSTER:MEMBERS", Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000,
+                    deadUID);
+            for (String endpoint : endpoints) {
+                j.setex("EP#UID#" + endpoint, 3600, deadUID);
+                j.sadd("CLUSTER:EPS#" + deadUID, endpoint);
+            }
+            // an endpoint whose registration expired
+            j.sadd("CLUSTER:EPS#" + deadUID, "urn:endpoint:" + UUID.randomUUID());
+        }
+        final List<String> left = new ArrayList<>();
+        membership1.addListener(new RedisClusterMembership.Listener() {
+            @Override
+            public void memberLeft(String instanceUID) {
+                synchronized (left) {
+                    left.add(instanceUID);
+                    left.notifyAll();
+                }
+            }
+        });
+        membership1.start();
+        Assert.assertTrue(membership1.isAlive(deadUID));
+
+        synchronized (left) {
+            long end = System.currentTimeMillis() + 5000;
+            while (left.isEmpty() && System.currentTimeMillis() < end) {
+                left.wait(100);
+            }
+        }
+        Assert.assertEquals(deadUID, left.get(0));
+        Assert.assertFalse(membership1.isAlive(deadUID));
+
+        // the only live instance adopts all the endpoints
+        Assert.assertEquals(endpoints.size(), handler1.adoptOrphans(deadUID, membership1));
+        for (String endpoint : endpoints) {
+            Assert.assertTrue(handler1.isResponsible(endpoint));
+        }
+        // the index of the dead instance is emptied
+        try (Jedis j = pool.getResource()) {
+            Assert.assertFalse(j.exists("CLUSTER:EPS#" + deadUID));
+            Assert.assertEquals(endpoints.size(), j.scard("CLUSTER:EPS#" + handler1.getInstanceUID()).intValue());
+        }
+    }
+
+    private void givenEndpointsOwnedBy(RedisTokenHandler handler) {
+        try (Jedis j = pool.getResource()) {
+            for (String endpoint : endpoints) {
+                j.setex("EP#UID#" + endpoint, 3600, handler.getInstanceUID());
+                j.sadd("CLUSTER:EPS#" + handler.getInstanceUID(), endpoint);
+            }
+        }
+    }
+
+    private void waitForMembers(RedisClusterMembership membership, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && membership.getRing().getNodes().size() != count; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(count, membership.getRing().getNodes().size());
+    }
+
+    private void waitForOwner(RedisClusterMembership membership, String endpoint, String owner)
+            throws InterruptedException {
+        for (int i = 0; i < 100 && !owner.equals(membership.getOwner(endpoint)); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(owner, membership.getOwner(endpoint));
+    }
+
+    private void waitForSubscription(RedisTokenHandler handler) throws InterruptedException {
+        // the leases are loaded once subscribed to the ownership notifications: an endpoint which was not registered
+        // by this instance is then not read from Redis
+        for (int i = 0; i < 100; i++) {
+            String unknown = "urn:endpoint:" + UUID.randomUUID();
+            boolean responsible;
+            try (Jedis j = pool.getResource()) {
+                j.setex("EP#UID#" + unknown, 10, handler.getInstanceUID());
+                responsible = handler.isResponsible(unknown);
+                j.del("EP#UID#" + unknown);
+            }
+            if (!responsible)
+                return;
+            Thread.sleep(20);
+        }
+        Assert.fail("not subscribed to ownership notifications");
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.server.californium.impl.CoapRequestBuilder;
+import org.eclipse.leshan.server.cluster.RedisNearCache;
+import org.eclipse.leshan.server.cluster.RedisRegistrationStore;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+public class RedisNearCacheTest {
+
+    Pool<Jedis> pool;
+    RedisNearCache nearCache;
+    RedisRegistrationStore cachedStore; // a node with a near cache
+    RedisRegistrationStore otherStore; // another node of the cluster
+    InetAddress address;
+    String ep;
+    int port = 23452;
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        nearCache = new RedisNearCache(pool, 100, 60);
+        cachedStore = new RedisRegistrationStore(pool, Executors.newSingleThreadScheduledExecutor(), 3600, 0,
+                nearCache);
+        cachedStore.start();
+        otherStore = new RedisRegistrationStore(pool);
+        address = InetAddress.getLoopbackAddress();
+        ep = "urn:endpoint:" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        cachedStore.stop();
+        Registration registration = otherStore.getRegistrationByEndpoint(ep);
+        if (registration != null) {
+            otherStore.removeRegistration(registration.getId());
+        }
+        pool.destroy();
+    }
+
+    @Test
+    public void registration_is_served_by_cache_until_modified_by_another_node() throws InterruptedException {
+        Registration registration = givenARegistration();
+        cachedStore.addRegistration(registration);
+        waitForCachedRegistration(registration.getId());
+
+        long hits = nearCache.getHitCount();
+        Assert.assertEquals(registration.getId(), cachedStore.getRegistrationByEndpoint(ep).getId());
+        Assert.assertEquals(registration.getId(), cachedStore.getRegistration(registration.getId()).getId());
+        Assert.assertEquals(hits + 2, nearCache.getHitCount());
+
+        otherStore.updateRegistration(new RegistrationUpdate(registration.getId(), address, port, 1234L, null, null,
+                null));
+        Long lifetime = null;
+        for (int i = 0; i < 100 && !Long.valueOf(1234L).equals(lifetime); i++) {
+            Thread.sleep(20);
+            lifetime = cachedStore.getRegistration(registration.getId()).getLifeTimeInSec();
+        }
+        Assert.assertEquals(Long.valueOf(1234L), lifetime);
+
+        otherStore.removeRegistration(registration.getId());
+        for (int i = 0; i < 100 && cachedStore.getRegistrationByEndpoint(ep) != null; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertNull(cachedStore.getRegistrationByEndpoint(ep));
+        Assert.assertNull(cachedStore.getRegistration(registration.getId()));
+    }
+
+    @Test
+    public void local_modifications_are_visible_immediately() throws InterruptedException {
+        Registration registration = givenARegistration();
+        cachedStore.addRegistration(registration);
+        waitForCachedRegistration(registration.getId());
+
+        cachedStore.updateRegistration(new RegistrationUpdate(registration.getId(), address, port, 1234L, null, null,
+                null));
+        Assert.assertEquals(Long.valueOf(1234L),
+                cachedStore.getRegistration(registration.getId()).getLifeTimeInSec());
+
+        cachedStore.removeRegistration(registration.getId());
+        Assert.assertNull(cachedStore.getRegistration(registration.getId()));
+    }
+
+    @Test
+    public void observation_is_invalidated_when_removed_by_another_node() throws InterruptedException {
+        Registration registration = givenARegistration();
+        cachedStore.addRegistration(registration);
+        waitForCachedRegistration(registration.getId());
+        byte[] token = givenAnObservation(registration);
+
+        Assert.assertNotNull(cachedStore.get(token));
+        long hits = nearCache.getHitCount();
+        Assert.assertNotNull(cachedStore.get(token));
+        Assert.assertEquals(hits + 1, nearCache.getHitCount());
+
+        otherStore.remove(token);
+        for (int i = 0; i < 100 && cachedStore.get(token) != null; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertNull(cachedStore.get(token));
+    }
+
+    @Test
+    public void read_is_cached_unless_its_key_was_invalidated() throws InterruptedException {
+        Registration registration = givenARegistration();
+        cachedStore.addRegistration(registration);
+        waitForCachedRegistration(registration.getId());
+        nearCache.invalidateEndpoint(ep);
+
+        // the invalidation of another endpoint during the read does not prevent caching
+        long stamp = nearCache.stamp();
+        nearCache.invalidateEndpoint("urn:endpoint:other");
+        nearCache.putRegistration(registration, stamp);
+        Assert.assertNotNull(nearCache.getRegistrationByEndpoint(ep));
+
+        stamp = nearCache.stamp();
+        nearCache.invalidateEndpoint(ep);
+        nearCache.putRegistration(registration, stamp);
+        Assert.assertNull(nearCache.getRegistrationByEndpoint(ep));
+    }
+
+    @Test
+    public void lookups_are_reported_to_metrics_listener() throws InterruptedException {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger misses = new AtomicInteger();
+        nearCache.setMetricsListener(new RedisNearCache.MetricsListener() {
+            @Override
+            public void onHit(long durationInNanos) {
+                hits.incrementAndGet();
+            }
+
+            @Override
+            public void onMiss(long durationInNanos) {
+                misses.incrementAndGet();
+            }
+        });
+        Registration registration = givenARegistration();
+        cachedStore.addRegistration(registration);
+        waitForCachedRegistration(registration.getId());
+
+        Assert.assertEquals(nearCache.getHitCount(), hits.get());
+        Assert.assertEquals(nearCache.getMissCount(), misses.get());
+        Assert.assertTrue(hits.get() > 0);
+    }
+
+    private void waitForCachedRegistration(String registrationId) throws InterruptedException {
+        // the cache is only used once subscribed to the invalidation channel
+        for (int i = 0; i < 100; i++) {
+            long hits = nearCache.getHitCount();
+            cachedStore.getRegistration(registrationId);
+            if (nearCache.getHitCount() > hits)
+                return;
+            Thread.sleep(20);
+        }
+        Assert.fail("registration is not cached");
+    }
+
+    private Registration givenARegistration() {
+        return new Registration.Builder(UUID.randomUUID().toString(), ep, address, port,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), LwM2m.DEFAULT_COAP_PORT))
+                        .objectLinks(Link.parse("</3/0>".getBytes(StandardCharsets.UTF_8))).build();
+    }
+
+    private byte[] givenAnObservation(Registration registration) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(ByteBuffer.allocate(8).putLong(System.nanoTime()).array());
+        coapRequest.getOptions().setUriPath("/3/0/13");
+        coapRequest.setObserve();
+        Map<String, String> context = new HashMap<>();
+        context.put(CoapRequestBuilder.CTX_REGID, registration.getId());
+        context.put(CoapRequestBuilder.CTX_LWM2M_PATH, "/3/0/13");
+        context.put(CoapRequestBuilder.CTX_ENDPOINT, ep);
+        coapRequest.setUserContext(context);
+
+        cachedStore.add(new org.eclipse.californium.core.observe.Observation(coapRequest, null));
+        return coapRequest.getToken();
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.cluster.RedisRegistrationEventPublisher;
+import org.eclipse.leshan.server.cluster.serialization.RegistrationDeltaSerDes;
+import org.eclipse.leshan.server.cluster.serialization.RegistrationSerDes;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.util.Pool;
+
+public class RedisRegistrationEventPublisherTest {
+
+    Pool<Jedis> pool;
+    String ep;
+    Subscriber subscriber;
+    RedisRegistrationEventPublisher publisher;
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        ep = "urn:endpoint:" + UUID.randomUUID();
+        publisher = new RedisRegistrationEventPublisher(pool, true);
+        subscriber = new Subscriber();
+        subscriber.start();
+    }
+
+    @After
+    public void tearDown() {
+        subscriber.stop();
+        pool.destroy();
+    }
+
+    @Test
+    public void delta_events_are_numbered_by_endpoint() throws InterruptedException {
+        Registration registration = givenARegistration();
+        publisher.registered(registration, null, Collections.<Observation> emptyList());
+        Registration updated = new RegistrationUpdate(registration.getId(), registration.getAddress(),
+                registration.getPort(), null, null, null, null).update(registration);
+        publisher.updated(null, updated, registration);
+        publisher.unregistered(updated, Collections.<Observation> emptyList(), false, null);
+
+        JsonObject event = nextEvent();
+        Assert.assertEquals("new", event.getString("t", null));
+        Assert.assertEquals(1, event.getInt("seq", 0));
+        Registration received = RegistrationSerDes.deserialize((JsonObject) event.get("reg"));
+        Assert.assertEquals(registration, received);
+
+        event = nextEvent();
+        Assert.assertEquals("up", event.getString("t", null));
+        Assert.assertEquals(2, event.getInt("seq", 0));
+        Assert.assertEquals(updated, RegistrationDeltaSerDes.apply(received, (JsonObject) event.get("delta")));
+
+        event = nextEvent();
+        Assert.assertEquals("del", event.getString("t", null));
+        Assert.assertEquals(3, event.getInt("seq", 0));
+        Assert.assertEquals(registration.getId(), event.getString("regId", null));
+        Assert.assertFalse(event.getBoolean("exp", true));
+
+        // a new registration restarts the sequence
+        publisher.registered(givenARegistration(), null, Collections.<Observation> emptyList());
+        Assert.assertEquals(1, nextEvent().getInt("seq", 0));
+        try (Jedis j = pool.getResource()) {
+            Assert.assertTrue(j.ttl("REG:SEQ#" + ep) > 0);
+        }
+        publisher.unregistered(registration, Collections.<Observation> emptyList(), true, null);
+        Assert.assertEquals(2, nextEvent().getInt("seq", 0));
+        try (Jedis j = pool.getResource()) {
+            Assert.assertFalse(j.exists("REG:SEQ#" + ep));
+        }
+    }
+
+    private JsonObject nextEvent() throws InterruptedException {
+        JsonObject event = subscriber.events.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull("event not received", event);
+        Assert.assertEquals(ep, event.getString("ep", null));
+        return event;
+    }
+
+    private Registration givenARegistration() {
+        return new Registration.Builder(UUID.randomUUID().toString(), ep, InetAddress.getLoopbackAddress(), 23452,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), LwM2m.DEFAULT_COAP_PORT)).lifeTimeInSec(300L)
+                        .objectLinks(new Link[] { new Link("/1/0"), new Link("/3/0") }).build();
+    }
+
+    private class Subscriber extends JedisPubSub {
+        final BlockingQueue<JsonObject> events = new LinkedBlockingQueue<>();
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        Thread thread;
+
+        void start() throws InterruptedException {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Jedis j = pool.getResource()) {
+                        j.subscribe(Subscriber.this, "LESHAN_REG_DELTA");
+                    }
+                }
+            });
+            thread.start();
+            Assert.assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+        }
+
+        void stop() {
+            if (isSubscribed())
+                unsubscribe();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            JsonObject event = Json.parse(message).asObject();
+            // the other tests may publish events too
+            if (ep.equals(event.getString("ep", null)))
+                events.add(event);
+        }
+    }
+}
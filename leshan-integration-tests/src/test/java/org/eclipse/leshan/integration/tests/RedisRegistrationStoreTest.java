@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.californium.impl.CoapRequestBuilder;
+import org.eclipse.leshan.server.cluster.RedisRegistrationStore;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.ExpirationListener;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+public class RedisRegistrationStoreTest {
+
+    Pool<Jedis> pool;
+    RedisRegistrationStore store;
+    InetAddress address;
+    String ep;
+    int port = 23452;
+    long token = System.nanoTime();
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        store = new RedisRegistrationStore(pool);
+        address = InetAddress.getLoopbackAddress();
+        ep = "urn:endpoint:" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        Registration registration = store.getRegistrationByEndpoint(ep);
+        if (registration != null) {
+            store.removeRegistration(registration.getId());
+        }
+        pool.destroy();
+    }
+
+    @Test
+    public void new_registration_replaces_previous_one_and_its_observations() {
+        Registration first = givenARegistration(UUID.randomUUID().toString());
+        Assert.assertNull(store.addRegistration(first));
+        Request observeRequest = givenAnObservation(first.getId(), new LwM2mPath(3, 0, 13));
+
+        Registration second = givenARegistration(UUID.randomUUID().toString());
+        Deregistration deregistration = store.addRegistration(second);
+
+        Assert.assertEquals(first.getId(), deregistration.getRegistration().getId());
+        Assert.assertEquals(1, deregistration.getObservations().size());
+        Assert.assertNull(store.getRegistration(first.getId()));
+        Assert.assertNull(store.get(observeRequest.getToken()));
+        Assert.assertEquals(second.getId(), store.getRegistration(second.getId()).getId());
+    }
+
+    @Test
+    public void new_registration_replaces_registration_stored_without_regid_index() {
+        // registrations stored by previous versions are in JSON and have no registration id by endpoint index
+        store.setCompactFormat(false);
+        Registration first = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(first);
+        Request observeRequest = givenAnObservation(first.getId(), new LwM2mPath(3, 0, 13));
+        try (Jedis j = pool.getResource()) {
+            j.del("REGID:EP:" + ep);
+        }
+        store.setCompactFormat(true);
+
+        Deregistration deregistration = store.addRegistration(givenARegistration(UUID.randomUUID().toString()));
+
+        Assert.assertEquals(first.getId(), deregistration.getRegistration().getId());
+        Assert.assertEquals(1, deregistration.getObservations().size());
+        Assert.assertNull(store.getRegistration(first.getId()));
+        Assert.assertNull(store.get(observeRequest.getToken()));
+    }
+
+    @Test
+    public void remove_registration_removes_its_observations() {
+        Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+        Request observeRequest = givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 13));
+
+        Deregistration deregistration = store.removeRegistration(registration.getId());
+
+        Assert.assertEquals(registration.getId(), deregistration.getRegistration().getId());
+        Assert.assertEquals(1, deregistration.getObservations().size());
+        Assert.assertNull(store.getRegistration(registration.getId()));
+        Assert.assertNull(store.getRegistrationByEndpoint(ep));
+        Assert.assertNull(store.get(observeRequest.getToken()));
+        Assert.assertNull(store.removeRegistration(registration.getId()));
+    }
+
+    @Test
+    public void concurrent_updates_of_the_same_registration() throws Exception {
+        final Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+
+        final int nbThreads = 4;
+        final int nbUpdates = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < nbThreads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < nbUpdates; i++) {
+                            Assert.assertNotNull(store.updateRegistration(new RegistrationUpdate(
+                                    registration.getId(), address, port, 1000L + thread, null, null, null)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Registration updated = store.getRegistration(registration.getId());
+        Assert.assertTrue(updated.getLifeTimeInSec() >= 1000L && updated.getLifeTimeInSec() < 1000L + nbThreads);
+        Assert.assertEquals(updated.getId(), store.getRegistrationByEndpoint(ep).getId());
+    }
+
+    @Test
+    public void remove_observation_of_another_registration() {
+        Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+        Request observeRequest = givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 13));
+
+        Assert.assertNull(store.removeObservation("unknown", observeRequest.getToken()));
+        Assert.assertNotNull(store.get(observeRequest.getToken()));
+
+        Observation removed = store.removeObservation(registration.getId(), observeRequest.getToken());
+        Assert.assertArrayEquals(observeRequest.getToken(), removed.getId());
+        Assert.assertNull(store.get(observeRequest.getToken()));
+        Assert.assertTrue(store.getObservations(registration.getId()).isEmpty());
+    }
+
+    @Test
+    public void new_observation_cancels_previous_one_on_same_path() {
+        Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+        Request previous = givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 13));
+        givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 12));
+        Request next = givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 13));
+
+        Collection<Observation> cancelled = store.addObservation(registration.getId(),
+                new Observation(next.getToken(), registration.getId(), new LwM2mPath(3, 0, 13), null));
+
+        Assert.assertEquals(1, cancelled.size());
+        Assert.assertArrayEquals(previous.getToken(), cancelled.iterator().next().getId());
+        Assert.assertEquals(2, store.getObservations(registration.getId()).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_observation_without_registration() {
+        givenAnObservation(UUID.randomUUID().toString(), new LwM2mPath(3, 0, 13));
+    }
+
+    @Test
+    public void remove_cancelled_observation() {
+        Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+        Request observeRequest = givenAnObservation(registration.getId(), new LwM2mPath(3, 0, 13));
+
+        store.remove(observeRequest.getToken());
+        Assert.assertNull(store.get(observeRequest.getToken()));
+        Assert.assertTrue(store.getObservations(registration.getId()).isEmpty());
+    }
+
+    @Test
+    public void expiration_index_follows_registration() {
+        Registration registration = givenARegistration(UUID.randomUUID().toString());
+        store.addRegistration(registration);
+        try (Jedis j = pool.getResource()) {
+            Double added = j.zscore("EXP:EP", ep);
+            Assert.assertNotNull(added);
+
+            store.updateRegistration(new RegistrationUpdate(registration.getId(), address, port, 1_000_000L, null, null,
+                    null));
+            Assert.assertTrue(j.zscore("EXP:EP", ep) > added);
+
+            store.removeRegistration(registration.getId());
+            Assert.assertNull(j.zscore("EXP:EP", ep));
+        }
+    }
+
+    @Test
+    public void expired_registration_is_removed_by_cleaner() throws InterruptedException {
+        RedisRegistrationStore cleaningStore = new RedisRegistrationStore(pool, 1, 0);
+        final CountDownLatch expired = new CountDownLatch(1);
+        cleaningStore.setExpirationListener(new ExpirationListener() {
+            @Override
+            public void registrationExpired(Registration registration, Collection<Observation> observations) {
+                if (ep.equals(registration.getEndpoint()))
+                    expired.countDown();
+            }
+        });
+        Registration registration = new Registration.Builder(UUID.randomUUID().toString(), ep, address, port,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), LwM2m.DEFAULT_COAP_PORT)).lifeTimeInSec(1L)
+                        .lastUpdate(new Date(System.currentTimeMillis() - 10_000))
+                        .objectLinks(Link.parse("</3/0>".getBytes(StandardCharsets.UTF_8))).build();
+        cleaningStore.addRegistration(registration);
+
+        cleaningStore.start();
+        try {
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+        } finally {
+            cleaningStore.stop();
+        }
+        Assert.assertNull(store.getRegistrationByEndpoint(ep));
+        try (Jedis j = pool.getResource()) {
+            Assert.assertNull(j.zscore("EXP:EP", ep));
+        }
+    }
+
+    private Registration givenARegistration(String registrationId) {
+        return new Registration.Builder(registrationId, ep, address, port,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), LwM2m.DEFAULT_COAP_PORT))
+                        .objectLinks(Link.parse("</3/0>".getBytes(StandardCharsets.UTF_8))).build();
+    }
+
+    private Request givenAnObservation(String registrationId, LwM2mPath target) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(ByteBuffer.allocate(8).putLong(token++).array());
+        coapRequest.getOptions().setUriPath(target.toString());
+        coapRequest.setObserve();
+        Map<String, String> context = new HashMap<>();
+        context.put(CoapRequestBuilder.CTX_REGID, registrationId);
+        context.put(CoapRequestBuilder.CTX_LWM2M_PATH, target.toString());
+        context.put(CoapRequestBuilder.CTX_ENDPOINT, ep);
+        coapRequest.setUserContext(context);
+
+        store.add(new org.eclipse.californium.core.observe.Observation(coapRequest, null));
+        return coapRequest;
+    }
+}
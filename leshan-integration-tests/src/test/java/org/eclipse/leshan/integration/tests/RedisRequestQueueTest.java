@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.cluster.RedisRequestQueue;
+import org.eclipse.leshan.server.cluster.RedisRequestQueue.MessageHandler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+public class RedisRequestQueueTest {
+
+    Pool<Jedis> pool;
+    String ep;
+    String uid;
+    List<RedisRequestQueue> queues = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        ep = "urn:endpoint:" + UUID.randomUUID();
+        uid = "instance-" + UUID.randomUUID();
+    }
+
+    @After
+    public void tearDown() {
+        for (RedisRequestQueue queue : queues) {
+            queue.stop();
+        }
+        try (Jedis j = pool.getResource()) {
+            j.del("EP#UID#" + ep);
+        }
+        pool.destroy();
+    }
+
+    @Test
+    public void message_sent_while_not_reading_is_delivered_later() throws InterruptedException {
+        RedisRequestQueue queue = givenAQueue(uid);
+        givenAnOwner(uid);
+        Collector collector = new Collector(queue, true);
+        queue.start(collector);
+        // the heartbeat is written, stop reading the queue
+        queue.stop();
+
+        Assert.assertTrue(enqueue("m1"));
+        Assert.assertTrue(enqueue("m2"));
+
+        queue = givenAQueue(uid);
+        collector = new Collector(queue, true);
+        queue.start(collector);
+        Assert.assertEquals(Arrays.asList("m1", "m2"), collector.take(2));
+    }
+
+    @Test
+    public void unacknowledged_message_is_delivered_again_after_restart() throws InterruptedException {
+        RedisRequestQueue queue = givenAQueue(uid);
+        givenAnOwner(uid);
+        Collector collector = new Collector(queue, false);
+        queue.start(collector);
+
+        Assert.assertTrue(enqueue("m1"));
+        Assert.assertEquals(Arrays.asList("m1"), collector.take(1));
+        queue.stop();
+
+        // same instance restarts
+        queue = givenAQueue(uid);
+        collector = new Collector(queue, true);
+        queue.start(collector);
+        Assert.assertEquals(Arrays.asList("m1"), collector.take(1));
+        Assert.assertNull(collector.messages.poll(1500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void messages_of_dead_instance_are_delivered_to_another_one() throws InterruptedException {
+        RedisRequestQueue deadQueue = givenAQueue(uid);
+        givenAnOwner(uid);
+        Collector deadCollector = new Collector(deadQueue, false);
+        deadQueue.start(deadCollector);
+
+        Assert.assertTrue(enqueue("m1"));
+        Assert.assertEquals(Arrays.asList("m1"), deadCollector.take(1));
+        deadQueue.stop();
+        Assert.assertTrue(enqueue("m2"));
+
+        // another instance sees the missed heartbeats (3 x 1s)
+        RedisRequestQueue otherQueue = givenAQueue("instance-" + UUID.randomUUID());
+        Collector otherCollector = new Collector(otherQueue, true);
+        otherQueue.start(otherCollector);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            String message = otherCollector.messages.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("message not delivered again", message);
+            messages.add(message);
+        }
+        Assert.assertEquals(Arrays.asList("m1", "m2"), messages);
+    }
+
+    @Test
+    public void message_is_published_when_owner_is_unknown() {
+        Assert.assertFalse(enqueue("m1"));
+    }
+
+    private RedisRequestQueue givenAQueue(String instanceUID) {
+        RedisRequestQueue queue = new RedisRequestQueue(pool, instanceUID, 16, 1);
+        queues.add(queue);
+        return queue;
+    }
+
+    private void givenAnOwner(String instanceUID) {
+        try (Jedis j = pool.getResource()) {
+            j.set("EP#UID#" + ep, instanceUID);
+        }
+    }
+
+    private boolean enqueue(String message) {
+        try (Jedis j = pool.getResource()) {
+            return RedisRequestQueue.enqueue(j, ep, ep + message);
+        }
+    }
+
+    /**
+     * Collects the messages of this test, without their endpoint prefix (the messages of the dead instances of the
+     * database may be delivered too).
+     */
+    private class Collector implements MessageHandler {
+        private final RedisRequestQueue queue;
+        private final boolean ack;
+        private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+        Collector(RedisRequestQueue queue, boolean ack) {
+            this.queue = queue;
+            this.ack = ack;
+        }
+
+        @Override
+        public void handle(String message) {
+            if (ack)
+                queue.ack(message);
+            if (message.startsWith(ep))
+                messages.add(message.substring(ep.length()));
+        }
+
+        List<String> take(int count) throws InterruptedException {
+            List<String> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String message = messages.poll(5, TimeUnit.SECONDS);
+                Assert.assertNotNull("message not delivered", message);
+                taken.add(message);
+            }
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.integration.tests;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.cluster.RedisTokenHandler;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.util.Pool;
+
+public class RedisTokenHandlerTest {
+
+    Pool<Jedis> pool;
+    RedisTokenHandler handler1;
+    RedisTokenHandler handler2;
+    String ep;
+
+    @Before
+    public void setUp() throws Exception {
+        String redisURI = System.getenv("REDIS_URI");
+        if (redisURI == null)
+            redisURI = "";
+        pool = new JedisPool(redisURI);
+        ep = "urn:endpoint:" + UUID.randomUUID();
+        handler1 = new RedisTokenHandler(pool, "instance-" + UUID.randomUUID(), 100, true);
+        handler2 = new RedisTokenHandler(pool, "instance-" + UUID.randomUUID(), 100, true);
+    }
+
+    @After
+    public void tearDown() {
+        handler1.stop();
+        handler2.stop();
+        try (Jedis j = pool.getResource()) {
+            j.del("EP#UID#" + ep);
+            j.del("CLUSTER:EPS#" + handler1.getInstanceUID(), "CLUSTER:EPS#" + handler2.getInstanceUID());
+        }
+        pool.destroy();
+    }
+
+    @Test
+    public void responsibility_moves_to_the_last_registering_instance() throws InterruptedException {
+        handler1.start();
+        handler2.start();
+        waitForSubscription(handler1);
+        waitForSubscription(handler2);
+
+        Registration registration = givenARegistration(3600L);
+        handler1.registered(registration, null, Collections.<Observation> emptyList());
+        Assert.assertTrue(handler1.isResponsible(ep));
+        waitForResponsibility(handler2, false);
+
+        handler2.registered(registration, null, Collections.<Observation> emptyList());
+        Assert.assertTrue(handler2.isResponsible(ep));
+        waitForResponsibility(handler1, false);
+        assertIndexedBy(handler2);
+
+        handler2.unregistered(registration, Collections.<Observation> emptyList(), false, null);
+        Assert.assertFalse(handler2.isResponsible(ep));
+        assertIndexedBy(null);
+    }
+
+    @Test
+    public void lease_is_refreshed_by_batch() throws InterruptedException {
+        handler1.start();
+        waitForSubscription(handler1);
+
+        Registration registration = givenARegistration(60L);
+        handler1.registered(registration, null, Collections.<Observation> emptyList());
+        handler1.updated(new RegistrationUpdate(registration.getId(), registration.getAddress(),
+                registration.getPort(), 3600L, null, null, null), givenARegistration(3600L), registration);
+
+        long ttl = 0;
+        for (int i = 0; i < 100 && ttl <= 60; i++) {
+            Thread.sleep(20);
+            try (Jedis j = pool.getResource()) {
+                ttl = j.ttl("EP#UID#" + ep);
+            }
+        }
+        Assert.assertTrue("lease not refreshed", ttl > 60);
+        Assert.assertTrue(handler1.isResponsible(ep));
+    }
+
+    @Test
+    public void expired_lease_is_taken_again_on_update() throws InterruptedException {
+        handler1.start();
+        waitForSubscription(handler1);
+
+        Registration registration = givenARegistration(60L);
+        handler1.registered(registration, null, Collections.<Observation> emptyList());
+
+        // the lease expires in Redis, the registration is updated during its grace period
+        try (Jedis j = pool.getResource()) {
+            j.del("EP#UID#" + ep);
+            j.srem("CLUSTER:EPS#" + handler1.getInstanceUID(), ep);
+        }
+        handler1.updated(new RegistrationUpdate(registration.getId(), registration.getAddress(),
+                registration.getPort(), 3600L, null, null, null), givenARegistration(3600L), registration);
+
+        String owner = null;
+        for (int i = 0; i < 100 && owner == null; i++) {
+            Thread.sleep(20);
+            try (Jedis j = pool.getResource()) {
+                owner = j.get("EP#UID#" + ep);
+            }
+        }
+        Assert.assertEquals(handler1.getInstanceUID(), owner);
+        try (Jedis j = pool.getResource()) {
+            Assert.assertTrue(j.ttl("EP#UID#" + ep) > 60);
+        }
+        assertIndexedBy(handler1);
+        Assert.assertTrue(handler1.isResponsible(ep));
+    }
+
+    @Test
+    public void responsibility_is_reloaded_on_start() throws InterruptedException {
+        try (Jedis j = pool.getResource()) {
+            j.setex("EP#UID#" + ep, 3600, handler1.getInstanceUID());
+            j.sadd("CLUSTER:EPS#" + handler1.getInstanceUID(), ep);
+        }
+        handler1.start();
+        waitForSubscription(handler1);
+        Assert.assertTrue(handler1.isResponsible(ep));
+
+        // the lease ends when another instance removes the registration
+        handler2.unregistered(givenARegistration(3600L), Collections.<Observation> emptyList(), false, null);
+        waitForResponsibility(handler1, false);
+    }
+
+    @Test
+    public void ownership_is_read_from_redis_without_notifications() throws InterruptedException {
+        RedisTokenHandler handler = new RedisTokenHandler(pool, "instance-" + UUID.randomUUID(), 100);
+        handler.start();
+        try {
+            handler.registered(givenARegistration(3600L), null, Collections.<Observation> emptyList());
+            Assert.assertTrue(handler.isResponsible(ep));
+
+            // a change which is not published
+            try (Jedis j = pool.getResource()) {
+                j.setex("EP#UID#" + ep, 3600, handler2.getInstanceUID());
+            }
+            Assert.assertFalse(handler.isResponsible(ep));
+        } finally {
+            handler.stop();
+        }
+    }
+
+    private void waitForSubscription(RedisTokenHandler handler) throws InterruptedException {
+        // the local ownership is used once subscribed to the ownership notifications: an endpoint which was not
+        // registered by this instance is then not read from Redis
+        for (int i = 0; i < 100; i++) {
+            String unknown = "urn:endpoint:" + UUID.randomUUID();
+            boolean responsible;
+            try (Jedis j = pool.getResource()) {
+                j.setex("EP#UID#" + unknown, 10, handler.getInstanceUID());
+                responsible = handler.isResponsible(unknown);
+                j.del("EP#UID#" + unknown);
+            }
+            if (!responsible)
+                return;
+            Thread.sleep(20);
+        }
+        Assert.fail("not subscribed to ownership notifications");
+    }
+
+    private void assertIndexedBy(RedisTokenHandler handler) {
+        try (Jedis j = pool.getResource()) {
+            Assert.assertEquals(handler == handler1, j.sismember("CLUSTER:EPS#" + handler1.getInstanceUID(), ep));
+            Assert.assertEquals(handler == handler2, j.sismember("CLUSTER:EPS#" + handler2.getInstanceUID(), ep));
+        }
+    }
+
+    private void waitForResponsibility(RedisTokenHandler handler, boolean responsible) throws InterruptedException {
+        for (int i = 0; i < 100 && handler.isResponsible(ep) != responsible; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(responsible, handler.isResponsible(ep));
+    }
+
+    private Registration givenARegistration(Long lifetime) {
+        return new Registration.Builder(UUID.randomUUID().toString(), ep, InetAddress.getLoopbackAddress(), 23452,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), LwM2m.DEFAULT_COAP_PORT))
+                        .lifeTimeInSec(lifetime).build();
+    }
+}
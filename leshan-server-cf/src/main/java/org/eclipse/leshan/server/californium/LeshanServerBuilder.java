@@ -36,6 +36,7 @@ import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
 import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.server.LwM2mServer;
+import org.eclipse.leshan.server.californium.impl.ConcurrentInMemoryRegistrationStore;
 import org.eclipse.leshan.server.californium.impl.InMemoryRegistrationStore;
 import org.eclipse.leshan.server.californium.impl.LeshanServer;
 import org.eclipse.leshan.server.californium.impl.LwM2mPskStore;
@@ -152,7 +153,9 @@ public class LeshanServerBuilder {
      * <p>
      * Set your {@link RegistrationStore} implementation which stores {@link Registration} and {@link Observation}.
      * </p>
-     * By default the {@link InMemoryRegistrationStore} implementation is used.
+     * By default the {@link InMemoryRegistrationStore} implementation is used. The
+     * {@link ConcurrentInMemoryRegistrationStore} implementation should be preferred when a lot of clients register,
+     * update or are observed concurrently.
      * 
      */
     public LeshanServerBuilder setRegistrationStore(CaliforniumRegistrationStore registrationStore) {
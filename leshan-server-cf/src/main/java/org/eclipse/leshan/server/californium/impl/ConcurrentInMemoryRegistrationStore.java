@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.impl;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.californium.elements.CorrelationContext;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.Startable;
+import org.eclipse.leshan.server.Stoppable;
+import org.eclipse.leshan.server.californium.CaliforniumRegistrationStore;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.ExpirationListener;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationExpirationQueue;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.eclipse.leshan.util.Key;
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in memory store for registration and observation designed for a high level of concurrency.
+ * <p>
+ * Unlike {@link InMemoryRegistrationStore} there is no global lock: data are kept in concurrent maps and all the
+ * modifications for a given endpoint (its registration and the observations of this registration) are serialized by a
+ * lock chosen by hashing the endpoint name among a fixed set of locks. Modifications on different endpoints do not
+ * contend unless they share the same lock, and all the read operations (including the Californium
+ * {@link #get(byte[])} used for each notification) are lock-free.
+ */
+public class ConcurrentInMemoryRegistrationStore
+        implements CaliforniumRegistrationStore, Startable, Stoppable {
+    private final Logger LOG = LoggerFactory.getLogger(ConcurrentInMemoryRegistrationStore.class);
+
+    /** Default number of locks used to serialize modifications on endpoints */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 256;
+    /** Default extra time for registration lifetime in seconds */
+    public static final long DEFAULT_GRACE_PERIOD = 0;
+
+    // Data structure
+    private final ConcurrentMap<String /* end-point */, Registration> regsByEp = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String /* registration id */, Registration> regsByRegId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, Registration> regsByAddr = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, org.eclipse.californium.core.observe.Observation> obsByToken = new ConcurrentHashMap<>();
+    // token lists are only accessed under the lock of the endpoint owning the registration
+    private final ConcurrentMap<String, List<Key>> tokensByRegId = new ConcurrentHashMap<>();
+    private final ObservationIndex observationIndex = new ObservationIndex(obsByToken, tokensByRegId);
+
+    private final Lock[] locks;
+
+    // Listener use to notify when a registration expires
+    private ExpirationListener expirationListener;
+
+    // Registration ids ordered by expiration time
+    private final RegistrationExpirationQueue expirationQueue = new RegistrationExpirationQueue();
+
+    private final ScheduledExecutorService schedExecutor;
+    private final long cleanPeriod; // in seconds
+    private final long gracePeriod; // in seconds
+
+    public ConcurrentInMemoryRegistrationStore() {
+        this(2); // default clean period : 2s
+    }
+
+    public ConcurrentInMemoryRegistrationStore(long cleanPeriodInSec) {
+        this(Executors.newScheduledThreadPool(1,
+                new NamedThreadFactory(
+                        String.format("ConcurrentInMemoryRegistrationStore Cleaner (%ds)", cleanPeriodInSec))),
+                cleanPeriodInSec, DEFAULT_GRACE_PERIOD, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param schedExecutor the executor used to clean expired registrations.
+     * @param cleanPeriodInSec the time in seconds between 2 cleaning tasks.
+     * @param lifetimeGracePeriodInSec an extra time in seconds added to the registration lifetime before it expires.
+     * @param concurrencyLevel the number of locks used to serialize modifications on endpoints.
+     */
+    public ConcurrentInMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, int concurrencyLevel) {
+        Validate.isTrue(concurrencyLevel > 0, "concurrencyLevel must be strictly positive");
+        this.schedExecutor = schedExecutor;
+        this.cleanPeriod = cleanPeriodInSec;
+        this.gracePeriod = lifetimeGracePeriodInSec;
+        this.locks = new Lock[concurrencyLevel];
+        for (int i = 0; i < concurrencyLevel; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /* *************** Lock utility functions **************** */
+
+    private Lock lockFor(String endpoint) {
+        int hash = endpoint.hashCode();
+        // spread the hash to avoid using only the lower bits.
+        hash ^= (hash >>> 16);
+        return locks[(hash & 0x7fffffff) % locks.length];
+    }
+
+    /* *************** Leshan Registration API **************** */
+
+    @Override
+    public Deregistration addRegistration(Registration registration) {
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+
+            Registration registrationRemoved = regsByEp.put(registration.getEndpoint(), registration);
+            if (registrationRemoved != null) {
+                unsafeRemoveFromIndexes(registrationRemoved);
+            }
+            unsafeAddToIndexes(registration);
+            if (registrationRemoved != null) {
+                Collection<Observation> observationsRemoved = observationIndex
+                        .unsafeRemoveAllObservations(registrationRemoved.getId());
+                return new Deregistration(registrationRemoved, observationsRemoved);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public UpdatedRegistration updateRegistration(RegistrationUpdate update) {
+        Registration registration = regsByRegId.get(update.getRegistrationId());
+        if (registration == null) {
+            return null;
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+
+            // the registration could have been modified before we get the lock.
+            registration = regsByRegId.get(update.getRegistrationId());
+            if (registration == null) {
+                return null;
+            } else {
+                Registration updatedRegistration = update.update(registration);
+                regsByEp.put(updatedRegistration.getEndpoint(), updatedRegistration);
+                unsafeRemoveFromIndexes(registration);
+                unsafeAddToIndexes(updatedRegistration);
+                return new UpdatedRegistration(registration, updatedRegistration);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Registration getRegistration(String registrationId) {
+        if (registrationId != null) {
+            return regsByRegId.get(registrationId);
+        }
+        return null;
+    }
+
+    @Override
+    public Registration getRegistrationByEndpoint(String endpoint) {
+        if (endpoint != null) {
+            return regsByEp.get(endpoint);
+        }
+        return null;
+    }
+
+    @Override
+    public Registration getRegistrationByAdress(InetSocketAddress address) {
+        if (address != null) {
+            return regsByAddr.get(address);
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<Registration> getAllRegistrations() {
+        return Collections.unmodifiableCollection(regsByEp.values()).iterator();
+    }
+
+    @Override
+    public Deregistration removeRegistration(String registrationId) {
+        Registration registration = getRegistration(registrationId);
+        if (registration == null) {
+            return null;
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+
+            // the registration could have been modified before we get the lock.
+            registration = regsByRegId.get(registrationId);
+            if (registration != null) {
+                Collection<Observation> observationsRemoved = observationIndex
+                        .unsafeRemoveAllObservations(registration.getId());
+                regsByEp.remove(registration.getEndpoint(), registration);
+                unsafeRemoveFromIndexes(registration);
+                return new Deregistration(registration, observationsRemoved);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* *************** Registration utility functions **************** */
+
+    private void unsafeAddToIndexes(Registration registration) {
+        regsByRegId.put(registration.getId(), registration);
+        regsByAddr.put(toSocketAddress(registration), registration);
+        expirationQueue.schedule(registration.getId(),
+                RegistrationExpirationQueue.expirationTime(registration, gracePeriod));
+    }
+
+    private void unsafeRemoveFromIndexes(Registration registration) {
+        // an index entry may already point to a newer registration, in this case it must be kept.
+        if (regsByRegId.remove(registration.getId(), registration)) {
+            expirationQueue.cancel(registration.getId());
+        }
+        regsByAddr.remove(toSocketAddress(registration), registration);
+    }
+
+    private InetSocketAddress toSocketAddress(Registration registration) {
+        return new InetSocketAddress(registration.getAddress(), registration.getPort());
+    }
+
+    /* *************** Leshan Observation API **************** */
+
+    /*
+     * The observation is not persisted here, it is done by the Californium layer (in the implementation of the
+     * org.eclipse.californium.core.observe.ObservationStore#add method)
+     */
+    @Override
+    public Collection<Observation> addObservation(String registrationId, Observation observation) {
+        Registration registration = getRegistration(registrationId);
+        if (registration == null) {
+            return Collections.emptyList();
+        }
+
+        List<Observation> removed = new ArrayList<>();
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+            // cancel existing observations for the same path and registration id.
+            for (Observation obs : observationIndex.unsafeGetObservations(registrationId)) {
+                if (observation.getPath().equals(obs.getPath()) && !Arrays.equals(observation.getId(), obs.getId())) {
+                    observationIndex.unsafeRemoveObservation(obs.getId());
+                    removed.add(obs);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        return removed;
+    }
+
+    @Override
+    public Observation removeObservation(String registrationId, byte[] observationId) {
+        Registration registration = getRegistration(registrationId);
+        if (registration == null) {
+            return null;
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+
+            Observation observation = ObservationIndex
+                    .build(observationIndex.unsafeGetObservation(new Key(observationId)));
+            if (observation != null && registrationId.equals(observation.getRegistrationId())) {
+                observationIndex.unsafeRemoveObservation(observationId);
+                return observation;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Observation getObservation(String registrationId, byte[] observationId) {
+        Observation observation = ObservationIndex
+                .build(observationIndex.unsafeGetObservation(new Key(observationId)));
+        if (observation != null && registrationId.equals(observation.getRegistrationId())) {
+            return observation;
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<Observation> getObservations(String registrationId) {
+        Registration registration = getRegistration(registrationId);
+        if (registration == null) {
+            return Collections.emptyList();
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+            return observationIndex.unsafeGetObservations(registrationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<Observation> removeObservations(String registrationId) {
+        Registration registration = getRegistration(registrationId);
+        if (registration == null) {
+            return Collections.emptyList();
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+            return observationIndex.unsafeRemoveAllObservations(registrationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* *************** Californium ObservationStore API **************** */
+
+    @Override
+    public void add(org.eclipse.californium.core.observe.Observation obs) {
+        if (obs != null) {
+            ObservationIndex.validateObservation(obs);
+
+            String registrationId = ObservationIndex.extractRegistrationId(obs);
+            Registration registration = getRegistration(registrationId);
+            if (registration == null) {
+                throw new IllegalStateException("no registration for this Id");
+            }
+
+            Lock lock = lockFor(registration.getEndpoint());
+            try {
+                lock.lock();
+
+                // the registration could have been removed before we get the lock.
+                if (getRegistration(registrationId) == null) {
+                    throw new IllegalStateException("no registration for this Id");
+                }
+
+                Key token = new Key(obs.getRequest().getToken());
+                org.eclipse.californium.core.observe.Observation previousObservation = observationIndex
+                        .unsafeAddObservation(token, obs);
+
+                // log any collisions
+                if (previousObservation != null) {
+                    LOG.warn(
+                            "Token collision ? observation from request [{}] will be replaced by observation from request [{}] ",
+                            previousObservation.getRequest(), obs.getRequest());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public org.eclipse.californium.core.observe.Observation get(byte[] token) {
+        return observationIndex.unsafeGetObservation(new Key(token));
+    }
+
+    @Override
+    public void setContext(byte[] token, CorrelationContext ctx) {
+        Key key = new Key(token);
+        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(key);
+        if (obs != null) {
+            // replace only if the observation was not removed or replaced in the meantime.
+            obsByToken.replace(key, obs, new org.eclipse.californium.core.observe.Observation(obs.getRequest(), ctx));
+        }
+    }
+
+    @Override
+    public void remove(byte[] token) {
+        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(new Key(token));
+        if (obs == null) {
+            return;
+        }
+
+        Registration registration = getRegistration(ObservationIndex.extractRegistrationId(obs));
+        if (registration == null) {
+            // observations are removed with their registration, so this one was already removed.
+            return;
+        }
+
+        Lock lock = lockFor(registration.getEndpoint());
+        try {
+            lock.lock();
+            observationIndex.unsafeRemoveObservation(token);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* *************** Expiration handling **************** */
+
+    @Override
+    public void setExpirationListener(ExpirationListener listener) {
+        this.expirationListener = listener;
+    }
+
+    /**
+     * start the registration store, will start regular cleanup of dead registrations.
+     */
+    @Override
+    public void start() {
+        schedExecutor.scheduleAtFixedRate(new Cleaner(), cleanPeriod, cleanPeriod, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the underlying cleanup of the registrations.
+     */
+    @Override
+    public void stop() {
+        schedExecutor.shutdownNow();
+        try {
+            schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOG.warn("Clean up registration thread was interrupted.", e);
+        }
+    }
+
+    private class Cleaner implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                // only the registrations which expire since the last run are checked.
+                for (String registrationId : expirationQueue.pollExpired(System.currentTimeMillis())) {
+                    Deregistration removedRegistration = removeIfExpired(registrationId);
+                    if (removedRegistration != null) {
+                        expirationListener.registrationExpired(removedRegistration.getRegistration(),
+                                removedRegistration.getObservations());
+                    }
+                }
+            } catch (Exception e) {
+                LOG.warn("Unexpected Exception while registration cleaning", e);
+            }
+        }
+
+        private Deregistration removeIfExpired(String registrationId) {
+            Registration registration = getRegistration(registrationId);
+            if (registration == null) {
+                return null;
+            }
+            Lock lock = lockFor(registration.getEndpoint());
+            try {
+                lock.lock();
+                // the registration could have been updated since it was polled.
+                registration = getRegistration(registrationId);
+                if (registration != null && !registration.isAlive(gracePeriod)) {
+                    // force de-registration
+                    return removeRegistration(registrationId);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -20,8 +20,7 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.californium.impl;
 
-import static org.eclipse.leshan.server.californium.impl.CoapRequestBuilder.*;
-
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,16 +29,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.eclipse.californium.core.observe.ObservationUtil;
 import org.eclipse.californium.elements.CorrelationContext;
-import org.eclipse.leshan.core.node.LwM2mPath;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.server.Startable;
 import org.eclipse.leshan.server.Stoppable;
@@ -47,6 +43,7 @@ import org.eclipse.leshan.server.californium.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.registration.Deregistration;
 import org.eclipse.leshan.server.registration.ExpirationListener;
 import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationExpirationQueue;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
 import org.eclipse.leshan.util.Key;
@@ -56,22 +53,38 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An in memory store for registration and observation.
+ * <p>
+ * The content of the store can be made durable with a {@link RegistrationJournal}: it is recovered when the store is
+ * started, so registrations (and their expiration) and observations survive a restart of the server.
  */
 public class InMemoryRegistrationStore implements CaliforniumRegistrationStore, Startable, Stoppable {
     private final Logger LOG = LoggerFactory.getLogger(InMemoryRegistrationStore.class);
 
+    /** Default extra time for registration lifetime in seconds */
+    public static final long DEFAULT_GRACE_PERIOD = 0;
+
     // Data structure
     private final Map<String /* end-point */, Registration> regsByEp = new HashMap<>();
-    private Map<Key, org.eclipse.californium.core.observe.Observation> obsByToken = new HashMap<>();
-    private Map<String, List<Key>> tokensByRegId = new HashMap<>();
+    private final Map<String /* registration id */, Registration> regsByRegId = new HashMap<>();
+    private final Map<InetSocketAddress, Registration> regsByAddr = new HashMap<>();
+    private final Map<Key, org.eclipse.californium.core.observe.Observation> obsByToken = new HashMap<>();
+    private final Map<String, List<Key>> tokensByRegId = new HashMap<>();
+    private final ObservationIndex observationIndex = new ObservationIndex(obsByToken, tokensByRegId);
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     // Listener use to notify when a registration expires
     private ExpirationListener expirationListener;
 
+    // Registration ids ordered by expiration time
+    private final RegistrationExpirationQueue expirationQueue = new RegistrationExpirationQueue();
+
     private final ScheduledExecutorService schedExecutor;
     private final long cleanPeriod; // in seconds
+    private final long gracePeriod; // in seconds
+
+    // Optional journal used to recover the store content on start
+    private final RegistrationJournal journal;
 
     public InMemoryRegistrationStore() {
         this(2); // default clean period : 2s
@@ -84,8 +97,31 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     }
 
     public InMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec) {
+        this(schedExecutor, cleanPeriodInSec, DEFAULT_GRACE_PERIOD);
+    }
+
+    /**
+     * @param schedExecutor the executor used to clean expired registrations.
+     * @param cleanPeriodInSec the time in seconds between 2 cleaning tasks.
+     * @param lifetimeGracePeriodInSec an extra time in seconds added to the registration lifetime before it expires.
+     */
+    public InMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec) {
+        this(schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, null);
+    }
+
+    /**
+     * @param schedExecutor the executor used to clean expired registrations and compact the journal.
+     * @param cleanPeriodInSec the time in seconds between 2 cleaning tasks.
+     * @param lifetimeGracePeriodInSec an extra time in seconds added to the registration lifetime before it expires.
+     * @param journal the journal used to persist the store content, or <code>null</code> to keep it in memory only.
+     */
+    public InMemoryRegistrationStore(ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, RegistrationJournal journal) {
         this.schedExecutor = schedExecutor;
         this.cleanPeriod = cleanPeriodInSec;
+        this.gracePeriod = lifetimeGracePeriodInSec;
+        this.journal = journal;
     }
 
     /* *************** Leshan Registration API **************** */
@@ -97,7 +133,15 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
             Registration registrationRemoved = regsByEp.put(registration.getEndpoint(), registration);
             if (registrationRemoved != null) {
-                Collection<Observation> observationsRemoved = unsafeRemoveAllObservations(registrationRemoved.getId());
+                unsafeRemoveFromIndexes(registrationRemoved);
+            }
+            unsafeAddToIndexes(registration);
+            if (journal != null) {
+                journal.registrationUpdated(registration);
+            }
+            if (registrationRemoved != null) {
+                Collection<Observation> observationsRemoved = observationIndex
+                        .unsafeRemoveAllObservations(registrationRemoved.getId());
                 return new Deregistration(registrationRemoved, observationsRemoved);
             }
         } finally {
@@ -111,12 +155,17 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         try {
             lock.writeLock().lock();
 
-            Registration registration = getRegistration(update.getRegistrationId());
+            Registration registration = regsByRegId.get(update.getRegistrationId());
             if (registration == null) {
                 return null;
             } else {
                 Registration updatedRegistration = update.update(registration);
                 regsByEp.put(updatedRegistration.getEndpoint(), updatedRegistration);
+                unsafeRemoveFromIndexes(registration);
+                unsafeAddToIndexes(updatedRegistration);
+                if (journal != null) {
+                    journal.registrationUpdated(updatedRegistration);
+                }
                 return new UpdatedRegistration(registration, updatedRegistration);
             }
         } finally {
@@ -128,13 +177,8 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public Registration getRegistration(String registrationId) {
         try {
             lock.readLock().lock();
-            // TODO we should create an index instead of iterate all over the collection
             if (registrationId != null) {
-                for (Registration registration : regsByEp.values()) {
-                    if (registrationId.equals(registration.getId())) {
-                        return registration;
-                    }
-                }
+                return regsByRegId.get(registrationId);
             }
             return null;
         } finally {
@@ -156,13 +200,8 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public Registration getRegistrationByAdress(InetSocketAddress address) {
         try {
             lock.readLock().lock();
-            // TODO we should create an index instead of iterate all over the collection
             if (address != null) {
-                for (Registration r : regsByEp.values()) {
-                    if (address.getPort() == r.getPort() && address.getAddress().equals(r.getAddress())) {
-                        return r;
-                    }
-                }
+                return regsByAddr.get(address);
             }
             return null;
         } finally {
@@ -187,8 +226,13 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
             Registration registration = getRegistration(registrationId);
             if (registration != null) {
-                Collection<Observation> observationsRemoved = unsafeRemoveAllObservations(registration.getId());
+                Collection<Observation> observationsRemoved = observationIndex
+                        .unsafeRemoveAllObservations(registration.getId());
                 regsByEp.remove(registration.getEndpoint());
+                unsafeRemoveFromIndexes(registration);
+                if (journal != null) {
+                    journal.registrationRemoved(registrationId);
+                }
                 return new Deregistration(registration, observationsRemoved);
             }
             return null;
@@ -197,6 +241,31 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         }
     }
 
+    /* *************** Registration utility functions **************** */
+
+    private void unsafeAddToIndexes(Registration registration) {
+        regsByRegId.put(registration.getId(), registration);
+        regsByAddr.put(toSocketAddress(registration), registration);
+        expirationQueue.schedule(registration.getId(),
+                RegistrationExpirationQueue.expirationTime(registration, gracePeriod));
+    }
+
+    private void unsafeRemoveFromIndexes(Registration registration) {
+        // an index entry may already point to a newer registration, in this case it must be kept.
+        if (regsByRegId.get(registration.getId()) == registration) {
+            regsByRegId.remove(registration.getId());
+            expirationQueue.cancel(registration.getId());
+        }
+        InetSocketAddress address = toSocketAddress(registration);
+        if (regsByAddr.get(address) == registration) {
+            regsByAddr.remove(address);
+        }
+    }
+
+    private InetSocketAddress toSocketAddress(Registration registration) {
+        return new InetSocketAddress(registration.getAddress(), registration.getPort());
+    }
+
     /* *************** Leshan Observation API **************** */
 
     /*
@@ -211,10 +280,13 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         try {
             lock.writeLock().lock();
             // cancel existing observations for the same path and registration id.
-            for (Observation obs : unsafeGetObservations(registrationId)) {
+            for (Observation obs : observationIndex.unsafeGetObservations(registrationId)) {
                 if (observation.getPath().equals(obs.getPath()) && !Arrays.equals(observation.getId(), obs.getId())) {
-                    unsafeRemoveObservation(obs.getId());
+                    observationIndex.unsafeRemoveObservation(obs.getId());
                     removed.add(obs);
+                    if (journal != null) {
+                        journal.observationRemoved(obs.getId());
+                    }
                 }
             }
         } finally {
@@ -229,9 +301,13 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         try {
             lock.writeLock().lock();
 
-            Observation observation = build(unsafeGetObservation(new Key(observationId)));
+            Observation observation = ObservationIndex
+                    .build(observationIndex.unsafeGetObservation(new Key(observationId)));
             if (observation != null && registrationId.equals(observation.getRegistrationId())) {
-                unsafeRemoveObservation(observationId);
+                observationIndex.unsafeRemoveObservation(observationId);
+                if (journal != null) {
+                    journal.observationRemoved(observationId);
+                }
                 return observation;
             }
             return null;
@@ -244,7 +320,8 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public Observation getObservation(String registrationId, byte[] observationId) {
         try {
             lock.readLock().lock();
-            Observation observation = build(unsafeGetObservation(new Key(observationId)));
+            Observation observation = ObservationIndex
+                    .build(observationIndex.unsafeGetObservation(new Key(observationId)));
             if (observation != null && registrationId.equals(observation.getRegistrationId())) {
                 return observation;
             }
@@ -258,7 +335,7 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public Collection<Observation> getObservations(String registrationId) {
         try {
             lock.readLock().lock();
-            return unsafeGetObservations(registrationId);
+            return observationIndex.unsafeGetObservations(registrationId);
         } finally {
             lock.readLock().unlock();
         }
@@ -268,7 +345,13 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public Collection<Observation> removeObservations(String registrationId) {
         try {
             lock.writeLock().lock();
-            return unsafeRemoveAllObservations(registrationId);
+            Collection<Observation> removed = observationIndex.unsafeRemoveAllObservations(registrationId);
+            if (journal != null) {
+                for (Observation observation : removed) {
+                    journal.observationRemoved(observation.getId());
+                }
+            }
+            return removed;
         } finally {
             lock.writeLock().unlock();
         }
@@ -282,15 +365,17 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
             try {
                 lock.writeLock().lock();
 
-                validateObservation(obs);
+                ObservationIndex.validateObservation(obs);
+                if (getRegistration(ObservationIndex.extractRegistrationId(obs)) == null) {
+                    throw new IllegalStateException("no registration for this Id");
+                }
 
-                String registrationId = extractRegistrationId(obs);
                 Key token = new Key(obs.getRequest().getToken());
-                org.eclipse.californium.core.observe.Observation previousObservation = obsByToken.put(token, obs);
-                if (!tokensByRegId.containsKey(registrationId)) {
-                    tokensByRegId.put(registrationId, new ArrayList<Key>());
+                org.eclipse.californium.core.observe.Observation previousObservation = observationIndex
+                        .unsafeAddObservation(token, obs);
+                if (journal != null) {
+                    journal.observationAdded(obs);
                 }
-                tokensByRegId.get(registrationId).add(token);
 
                 // log any collisions
                 if (previousObservation != null) {
@@ -308,7 +393,7 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public org.eclipse.californium.core.observe.Observation get(byte[] token) {
         try {
             lock.readLock().lock();
-            return unsafeGetObservation(new Key(token));
+            return observationIndex.unsafeGetObservation(new Key(token));
         } finally {
             lock.readLock().unlock();
         }
@@ -332,103 +417,14 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
     public void remove(byte[] token) {
         try {
             lock.writeLock().lock();
-            unsafeRemoveObservation(token);
+            if (observationIndex.unsafeRemoveObservation(token) && journal != null) {
+                journal.observationRemoved(token);
+            }
         } finally {
             lock.writeLock().unlock();
         }
     }
 
-    /* *************** Observation utility functions **************** */
-
-    private org.eclipse.californium.core.observe.Observation unsafeGetObservation(Key token) {
-        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(token);
-        return ObservationUtil.shallowClone(obs);
-    }
-
-    private void unsafeRemoveObservation(byte[] observationId) {
-        Key kToken = new Key(observationId);
-        org.eclipse.californium.core.observe.Observation removed = obsByToken.remove(kToken);
-
-        if (removed != null) {
-            String registrationId = extractRegistrationId(removed);
-            List<Key> tokens = tokensByRegId.get(registrationId);
-            tokens.remove(kToken);
-            if (tokens.isEmpty()) {
-                tokensByRegId.remove(registrationId);
-            }
-        }
-    }
-
-    private Collection<Observation> unsafeRemoveAllObservations(String registrationId) {
-        Collection<Observation> removed = new ArrayList<>();
-        List<Key> tokens = tokensByRegId.get(registrationId);
-        if (tokens != null) {
-            for (Key token : tokens) {
-                Observation observationRemoved = build(obsByToken.remove(token));
-                if (observationRemoved != null) {
-                    removed.add(observationRemoved);
-                }
-            }
-        }
-        tokensByRegId.remove(registrationId);
-        return removed;
-    }
-
-    private Collection<Observation> unsafeGetObservations(String registrationId) {
-        Collection<Observation> result = new ArrayList<>();
-        List<Key> tokens = tokensByRegId.get(registrationId);
-        if (tokens != null) {
-            for (Key token : tokens) {
-                Observation obs = build(unsafeGetObservation(token));
-                if (obs != null) {
-                    result.add(obs);
-                }
-            }
-        }
-        return result;
-    }
-
-    /* Retrieve the registrationId from the request context */
-    private String extractRegistrationId(org.eclipse.californium.core.observe.Observation observation) {
-        return observation.getRequest().getUserContext().get(CoapRequestBuilder.CTX_REGID);
-    }
-
-    private Observation build(org.eclipse.californium.core.observe.Observation cfObs) {
-        if (cfObs == null)
-            return null;
-
-        String regId = null;
-        String lwm2mPath = null;
-        Map<String, String> context = null;
-
-        for (Entry<String, String> ctx : cfObs.getRequest().getUserContext().entrySet()) {
-            switch (ctx.getKey()) {
-            case CTX_REGID:
-                regId = ctx.getValue();
-                break;
-            case CTX_LWM2M_PATH:
-                lwm2mPath = ctx.getValue();
-                break;
-            default:
-                if (context == null) {
-                    context = new HashMap<>();
-                }
-                context.put(ctx.getKey(), ctx.getValue());
-            }
-        }
-        return new Observation(cfObs.getRequest().getToken(), regId, new LwM2mPath(lwm2mPath), context);
-    }
-
-    private void validateObservation(org.eclipse.californium.core.observe.Observation observation) {
-        if (!observation.getRequest().getUserContext().containsKey(CoapRequestBuilder.CTX_REGID))
-            throw new IllegalStateException("missing registrationId info in the request context");
-        if (!observation.getRequest().getUserContext().containsKey(CoapRequestBuilder.CTX_LWM2M_PATH))
-            throw new IllegalStateException("missing lwm2m path info in the request context");
-        if (getRegistration(observation.getRequest().getUserContext().get(CoapRequestBuilder.CTX_REGID)) == null) {
-            throw new IllegalStateException("no registration for this Id");
-        }
-    }
-
     /* *************** Expiration handling **************** */
 
     @Override
@@ -438,9 +434,14 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
 
     /**
      * start the registration store, will start regular cleanup of dead registrations.
+     * <p>
+     * If the store has a journal, its content is recovered first.
      */
     @Override
     public void start() {
+        if (journal != null) {
+            recover();
+        }
         schedExecutor.scheduleAtFixedRate(new Cleaner(), cleanPeriod, cleanPeriod, TimeUnit.SECONDS);
     }
 
@@ -455,6 +456,86 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         } catch (InterruptedException e) {
             LOG.warn("Clean up registration thread was interrupted.", e);
         }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close registration journal", e);
+            }
+        }
+    }
+
+    /* *************** Persistence **************** */
+
+    private void recover() {
+        long start = System.currentTimeMillis();
+        try {
+            lock.writeLock().lock();
+            journal.recover(new RegistrationJournal.Listener() {
+
+                @Override
+                public void registrationUpdated(Registration registration) {
+                    Registration previous = regsByEp.put(registration.getEndpoint(), registration);
+                    if (previous != null) {
+                        unsafeRemoveFromIndexes(previous);
+                        if (!previous.getId().equals(registration.getId())) {
+                            // a new registration replaces the previous one and its observations
+                            observationIndex.unsafeRemoveAllObservations(previous.getId());
+                        }
+                    }
+                    unsafeAddToIndexes(registration);
+                }
+
+                @Override
+                public void registrationRemoved(String registrationId) {
+                    Registration registration = regsByRegId.get(registrationId);
+                    if (registration != null) {
+                        observationIndex.unsafeRemoveAllObservations(registrationId);
+                        regsByEp.remove(registration.getEndpoint());
+                        unsafeRemoveFromIndexes(registration);
+                    }
+                }
+
+                @Override
+                public void observationAdded(org.eclipse.californium.core.observe.Observation obs) {
+                    String registrationId = ObservationIndex.extractRegistrationId(obs);
+                    if (registrationId == null || !regsByRegId.containsKey(registrationId)) {
+                        return;
+                    }
+                    byte[] token = obs.getRequest().getToken();
+                    observationIndex.unsafeRemoveObservation(token);
+                    observationIndex.unsafeAddObservation(new Key(token), obs);
+                }
+
+                @Override
+                public void observationRemoved(byte[] token) {
+                    observationIndex.unsafeRemoveObservation(token);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to recover registrations from journal", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LOG.info("{} registrations and {} observations recovered from journal in {}ms", regsByRegId.size(),
+                obsByToken.size(), System.currentTimeMillis() - start);
+    }
+
+    private void compact() throws IOException {
+        List<Registration> registrations;
+        List<org.eclipse.californium.core.observe.Observation> observations;
+        int segment;
+        try {
+            // no change can be journaled while the content of the store is captured
+            lock.readLock().lock();
+            registrations = new ArrayList<>(regsByEp.values());
+            observations = new ArrayList<>(obsByToken.values());
+            segment = journal.rotate();
+        } finally {
+            lock.readLock().unlock();
+        }
+        // the snapshot is written without blocking the store
+        journal.writeSnapshot(segment, registrations, observations);
     }
 
     private class Cleaner implements Runnable {
@@ -462,18 +543,10 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
         @Override
         public void run() {
             try {
-                Collection<Registration> allRegs = new ArrayList<>();
-                try {
-                    lock.readLock().lock();
-                    allRegs.addAll(regsByEp.values());
-                } finally {
-                    lock.readLock().unlock();
-                }
-
-                for (Registration reg : allRegs) {
-                    if (!reg.isAlive()) {
-                        // force de-registration
-                        Deregistration removedRegistration = removeRegistration(reg.getId());
+                // only the registrations which expire since the last run are checked.
+                for (String registrationId : expirationQueue.pollExpired(System.currentTimeMillis())) {
+                    Deregistration removedRegistration = removeIfExpired(registrationId);
+                    if (removedRegistration != null) {
                         expirationListener.registrationExpired(removedRegistration.getRegistration(),
                                 removedRegistration.getObservations());
                     }
@@ -481,6 +554,29 @@ public class InMemoryRegistrationStore implements CaliforniumRegistrationStore,
             } catch (Exception e) {
                 LOG.warn("Unexpected Exception while registration cleaning", e);
             }
+
+            try {
+                if (journal != null && journal.needsCompaction()) {
+                    compact();
+                }
+            } catch (Exception e) {
+                LOG.warn("Unexpected Exception while registration journal compaction", e);
+            }
+        }
+
+        private Deregistration removeIfExpired(String registrationId) {
+            try {
+                lock.writeLock().lock();
+                // the registration could have been updated since it was polled.
+                Registration registration = regsByRegId.get(registrationId);
+                if (registration != null && !registration.isAlive(gracePeriod)) {
+                    // force de-registration
+                    return removeRegistration(registrationId);
+                }
+                return null;
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
     }
 }
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.impl;
+
+import static org.eclipse.leshan.server.californium.impl.CoapRequestBuilder.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.californium.core.observe.ObservationUtil;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.util.Key;
+
+/**
+ * The observations of an in memory registration store, indexed by token and by registration id.
+ * <p>
+ * The maps are owned by the store, which chooses their implementation. The <code>unsafe</code> methods must be called
+ * while holding the store lock protecting the observations of the registration.
+ */
+class ObservationIndex {
+
+    private final Map<Key, org.eclipse.californium.core.observe.Observation> obsByToken;
+    private final Map<String, List<Key>> tokensByRegId;
+
+    ObservationIndex(Map<Key, org.eclipse.californium.core.observe.Observation> obsByToken,
+            Map<String, List<Key>> tokensByRegId) {
+        this.obsByToken = obsByToken;
+        this.tokensByRegId = tokensByRegId;
+    }
+
+    /**
+     * @return the observation previously stored for this token, if any.
+     */
+    org.eclipse.californium.core.observe.Observation unsafeAddObservation(Key token,
+            org.eclipse.californium.core.observe.Observation observation) {
+        org.eclipse.californium.core.observe.Observation previousObservation = obsByToken.put(token, observation);
+        String registrationId = extractRegistrationId(observation);
+        List<Key> tokens = tokensByRegId.get(registrationId);
+        if (tokens == null) {
+            tokens = new ArrayList<>();
+            tokensByRegId.put(registrationId, tokens);
+        }
+        tokens.add(token);
+        return previousObservation;
+    }
+
+    org.eclipse.californium.core.observe.Observation unsafeGetObservation(Key token) {
+        org.eclipse.californium.core.observe.Observation obs = obsByToken.get(token);
+        return ObservationUtil.shallowClone(obs);
+    }
+
+    /**
+     * @return <code>true</code> if an observation was removed.
+     */
+    boolean unsafeRemoveObservation(byte[] observationId) {
+        Key kToken = new Key(observationId);
+        org.eclipse.californium.core.observe.Observation removed = obsByToken.remove(kToken);
+
+        if (removed != null) {
+            String registrationId = extractRegistrationId(removed);
+            List<Key> tokens = tokensByRegId.get(registrationId);
+            if (tokens != null) {
+                tokens.remove(kToken);
+                if (tokens.isEmpty()) {
+                    tokensByRegId.remove(registrationId);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    Collection<Observation> unsafeRemoveAllObservations(String registrationId) {
+        Collection<Observation> removed = new ArrayList<>();
+        List<Key> tokens = tokensByRegId.remove(registrationId);
+        if (tokens != null) {
+            for (Key token : tokens) {
+                Observation observationRemoved = build(obsByToken.remove(token));
+                if (observationRemoved != null) {
+                    removed.add(observationRemoved);
+                }
+            }
+        }
+        return removed;
+    }
+
+    Collection<Observation> unsafeGetObservations(String registrationId) {
+        Collection<Observation> result = new ArrayList<>();
+        List<Key> tokens = tokensByRegId.get(registrationId);
+        if (tokens != null) {
+            for (Key token : tokens) {
+                Observation obs = build(unsafeGetObservation(token));
+                if (obs != null) {
+                    result.add(obs);
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Retrieve the registrationId from the request context */
+    static String extractRegistrationId(org.eclipse.californium.core.observe.Observation observation) {
+        return observation.getRequest().getUserContext().get(CTX_REGID);
+    }
+
+    static Observation build(org.eclipse.californium.core.observe.Observation cfObs) {
+        if (cfObs == null)
+            return null;
+
+        String regId = null;
+        String lwm2mPath = null;
+        Map<String, String> context = null;
+
+        for (Entry<String, String> ctx : cfObs.getRequest().getUserContext().entrySet()) {
+            switch (ctx.getKey()) {
+            case CTX_REGID:
+                regId = ctx.getValue();
+                break;
+            case CTX_LWM2M_PATH:
+                lwm2mPath = ctx.getValue();
+                break;
+            default:
+                if (context == null) {
+                    context = new HashMap<>();
+                }
+                context.put(ctx.getKey(), ctx.getValue());
+            }
+        }
+        return new Observation(cfObs.getRequest().getToken(), regId, new LwM2mPath(lwm2mPath), context);
+    }
+
+    /**
+     * Checks that the request context of the observation contains the registration id and the LWM2M path.
+     */
+    static void validateObservation(org.eclipse.californium.core.observe.Observation observation) {
+        if (!observation.getRequest().getUserContext().containsKey(CTX_REGID))
+            throw new IllegalStateException("missing registrationId info in the request context");
+        if (!observation.getRequest().getUserContext().containsKey(CTX_LWM2M_PATH))
+            throw new IllegalStateException("missing lwm2m path info in the request context");
+    }
+}
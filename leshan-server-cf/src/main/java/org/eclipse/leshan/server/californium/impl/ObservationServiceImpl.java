@@ -18,11 +18,16 @@ package org.eclipse.leshan.server.californium.impl;
 import static org.eclipse.leshan.core.californium.ResponseCodeUtil.toLwM2mResponseCode;
 import static org.eclipse.leshan.server.californium.impl.CoapRequestBuilder.CTX_REGID;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.californium.core.coap.CoAP;
@@ -32,10 +37,16 @@ import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.observe.NotificationListener;
 import org.eclipse.californium.core.observe.ObservationStore;
 import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
 import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.CodecException;
 import org.eclipse.leshan.core.node.codec.LwM2mNodeDecoder;
+import org.eclipse.leshan.core.node.codec.TimestampedLwM2mNodeHandler;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.ContentFormat;
 import org.eclipse.leshan.core.request.exception.InvalidResponseException;
@@ -44,6 +55,7 @@ import org.eclipse.leshan.server.californium.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.model.LwM2mModelProvider;
 import org.eclipse.leshan.server.observation.ObservationListener;
 import org.eclipse.leshan.server.observation.ObservationService;
+import org.eclipse.leshan.server.observation.TimestampedObservationListener;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.util.Hex;
 import org.slf4j.Logger;
@@ -225,7 +237,7 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
             LwM2mModel model = modelProvider.getObjectModel(registration);
 
             // create response
-            ObserveResponse response = createObserveResponse(observation, model, coapResponse);
+            ObserveResponse response = createObserveResponse(observation, registration, model, coapResponse);
 
             // notify all listeners
             for (ObservationListener listener : listeners) {
@@ -251,7 +263,8 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
 
     }
 
-    private ObserveResponse createObserveResponse(Observation observation, LwM2mModel model, Response coapResponse) {
+    private ObserveResponse createObserveResponse(Observation observation, Registration registration,
+            LwM2mModel model, Response coapResponse) {
         // CHANGED response is supported for backward compatibility with old spec.
         if (coapResponse.getCode() != CoAP.ResponseCode.CHANGED
                 && coapResponse.getCode() != CoAP.ResponseCode.CONTENT) {
@@ -265,10 +278,36 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
             contentFormat = ContentFormat.fromCode(coapResponse.getOptions().getContentFormat());
         }
 
+        // get listeners of the values
+        List<TimestampedObservationListener> valueListeners = new ArrayList<>();
+        boolean keepValues = false;
+        for (ObservationListener listener : listeners) {
+            if (listener instanceof TimestampedObservationListener) {
+                valueListeners.add((TimestampedObservationListener) listener);
+            } else {
+                keepValues = true;
+            }
+        }
+
         // decode response
         try {
-            List<TimestampedLwM2mNode> timestampedNodes = decoder.decodeTimestampedData(coapResponse.getPayload(),
-                    contentFormat, observation.getPath(), model);
+            List<TimestampedLwM2mNode> timestampedNodes;
+            if (valueListeners.isEmpty()) {
+                timestampedNodes = decoder.decodeTimestampedData(coapResponse.getPayload(), contentFormat,
+                        observation.getPath(), model);
+            } else {
+                // forward the values while they are decoded
+                NotificationValues values = new NotificationValues(observation, registration, valueListeners,
+                        keepValues);
+                decoder.decodeTimestampedData(coapResponse.getPayload(), contentFormat, observation.getPath(), model,
+                        values);
+                timestampedNodes = values.getTimestampedValues();
+                if (timestampedNodes == null) {
+                    TimestampedLwM2mNode mostRecent = values.getMostRecentValue();
+                    return new ObserveResponse(toLwM2mResponseCode(coapResponse.getCode()),
+                            mostRecent != null ? mostRecent.getNode() : null, null, observation, null, coapResponse);
+                }
+            }
 
             // create lwm2m response
             if (timestampedNodes.size() == 1 && !timestampedNodes.get(0).isTimestamped()) {
@@ -288,4 +327,110 @@ public class ObservationServiceImpl implements ObservationService, NotificationL
                     observation);
         }
     }
+
+    /**
+     * Forwards the values of a notification to the {@link TimestampedObservationListener}s while they are decoded.
+     */
+    private class NotificationValues implements TimestampedLwM2mNodeHandler {
+
+        private final Observation observation;
+        private final Registration registration;
+        private final List<TimestampedObservationListener> listeners;
+
+        // all the values by time-stamp, most recent first, only if some listeners need them
+        private final SortedMap<Long, TimestampedLwM2mNode> values;
+        private TimestampedLwM2mNode mostRecent;
+
+        public NotificationValues(Observation observation, Registration registration,
+                List<TimestampedObservationListener> listeners, boolean keepValues) {
+            this.observation = observation;
+            this.registration = registration;
+            this.listeners = listeners;
+            this.values = keepValues ? new TreeMap<Long, TimestampedLwM2mNode>(Collections.reverseOrder()) : null;
+        }
+
+        @Override
+        public void onTimestampedNode(TimestampedLwM2mNode timestampedNode) {
+            for (TimestampedObservationListener listener : listeners) {
+                // a failing listener must not prevent the others from receiving the value
+                try {
+                    listener.onTimestampedValue(observation, registration, timestampedNode);
+                } catch (RuntimeException e) {
+                    LOG.error(String.format("Listener [%s] failed on a value of observation [%s]", listener,
+                            observation), e);
+                }
+            }
+
+            // the nodes with the same time-stamp are merged, as when the whole content is decoded at once
+            if (values != null) {
+                values.put(time(timestampedNode), merge(values.get(time(timestampedNode)), timestampedNode));
+            } else if (mostRecent == null || time(timestampedNode) > time(mostRecent)) {
+                mostRecent = timestampedNode;
+            } else if (time(timestampedNode) == time(mostRecent)) {
+                mostRecent = merge(mostRecent, timestampedNode);
+            }
+        }
+
+        /**
+         * @return the values ordered by time-stamp, most recent first, or <code>null</code> if they are not kept.
+         */
+        public List<TimestampedLwM2mNode> getTimestampedValues() {
+            if (values == null)
+                return null;
+            return new ArrayList<>(values.values());
+        }
+
+        public TimestampedLwM2mNode getMostRecentValue() {
+            return mostRecent;
+        }
+    }
+
+    /**
+     * Merges a node in the previous node with the same time-stamp: the instances and resources of both nodes are
+     * kept, the values of the new node replace the ones of the previous node.
+     */
+    private static TimestampedLwM2mNode merge(TimestampedLwM2mNode previous, TimestampedLwM2mNode node) {
+        if (previous == null)
+            return node;
+        return new TimestampedLwM2mNode(previous.getTimestamp(), merge(previous.getNode(), node.getNode()));
+    }
+
+    private static LwM2mNode merge(LwM2mNode previous, LwM2mNode node) {
+        if (previous instanceof LwM2mObject && node instanceof LwM2mObject) {
+            Map<Integer, LwM2mObjectInstance> instances = new HashMap<>(((LwM2mObject) previous).getInstances());
+            for (LwM2mObjectInstance instance : ((LwM2mObject) node).getInstances().values()) {
+                LwM2mObjectInstance previousInstance = instances.get(instance.getId());
+                if (previousInstance != null)
+                    instance = (LwM2mObjectInstance) merge(previousInstance, instance);
+                instances.put(instance.getId(), instance);
+            }
+            return new LwM2mObject(((LwM2mObject) node).getId(), instances.values());
+        } else if (previous instanceof LwM2mObjectInstance && node instanceof LwM2mObjectInstance) {
+            Map<Integer, LwM2mResource> resources = new HashMap<>(
+                    ((LwM2mObjectInstance) previous).getResources());
+            for (LwM2mResource resource : ((LwM2mObjectInstance) node).getResources().values()) {
+                LwM2mResource previousResource = resources.get(resource.getId());
+                if (previousResource != null)
+                    resource = (LwM2mResource) merge(previousResource, resource);
+                resources.put(resource.getId(), resource);
+            }
+            return new LwM2mObjectInstance(((LwM2mObjectInstance) node).getId(), resources.values());
+        } else if (previous instanceof LwM2mResource && node instanceof LwM2mResource) {
+            LwM2mResource previousResource = (LwM2mResource) previous;
+            LwM2mResource resource = (LwM2mResource) node;
+            if (previousResource.isMultiInstances() && resource.isMultiInstances()) {
+                Map<Integer, Object> instances = new HashMap<>();
+                instances.putAll(previousResource.getValues());
+                instances.putAll(resource.getValues());
+                return LwM2mMultipleResource.newResource(resource.getId(), instances, resource.getType());
+            }
+        }
+        return node;
+    }
+
+    private static long time(TimestampedLwM2mNode timestampedNode) {
+        // no time-stamp is sorted as 0, as in the JSON decoder
+        Long timestamp = timestampedNode.getTimestamp();
+        return timestamp == null ? 0 : timestamp;
+    }
 }
@@ -0,0 +1,690 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.serialization.DataParser;
+import org.eclipse.californium.core.network.serialization.DataSerializer;
+import org.eclipse.californium.core.network.serialization.UdpDataParser;
+import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of the changes done on the registrations and observations of an
+ * {@link InMemoryRegistrationStore}, used to recover its content after a restart.
+ * <p>
+ * The journal is a directory containing a snapshot of the store and the journal segments written since this snapshot.
+ * Each change is appended to the current segment as a checksummed record. When enough changes were appended, the store
+ * is compacted: a new segment is started, a snapshot of the store is written next to the previous one then atomically
+ * renamed, and the segments covered by the snapshot are deleted.
+ * <p>
+ * On recovery, the snapshot is loaded and the remaining segments are replayed. A record truncated by a crash at the end
+ * of the last segment is ignored and cut from the segment. A corrupted record in any other segment fails the recovery,
+ * as the changes following it could not be replayed.
+ * <p>
+ * Each record is written to the file system when it is appended, so it survives a crash of the server process. It is
+ * only forced to the storage device on each append if <code>syncOnWrite</code> is set.
+ * <p>
+ * A change which could not be appended is lost for the recovery: the journal is then reported unhealthy (see
+ * {@link #isHealthy()}) and asks for a compaction, until a snapshot containing this change is written.
+ * <p>
+ * The Californium correlation context of the observations is not persisted: it refers to DTLS sessions which do not
+ * survive a restart anyway.
+ */
+public class RegistrationJournal implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RegistrationJournal.class);
+
+    /** Default number of appended records after which the journal should be compacted */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 100_000;
+
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final String SNAPSHOT_TMP_FILE = "snapshot.tmp";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int SNAPSHOT_MAGIC = 0x4C534E50; // "LSNP"
+    private static final byte FORMAT_VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc
+    // far above any registration or observation record, a longer length is a corrupted header
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    // record types
+    private static final byte REGISTRATION_UPDATED = 1;
+    private static final byte REGISTRATION_REMOVED = 2;
+    private static final byte OBSERVATION_ADDED = 3;
+    private static final byte OBSERVATION_REMOVED = 4;
+
+    // attribute value types
+    private static final byte INTEGER_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+
+    /**
+     * Receives the changes read from the journal during recovery.
+     */
+    public interface Listener {
+
+        /** A registration was added or updated. It replaces any registration for the same endpoint. */
+        void registrationUpdated(Registration registration);
+
+        /** A registration and all its observations were removed. */
+        void registrationRemoved(String registrationId);
+
+        void observationAdded(Observation observation);
+
+        void observationRemoved(byte[] token);
+    }
+
+    private final DataSerializer serializer = new UdpDataSerializer();
+    private final DataParser parser = new UdpDataParser();
+
+    private final File directory;
+    private final int compactionThreshold;
+    private final boolean syncOnWrite;
+
+    // current segment
+    private int segment;
+    private FileChannel channel;
+    private int appendedRecords;
+
+    // the segment in which an append failed, -1 if all the changes are journaled
+    private volatile int failedSegment = -1;
+    private volatile long appendFailures;
+
+    private final RecordBuffer buffer = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    public RegistrationJournal(File directory) {
+        this(directory, DEFAULT_COMPACTION_THRESHOLD, false);
+    }
+
+    /**
+     * @param directory the directory where the snapshot and the journal segments are stored.
+     * @param compactionThreshold the number of appended records after which the journal should be compacted.
+     * @param syncOnWrite <code>true</code> to force each record to the storage device before returning.
+     */
+    public RegistrationJournal(File directory, int compactionThreshold, boolean syncOnWrite) {
+        Validate.notNull(directory);
+        Validate.isTrue(compactionThreshold > 0, "compaction threshold must be strictly positive");
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /* *************** Recovery **************** */
+
+    /**
+     * Loads the snapshot, replays the journal segments and opens a new segment for the next changes. This must be
+     * called before appending any change.
+     *
+     * @param listener the listener receiving the recovered changes in order.
+     * @throws IOException if the journal could not be read or the new segment could not be created.
+     */
+    public synchronized void recover(Listener listener) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+
+        int firstSegment = 0;
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (snapshot.exists()) {
+            firstSegment = readSnapshot(snapshot, listener);
+        }
+
+        int lastSegment = firstSegment - 1;
+        List<Integer> segments = listSegments();
+        for (int i = 0; i < segments.size(); i++) {
+            int s = segments.get(i);
+            if (s < firstSegment) {
+                // already included in the snapshot
+                deleteSegment(s);
+            } else {
+                replaySegment(s, i == segments.size() - 1, listener);
+                lastSegment = s;
+            }
+        }
+        openSegment(lastSegment + 1);
+    }
+
+    private int readSnapshot(File snapshot, Listener listener) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Invalid snapshot file " + snapshot);
+            }
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            int firstSegment = in.readInt();
+            int count = 0;
+            byte[] record;
+            while ((record = readRecord(in)) != null) {
+                replay(record, listener);
+                count++;
+            }
+            LOG.debug("{} records loaded from snapshot {}", count, snapshot);
+            return firstSegment;
+        }
+    }
+
+    private void replaySegment(int s, boolean last, Listener listener) throws IOException {
+        File file = segmentFile(s);
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] record;
+            while ((record = readRecord(in)) != null) {
+                replay(record, listener);
+                validLength += RECORD_HEADER_SIZE + record.length;
+            }
+        } catch (IOException e) {
+            if (!last) {
+                // the next segments were written after this record: skipping it would replay an inconsistent state
+                throw new IOException(
+                        String.format("Journal segment %s is corrupted after %d bytes", file, validLength), e);
+            }
+            // a crash while appending leaves a truncated or corrupted record at the end of the last segment, cut it
+            // as this segment is not the last one any more once the next segment is opened
+            LOG.warn("Journal segment {} is corrupted after {} bytes, the remaining records are ignored", file,
+                    validLength, e);
+            try (FileChannel segmentChannel = new FileOutputStream(file, true).getChannel()) {
+                segmentChannel.truncate(validLength);
+            }
+        }
+        LOG.debug("Journal segment {} replayed", file);
+    }
+
+    /**
+     * @return the record payload or null at the end of the stream.
+     */
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int crc = in.readInt();
+        if (length < 0 || length > MAX_RECORD_SIZE) {
+            throw new IOException("Invalid record length " + length);
+        }
+        byte[] record = new byte[length];
+        in.readFully(record);
+        CRC32 checksum = new CRC32();
+        checksum.update(record, 0, length);
+        if ((int) checksum.getValue() != crc) {
+            throw new IOException("Invalid record checksum");
+        }
+        return record;
+    }
+
+    private void replay(byte[] record, Listener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        switch (type) {
+        case REGISTRATION_UPDATED:
+            listener.registrationUpdated(readRegistration(in));
+            break;
+        case REGISTRATION_REMOVED:
+            listener.registrationRemoved(in.readUTF());
+            break;
+        case OBSERVATION_ADDED:
+            listener.observationAdded(readObservation(in));
+            break;
+        case OBSERVATION_REMOVED:
+            listener.observationRemoved(readBytes(in));
+            break;
+        default:
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /* *************** Journal API **************** */
+
+    public synchronized void registrationUpdated(Registration registration) {
+        try {
+            startRecord(REGISTRATION_UPDATED);
+            writeRegistration(out, registration);
+            append();
+        } catch (IOException e) {
+            LOG.error("Unable to journal registration {}", registration, e);
+            appendFailed();
+        }
+    }
+
+    public synchronized void registrationRemoved(String registrationId) {
+        try {
+            startRecord(REGISTRATION_REMOVED);
+            out.writeUTF(registrationId);
+            append();
+        } catch (IOException e) {
+            LOG.error("Unable to journal removal of registration {}", registrationId, e);
+            appendFailed();
+        }
+    }
+
+    public synchronized void observationAdded(Observation observation) {
+        try {
+            startRecord(OBSERVATION_ADDED);
+            writeObservation(out, observation);
+            append();
+        } catch (IOException e) {
+            LOG.error("Unable to journal observation {}", observation.getRequest(), e);
+            appendFailed();
+        }
+    }
+
+    public synchronized void observationRemoved(byte[] token) {
+        try {
+            startRecord(OBSERVATION_REMOVED);
+            writeBytes(out, token);
+            append();
+        } catch (IOException e) {
+            LOG.error("Unable to journal removal of observation", e);
+            appendFailed();
+        }
+    }
+
+    private void startRecord(byte type) throws IOException {
+        buffer.reset();
+        // reserve space for the record header
+        out.writeLong(0);
+        out.writeByte(type);
+    }
+
+    private void append() throws IOException {
+        if (channel == null) {
+            throw new IOException("Journal is not open");
+        }
+        long position = channel.position();
+        try {
+            channel.write(buffer.toRecord());
+            if (syncOnWrite) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // do not leave a partial record in the middle of the segment, it would fail the recovery
+            try {
+                channel.truncate(position);
+            } catch (IOException te) {
+                LOG.warn("Unable to remove partial record from journal segment {}", segment, te);
+            }
+            throw e;
+        }
+        appendedRecords++;
+    }
+
+    private void appendFailed() {
+        appendFailures++;
+        if (failedSegment < 0) {
+            LOG.error("Journal is missing changes, they will be lost on restart until the next compaction");
+        }
+        failedSegment = segment;
+    }
+
+    /**
+     * @return <code>false</code> if a change could not be appended since the last snapshot: it would be lost if the
+     *         server was restarted now.
+     */
+    public boolean isHealthy() {
+        return failedSegment < 0;
+    }
+
+    /**
+     * @return the number of changes which could not be appended since this journal was created.
+     */
+    public long getAppendFailures() {
+        return appendFailures;
+    }
+
+    /* *************** Compaction **************** */
+
+    /**
+     * @return <code>true</code> if enough records were appended since the last snapshot to compact the journal, or if
+     *         the journal is not healthy: only a snapshot restores the changes which could not be appended.
+     */
+    public synchronized boolean needsCompaction() {
+        return appendedRecords >= compactionThreshold || !isHealthy();
+    }
+
+    /**
+     * Starts a new journal segment. The next snapshot must contain all the changes appended before this call, so no
+     * change must be appended concurrently.
+     *
+     * @return the segment which must be given to {@link #writeSnapshot(int, Collection, Collection)}.
+     * @throws IOException if the new segment could not be created.
+     */
+    public synchronized int rotate() throws IOException {
+        closeSegment();
+        openSegment(segment + 1);
+        appendedRecords = 0;
+        return segment;
+    }
+
+    /**
+     * Writes a snapshot of the store and deletes the journal segments it covers. This can be called concurrently with
+     * appends.
+     *
+     * @param segment the value returned by {@link #rotate()} when the state was captured.
+     * @param registrations all the registrations of the store.
+     * @param observations all the observations of the store.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public void writeSnapshot(int segment, Collection<Registration> registrations,
+            Collection<Observation> observations) throws IOException {
+        File tmp = new File(directory, SNAPSHOT_TMP_FILE);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            FileChannel snapshotChannel = fos.getChannel();
+            RecordBuffer snapshotBuffer = new RecordBuffer();
+            DataOutputStream snapshotOut = new DataOutputStream(snapshotBuffer);
+
+            snapshotOut.writeInt(SNAPSHOT_MAGIC);
+            snapshotOut.writeByte(FORMAT_VERSION);
+            snapshotOut.writeInt(segment);
+            snapshotChannel.write(ByteBuffer.wrap(snapshotBuffer.toByteArray()));
+
+            for (Registration registration : registrations) {
+                snapshotBuffer.reset();
+                snapshotOut.writeLong(0);
+                snapshotOut.writeByte(REGISTRATION_UPDATED);
+                writeRegistration(snapshotOut, registration);
+                snapshotChannel.write(snapshotBuffer.toRecord());
+            }
+            for (Observation observation : observations) {
+                snapshotBuffer.reset();
+                snapshotOut.writeLong(0);
+                snapshotOut.writeByte(OBSERVATION_ADDED);
+                writeObservation(snapshotOut, observation);
+                snapshotChannel.write(snapshotBuffer.toRecord());
+            }
+            snapshotChannel.force(true);
+        }
+        File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (!tmp.renameTo(snapshot)) {
+            // some platforms do not replace an existing file on rename
+            if (!snapshot.delete() || !tmp.renameTo(snapshot)) {
+                throw new IOException("Unable to replace snapshot " + snapshot);
+            }
+        }
+
+        for (int s : listSegments()) {
+            if (s < segment) {
+                deleteSegment(s);
+            }
+        }
+        synchronized (this) {
+            if (failedSegment >= 0 && failedSegment < segment) {
+                LOG.info("Journal is healthy again, the missing changes are in the snapshot");
+                failedSegment = -1;
+            }
+        }
+        LOG.debug("Journal compacted: {} registrations and {} observations in snapshot", registrations.size(),
+                observations.size());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+
+    /* *************** Segment files **************** */
+
+    private void openSegment(int s) throws IOException {
+        segment = s;
+        channel = new FileOutputStream(segmentFile(s), true).getChannel();
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private File segmentFile(int s) {
+        return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, s, SEGMENT_SUFFIX));
+    }
+
+    private List<Integer> listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Integer> segments = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    segments.add(Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Unexpected file {} in journal directory", name);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private void deleteSegment(int s) {
+        File file = segmentFile(s);
+        if (!file.delete()) {
+            LOG.warn("Unable to delete journal segment {}", file);
+        }
+    }
+
+    /* *************** Serialization **************** */
+
+    private static void writeRegistration(DataOutputStream out, Registration r) throws IOException {
+        out.writeUTF(r.getId());
+        out.writeUTF(r.getEndpoint());
+        writeBytes(out, r.getAddress().getAddress());
+        out.writeInt(r.getPort());
+        out.writeUTF(r.getRegistrationEndpointAddress().getHostString());
+        out.writeInt(r.getRegistrationEndpointAddress().getPort());
+        out.writeLong(r.getRegistrationDate().getTime());
+        out.writeLong(r.getLastUpdate().getTime());
+        out.writeLong(r.getLifeTimeInSec());
+        writeNullableString(out, r.getSmsNumber());
+        writeNullableString(out, r.getLwM2mVersion());
+        out.writeUTF(r.getBindingMode().name());
+
+        Link[] links = r.getObjectLinks();
+        out.writeInt(links == null ? -1 : links.length);
+        if (links != null) {
+            for (Link link : links) {
+                out.writeBoolean(link != null);
+                if (link != null) {
+                    out.writeUTF(link.getUrl());
+                    out.writeInt(link.getAttributes().size());
+                    for (Entry<String, Object> attribute : link.getAttributes().entrySet()) {
+                        out.writeUTF(attribute.getKey());
+                        if (attribute.getValue() instanceof Integer) {
+                            out.writeByte(INTEGER_VALUE);
+                            out.writeInt((Integer) attribute.getValue());
+                        } else {
+                            out.writeByte(STRING_VALUE);
+                            out.writeUTF(attribute.getValue().toString());
+                        }
+                    }
+                }
+            }
+        }
+
+        writeStringMap(out, r.getAdditionalRegistrationAttributes());
+    }
+
+    private static Registration readRegistration(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        String endpoint = in.readUTF();
+        InetAddress address = InetAddress.getByAddress(readBytes(in));
+        int port = in.readInt();
+        InetSocketAddress registrationEndpointAddress = new InetSocketAddress(in.readUTF(), in.readInt());
+
+        Registration.Builder b = new Registration.Builder(id, endpoint, address, port, registrationEndpointAddress);
+        b.registrationDate(new Date(in.readLong()));
+        b.lastUpdate(new Date(in.readLong()));
+        b.lifeTimeInSec(in.readLong());
+        b.smsNumber(readNullableString(in));
+        b.lwM2mVersion(readNullableString(in));
+        b.bindingMode(BindingMode.valueOf(in.readUTF()));
+
+        int nbLinks = in.readInt();
+        if (nbLinks >= 0) {
+            Link[] links = new Link[nbLinks];
+            for (int i = 0; i < nbLinks; i++) {
+                if (in.readBoolean()) {
+                    String url = in.readUTF();
+                    int nbAttributes = in.readInt();
+                    Map<String, Object> attributes = new HashMap<>();
+                    for (int j = 0; j < nbAttributes; j++) {
+                        String key = in.readUTF();
+                        if (in.readByte() == INTEGER_VALUE) {
+                            attributes.put(key, in.readInt());
+                        } else {
+                            attributes.put(key, in.readUTF());
+                        }
+                    }
+                    links[i] = new Link(url, attributes);
+                }
+            }
+            b.objectLinks(links);
+        }
+
+        b.additionalRegistrationAttributes(readStringMap(in));
+        return b.build();
+    }
+
+    private void writeObservation(DataOutputStream out, Observation observation) throws IOException {
+        Request request = observation.getRequest();
+        writeBytes(out, serializer.serializeRequest(request).bytes);
+        out.writeBoolean(request.getDestination() != null);
+        if (request.getDestination() != null) {
+            writeBytes(out, request.getDestination().getAddress());
+            out.writeInt(request.getDestinationPort());
+        }
+        writeStringMap(out, request.getUserContext());
+    }
+
+    private Observation readObservation(DataInputStream in) throws IOException {
+        Request request = (Request) parser.parseMessage(new RawData(readBytes(in), null, 0));
+        if (in.readBoolean()) {
+            request.setDestination(InetAddress.getByAddress(readBytes(in)));
+            request.setDestinationPort(in.readInt());
+        }
+        request.setUserContext(readStringMap(in));
+        return new Observation(request, null);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map == null ? 0 : map.size());
+        if (map != null) {
+            for (Entry<String, String> e : map.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(in.readUTF(), in.readUTF());
+        }
+        return map;
+    }
+
+    /**
+     * A reusable buffer which fills the record header in place to write a record with a single system call.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+
+        public RecordBuffer() {
+            super(512);
+        }
+
+        public ByteBuffer toRecord() throws IOException {
+            int length = count - RECORD_HEADER_SIZE;
+            if (length > MAX_RECORD_SIZE) {
+                // it could not be read on recovery
+                throw new IOException("Record too large: " + length + " bytes");
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(buf, RECORD_HEADER_SIZE, length);
+            ByteBuffer record = ByteBuffer.wrap(buf, 0, count);
+            record.putInt(0, length);
+            record.putInt(4, (int) checksum.getValue());
+            return record;
+        }
+    }
+}
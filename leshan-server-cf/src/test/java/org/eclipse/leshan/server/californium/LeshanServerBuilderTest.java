@@ -17,8 +17,13 @@ package org.eclipse.leshan.server.californium;
 
 import static org.junit.Assert.*;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.eclipse.leshan.server.californium.impl.ConcurrentInMemoryRegistrationStore;
 import org.eclipse.leshan.server.californium.impl.LeshanServer;
 import org.eclipse.leshan.server.impl.InMemorySecurityStore;
+import org.eclipse.leshan.server.registration.Registration;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -70,4 +75,16 @@ public class LeshanServerBuilderTest {
         assertNotNull(server.getSecuredAddress());
         assertNull(server.getUnsecuredAddress());
     }
+
+    @Test
+    public void create_server_with_concurrent_registration_store() {
+        ConcurrentInMemoryRegistrationStore registrationStore = new ConcurrentInMemoryRegistrationStore();
+        builder.setRegistrationStore(registrationStore);
+        server = builder.build();
+
+        Registration registration = new Registration.Builder("regId", "urn:endpoint",
+                InetAddress.getLoopbackAddress(), 5683, InetSocketAddress.createUnresolved("localhost", 5683)).build();
+        registrationStore.addRegistration(registration);
+        assertSame(registration, server.getRegistrationService().getById("regId"));
+    }
 }
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.impl;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.server.registration.Deregistration;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrentInMemoryRegistrationStoreTest {
+
+    ConcurrentInMemoryRegistrationStore store;
+    InetAddress address;
+    int port = 23452;
+    AtomicLong tokenCounter = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        address = InetAddress.getLocalHost();
+        store = new ConcurrentInMemoryRegistrationStore();
+    }
+
+    @Test
+    public void add_update_and_remove_registration() {
+        Registration registration = givenARegistration("4711", "urn:endpoint", port);
+        Assert.assertNull(store.addRegistration(registration));
+
+        Assert.assertSame(registration, store.getRegistration("4711"));
+        Assert.assertSame(registration, store.getRegistrationByEndpoint("urn:endpoint"));
+        Assert.assertSame(registration, store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+
+        UpdatedRegistration updated = store
+                .updateRegistration(new RegistrationUpdate("4711", address, port + 1, null, null, null, null));
+        Assert.assertSame(registration, updated.getPreviousRegistration());
+        Assert.assertNull(store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+        Assert.assertSame(updated.getUpdatedRegistration(),
+                store.getRegistrationByAdress(new InetSocketAddress(address, port + 1)));
+
+        Deregistration deregistration = store.removeRegistration("4711");
+        Assert.assertSame(updated.getUpdatedRegistration(), deregistration.getRegistration());
+        Assert.assertNull(store.getRegistration("4711"));
+        Assert.assertNull(store.getRegistrationByEndpoint("urn:endpoint"));
+        Assert.assertFalse(store.getAllRegistrations().hasNext());
+    }
+
+    @Test
+    public void new_registration_removes_previous_one_and_its_observations() {
+        store.addRegistration(givenARegistration("4711", "urn:endpoint", port));
+        givenAnObservation("4711", new LwM2mPath(3, 0, 13));
+
+        Deregistration deregistration = store.addRegistration(givenARegistration("4712", "urn:endpoint", port));
+
+        Assert.assertEquals("4711", deregistration.getRegistration().getId());
+        Assert.assertEquals(1, deregistration.getObservations().size());
+        Assert.assertNull(store.getRegistration("4711"));
+        Assert.assertTrue(store.getObservations("4711").isEmpty());
+        Assert.assertEquals("4712", store.getRegistrationByEndpoint("urn:endpoint").getId());
+    }
+
+    @Test
+    public void add_and_remove_observations() {
+        store.addRegistration(givenARegistration("4711", "urn:endpoint", port));
+        Request request1 = givenAnObservation("4711", new LwM2mPath(3, 0, 13));
+        Request request2 = givenAnObservation("4711", new LwM2mPath(3, 0, 12));
+
+        Assert.assertEquals(2, store.getObservations("4711").size());
+        Assert.assertNotNull(store.get(request1.getToken()));
+        Assert.assertNotNull(store.getObservation("4711", request2.getToken()));
+
+        store.remove(request1.getToken());
+        Assert.assertNull(store.get(request1.getToken()));
+        Assert.assertEquals(1, store.getObservations("4711").size());
+
+        Assert.assertEquals(1, store.removeObservations("4711").size());
+        Assert.assertNull(store.get(request2.getToken()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void add_observation_without_registration() {
+        givenAnObservation("unknown", new LwM2mPath(3, 0, 13));
+    }
+
+    @Test
+    public void concurrent_registrations_and_updates() throws Exception {
+        final int nbThreads = 8;
+        final int nbEndpoints = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < nbThreads; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < nbEndpoints; i++) {
+                            String regId = thread + "-" + i;
+                            store.addRegistration(givenARegistration(regId, "ep" + regId, thread * nbEndpoints + i));
+                            givenAnObservation(regId, new LwM2mPath(3, 0, 13));
+                            store.updateRegistration(new RegistrationUpdate(regId, address,
+                                    thread * nbEndpoints + i, 60L, null, null, null));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (int t = 0; t < nbThreads; t++) {
+            for (int i = 0; i < nbEndpoints; i++) {
+                String regId = t + "-" + i;
+                Registration registration = store.getRegistration(regId);
+                Assert.assertEquals(Long.valueOf(60L), registration.getLifeTimeInSec());
+                Assert.assertSame(registration, store.getRegistrationByEndpoint("ep" + regId));
+                Assert.assertSame(registration,
+                        store.getRegistrationByAdress(new InetSocketAddress(address, t * nbEndpoints + i)));
+                Assert.assertEquals(1, store.getObservations(regId).size());
+            }
+        }
+    }
+
+    private Registration givenARegistration(String registrationId, String endpoint, int port) {
+        return new Registration.Builder(registrationId, endpoint, address, port,
+                InetSocketAddress.createUnresolved("localhost", LwM2m.DEFAULT_COAP_PORT)).build();
+    }
+
+    private Request givenAnObservation(String registrationId, LwM2mPath target) {
+        Request coapRequest = Request.newGet();
+        // use unique tokens to avoid collisions
+        coapRequest.setToken(ByteBuffer.allocate(8).putLong(tokenCounter.incrementAndGet()).array());
+        coapRequest.getOptions().addUriPath(String.valueOf(target.getObjectId()));
+        coapRequest.getOptions().addUriPath(String.valueOf(target.getObjectInstanceId()));
+        coapRequest.getOptions().addUriPath(String.valueOf(target.getResourceId()));
+        coapRequest.setObserve();
+        Map<String, String> context = new HashMap<>();
+        context.put(CoapRequestBuilder.CTX_REGID, registrationId);
+        context.put(CoapRequestBuilder.CTX_LWM2M_PATH, target.toString());
+        coapRequest.setUserContext(context);
+
+        store.add(new org.eclipse.californium.core.observe.Observation(coapRequest, null));
+        return coapRequest;
+    }
+}
@@ -18,10 +18,17 @@ package org.eclipse.leshan.server.californium.impl;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.leshan.Link;
 import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.ExpirationListener;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationStore;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
@@ -89,6 +96,97 @@ public class InMemoryRegistrationStoreTest {
         Assert.assertTrue(reg.isAlive());
     }
 
+    @Test
+    public void get_registration_by_id_and_address() {
+        givenASimpleRegistration(lifetime);
+        store.addRegistration(registration);
+
+        Assert.assertEquals(registration, store.getRegistration(registrationId));
+        Assert.assertEquals(registration, store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+        Assert.assertNull(store.getRegistration("unknown"));
+        Assert.assertNull(store.getRegistrationByAdress(new InetSocketAddress(address, port + 1)));
+    }
+
+    @Test
+    public void update_registration_address_updates_address_index() {
+        givenASimpleRegistration(lifetime);
+        store.addRegistration(registration);
+
+        RegistrationUpdate update = new RegistrationUpdate(registrationId, address, port + 1, null, null, null, null);
+        store.updateRegistration(update);
+
+        Assert.assertNull(store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+        Registration reg = store.getRegistrationByAdress(new InetSocketAddress(address, port + 1));
+        Assert.assertEquals(port + 1, reg.getPort());
+        Assert.assertSame(reg, store.getRegistration(registrationId));
+    }
+
+    @Test
+    public void new_registration_for_same_endpoint_replaces_indexes() {
+        givenASimpleRegistration(lifetime);
+        store.addRegistration(registration);
+        Registration newRegistration = new Registration.Builder("4712", ep, address, port,
+                InetSocketAddress.createUnresolved("localhost", LwM2m.DEFAULT_COAP_PORT)).build();
+        store.addRegistration(newRegistration);
+
+        Assert.assertNull(store.getRegistration(registrationId));
+        Assert.assertSame(newRegistration, store.getRegistration("4712"));
+        Assert.assertSame(newRegistration, store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+    }
+
+    @Test
+    public void remove_registration_clears_indexes() {
+        givenASimpleRegistration(lifetime);
+        store.addRegistration(registration);
+        store.removeRegistration(registrationId);
+
+        Assert.assertNull(store.getRegistration(registrationId));
+        Assert.assertNull(store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+        Assert.assertNull(store.getRegistrationByEndpoint(ep));
+    }
+
+    @Test
+    public void expired_registration_is_removed_and_notified() throws InterruptedException {
+        InMemoryRegistrationStore store = new InMemoryRegistrationStore(1);
+        final CountDownLatch expired = new CountDownLatch(1);
+        store.setExpirationListener(new ExpirationListener() {
+            @Override
+            public void registrationExpired(Registration registration, Collection<Observation> observations) {
+                if (registrationId.equals(registration.getId())) {
+                    expired.countDown();
+                }
+            }
+        });
+        registration = new Registration.Builder(registrationId, ep, address, port,
+                InetSocketAddress.createUnresolved("localhost", LwM2m.DEFAULT_COAP_PORT)).lifeTimeInSec(1L)
+                        .lastUpdate(new Date(System.currentTimeMillis() - 5000)).build();
+        store.addRegistration(registration);
+        store.start();
+        try {
+            Assert.assertTrue(expired.await(5, TimeUnit.SECONDS));
+            Assert.assertNull(store.getRegistration(registrationId));
+        } finally {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void registration_is_not_expired_during_grace_period() throws InterruptedException {
+        InMemoryRegistrationStore store = new InMemoryRegistrationStore(
+                Executors.newSingleThreadScheduledExecutor(), 1, 60);
+        registration = new Registration.Builder(registrationId, ep, address, port,
+                InetSocketAddress.createUnresolved("localhost", LwM2m.DEFAULT_COAP_PORT)).lifeTimeInSec(1L)
+                        .lastUpdate(new Date(System.currentTimeMillis() - 5000)).build();
+        store.addRegistration(registration);
+        store.start();
+        try {
+            Thread.sleep(1500);
+            Assert.assertSame(registration, store.getRegistration(registrationId));
+        } finally {
+            store.stop();
+        }
+    }
+
     private void givenASimpleRegistration(Long lifetime) {
 
         Registration.Builder builder = new Registration.Builder(registrationId, ep, address, port,
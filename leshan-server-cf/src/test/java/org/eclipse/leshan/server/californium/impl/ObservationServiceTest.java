@@ -18,17 +18,27 @@ package org.eclipse.leshan.server.californium.impl;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
 import org.eclipse.leshan.LwM2m;
 import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
 import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeDecoder;
 import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.core.response.ObserveResponse;
 import org.eclipse.leshan.server.californium.CaliforniumRegistrationStore;
 import org.eclipse.leshan.server.model.StandardModelProvider;
+import org.eclipse.leshan.server.observation.ObservationListener;
+import org.eclipse.leshan.server.observation.TimestampedObservationListener;
 import org.eclipse.leshan.server.registration.Registration;
 import org.junit.Assert;
 import org.junit.Before;
@@ -125,6 +135,111 @@ public class ObservationServiceTest {
         Assert.assertEquals(1, observations.size());
     }
 
+    @Test
+    public void forward_values_of_a_notification() {
+        Observation observation = givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+        ValueListener valueListener = new ValueListener();
+        observationService.addListener(valueListener);
+
+        observationService.onNotification(coapRequest, givenATimestampedNotification());
+
+        // values in the order of the payload
+        Assert.assertEquals(3, valueListener.values.size());
+        Assert.assertEquals(Long.valueOf(1500000010L), valueListener.values.get(0).getTimestamp());
+        Assert.assertEquals(Long.valueOf(1500000030L), valueListener.values.get(1).getTimestamp());
+        Assert.assertEquals(Long.valueOf(1500000020L), valueListener.values.get(2).getTimestamp());
+
+        // the response contains the most recent value only
+        Assert.assertEquals(observation.getPath(), valueListener.response.getObservation().getPath());
+        Assert.assertNull(valueListener.response.getTimestampedLwM2mNode());
+        Assert.assertEquals(valueListener.values.get(1).getNode(), valueListener.response.getContent());
+    }
+
+    @Test
+    public void forward_values_of_a_notification_to_all_listeners() {
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+        ValueListener valueListener = new ValueListener();
+        observationService.addListener(valueListener);
+        ResponseListener responseListener = new ResponseListener();
+        observationService.addListener(responseListener);
+
+        observationService.onNotification(coapRequest, givenATimestampedNotification());
+
+        Assert.assertEquals(3, valueListener.values.size());
+
+        // values ordered by time-stamp for the other listeners
+        List<TimestampedLwM2mNode> values = responseListener.response.getTimestampedLwM2mNode();
+        Assert.assertEquals(3, values.size());
+        Assert.assertEquals(Long.valueOf(1500000030L), values.get(0).getTimestamp());
+        Assert.assertEquals(Long.valueOf(1500000020L), values.get(1).getTimestamp());
+        Assert.assertEquals(Long.valueOf(1500000010L), values.get(2).getTimestamp());
+        Assert.assertSame(responseListener.response, valueListener.response);
+    }
+
+    @Test
+    public void values_with_same_timestamp_are_merged_in_response() {
+        Observation observation = givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 7));
+        ValueListener valueListener = new ValueListener();
+        observationService.addListener(valueListener);
+        ResponseListener responseListener = new ResponseListener();
+        observationService.addListener(responseListener);
+
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/3/0/7\",\"e\":[");
+        b.append("{\"n\":\"0\",\"v\":3800,\"t\":10},");
+        b.append("{\"n\":\"0\",\"v\":3700,\"t\":20},");
+        b.append("{\"n\":\"1\",\"v\":5000,\"t\":10}],");
+        b.append("\"bt\":1500000000}");
+        byte[] payload = b.toString().getBytes(StandardCharsets.UTF_8);
+        observationService.onNotification(coapRequest, givenANotification(payload));
+
+        // the values are forwarded as they are decoded
+        Assert.assertEquals(3, valueListener.values.size());
+
+        // the response contains the same values as when the whole payload is decoded at once
+        List<TimestampedLwM2mNode> expected = new DefaultLwM2mNodeDecoder().decodeTimestampedData(payload,
+                ContentFormat.JSON, observation.getPath(), new StandardModelProvider().getObjectModel(support.registration));
+        Assert.assertEquals(2, expected.size());
+        Assert.assertEquals(expected, responseListener.response.getTimestampedLwM2mNode());
+    }
+
+    @Test
+    public void failing_value_listener_does_not_stop_the_others() {
+        givenAnObservation(support.registration.getId(), new LwM2mPath(3, 0, 13));
+        observationService.addListener(new ValueListener() {
+            @Override
+            public void onTimestampedValue(Observation observation, Registration registration,
+                    TimestampedLwM2mNode value) {
+                throw new IllegalStateException("failing listener");
+            }
+        });
+        ValueListener valueListener = new ValueListener();
+        observationService.addListener(valueListener);
+
+        observationService.onNotification(coapRequest, givenATimestampedNotification());
+
+        Assert.assertEquals(3, valueListener.values.size());
+        Assert.assertNotNull(valueListener.response);
+    }
+
+    private Response givenATimestampedNotification() {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"bn\":\"/3/0/13\",\"e\":[");
+        b.append("{\"n\":\"\",\"v\":1500000000,\"t\":10},");
+        b.append("{\"n\":\"\",\"v\":1500000001,\"t\":30},");
+        b.append("{\"n\":\"\",\"v\":1500000002,\"t\":20}],");
+        b.append("\"bt\":1500000000}");
+        return givenANotification(b.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Response givenANotification(byte[] payload) {
+        Response response = new Response(ResponseCode.CONTENT);
+        response.setToken(coapRequest.getToken());
+        response.getOptions().setContentFormat(ContentFormat.JSON_CODE);
+        response.setPayload(payload);
+        return response;
+    }
+
     private Observation givenAnObservation(String registrationId, LwM2mPath target) {
         Registration registration = store.getRegistration(registrationId);
         if (registration == null) {
@@ -165,4 +280,39 @@ public class ObservationServiceTest {
             throw new RuntimeException(e);
         }
     }
+
+    private static class ResponseListener implements ObservationListener {
+
+        ObserveResponse response;
+
+        @Override
+        public void newObservation(Observation observation, Registration registration) {
+        }
+
+        @Override
+        public void cancelled(Observation observation) {
+        }
+
+        @Override
+        public void onResponse(Observation observation, Registration registration, ObserveResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onError(Observation observation, Registration registration, Exception error) {
+            throw new AssertionError(error);
+        }
+    }
+
+    private static class ValueListener extends ResponseListener implements TimestampedObservationListener {
+
+        List<TimestampedLwM2mNode> values = new ArrayList<>();
+
+        @Override
+        public void onTimestampedValue(Observation observation, Registration registration,
+                TimestampedLwM2mNode value) {
+            Assert.assertNull("values before the response", response);
+            values.add(value);
+        }
+    }
 }
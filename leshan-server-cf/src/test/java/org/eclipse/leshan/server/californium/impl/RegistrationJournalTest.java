@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.californium.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.LwM2m;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RegistrationJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File directory;
+    InetAddress address;
+    int port = 23452;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("journal");
+        address = InetAddress.getLocalHost();
+    }
+
+    @Test
+    public void registrations_and_observations_are_recovered_after_restart() {
+        InMemoryRegistrationStore store = givenAStore();
+        Registration registration = givenARegistration("4711", "urn:endpoint", port);
+        store.addRegistration(registration);
+        Request observeRequest = givenAnObservation(store, "4711", new LwM2mPath(3, 0, 13), new byte[] { 1, 2, 3 });
+        store.updateRegistration(new RegistrationUpdate("4711", address, port, 120L, null, null, null));
+        store.stop();
+
+        store = givenAStore();
+
+        Registration recovered = store.getRegistration("4711");
+        Assert.assertNotNull(recovered);
+        Assert.assertEquals(Long.valueOf(120L), recovered.getLifeTimeInSec());
+        Assert.assertEquals(registration.getEndpoint(), recovered.getEndpoint());
+        Assert.assertEquals(registration.getRegistrationDate(), recovered.getRegistrationDate());
+        Assert.assertEquals(BindingMode.UQ, recovered.getBindingMode());
+        Assert.assertArrayEquals(registration.getObjectLinks(), recovered.getObjectLinks());
+        Assert.assertEquals("bar", recovered.getAdditionalRegistrationAttributes().get("foo"));
+        Assert.assertSame(recovered, store.getRegistrationByAdress(new InetSocketAddress(address, port)));
+
+        org.eclipse.californium.core.observe.Observation observation = store.get(observeRequest.getToken());
+        Assert.assertNotNull(observation);
+        Assert.assertEquals(observeRequest.getOptions().getUriPathString(),
+                observation.getRequest().getOptions().getUriPathString());
+        Assert.assertEquals("4711", observation.getRequest().getUserContext().get(CoapRequestBuilder.CTX_REGID));
+        Assert.assertEquals(1, store.getObservations("4711").size());
+        store.stop();
+    }
+
+    @Test
+    public void removals_are_recovered_after_restart() {
+        InMemoryRegistrationStore store = givenAStore();
+        store.addRegistration(givenARegistration("4711", "urn:endpoint1", port));
+        store.addRegistration(givenARegistration("4712", "urn:endpoint2", port + 1));
+        Request observeRequest = givenAnObservation(store, "4711", new LwM2mPath(3, 0, 13), new byte[] { 1 });
+        givenAnObservation(store, "4712", new LwM2mPath(3, 0, 13), new byte[] { 2 });
+        store.remove(observeRequest.getToken());
+        store.removeRegistration("4712");
+        store.stop();
+
+        store = givenAStore();
+        Assert.assertNotNull(store.getRegistration("4711"));
+        Assert.assertTrue(store.getObservations("4711").isEmpty());
+        Assert.assertNull(store.getRegistration("4712"));
+        Assert.assertNull(store.get(new byte[] { 2 }));
+        store.stop();
+    }
+
+    @Test
+    public void new_registration_replaces_previous_one_after_restart() {
+        InMemoryRegistrationStore store = givenAStore();
+        store.addRegistration(givenARegistration("4711", "urn:endpoint", port));
+        givenAnObservation(store, "4711", new LwM2mPath(3, 0, 13), new byte[] { 1 });
+        store.addRegistration(givenARegistration("4712", "urn:endpoint", port));
+        store.stop();
+
+        store = givenAStore();
+        Assert.assertNull(store.getRegistration("4711"));
+        Assert.assertEquals("4712", store.getRegistrationByEndpoint("urn:endpoint").getId());
+        Assert.assertNull(store.get(new byte[] { 1 }));
+        store.stop();
+    }
+
+    @Test
+    public void snapshot_replaces_previous_segments() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory, 1, false);
+        RecordingListener listener = new RecordingListener();
+        journal.recover(listener);
+        Registration registration1 = givenARegistration("4711", "urn:endpoint1", port);
+        Registration registration2 = givenARegistration("4712", "urn:endpoint2", port);
+        journal.registrationUpdated(registration1);
+        journal.registrationUpdated(registration2);
+        Assert.assertTrue(journal.needsCompaction());
+
+        int segment = journal.rotate();
+        Assert.assertFalse(journal.needsCompaction());
+        journal.writeSnapshot(segment, Collections.singletonList(registration1),
+                Collections.<org.eclipse.californium.core.observe.Observation> emptyList());
+        journal.registrationRemoved("4711");
+        journal.close();
+
+        // only the snapshot and the last segment are kept
+        Assert.assertEquals(2, directory.list().length);
+
+        listener = new RecordingListener();
+        new RegistrationJournal(directory).recover(listener);
+        Assert.assertEquals(2, listener.events.size());
+        Assert.assertEquals("updated:4711", listener.events.get(0));
+        Assert.assertEquals("removed:4711", listener.events.get(1));
+    }
+
+    @Test
+    public void truncated_record_is_ignored() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory);
+        journal.recover(new RecordingListener());
+        journal.registrationUpdated(givenARegistration("4711", "urn:endpoint", port));
+        journal.close();
+
+        // simulate a crash while appending a record
+        File segment = directory.listFiles()[0];
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] { 0, 0, 0, 42, 1, 2 });
+        }
+
+        RecordingListener listener = new RecordingListener();
+        journal = new RegistrationJournal(directory);
+        journal.recover(listener);
+        Assert.assertEquals(Collections.singletonList("updated:4711"), listener.events);
+
+        // next records are appended to a new segment
+        journal.registrationRemoved("4711");
+        journal.close();
+        listener = new RecordingListener();
+        new RegistrationJournal(directory).recover(listener);
+        Assert.assertEquals(2, listener.events.size());
+    }
+
+    @Test
+    public void truncated_record_is_cut_from_last_segment() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory);
+        journal.recover(new RecordingListener());
+        journal.registrationUpdated(givenARegistration("4711", "urn:endpoint", port));
+        journal.close();
+
+        File segment = directory.listFiles()[0];
+        long length = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] { 0, 0, 0, 42, 1, 2 });
+        }
+
+        new RegistrationJournal(directory).recover(new RecordingListener());
+        Assert.assertEquals(length, segment.length());
+
+        // the segment is not the last one any more, it is still valid
+        RecordingListener listener = new RecordingListener();
+        new RegistrationJournal(directory).recover(listener);
+        Assert.assertEquals(Collections.singletonList("updated:4711"), listener.events);
+    }
+
+    @Test
+    public void record_with_garbage_length_is_cut_from_last_segment() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory);
+        journal.recover(new RecordingListener());
+        journal.registrationUpdated(givenARegistration("4711", "urn:endpoint", port));
+        journal.close();
+
+        // a torn header announcing a 2 GB record
+        File segment = directory.listFiles()[0];
+        long length = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(new byte[] { 0x7f, -1, -1, -1, 1, 2, 3, 4 });
+        }
+
+        RecordingListener listener = new RecordingListener();
+        new RegistrationJournal(directory).recover(listener);
+        Assert.assertEquals(Collections.singletonList("updated:4711"), listener.events);
+        Assert.assertEquals(length, segment.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void corrupted_record_before_last_segment_fails_recovery() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory);
+        journal.recover(new RecordingListener());
+        journal.registrationUpdated(givenARegistration("4711", "urn:endpoint", port));
+        journal.rotate();
+        journal.registrationRemoved("4711");
+        journal.close();
+
+        // corrupt the first segment
+        File[] segments = directory.listFiles();
+        Arrays.sort(segments);
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last + 1);
+        }
+
+        new RegistrationJournal(directory).recover(new RecordingListener());
+    }
+
+    @Test
+    public void failed_append_makes_journal_unhealthy_until_snapshot() throws IOException {
+        RegistrationJournal journal = new RegistrationJournal(directory);
+        journal.recover(new RecordingListener());
+        Assert.assertTrue(journal.isHealthy());
+        Assert.assertFalse(journal.needsCompaction());
+
+        // appending to a closed journal fails
+        journal.close();
+        Registration registration = givenARegistration("4711", "urn:endpoint", port);
+        journal.registrationUpdated(registration);
+        Assert.assertFalse(journal.isHealthy());
+        Assert.assertEquals(1, journal.getAppendFailures());
+        Assert.assertTrue(journal.needsCompaction());
+
+        int segment = journal.rotate();
+        Assert.assertFalse(journal.isHealthy());
+        journal.writeSnapshot(segment, Collections.singletonList(registration),
+                Collections.<org.eclipse.californium.core.observe.Observation> emptyList());
+        Assert.assertTrue(journal.isHealthy());
+        Assert.assertFalse(journal.needsCompaction());
+        journal.close();
+
+        RecordingListener listener = new RecordingListener();
+        new RegistrationJournal(directory).recover(listener);
+        Assert.assertEquals(Collections.singletonList("updated:4711"), listener.events);
+    }
+
+    private InMemoryRegistrationStore givenAStore() {
+        InMemoryRegistrationStore store = new InMemoryRegistrationStore(
+                Executors.newSingleThreadScheduledExecutor(), 60, 0, new RegistrationJournal(directory));
+        store.start();
+        return store;
+    }
+
+    private Registration givenARegistration(String registrationId, String endpoint, int port) {
+        Map<String, String> additionalAttributes = new HashMap<>();
+        additionalAttributes.put("foo", "bar");
+        return new Registration.Builder(registrationId, endpoint, address, port,
+                InetSocketAddress.createUnresolved("localhost", LwM2m.DEFAULT_COAP_PORT)).lifeTimeInSec(60L)
+                        .registrationDate(new Date(1_000_000L)).lastUpdate(new Date()).bindingMode(BindingMode.UQ)
+                        .objectLinks(Link.parse("</1/0>,</3/0>;ver=\"1.1\",</5>;foo=12".getBytes(StandardCharsets.UTF_8)))
+                        .additionalRegistrationAttributes(additionalAttributes).build();
+    }
+
+    private Request givenAnObservation(InMemoryRegistrationStore store, String registrationId, LwM2mPath target,
+            byte[] token) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(token);
+        coapRequest.getOptions().setUriPath(target.toString());
+        coapRequest.setObserve();
+        coapRequest.setDestination(address);
+        coapRequest.setDestinationPort(port);
+        Map<String, String> context = new HashMap<>();
+        context.put(CoapRequestBuilder.CTX_REGID, registrationId);
+        context.put(CoapRequestBuilder.CTX_LWM2M_PATH, target.toString());
+        coapRequest.setUserContext(context);
+
+        store.add(new org.eclipse.californium.core.observe.Observation(coapRequest, null));
+        return coapRequest;
+    }
+
+    private static class RecordingListener implements RegistrationJournal.Listener {
+        List<String> events = new ArrayList<>();
+
+        @Override
+        public void registrationUpdated(Registration registration) {
+            events.add("updated:" + registration.getId());
+        }
+
+        @Override
+        public void registrationRemoved(String registrationId) {
+            events.add("removed:" + registrationId);
+        }
+
+        @Override
+        public void observationAdded(org.eclipse.californium.core.observe.Observation observation) {
+            events.add("observed:" + observation.getRequest().getTokenString());
+        }
+
+        @Override
+        public void observationRemoved(byte[] token) {
+            events.add("cancelled");
+        }
+    }
+}
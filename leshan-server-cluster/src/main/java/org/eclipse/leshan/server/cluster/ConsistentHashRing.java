@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * An immutable consistent-hash ring which places keys (the endpoints) on nodes (the cluster instances).
+ * <p>
+ * Each node is placed at several points of the ring (the virtual nodes) and a key belongs to the node of the first
+ * point following its hash. When a node is added or removed, only the keys of its points move, the keys of the other
+ * nodes stay in place. Every instance builds the same ring from the same nodes.
+ */
+public class ConsistentHashRing {
+
+    /** The default number of points of a node */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    public ConsistentHashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes the number of points of each node, more points spread the keys more evenly.
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        Validate.notNull(nodes);
+        Validate.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+        // sorted, so the rare collisions are resolved the same way by every instance
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                Long point = hash(node + "#" + i);
+                if (!points.containsKey(point))
+                    points.put(point, node);
+            }
+        }
+    }
+
+    /**
+     * @return the node the key belongs to, or <code>null</code> if the ring is empty.
+     */
+    public String getNode(String key) {
+        if (points.isEmpty())
+            return null;
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        if (point == null) {
+            // after the last point: back to the first one
+            point = points.firstEntry();
+        }
+        return point.getValue();
+    }
+
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the UTF-8 bytes, mixed by the MurmurHash3 finalizer: the node names and the endpoints
+     * often only differ by their last characters.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConsistentHashRing [nodes=%s, points=%d]", nodes, points.size());
+    }
+}
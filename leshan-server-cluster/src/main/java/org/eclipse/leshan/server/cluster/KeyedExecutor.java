@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A bounded executor which runs the tasks of a same key in submission order.
+ * <p>
+ * The executor has a fixed number of worker threads, each one with its own bounded queue: the tasks of a key are
+ * always run by the same worker, the tasks without key are spread over the workers. When the queue of the worker is
+ * full the task is rejected with a {@link RejectedExecutionException}, the caller decides how to report the overload.
+ * <p>
+ * The depth of the queues, the time spent by the tasks in the queues and the number of rejected tasks are measured.
+ */
+public class KeyedExecutor {
+
+    /** The default number of worker threads */
+    public static final int DEFAULT_THREADS = 4;
+    /** The default maximum number of tasks waiting for a worker thread */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+
+    private final ThreadPoolExecutor[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    // metrics
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong(); // in nanoseconds
+    private final AtomicLong maxWaitTime = new AtomicLong(); // in nanoseconds
+
+    /**
+     * @param name the name of the worker threads
+     * @param threads the number of worker threads
+     * @param queueCapacity the maximum number of tasks waiting for a worker thread, shared by the workers
+     */
+    public KeyedExecutor(String name, int threads, int queueCapacity) {
+        Validate.isTrue(threads > 0, "threads must be positive");
+        Validate.isTrue(queueCapacity >= threads, "queueCapacity must be greater than threads");
+        workers = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueCapacity / threads), new NamedThreadFactory(name));
+        }
+    }
+
+    /**
+     * Runs the task after the tasks previously submitted with the same key.
+     *
+     * @throws RejectedExecutionException if too many tasks are waiting or if the executor is shut down.
+     */
+    public void execute(Object key, Runnable task) {
+        execute(workers[(key.hashCode() & Integer.MAX_VALUE) % workers.length], task);
+    }
+
+    /**
+     * Runs a task without ordering constraint.
+     *
+     * @throws RejectedExecutionException if too many tasks are waiting or if the executor is shut down.
+     */
+    public void execute(Runnable task) {
+        execute(workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length], task);
+    }
+
+    private void execute(ThreadPoolExecutor worker, Runnable task) {
+        try {
+            worker.execute(new TimedTask(task));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /* *************** Metrics **************** */
+
+    /**
+     * @return the number of tasks waiting for a worker thread.
+     */
+    public int getQueueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            size += worker.getQueue().size();
+        }
+        return size;
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the average time spent by the tasks waiting for a worker thread, in nanoseconds.
+     */
+    public long getAverageWaitTime() {
+        long count = started.get();
+        return count == 0 ? 0 : waitTime.get() / count;
+    }
+
+    /**
+     * @return the longest time spent by a task waiting for a worker thread, in nanoseconds.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "KeyedExecutor [threads=%d, queued=%d, completed=%d, rejected=%d, wait=%dns, maxWait=%dns]",
+                workers.length, getQueueSize(), getCompletedCount(), getRejectedCount(), getAverageWaitTime(),
+                getMaxWaitTime());
+    }
+
+    private class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long submissionTime = System.nanoTime();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            long wait = System.nanoTime() - submissionTime;
+            waitTime.addAndGet(wait);
+            started.incrementAndGet();
+            long max = maxWaitTime.get();
+            while (wait > max && !maxWaitTime.compareAndSet(max, wait)) {
+                max = maxWaitTime.get();
+            }
+            try {
+                task.run();
+            } finally {
+                completed.incrementAndGet();
+            }
+        }
+    }
+}
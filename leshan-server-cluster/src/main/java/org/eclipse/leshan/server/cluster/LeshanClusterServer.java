@@ -18,6 +18,8 @@ package org.eclipse.leshan.server.cluster;
 import java.io.File;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -33,6 +35,7 @@ import org.eclipse.leshan.server.californium.LeshanServerBuilder;
 import org.eclipse.leshan.server.californium.impl.LeshanServer;
 import org.eclipse.leshan.server.model.LwM2mModelProvider;
 import org.eclipse.leshan.server.model.StaticModelProvider;
+import org.eclipse.leshan.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,6 +54,12 @@ public class LeshanClusterServer {
 
     private final static String USAGE = "java -jar leshan-server-cluster.jar [OPTION]";
 
+    // in seconds, bounds the staleness of the near cache if invalidations are not published
+    private final static long NEAR_CACHE_TTL = 60;
+
+    // in milliseconds, the time given to the other instances to take the endpoints over before stopping
+    private final static long DEFAULT_DRAIN_GRACE = 5000;
+
     public static void main(String[] args) {
         // Define options for command line tools
         Options options = new Options();
@@ -66,6 +75,27 @@ public class LeshanClusterServer {
         options.addOption("m", "modelsfolder", true, "A folder which contains object models in OMA DDF(.xml) format.");
         options.addOption("r", "redis", true,
                 "Sets the location of the Redis database. The URL is in the format of: 'redis://:password@hostname:port/db_number'\n\nDefault: 'redis://localhost:6379'.");
+        options.addOption("nc", "nearcache", true,
+                "Enables a local cache of the registrations and observations stored in Redis, with the given maximum number of entries.\n  Default: no cache.");
+        options.addOption("on", "ownershipnotifications", false, String.format(
+                "Keeps the endpoints this instance is responsible for locally, updated by the ownership changes published on the %s channel.\n  Default: the owner is read from Redis for each request.",
+                RedisTokenHandler.OWNER_CHANNEL));
+        options.addOption("rq", "requestqueue", false,
+                "Also reads the requests from a durable Redis queue, they are delivered again if this instance stops before handling them.");
+        options.addOption("wt", "workers", true, String.format(
+                "Sets the number of threads handling the cluster messages.\n  Default: %d.", KeyedExecutor.DEFAULT_THREADS));
+        options.addOption("wq", "workqueue", true, String.format(
+                "Sets the maximum number of cluster messages waiting for a thread, the next ones are rejected.\n  Default: %d.",
+                KeyedExecutor.DEFAULT_QUEUE_CAPACITY));
+        options.addOption("nb", "notificationbatch", true,
+                "Publishes the notifications by batches, a notification waits at most the given time in milliseconds for the next ones.\n  Default: one publication per notification.");
+        options.addOption("nf", "notificationframing", false,
+                "Publishes a batch of notifications as a single JSON array message, see RedisBatchPublisher.decode(String). Requires -nb.");
+        options.addOption("rd", "registrationdelta", false,
+                "Publishes the registration events with the changed fields only, numbered by endpoint, on the LESHAN_REG_DELTA channel.");
+        options.addOption("dg", "draingrace", true, String.format(
+                "Sets the time in milliseconds this instance keeps handling the responses and notifications after handing its endpoints over to the other instances, when it stops.\n  Default: %d.",
+                DEFAULT_DRAIN_GRACE));
         HelpFormatter formatter = new HelpFormatter();
         formatter.setOptionComparator(null);
 
@@ -125,16 +155,54 @@ public class LeshanClusterServer {
             redisUrl = cl.getOptionValue("r");
         }
 
+        // Get the near cache size
+        int nearCacheSize = 0;
+        if (cl.hasOption("nc")) {
+            nearCacheSize = Integer.parseInt(cl.getOptionValue("nc"));
+        }
+
+        boolean ownershipNotifications = cl.hasOption("on");
+        boolean requestQueue = cl.hasOption("rq");
+
+        // Get the worker threads configuration
+        int workers = KeyedExecutor.DEFAULT_THREADS;
+        if (cl.hasOption("wt")) {
+            workers = Integer.parseInt(cl.getOptionValue("wt"));
+        }
+        int workQueueSize = KeyedExecutor.DEFAULT_QUEUE_CAPACITY;
+        if (cl.hasOption("wq")) {
+            workQueueSize = Integer.parseInt(cl.getOptionValue("wq"));
+        }
+
+        // Get the notification batching
+        long notificationBatchWindow = -1;
+        if (cl.hasOption("nb")) {
+            notificationBatchWindow = Long.parseLong(cl.getOptionValue("nb"));
+        }
+        boolean notificationFraming = cl.hasOption("nf");
+
+        boolean registrationDelta = cl.hasOption("rd");
+
+        // Get the drain grace period
+        long drainGrace = DEFAULT_DRAIN_GRACE;
+        if (cl.hasOption("dg")) {
+            drainGrace = Long.parseLong(cl.getOptionValue("dg"));
+        }
+
         try {
             createAndStartServer(clusterInstanceId, localAddress, localPort, secureLocalAddress, secureLocalPort,
-                    modelsFolderPath, redisUrl);
+                    modelsFolderPath, redisUrl, nearCacheSize, ownershipNotifications, requestQueue, workers,
+                    workQueueSize, notificationBatchWindow, notificationFraming, registrationDelta, drainGrace);
         } catch (Exception e) {
             LOG.error("Jetty stopped with unexpected error ...", e);
         }
     }
 
     public static void createAndStartServer(String clusterInstanceId, String localAddress, int localPort,
-            String secureLocalAddress, int secureLocalPort, String modelsFolderPath, String redisUrl) throws Exception {
+            String secureLocalAddress, int secureLocalPort, String modelsFolderPath, String redisUrl, int nearCacheSize,
+            boolean ownershipNotifications, boolean requestQueue, int workers, int workQueueSize,
+            long notificationBatchWindow, boolean notificationFraming, boolean registrationDelta,
+            final long drainGrace) throws Exception {
         // Create Redis connector.
         // TODO: support sentinel pool and make pool configurable
         Pool<Jedis> jedis = new JedisPool(new URI(redisUrl));
@@ -154,7 +222,15 @@ public class LeshanClusterServer {
         LwM2mModelProvider modelProvider = new StaticModelProvider(models);
         builder.setObjectModelProvider(modelProvider);
 
-        RedisRegistrationStore registrationStore = new RedisRegistrationStore(jedis);
+        RedisNearCache nearCache = null;
+        if (nearCacheSize > 0) {
+            nearCache = new RedisNearCache(jedis, nearCacheSize, NEAR_CACHE_TTL);
+        }
+        RedisRegistrationStore registrationStore = new RedisRegistrationStore(jedis,
+                Executors.newScheduledThreadPool(1,
+                        new NamedThreadFactory(String.format("RedisRegistrationStore Cleaner (%ds)",
+                                RedisRegistrationStore.DEFAULT_CLEAN_PERIOD))),
+                RedisRegistrationStore.DEFAULT_CLEAN_PERIOD, RedisRegistrationStore.DEFAULT_GRACE_PERIOD, nearCache);
         builder.setRegistrationStore(registrationStore);
 
         // TODO add support of public and private server key
@@ -164,13 +240,64 @@ public class LeshanClusterServer {
         LeshanServer lwServer = builder.build();
 
         // Create Clustering support
-        RedisTokenHandler tokenHandler = new RedisTokenHandler(jedis, clusterInstanceId);
-        new RedisRequestResponseHandler(jedis, lwServer, lwServer.getRegistrationService(), tokenHandler,
-                lwServer.getObservationService());
+        final RedisTokenHandler tokenHandler = new RedisTokenHandler(jedis, clusterInstanceId,
+                RedisTokenHandler.DEFAULT_REFRESH_PERIOD, ownershipNotifications);
+        tokenHandler.start();
+        final RedisClusterMembership membership = new RedisClusterMembership(jedis, clusterInstanceId);
+        // the endpoints of a dead instance are adopted out of the heartbeat thread
+        final ExecutorService adoptionExecutor = Executors
+                .newSingleThreadExecutor(new NamedThreadFactory("Cluster endpoints adoption"));
+        membership.addListener(new RedisClusterMembership.Listener() {
+            @Override
+            public void memberLeft(final String instanceUID) {
+                adoptionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            tokenHandler.adoptOrphans(instanceUID, membership);
+                        } catch (RuntimeException e) {
+                            LOG.error("Unable to adopt the endpoints of {}", instanceUID, e);
+                        }
+                    }
+                });
+            }
+        });
+        membership.start();
+        RedisBatchPublisher notificationPublisher = null;
+        if (notificationBatchWindow >= 0) {
+            notificationPublisher = new RedisBatchPublisher(jedis, RedisRequestResponseHandler.RESPONSE_CHANNEL,
+                    RedisBatchPublisher.DEFAULT_MAX_BATCH_SIZE, notificationBatchWindow, notificationFraming);
+        }
+        final RedisRequestResponseHandler requestResponseHandler = new RedisRequestResponseHandler(jedis, lwServer,
+                lwServer.getRegistrationService(), tokenHandler, lwServer.getObservationService(),
+                requestQueue ? new RedisRequestQueue(jedis, clusterInstanceId) : null,
+                new KeyedExecutor("Redis cluster message handler", workers, workQueueSize), notificationPublisher);
         lwServer.getRegistrationService().addListener(tokenHandler);
-        lwServer.getRegistrationService().addListener(new RedisRegistrationEventPublisher(jedis));
+        lwServer.getRegistrationService().addListener(new RedisRegistrationEventPublisher(jedis, registrationDelta));
 
         // Start Jetty & Leshan
         lwServer.start();
+
+        // Hand the endpoints over to the other instances when stopping
+        final LeshanServer server = lwServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    requestResponseHandler.drain(membership);
+                    Thread.sleep(drainGrace);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to drain this instance", e);
+                } finally {
+                    requestResponseHandler.stop();
+                    server.stop();
+                    membership.stop();
+                    adoptionExecutor.shutdownNow();
+                    tokenHandler.stop();
+                }
+            }
+        }, "Cluster instance drain"));
     }
 }
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.Pool;
+
+/**
+ * Publishes JSON messages on a Redis channel by batches, to save a round trip per message when many messages are sent.
+ * <p>
+ * The messages published within a window (2ms by default) or up to a maximum number of messages (256 by default) are
+ * sent together by a single thread, in publication order:
+ * <ul>
+ * <li>as a pipeline of {@code PUBLISH}, the subscribers receive the messages one by one as without batching,</li>
+ * <li>or, when <code>framed</code>, as a single {@code PUBLISH} of a JSON array of the messages. The subscribers must
+ * split it with {@link #decode(String)}.</li>
+ * </ul>
+ * A message waits at most for the window before being sent. When the messages are published faster than they are
+ * sent, {@link #publish(String)} blocks.
+ */
+public class RedisBatchPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisBatchPublisher.class);
+
+    /** The default maximum number of messages sent together */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    /** The default maximum time a message waits for the next ones, in milliseconds */
+    public static final long DEFAULT_WINDOW = 2;
+
+    private static final long POLL_TIMEOUT = 100; // in milliseconds
+
+    private final Pool<Jedis> pool;
+    private final String channel;
+    private final int maxBatchSize;
+    private final long window; // in nanoseconds
+    private final boolean framed;
+    private final BlockingQueue<String> queue;
+
+    // metrics
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread publisherThread;
+
+    public RedisBatchPublisher(Pool<Jedis> pool, String channel) {
+        this(pool, channel, DEFAULT_MAX_BATCH_SIZE, DEFAULT_WINDOW, false);
+    }
+
+    /**
+     * @param maxBatchSize the maximum number of messages sent together
+     * @param window the maximum time a message waits for the next ones, in milliseconds. With 0 the messages are sent
+     *        as soon as the previous batch is sent.
+     * @param framed <code>true</code> to send a batch as a single JSON array message.
+     */
+    public RedisBatchPublisher(Pool<Jedis> pool, String channel, int maxBatchSize, long window, boolean framed) {
+        Validate.notNull(pool);
+        Validate.notNull(channel);
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+        Validate.isTrue(window >= 0, "window must not be negative");
+        this.pool = pool;
+        this.channel = channel;
+        this.maxBatchSize = maxBatchSize;
+        this.window = TimeUnit.MILLISECONDS.toNanos(window);
+        this.framed = framed;
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * 4);
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+
+        publisherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<String> batch = new ArrayList<>(maxBatchSize);
+                while (running || !queue.isEmpty()) {
+                    try {
+                        if (collect(batch)) {
+                            send(batch);
+                        }
+                    } catch (InterruptedException e) {
+                        // stopping: the messages still in the queue are sent by stop()
+                        send(batch);
+                        return;
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unable to publish {} messages on {}", batch.size(), channel, e);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+            }
+        }, String.format("Redis %s channel batch publisher", channel));
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+    }
+
+    /**
+     * Stops the publisher thread and sends the messages still waiting.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        try {
+            publisherThread.join(POLL_TIMEOUT * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publisherThread.interrupt();
+
+        List<String> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        for (int i = 0; i < batch.size(); i += maxBatchSize) {
+            send(batch.subList(i, Math.min(i + maxBatchSize, batch.size())));
+        }
+    }
+
+    /**
+     * Adds a message to the next batch, waiting if too many messages are not sent yet. The message is sent immediately
+     * when the publisher is not started.
+     */
+    public void publish(String message) {
+        if (!running) {
+            send(Collections.singletonList(message));
+            return;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while publishing on {}, message dropped", channel);
+        }
+    }
+
+    /**
+     * Waits for a first message, then for the next ones until the batch is full or the window is over.
+     *
+     * @return <code>false</code> if no message was published.
+     */
+    private boolean collect(List<String> batch) throws InterruptedException {
+        String first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (first == null)
+            return false;
+        batch.add(first);
+
+        long deadline = System.nanoTime() + window;
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= maxBatchSize || remaining <= 0)
+                break;
+            String next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                break;
+            batch.add(next);
+        }
+        return true;
+    }
+
+    private void send(List<String> batch) {
+        if (batch.isEmpty())
+            return;
+        try (Jedis j = pool.getResource()) {
+            if (batch.size() == 1) {
+                j.publish(channel, batch.get(0));
+            } else if (framed) {
+                j.publish(channel, frame(batch));
+            } else {
+                Pipeline p = j.pipelined();
+                for (String message : batch) {
+                    p.publish(channel, message);
+                }
+                p.sync();
+            }
+        }
+        batches.incrementAndGet();
+        messages.addAndGet(batch.size());
+    }
+
+    private static String frame(List<String> batch) {
+        int length = batch.size() + 1;
+        for (String message : batch) {
+            length += message.length();
+        }
+        StringBuilder b = new StringBuilder(length);
+        b.append('[');
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0)
+                b.append(',');
+            b.append(batch.get(i));
+        }
+        return b.append(']').toString();
+    }
+
+    /**
+     * Splits a message received on a channel fed by a framed publisher.
+     *
+     * @param payload a JSON object message or a JSON array of messages
+     * @return the JSON messages in publication order
+     */
+    public static List<JsonObject> decode(String payload) {
+        JsonValue value = Json.parse(payload);
+        if (!value.isArray()) {
+            return Collections.singletonList(value.asObject());
+        }
+        JsonArray array = value.asArray();
+        List<JsonObject> messages = new ArrayList<>(array.size());
+        for (JsonValue message : array) {
+            messages.add(message.asObject());
+        }
+        return messages;
+    }
+
+    /* *************** Metrics **************** */
+
+    /**
+     * @return the number of batches sent, a message sent alone counts as a batch.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getMessageCount() {
+        return messages.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RedisBatchPublisher [channel=%s, framed=%s, batches=%d, messages=%d, queued=%d]",
+                channel, framed, getBatchCount(), getMessageCount(), queue.size());
+    }
+}
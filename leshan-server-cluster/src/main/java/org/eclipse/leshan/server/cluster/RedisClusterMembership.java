@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.Pool;
+
+/**
+ * The view of the live cluster instances, shared through Redis, and the {@link ConsistentHashRing} which places the
+ * endpoints on them.
+ * <p>
+ * Each instance writes its heartbeat periodically in the {@code CLUSTER:MEMBERS} sorted set (the score is the Redis
+ * time of the heartbeat, so the clocks of the instances do not matter) and reads the view at the same time. An
+ * instance which missed 3 heartbeats is removed from the view by the first instance which notices it, and the
+ * {@link Listener}s of every instance are told.
+ * <p>
+ * A draining instance ({@code CLUSTER:DRAINING} set, see {@link #drain()}) is still alive but is not on the ring any
+ * more: the endpoints it is responsible for are placed on the other instances.
+ */
+public class RedisClusterMembership {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisClusterMembership.class);
+
+    // Redis keys
+    static final String MEMBERS = "CLUSTER:MEMBERS"; // the UIDs of the instances, scored by their last heartbeat
+    static final String DRAINING = "CLUSTER:DRAINING"; // the UIDs of the instances being drained
+
+    /** The default period of the heartbeat, in milliseconds. An instance is dead after 3 missed heartbeats. */
+    public static final long DEFAULT_HEARTBEAT_PERIOD = 2000;
+
+    /**
+     * Listens the changes of the view, called by the heartbeat thread. A listener must not block: the heartbeats of this
+     * instance wait for it, and this instance is declared dead after 3 missed heartbeats. Long tasks must be run on
+     * another thread.
+     */
+    public interface Listener {
+
+        /**
+         * An instance stopped or missed its heartbeats. The ring without it is already in place.
+         */
+        void memberLeft(String instanceUID);
+    }
+
+    private final Pool<Jedis> pool;
+    private final String instanceUID;
+    private final long heartbeatPeriod; // in milliseconds
+    private final int virtualNodes;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private volatile boolean draining;
+    private volatile Set<String> members = Collections.emptySet();
+    private volatile Set<String> drainingMembers = Collections.emptySet();
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(Collections.<String> emptySet());
+    private ScheduledExecutorService schedExecutor;
+
+    public RedisClusterMembership(Pool<Jedis> pool, String instanceUID) {
+        this(pool, instanceUID, DEFAULT_HEARTBEAT_PERIOD, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param heartbeatPeriod the period of the heartbeat in milliseconds, an instance which missed 3 heartbeats is
+     *        removed from the view.
+     * @param virtualNodes the number of points of each instance on the ring, the same for all the instances.
+     */
+    public RedisClusterMembership(Pool<Jedis> pool, String instanceUID, long heartbeatPeriod, int virtualNodes) {
+        Validate.notNull(pool);
+        Validate.notNull(instanceUID);
+        Validate.isTrue(heartbeatPeriod > 0, "heartbeatPeriod must be positive");
+        Validate.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+        this.pool = pool;
+        this.instanceUID = instanceUID;
+        this.heartbeatPeriod = heartbeatPeriod;
+        this.virtualNodes = virtualNodes;
+    }
+
+    /* *************** Lifecycle **************** */
+
+    /**
+     * Joins the cluster: writes the first heartbeat and reads the view before returning. An instance which restarts
+     * with the same UID is not draining any more.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        draining = false;
+        try (Jedis j = pool.getResource()) {
+            j.srem(DRAINING, instanceUID);
+        }
+        heartbeat();
+
+        schedExecutor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory(String.format("RedisClusterMembership heartbeat (%dms)", heartbeatPeriod)));
+        schedExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    heartbeat();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected exception while refreshing the heartbeat of {}", instanceUID, e);
+                }
+            }
+        }, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leaves the cluster: the other instances remove this instance from their view at their next heartbeat.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        schedExecutor.shutdownNow();
+        try (Jedis j = pool.getResource()) {
+            Pipeline pipeline = j.pipelined();
+            pipeline.zrem(MEMBERS, instanceUID);
+            pipeline.srem(DRAINING, instanceUID);
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * Takes this instance off the ring, in its own view immediately and in the view of the other instances at their
+     * next heartbeat. The instance stays alive until it stops.
+     */
+    public void drain() {
+        draining = true;
+        try (Jedis j = pool.getResource()) {
+            j.sadd(DRAINING, instanceUID);
+        }
+        heartbeat();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /* *************** View **************** */
+
+    public String getInstanceUID() {
+        return instanceUID;
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * @return the UIDs of the live instances, including the draining ones.
+     */
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    public boolean isAlive(String instanceUID) {
+        return members.contains(instanceUID);
+    }
+
+    /**
+     * @return the live instance, not draining, where the endpoint is placed, or <code>null</code> if there is none.
+     */
+    public String getOwner(String endpoint) {
+        return ring.getNode(endpoint);
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Writes the heartbeat of this instance (unless it stopped), removes the dead instances and reads the view, in
+     * one round trip.
+     */
+    synchronized void heartbeat() {
+        Set<String> newMembers;
+        Set<String> newDraining;
+        try (Jedis j = pool.getResource()) {
+            List<String> time = j.time(); // seconds, microseconds
+            long now = Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+
+            Pipeline pipeline = j.pipelined();
+            if (running)
+                pipeline.zadd(MEMBERS, now, instanceUID);
+            // dead after 3 missed heartbeats
+            pipeline.zremrangeByScore(MEMBERS, "-inf", "(" + (now - heartbeatPeriod * 3));
+            Response<Set<String>> membersResponse = pipeline.zrange(MEMBERS, 0, -1);
+            Response<Set<String>> drainingResponse = pipeline.smembers(DRAINING);
+            pipeline.sync();
+            newMembers = membersResponse.get();
+            newDraining = drainingResponse.get();
+
+            // the dead instances which were draining
+            Set<String> stale = new HashSet<>(newDraining);
+            stale.removeAll(newMembers);
+            if (!stale.isEmpty()) {
+                j.srem(DRAINING, stale.toArray(new String[stale.size()]));
+                newDraining.removeAll(stale);
+            }
+        }
+        if (draining)
+            newDraining.add(instanceUID);
+
+        Set<String> onRing = new HashSet<>(newMembers);
+        onRing.removeAll(newDraining);
+        if (!onRing.equals(ring.getNodes())) {
+            ring = new ConsistentHashRing(onRing, virtualNodes);
+            LOG.debug("{}: ring changed to {}", instanceUID, ring);
+        }
+        Set<String> previousMembers = members;
+        members = Collections.unmodifiableSet(newMembers);
+        drainingMembers = Collections.unmodifiableSet(newDraining);
+
+        for (String member : previousMembers) {
+            if (!newMembers.contains(member) && !member.equals(instanceUID)) {
+                LOG.info("{}: instance {} left the cluster", instanceUID, member);
+                for (Listener listener : listeners) {
+                    try {
+                        listener.memberLeft(member);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unexpected exception in listener of {}", instanceUID, e);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RedisClusterMembership [instanceUID=%s, members=%s, draining=%s]", instanceUID, members,
+                drainingMembers);
+    }
+}
@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+/**
+ * A local cache of the registrations and observations stored in Redis by a {@link RedisRegistrationStore}.
+ * <p>
+ * The registrations are cached by endpoint and by registration id, the observations by token. Each cache is bounded to
+ * about <code>maxSize</code> entries, evicted in LRU order, and an entry is not used after <code>ttlInSec</code>. The
+ * caches are split in stripes, each guarded by its own lock, so lookups of different keys rarely contend.
+ * <p>
+ * The {@link RedisRegistrationStore} of each node publishes the modified endpoints and tokens on the
+ * {@value #INVALIDATION_CHANNEL} channel, this cache removes them when it receives these messages. Entries are only
+ * used while the cache is subscribed to this channel, and the cache is cleared each time it (re)subscribes, as
+ * invalidations may have been missed. The <code>ttlInSec</code> bounds the staleness if a node which does not publish
+ * invalidations (previous version) modifies an entry.
+ * <p>
+ * A value read from Redis is only cached if its key was not invalidated during the read: each invalidation leaves a
+ * tombstone holding its stamp, compared to the stamp taken before the read (see {@link #stamp()}).
+ */
+public class RedisNearCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisNearCache.class);
+
+    /** The channel of the invalidation messages */
+    public static final String INVALIDATION_CHANNEL = "LESHAN_CACHE_INV";
+
+    /** The maximum number of stripes of each cache */
+    public static final int DEFAULT_STRIPES = 16;
+
+    // first byte of the invalidation messages
+    static final char ENDPOINT_INVALIDATION = 'E'; // followed by the endpoint
+    static final char TOKEN_INVALIDATION = 'T'; // followed by the token
+
+    /**
+     * Receives the measures of the lookups served with a {@link RedisNearCache}, e.g. to feed a metrics registry.
+     * <p>
+     * It is called by the threads doing the lookups, so it must not block.
+     */
+    public interface MetricsListener {
+
+        /** A lookup was served by the cache. */
+        void onHit(long durationInNanos);
+
+        /** A lookup was served by Redis, including the cache update. */
+        void onMiss(long durationInNanos);
+    }
+
+    private final Pool<Jedis> pool;
+    private final long ttl; // in nanoseconds
+
+    private final LruCache<String, Registration> registrationsByEndpoint;
+    private final LruCache<String, String> endpointsByRegId;
+    private final LruCache<ByteBuffer, byte[]> observationsByToken;
+
+    // incremented by each invalidation, the stamp of an invalidation is kept in a tombstone of the invalidated key
+    private final AtomicLong stamps = new AtomicLong();
+    // the stamp of the last clear, the values read before are not cached
+    private volatile long clearStamp;
+    private volatile boolean subscribed;
+
+    private volatile boolean running;
+    private BinaryJedisPubSub subscriber;
+    private Thread subscriberThread;
+
+    // metrics
+    private volatile MetricsListener metricsListener;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong hitTime = new AtomicLong(); // in nanoseconds
+    private final AtomicLong missTime = new AtomicLong(); // in nanoseconds
+
+    public RedisNearCache(Pool<Jedis> pool, int maxSize, long ttlInSec) {
+        this(pool, maxSize, ttlInSec, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param pool the Redis connections, used to subscribe to the invalidation channel.
+     * @param maxSize the maximum number of entries of each cache.
+     * @param ttlInSec the time after which an entry is not used any more.
+     * @param stripes the number of stripes of each cache, at most <code>maxSize</code>.
+     */
+    public RedisNearCache(Pool<Jedis> pool, int maxSize, long ttlInSec, int stripes) {
+        Validate.notNull(pool);
+        Validate.isTrue(maxSize > 0, "maxSize must be positive");
+        Validate.isTrue(stripes > 0, "stripes must be positive");
+        this.pool = pool;
+        this.ttl = TimeUnit.SECONDS.toNanos(ttlInSec);
+        stripes = Math.min(stripes, maxSize);
+        this.registrationsByEndpoint = new LruCache<>(maxSize, stripes);
+        this.endpointsByRegId = new LruCache<>(maxSize, stripes);
+        this.observationsByToken = new LruCache<>(maxSize, stripes);
+    }
+
+    /* *************** Lifecycle **************** */
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        subscriber = new BinaryJedisPubSub() {
+            @Override
+            public void onSubscribe(byte[] channel, int subscribedChannels) {
+                onSubscribed();
+            }
+
+            @Override
+            public void onMessage(byte[] channel, byte[] message) {
+                onInvalidation(message);
+            }
+        };
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try (Jedis j = pool.getResource()) {
+                        j.subscribe(subscriber, INVALIDATION_CHANNEL.getBytes(UTF_8));
+                    } catch (RuntimeException e) {
+                        if (running)
+                            LOG.warn("Redis SUBSCRIBE interrupted.", e);
+                    }
+                    // invalidations may be missed until the next subscription
+                    onUnsubscribed();
+
+                    if (running) {
+                        // wait & re-launch
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                        }
+                        LOG.warn("Relaunch Redis SUBSCRIBE.");
+                    }
+                }
+            }
+        }, String.format("Redis %s channel reader", INVALIDATION_CHANNEL));
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        try {
+            if (subscriber.isSubscribed())
+                subscriber.unsubscribe();
+        } catch (RuntimeException e) {
+            LOG.debug("Unable to unsubscribe from {}", INVALIDATION_CHANNEL, e);
+        }
+        subscriberThread.interrupt();
+        onUnsubscribed();
+    }
+
+    private synchronized void onSubscribed() {
+        clear();
+        subscribed = true;
+    }
+
+    private synchronized void onUnsubscribed() {
+        subscribed = false;
+        clear();
+    }
+
+    private void clear() {
+        clearStamp = stamps.incrementAndGet();
+        registrationsByEndpoint.clear();
+        endpointsByRegId.clear();
+        observationsByToken.clear();
+    }
+
+    /* *************** Cache access **************** */
+
+    /**
+     * @return the current invalidation stamp, to give to the <code>put</code> methods when the value read from Redis
+     *         is available.
+     */
+    public long stamp() {
+        return stamps.get();
+    }
+
+    public Registration getRegistrationByEndpoint(String endpoint) {
+        if (!subscribed)
+            return null;
+        return registrationsByEndpoint.get(endpoint);
+    }
+
+    public Registration getRegistration(String registrationId) {
+        if (!subscribed)
+            return null;
+        String endpoint = endpointsByRegId.get(registrationId);
+        if (endpoint == null)
+            return null;
+        Registration registration = registrationsByEndpoint.get(endpoint);
+        if (registration == null || !registration.getId().equals(registrationId))
+            return null;
+        return registration;
+    }
+
+    /**
+     * Caches a registration read from Redis, if its endpoint was not invalidated since <code>stamp</code>.
+     */
+    public void putRegistration(Registration registration, long stamp) {
+        if (!subscribed)
+            return;
+        if (registrationsByEndpoint.put(registration.getEndpoint(), registration, stamp))
+            endpointsByRegId.put(registration.getId(), registration.getEndpoint(), stamp);
+    }
+
+    /**
+     * @return the serialized observation
+     */
+    public byte[] getObservation(byte[] token) {
+        if (!subscribed)
+            return null;
+        return observationsByToken.get(ByteBuffer.wrap(token));
+    }
+
+    /**
+     * Caches a serialized observation read from Redis, if its token was not invalidated since <code>stamp</code>.
+     */
+    public void putObservation(byte[] token, byte[] observation, long stamp) {
+        if (!subscribed)
+            return;
+        observationsByToken.put(ByteBuffer.wrap(Arrays.copyOf(token, token.length)), observation, stamp);
+    }
+
+    /* *************** Invalidation **************** */
+
+    public void invalidateEndpoint(String endpoint) {
+        registrationsByEndpoint.invalidate(endpoint, stamps.incrementAndGet());
+    }
+
+    public void invalidateToken(byte[] token) {
+        observationsByToken.invalidate(ByteBuffer.wrap(Arrays.copyOf(token, token.length)), stamps.incrementAndGet());
+    }
+
+    private void onInvalidation(byte[] message) {
+        if (message.length == 0)
+            return;
+        switch (message[0]) {
+        case ENDPOINT_INVALIDATION:
+            invalidateEndpoint(new String(message, 1, message.length - 1, UTF_8));
+            break;
+        case TOKEN_INVALIDATION:
+            invalidateToken(Arrays.copyOfRange(message, 1, message.length));
+            break;
+        default:
+            LOG.warn("Unexpected invalidation message type {}", message[0]);
+        }
+    }
+
+    /* *************** Metrics **************** */
+
+    /**
+     * @param listener the listener receiving the measure of each lookup, or <code>null</code>.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        this.metricsListener = listener;
+    }
+
+    void recordHit(long durationInNanos) {
+        hits.incrementAndGet();
+        hitTime.addAndGet(durationInNanos);
+        MetricsListener listener = metricsListener;
+        if (listener != null)
+            listener.onHit(durationInNanos);
+    }
+
+    void recordMiss(long durationInNanos) {
+        misses.incrementAndGet();
+        missTime.addAndGet(durationInNanos);
+        MetricsListener listener = metricsListener;
+        if (listener != null)
+            listener.onMiss(durationInNanos);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of lookups served by the cache, between 0 and 1.
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return the average duration of a lookup served by the cache, in nanoseconds.
+     */
+    public long getAverageHitLatency() {
+        long hitCount = hits.get();
+        return hitCount == 0 ? 0 : hitTime.get() / hitCount;
+    }
+
+    /**
+     * @return the average duration of a lookup served by Redis (including the cache update), in nanoseconds.
+     */
+    public long getAverageMissLatency() {
+        long missCount = misses.get();
+        return missCount == 0 ? 0 : missTime.get() / missCount;
+    }
+
+    public int size() {
+        return registrationsByEndpoint.size() + observationsByToken.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "RedisNearCache [size=%d, hits=%d, misses=%d, hitRate=%.3f, hitLatency=%dns, missLatency=%dns]",
+                size(), getHitCount(), getMissCount(), getHitRate(), getAverageHitLatency(),
+                getAverageMissLatency());
+    }
+
+    /**
+     * A map bounded to about <code>maxSize</code> entries in access order, which ignores the entries older than the
+     * TTL. The keys are spread among stripes, each one is an LRU map guarded by its own lock.
+     */
+    private class LruCache<K, V> {
+
+        private final Stripe<K, V>[] stripes;
+
+        @SuppressWarnings("unchecked")
+        LruCache(int maxSize, int stripeCount) {
+            stripes = new Stripe[stripeCount];
+            // round up, so that the cache holds at least maxSize entries
+            int stripeSize = (maxSize + stripeCount - 1) / stripeCount;
+            for (int i = 0; i < stripeCount; i++) {
+                stripes[i] = new Stripe<>(stripeSize);
+            }
+        }
+
+        private Stripe<K, V> stripe(K key) {
+            int hash = key.hashCode();
+            // spread the hash to avoid using only the lower bits.
+            hash ^= (hash >>> 16);
+            return stripes[(hash & 0x7fffffff) % stripes.length];
+        }
+
+        V get(K key) {
+            Stripe<K, V> stripe = stripe(key);
+            synchronized (stripe) {
+                Entry<V> entry = stripe.entries.get(key);
+                if (entry == null)
+                    return null;
+                if (System.nanoTime() - entry.creationTime > ttl) {
+                    stripe.entries.remove(key);
+                    return null;
+                }
+                return entry.value;
+            }
+        }
+
+        /**
+         * @return <code>false</code> if the value was not cached, as the key was invalidated since <code>stamp</code>.
+         */
+        boolean put(K key, V value, long stamp) {
+            Stripe<K, V> stripe = stripe(key);
+            synchronized (stripe) {
+                // checked under the stripe lock, as clear() updates the clear stamp before clearing the stripes
+                if (stamp < clearStamp || stripe.evictedTombstone > stamp)
+                    return false;
+                Long tombstone = stripe.tombstones.get(key);
+                if (tombstone != null && tombstone > stamp)
+                    return false;
+                stripe.entries.put(key, new Entry<>(value, System.nanoTime()));
+                return true;
+            }
+        }
+
+        void invalidate(K key, long stamp) {
+            Stripe<K, V> stripe = stripe(key);
+            synchronized (stripe) {
+                stripe.entries.remove(key);
+                stripe.tombstones.put(key, stamp);
+            }
+        }
+
+        void clear() {
+            for (Stripe<K, V> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.entries.clear();
+                    stripe.tombstones.clear();
+                    stripe.evictedTombstone = 0;
+                }
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Stripe<K, V> stripe : stripes) {
+                synchronized (stripe) {
+                    size += stripe.entries.size();
+                }
+            }
+            return size;
+        }
+    }
+
+    private static class Stripe<K, V> {
+
+        final LinkedHashMap<K, Entry<V>> entries;
+        // the stamps of the last invalidations, in invalidation order
+        final LinkedHashMap<K, Long> tombstones;
+        // the most recent stamp of the evicted tombstones: the values read before it are not cached
+        long evictedTombstone;
+
+        Stripe(final int maxSize) {
+            entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+            tombstones = new LinkedHashMap<K, Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                    if (size() <= maxSize)
+                        return false;
+                    evictedTombstone = Math.max(evictedTombstone, eldest.getValue());
+                    return true;
+                }
+            };
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long creationTime;
+
+        Entry(V value, long creationTime) {
+            this.value = value;
+            this.creationTime = creationTime;
+        }
+    }
+}
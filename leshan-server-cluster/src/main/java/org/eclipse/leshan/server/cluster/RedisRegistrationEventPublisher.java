@@ -15,37 +15,92 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.cluster;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.util.Collection;
 
 import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.server.cluster.serialization.RegistrationDeltaSerDes;
 import org.eclipse.leshan.server.cluster.serialization.RegistrationSerDes;
 import org.eclipse.leshan.server.cluster.serialization.RegistrationUpdateSerDes;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationListener;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
 
+import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.util.Pool;
 
 /**
  * A Registration registry Listener which publish registration event on Redis channel.
+ * <p>
+ * By default, each event is published with the full registration on the {@code LESHAN_REG_NEW},
+ * {@code LESHAN_REG_UP} or {@code LESHAN_REG_DEL} channel. With <code>delta</code> events, all the events are
+ * published on the {@code LESHAN_REG_DELTA} channel, and an update only contains the fields it changed (see
+ * {@link RegistrationDeltaSerDes}):
+ *
+ * <pre>
+ * {"t":"new","ep":"myendpoint","seq":1,"reg":{registration}}
+ * {"t":"up","ep":"myendpoint","seq":2,"delta":{"regId":"...","lastUp":1500000000000}}
+ * {"t":"del","ep":"myendpoint","seq":3,"regId":"...","exp":false}
+ * </pre>
+ *
+ * The events of an endpoint are numbered by a sequence shared by all the cluster instances ({@code REG:SEQ#<endpoint>}
+ * key), which restarts at 1 with a new registration. A consumer which does not receive the next number of an endpoint
+ * has missed an event: it must read the registration from the registration store before applying the next deltas.
  */
 public class RedisRegistrationEventPublisher implements RegistrationListener {
 
     private static String REGISTER_EVENT = "LESHAN_REG_NEW";
     private static String UPDATE_EVENT = "LESHAN_REG_UP";
     private static String DEREGISTER_EVENT = "LESHAN_REG_DEL";
+    static final String DELTA_EVENT = "LESHAN_REG_DELTA";
+
+    private static final String SEQ = "REG:SEQ#"; // the number of the last event of an endpoint
+
+    // KEYS[1]=sequence of the endpoint ; ARGV[1]=channel, ARGV[2]=message before the number, ARGV[3]=message after the
+    // number, ARGV[4]=lifetime of the sequence in seconds (0 to delete it), ARGV[5]=1 to restart the sequence
+    // Numbers and publishes the event atomically, so the events of an endpoint are published in order. Returns the
+    // number of the event.
+    private static final RedisScript PUBLISH_NUMBERED = new RedisScript( //
+            "if ARGV[5] == '1' then redis.call('DEL', KEYS[1]) end " //
+                    + "local seq = redis.call('INCR', KEYS[1]) " //
+                    + "if tonumber(ARGV[4]) > 0 then " //
+                    + "  redis.call('EXPIRE', KEYS[1], ARGV[4]) " //
+                    + "else " //
+                    + "  redis.call('DEL', KEYS[1]) " //
+                    + "end " //
+                    + "redis.call('PUBLISH', ARGV[1], ARGV[2] .. seq .. ARGV[3]) " //
+                    + "return seq");
+
     private Pool<Jedis> pool;
+    private final boolean delta;
 
     public RedisRegistrationEventPublisher(Pool<Jedis> p) {
+        this(p, false);
+    }
+
+    /**
+     * @param delta <code>true</code> to publish numbered events with the changes made by the updates only, on the
+     *        {@code LESHAN_REG_DELTA} channel.
+     */
+    public RedisRegistrationEventPublisher(Pool<Jedis> p, boolean delta) {
         this.pool = p;
+        this.delta = delta;
     }
 
     @Override
     public void registered(Registration registration, Registration previousReg,
             Collection<Observation> previousObsersations) {
+        if (delta) {
+            // a new registration restarts the sequence
+            publishNumbered("new", registration.getEndpoint(), "reg", RegistrationSerDes.jSerialize(registration),
+                    registration.getLifeTimeInSec(), true);
+            return;
+        }
         String payload = RegistrationSerDes.sSerialize(registration);
         try (Jedis j = pool.getResource()) {
             j.publish(REGISTER_EVENT, payload);
@@ -55,6 +110,12 @@ public class RedisRegistrationEventPublisher implements RegistrationListener {
     @Override
     public void updated(RegistrationUpdate update, Registration updatedRegistration,
             Registration previousRegistration) {
+        if (delta) {
+            publishNumbered("up", updatedRegistration.getEndpoint(), "delta",
+                    RegistrationDeltaSerDes.jSerialize(previousRegistration, updatedRegistration),
+                    updatedRegistration.getLifeTimeInSec(), false);
+            return;
+        }
         JsonObject value = new JsonObject();
         value.add("regUpdate", RegistrationUpdateSerDes.jSerialize(update));
         value.add("regUpdated", RegistrationSerDes.jSerialize(updatedRegistration));
@@ -67,9 +128,42 @@ public class RedisRegistrationEventPublisher implements RegistrationListener {
     @Override
     public void unregistered(Registration registration, Collection<Observation> observations, boolean expired,
             Registration newReg) {
+        if (delta) {
+            if (newReg != null && newReg.getEndpoint().equals(registration.getEndpoint())) {
+                // replaced by a new registration, which restarts the sequence
+                return;
+            }
+            // "regId":"...","exp":false
+            JsonObject o = Json.object();
+            o.add("regId", registration.getId());
+            o.add("exp", expired);
+            String fields = o.toString();
+            publishNumbered("del", registration.getEndpoint(), fields.substring(1, fields.length() - 1), 0, false);
+            return;
+        }
         String payload = RegistrationSerDes.sSerialize(registration);
         try (Jedis j = pool.getResource()) {
             j.publish(DEREGISTER_EVENT, payload);
         }
     }
+
+    private void publishNumbered(String type, String endpoint, String name, JsonValue value, long lifetime,
+            boolean restart) {
+        publishNumbered(type, endpoint, Json.value(name) + ":" + value, lifetime * 2, restart);
+    }
+
+    /**
+     * @param fields the JSON fields after the number
+     * @param sequenceLifetime the lifetime of the sequence in seconds, it outlives the registration. 0 to delete it.
+     * @param restart <code>true</code> to number this event 1.
+     */
+    private void publishNumbered(String type, String endpoint, String fields, long sequenceLifetime,
+            boolean restart) {
+        String head = "{\"t\":\"" + type + "\",\"ep\":" + Json.value(endpoint) + ",\"seq\":";
+        try (Jedis j = pool.getResource()) {
+            PUBLISH_NUMBERED.eval(j, 1, (SEQ + endpoint).getBytes(UTF_8), DELTA_EVENT.getBytes(UTF_8),
+                    head.getBytes(UTF_8), ("," + fields + "}").getBytes(UTF_8),
+                    Long.toString(sequenceLifetime).getBytes(UTF_8), (restart ? "1" : "0").getBytes(UTF_8));
+        }
+    }
 }
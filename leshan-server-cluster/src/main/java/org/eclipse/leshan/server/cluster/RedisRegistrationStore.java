@@ -22,15 +22,17 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.californium.elements.CorrelationContext;
@@ -45,8 +47,10 @@ import org.eclipse.leshan.server.cluster.serialization.RegistrationSerDes;
 import org.eclipse.leshan.server.registration.Deregistration;
 import org.eclipse.leshan.server.registration.ExpirationListener;
 import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationExpirationQueue;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
 import org.eclipse.leshan.server.registration.UpdatedRegistration;
+import org.eclipse.leshan.util.Hex;
 import org.eclipse.leshan.util.NamedThreadFactory;
 import org.eclipse.leshan.util.Validate;
 import org.slf4j.Logger;
@@ -72,9 +76,22 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     // Redis key prefixes
     private static final String REG_EP = "REG:EP:";
     private static final String REG_EP_REGID_IDX = "EP:REGID:"; // secondary index key (registration)
-    private static final String LOCK_EP = "LOCK:EP:";
-    private static final byte[] OBS_TKN = "OBS:TKN:".getBytes(UTF_8);
+    private static final String REG_REGID_EP_IDX = "REGID:EP:"; // secondary index key (registration id by endpoint)
+    private static final String OBS_TKN_PREFIX = "OBS:TKN:";
+    private static final byte[] OBS_TKN = OBS_TKN_PREFIX.getBytes(UTF_8);
     private static final String OBS_TKNS_REGID_IDX = "TKNS:REGID:"; // secondary index (token list by registration)
+    private static final byte[] EXP_EP = "EXP:EP".getBytes(UTF_8); // sorted set of endpoints by expiration time
+    private static final byte[] EXP_EP_INDEXED = "EXP:EP:INDEXED".getBytes(UTF_8); // set when all endpoints are indexed
+    private static final byte[] CLEANER_LEASE = "LEASE:CLEANER".getBytes(UTF_8);
+
+    private static final byte[] NX_OPTION = "NX".getBytes(UTF_8); // set the key if it does not already exist
+    private static final byte[] PX_OPTION = "PX".getBytes(UTF_8); // expire time in millisecond
+
+    private static final int CLEAN_BATCH_SIZE = 100;
+
+    // the compare-and-set of a value modified concurrently is retried with a random back-off up to this number of times
+    private static final int MAX_CAS_ATTEMPTS = 10;
+    private static final int CAS_BACKOFF = 5; // in milliseconds, doubled at each attempt
 
     private final Pool<Jedis> pool;
 
@@ -84,6 +101,13 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     private final ScheduledExecutorService schedExecutor;
     private final long cleanPeriod; // in seconds
     private final long gracePeriod; // in seconds
+    private final RedisNearCache nearCache; // may be null
+
+    // registrations and observations are written in the binary format, both formats are read
+    private boolean compactFormat = true;
+
+    // identifies this store when it owns the cleaner lease
+    private final byte[] leaseOwner = UUID.randomUUID().toString().getBytes(UTF_8);
 
     public RedisRegistrationStore(Pool<Jedis> p) {
         this(p, DEFAULT_CLEAN_PERIOD, DEFAULT_GRACE_PERIOD); // default clean period 60s
@@ -97,10 +121,20 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
     public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
             long lifetimeGracePeriodInSec) {
+        this(p, schedExecutor, cleanPeriodInSec, lifetimeGracePeriodInSec, null);
+    }
+
+    /**
+     * @param nearCache an optional local cache of the registrations and observations, started and stopped with this
+     *        store.
+     */
+    public RedisRegistrationStore(Pool<Jedis> p, ScheduledExecutorService schedExecutor, long cleanPeriodInSec,
+            long lifetimeGracePeriodInSec, RedisNearCache nearCache) {
         this.pool = p;
         this.schedExecutor = schedExecutor;
         this.cleanPeriod = cleanPeriodInSec;
         this.gracePeriod = lifetimeGracePeriodInSec;
+        this.nearCache = nearCache;
     }
 
     /* *************** Redis Key utility function **************** */
@@ -116,104 +150,250 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         return (prefix + registrationID).getBytes();
     }
 
-    private byte[] toLockKey(String endpoint) {
-        return toKey(LOCK_EP, endpoint);
-    }
-
-    private byte[] toLockKey(byte[] endpoint) {
-        return toKey(LOCK_EP.getBytes(UTF_8), endpoint);
-    }
+    /* *************** Lua scripts **************** */
+
+    // Each script is executed atomically by Redis, so no lock is needed. Keys which depend on stored values are built in
+    // the scripts, which requires a single Redis instance (like the previous lock based implementation).
+
+    // publishes the modified endpoint or token for the near caches (see RedisNearCache)
+    private static final String INVALIDATE_FUNCTIONS = "local function invalidateEndpoint(ep)\n"
+            + "  redis.call('PUBLISH', '" + RedisNearCache.INVALIDATION_CHANNEL + "', '"
+            + RedisNearCache.ENDPOINT_INVALIDATION + "' .. ep)\n"
+            + "end\n"
+            + "local function invalidateToken(token)\n"
+            + "  redis.call('PUBLISH', '" + RedisNearCache.INVALIDATION_CHANNEL + "', '"
+            + RedisNearCache.TOKEN_INVALIDATION + "' .. token)\n"
+            + "end\n";
+
+    // removes all the observations of the registration ARGV[1] and appends them to the given table
+    private static final String REMOVE_ALL_OBSERVATIONS_FUNCTION = INVALIDATE_FUNCTIONS
+            + "local function removeAllObservations(regId, result)\n"
+            + "  local tokensKey = '" + OBS_TKNS_REGID_IDX + "' .. regId\n"
+            + "  for _, token in ipairs(redis.call('LRANGE', tokensKey, 0, -1)) do\n"
+            + "    local obsKey = '" + OBS_TKN_PREFIX + "' .. token\n"
+            + "    local obs = redis.call('GET', obsKey)\n"
+            + "    if obs then\n"
+            + "      table.insert(result, obs)\n"
+            + "      redis.call('DEL', obsKey)\n"
+            + "      invalidateToken(token)\n"
+            + "    end\n"
+            + "  end\n"
+            + "  redis.call('DEL', tokensKey)\n"
+            + "end\n";
+
+    // KEYS: endpoint key, regId by endpoint key, endpoint by regId key, expiration index key
+    // ARGV: registration, endpoint, registration id, expiration time
+    // returns {} or {previous registration, previous observations...}
+    private static final RedisScript ADD_REGISTRATION = new RedisScript(REMOVE_ALL_OBSERVATIONS_FUNCTION
+            + "local old = redis.call('GETSET', KEYS[1], ARGV[1])\n"
+            + "local oldId = redis.call('GETSET', KEYS[2], ARGV[3])\n"
+            + "redis.call('SET', KEYS[3], ARGV[2])\n"
+            + "redis.call('ZADD', KEYS[4], ARGV[4], ARGV[2])\n"
+            + "invalidateEndpoint(ARGV[2])\n"
+            + "if not old then return {} end\n"
+            + "if not oldId then\n"
+            // registration stored before the regId by endpoint index existed
+            + "  local ok, decoded = pcall(cjson.decode, old)\n"
+            + "  if ok and type(decoded) == 'table' then oldId = decoded['regId'] end\n"
+            + "end\n"
+            + "local result = {old}\n"
+            + "if oldId then\n"
+            + "  if oldId ~= ARGV[3] then redis.call('DEL', '" + REG_EP_REGID_IDX + "' .. oldId) end\n"
+            + "  removeAllObservations(oldId, result)\n"
+            + "end\n"
+            + "return result");
+
+    // KEYS: endpoint by regId key
+    // returns the registration or nil
+    private static final RedisScript GET_REGISTRATION = new RedisScript(
+            "local ep = redis.call('GET', KEYS[1])\n"
+            + "if not ep then return false end\n"
+            + "return redis.call('GET', '" + REG_EP + "' .. ep)");
+
+    // KEYS: endpoint key, expiration index key
+    // ARGV: expected registration, new registration, expiration time, endpoint
+    // returns 1 if the registration was replaced or 0 if it was modified concurrently
+    private static final RedisScript UPDATE_REGISTRATION = new RedisScript(INVALIDATE_FUNCTIONS
+            + "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n"
+            + "redis.call('SET', KEYS[1], ARGV[2])\n"
+            + "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[4])\n"
+            + "invalidateEndpoint(ARGV[4])\n"
+            + "return 1");
+
+    // KEYS: endpoint key, expiration index key
+    // ARGV: expected registration (empty if the registration should not exist), expiration time, endpoint
+    // fixes the expiration time of an endpoint if the registration was not modified concurrently
+    private static final RedisScript INDEX_EXPIRATION = new RedisScript(
+            "local reg = redis.call('GET', KEYS[1])\n"
+            + "if not reg then\n"
+            + "  redis.call('ZREM', KEYS[2], ARGV[3])\n"
+            + "elseif reg == ARGV[1] then\n"
+            + "  redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3])\n"
+            + "end\n"
+            + "return 0");
+
+    // KEYS: endpoint by regId key, expiration index key
+    // ARGV: registration id, [expected registration]
+    // returns {} or {removed registration, removed observations...}
+    private static final RedisScript REMOVE_REGISTRATION = new RedisScript(REMOVE_ALL_OBSERVATIONS_FUNCTION
+            + "local ep = redis.call('GET', KEYS[1])\n"
+            + "if not ep then return {} end\n"
+            + "local currentId = redis.call('GET', '" + REG_REGID_EP_IDX + "' .. ep)\n"
+            + "if currentId and currentId ~= ARGV[1] then\n"
+            // stale index of a replaced registration
+            + "  redis.call('DEL', KEYS[1])\n"
+            + "  return {}\n"
+            + "end\n"
+            + "local regKey = '" + REG_EP + "' .. ep\n"
+            + "local reg = redis.call('GET', regKey)\n"
+            + "if not reg then return {} end\n"
+            + "if ARGV[2] and reg ~= ARGV[2] then return {} end\n"
+            + "redis.call('DEL', KEYS[1], regKey, '" + REG_REGID_EP_IDX + "' .. ep)\n"
+            + "redis.call('ZREM', KEYS[2], ep)\n"
+            + "invalidateEndpoint(ep)\n"
+            + "local result = {reg}\n"
+            + "removeAllObservations(ARGV[1], result)\n"
+            + "return result");
+
+    // KEYS: endpoint by regId key, observation key, tokens by regId key
+    // ARGV: observation, token
+    // returns -1 if the registration does not exist, else the previous observation for this token or nil
+    private static final RedisScript ADD_OBSERVATION = new RedisScript(INVALIDATE_FUNCTIONS
+            + "if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end\n"
+            + "local previous = redis.call('GETSET', KEYS[2], ARGV[1])\n"
+            + "redis.call('LPUSH', KEYS[3], ARGV[2])\n"
+            + "if previous then invalidateToken(ARGV[2]) end\n"
+            + "return previous");
+
+    // KEYS: tokens by regId key
+    // returns the observations of the registration
+    private static final RedisScript GET_OBSERVATIONS = new RedisScript(
+            "local result = {}\n"
+            + "for _, token in ipairs(redis.call('LRANGE', KEYS[1], 0, -1)) do\n"
+            + "  local obs = redis.call('GET', '" + OBS_TKN_PREFIX + "' .. token)\n"
+            + "  if obs then table.insert(result, obs) end\n"
+            + "end\n"
+            + "return result");
+
+    // KEYS: tokens by regId key, observation key
+    // ARGV: token
+    // returns the removed observation or nil if it does not belong to the registration
+    private static final RedisScript REMOVE_REGISTRATION_OBSERVATION = new RedisScript(INVALIDATE_FUNCTIONS
+            + "if redis.call('LREM', KEYS[1], 0, ARGV[1]) == 0 then return false end\n"
+            + "local obs = redis.call('GET', KEYS[2])\n"
+            + "redis.call('DEL', KEYS[2])\n"
+            + "invalidateToken(ARGV[1])\n"
+            + "return obs");
+
+    // KEYS: observation key, tokens by regId key
+    // ARGV: expected observation, token
+    // returns 1 if the observation was removed or 0 if it was modified concurrently
+    private static final RedisScript REMOVE_OBSERVATION = new RedisScript(INVALIDATE_FUNCTIONS
+            + "if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end\n"
+            + "redis.call('DEL', KEYS[1])\n"
+            + "redis.call('LREM', KEYS[2], 0, ARGV[2])\n"
+            + "invalidateToken(ARGV[2])\n"
+            + "return 1");
+
+    // ARGV: registration id
+    // returns the removed observations
+    private static final RedisScript REMOVE_ALL_OBSERVATIONS = new RedisScript(REMOVE_ALL_OBSERVATIONS_FUNCTION
+            + "local result = {}\n"
+            + "removeAllObservations(ARGV[1], result)\n"
+            + "return result");
 
     /* *************** Leshan Registration API **************** */
 
     @Override
     public Deregistration addRegistration(Registration registration) {
         try (Jedis j = pool.getResource()) {
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(registration.getEndpoint());
-
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                // add registration
-                byte[] k = toEndpointKey(registration.getEndpoint());
-                byte[] old = j.getSet(k, serializeReg(registration));
-
-                // add registration: secondary index
-                byte[] idx = toRegIdKey(registration.getId());
-                j.set(idx, registration.getEndpoint().getBytes(UTF_8));
-
-                if (old != null) {
-                    Registration oldRegistration = deserializeReg(old);
-                    // remove old secondary index
-                    if (registration.getId() != oldRegistration.getId())
-                        j.del(toRegIdKey(oldRegistration.getId()));
-                    // remove old observation
-                    Collection<Observation> obsRemoved = unsafeRemoveAllObservations(j, oldRegistration.getId());
-
-                    return new Deregistration(oldRegistration, obsRemoved);
-                }
-
-                return null;
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
-            }
+            List<byte[]> result = toList(ADD_REGISTRATION.eval(j, 4, toEndpointKey(registration.getEndpoint()),
+                    toKey(REG_REGID_EP_IDX, registration.getEndpoint()), toRegIdKey(registration.getId()), EXP_EP,
+                    serializeReg(registration), registration.getEndpoint().getBytes(UTF_8),
+                    registration.getId().getBytes(UTF_8), toExpirationScore(registration)));
+            invalidateEndpoint(registration.getEndpoint());
+            return toDeregistration(result);
         }
     }
 
     @Override
     public UpdatedRegistration updateRegistration(RegistrationUpdate update) {
         try (Jedis j = pool.getResource()) {
-
-            // fetch the client ep by registration ID index
-            byte[] ep = j.get(toRegIdKey(update.getRegistrationId()));
-            if (ep == null) {
-                return null;
-            }
-
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(ep);
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                // fetch the client
-                byte[] data = j.get(toEndpointKey(ep));
+            for (int attempt = 1;; attempt++) {
+                byte[] data = (byte[]) GET_REGISTRATION.eval(j, 1, toRegIdKey(update.getRegistrationId()));
                 if (data == null) {
                     return null;
                 }
 
                 Registration r = deserializeReg(data);
-
                 Registration updatedRegistration = update.update(r);
 
-                // store the new client
-                j.set(toEndpointKey(updatedRegistration.getEndpoint()), serializeReg(updatedRegistration));
-
-                return new UpdatedRegistration(r, updatedRegistration);
-
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
+                // store the new registration if it was not modified meanwhile
+                Object replaced = UPDATE_REGISTRATION.eval(j, 2, toEndpointKey(updatedRegistration.getEndpoint()),
+                        EXP_EP, data, serializeReg(updatedRegistration), toExpirationScore(updatedRegistration),
+                        updatedRegistration.getEndpoint().getBytes(UTF_8));
+                if (Long.valueOf(1).equals(replaced)) {
+                    invalidateEndpoint(updatedRegistration.getEndpoint());
+                    return new UpdatedRegistration(r, updatedRegistration);
+                }
+                backOff(attempt, "registration " + update.getRegistrationId());
             }
         }
     }
 
     @Override
     public Registration getRegistration(String registrationId) {
+        if (nearCache == null) {
+            try (Jedis j = pool.getResource()) {
+                return getRegistration(j, registrationId);
+            }
+        }
+
+        long start = System.nanoTime();
+        Registration registration = nearCache.getRegistration(registrationId);
+        if (registration != null) {
+            nearCache.recordHit(System.nanoTime() - start);
+            return registration;
+        }
+        long stamp = nearCache.stamp();
         try (Jedis j = pool.getResource()) {
-            return getRegistration(j, registrationId);
+            registration = getRegistration(j, registrationId);
+        }
+        if (registration != null) {
+            nearCache.putRegistration(registration, stamp);
         }
+        nearCache.recordMiss(System.nanoTime() - start);
+        return registration;
     }
 
     @Override
     public Registration getRegistrationByEndpoint(String endpoint) {
         Validate.notNull(endpoint);
+        long start = System.nanoTime();
+        long stamp = 0;
+        if (nearCache != null) {
+            Registration registration = nearCache.getRegistrationByEndpoint(endpoint);
+            if (registration != null) {
+                nearCache.recordHit(System.nanoTime() - start);
+                return registration;
+            }
+            stamp = nearCache.stamp();
+        }
+
+        Registration registration = null;
         try (Jedis j = pool.getResource()) {
             byte[] data = j.get(toEndpointKey(endpoint));
-            if (data == null) {
-                return null;
+            if (data != null) {
+                registration = deserializeReg(data);
+            }
+        }
+        if (nearCache != null) {
+            if (registration != null) {
+                nearCache.putRegistration(registration, stamp);
             }
-            return deserializeReg(data);
+            nearCache.recordMiss(System.nanoTime() - start);
         }
+        return registration;
     }
 
     @Override
@@ -299,41 +479,42 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     @Override
     public Deregistration removeRegistration(String registrationId) {
         try (Jedis j = pool.getResource()) {
-            return removeRegistration(j, registrationId, false);
+            return removeRegistration(j, registrationId);
         }
     }
 
-    private Deregistration removeRegistration(Jedis j, String registrationId, boolean removeOnlyIfNotAlive) {
-        // fetch the client ep by registration ID index
-        byte[] ep = j.get(toRegIdKey(registrationId));
-        if (ep == null) {
-            return null;
-        }
-
-        byte[] lockValue = null;
-        byte[] lockKey = toLockKey(ep);
-        try {
-            lockValue = RedisLock.acquire(j, lockKey);
+    private Deregistration removeRegistration(Jedis j, String registrationId) {
+        return toDeregistration(
+                toList(REMOVE_REGISTRATION.eval(j, 2, toRegIdKey(registrationId), EXP_EP,
+                        registrationId.getBytes(UTF_8))));
+    }
 
-            // fetch the client
-            byte[] data = j.get(toEndpointKey(ep));
-            if (data == null) {
-                return null;
-            }
-            Registration r = deserializeReg(data);
+    /**
+     * Removes a registration only if it was not modified since it was read.
+     */
+    private Deregistration removeRegistration(Jedis j, String registrationId, byte[] expectedRegistration) {
+        return toDeregistration(toList(REMOVE_REGISTRATION.eval(j, 2, toRegIdKey(registrationId), EXP_EP,
+                registrationId.getBytes(UTF_8), expectedRegistration)));
+    }
 
-            if (!removeOnlyIfNotAlive || !r.isAlive(gracePeriod)) {
-                long nbRemoved = j.del(toRegIdKey(r.getId()));
-                if (nbRemoved > 0) {
-                    j.del(toEndpointKey(r.getEndpoint()));
-                    Collection<Observation> obsRemoved = unsafeRemoveAllObservations(j, r.getId());
-                    return new Deregistration(r, obsRemoved);
-                }
-            }
+    private Deregistration toDeregistration(List<byte[]> result) {
+        if (result.isEmpty()) {
             return null;
-        } finally {
-            RedisLock.release(j, lockKey, lockValue);
         }
+        Registration registration = deserializeReg(result.get(0));
+        invalidateEndpoint(registration.getEndpoint());
+        Collection<Observation> observations = new ArrayList<>(result.size() - 1);
+        for (byte[] obs : result.subList(1, result.size())) {
+            Observation observation = build(deserializeObs(obs));
+            invalidateToken(observation.getId());
+            observations.add(observation);
+        }
+        return new Deregistration(registration, observations);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<byte[]> toList(Object scriptResult) {
+        return (List<byte[]>) scriptResult;
     }
 
     private byte[] toRegIdKey(String registrationId) {
@@ -344,11 +525,47 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         return toKey(REG_EP, endpoint);
     }
 
-    private byte[] toEndpointKey(byte[] endpoint) {
-        return toKey(REG_EP.getBytes(UTF_8), endpoint);
+    /**
+     * Waits before retrying a compare-and-set which failed as the value was modified concurrently.
+     *
+     * @throws IllegalStateException if the value was modified concurrently at each of the {@value #MAX_CAS_ATTEMPTS}
+     *         attempts, or if the thread is interrupted.
+     */
+    private static void backOff(int attempt, String value) {
+        if (attempt >= MAX_CAS_ATTEMPTS) {
+            throw new IllegalStateException(
+                    String.format("Unable to modify %s: modified concurrently %d times", value, attempt));
+        }
+        try {
+            // a random delay, so that the concurrent writers do not retry at the same time
+            Thread.sleep(ThreadLocalRandom.current().nextInt(CAS_BACKOFF << (attempt - 1)) + 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Interrupted while modifying %s", value), e);
+        }
+    }
+
+    /* *************** Near cache invalidation **************** */
+
+    // the other nodes are notified by the scripts, the local cache is invalidated synchronously to read its own writes
+
+    private void invalidateEndpoint(String endpoint) {
+        if (nearCache != null)
+            nearCache.invalidateEndpoint(endpoint);
+    }
+
+    private void invalidateToken(byte[] token) {
+        if (nearCache != null)
+            nearCache.invalidateToken(token);
+    }
+
+    private byte[] toExpirationScore(Registration registration) {
+        return Long.toString(RegistrationExpirationQueue.expirationTime(registration, gracePeriod)).getBytes(UTF_8);
     }
 
     private byte[] serializeReg(Registration registration) {
+        if (compactFormat)
+            return RegistrationSerDes.serializeCompact(registration);
         return RegistrationSerDes.bSerialize(registration);
     }
 
@@ -367,67 +584,36 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
         List<Observation> removed = new ArrayList<>();
 
-        if (!removed.isEmpty()) {
-            try (Jedis j = pool.getResource()) {
-
-                // fetch the client ep by registration ID index
-                byte[] ep = j.get(toRegIdKey(registrationId));
-                if (ep == null) {
-                    return null;
-                }
-
-                byte[] lockValue = null;
-                byte[] lockKey = toLockKey(ep);
-
-                try {
-                    lockValue = RedisLock.acquire(j, lockKey);
-
-                    // cancel existing observations for the same path and registration id.
-                    for (Observation obs : getObservations(j, registrationId)) {
-                        if (observation.getPath().equals(obs.getPath())
-                                && !Arrays.equals(observation.getId(), obs.getId())) {
-                            removed.add(obs);
-                            unsafeRemoveObservation(j, registrationId, obs.getId());
-                        }
+        try (Jedis j = pool.getResource()) {
+            // cancel existing observations for the same path and registration id.
+            for (Observation obs : getObservations(j, registrationId)) {
+                if (observation.getPath().equals(obs.getPath()) && !Arrays.equals(observation.getId(), obs.getId())) {
+                    Observation removedObservation = removeObservation(j, registrationId, obs.getId());
+                    if (removedObservation != null) {
+                        removed.add(removedObservation);
                     }
-
-                } finally {
-                    RedisLock.release(j, lockKey, lockValue);
                 }
             }
         }
 
         return removed;
-
     }
 
     @Override
     public Observation removeObservation(String registrationId, byte[] observationId) {
         try (Jedis j = pool.getResource()) {
+            return removeObservation(j, registrationId, observationId);
+        }
+    }
 
-            // fetch the client ep by registration ID index
-            byte[] ep = j.get(toRegIdKey(registrationId));
-            if (ep == null) {
-                return null;
-            }
-
-            // remove observation
-            byte[] lockValue = null;
-            byte[] lockKey = toLockKey(ep);
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                Observation observation = build(get(observationId));
-                if (observation != null && registrationId.equals(observation.getRegistrationId())) {
-                    unsafeRemoveObservation(j, registrationId, observationId);
-                    return observation;
-                }
-                return null;
-
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
-            }
+    private Observation removeObservation(Jedis j, String registrationId, byte[] observationId) {
+        byte[] obs = (byte[]) REMOVE_REGISTRATION_OBSERVATION.eval(j, 2, toKey(OBS_TKNS_REGID_IDX, registrationId),
+                toKey(OBS_TKN, observationId), observationId);
+        invalidateToken(observationId);
+        if (obs == null) {
+            return null;
         }
+        return build(deserializeObs(obs));
     }
 
     @Override
@@ -444,11 +630,8 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
     private Collection<Observation> getObservations(Jedis j, String registrationId) {
         Collection<Observation> result = new ArrayList<>();
-        for (byte[] token : j.lrange(toKey(OBS_TKNS_REGID_IDX, registrationId), 0, -1)) {
-            byte[] obs = j.get(toKey(OBS_TKN, token));
-            if (obs != null) {
-                result.add(build(deserializeObs(obs)));
-            }
+        for (byte[] obs : toList(GET_OBSERVATIONS.eval(j, 1, toKey(OBS_TKNS_REGID_IDX, registrationId)))) {
+            result.add(build(deserializeObs(obs)));
         }
         return result;
     }
@@ -456,22 +639,13 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     @Override
     public Collection<Observation> removeObservations(String registrationId) {
         try (Jedis j = pool.getResource()) {
-            // check registration exists
-            Registration registration = getRegistration(j, registrationId);
-            if (registration == null)
-                return Collections.emptyList();
-
-            // get endpoint and create lock
-            String endpoint = registration.getEndpoint();
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                return unsafeRemoveAllObservations(j, registrationId);
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
+            Collection<Observation> removed = new ArrayList<>();
+            for (byte[] obs : toList(REMOVE_ALL_OBSERVATIONS.eval(j, 0, registrationId.getBytes(UTF_8)))) {
+                Observation observation = build(deserializeObs(obs));
+                invalidateToken(observation.getId());
+                removed.add(observation);
             }
+            return removed;
         }
     }
 
@@ -479,33 +653,26 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
 
     @Override
     public void add(org.eclipse.californium.core.observe.Observation obs) {
-        String endpoint = this.validateObservation(obs);
+        validateObservation(obs);
 
         try (Jedis j = pool.getResource()) {
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                String registrationId = obs.getRequest().getUserContext().get(CTX_REGID);
-                if (!j.exists(toRegIdKey(registrationId)))
-                    throw new IllegalStateException("no registration for this Id");
-
-                byte[] previousValue = j.getSet(toKey(OBS_TKN, obs.getRequest().getToken()), serializeObs(obs));
-
-                // secondary index to get the list by registrationId
-                j.lpush(toKey(OBS_TKNS_REGID_IDX, registrationId), obs.getRequest().getToken());
-
-                // log any collisions
-                if (previousValue != null && previousValue.length != 0) {
-                    org.eclipse.californium.core.observe.Observation previousObservation = deserializeObs(
-                            previousValue);
-                    LOG.warn(
-                            "Token collision ? observation from request [{}] will be replaced by observation from request [{}] ",
-                            previousObservation.getRequest(), obs.getRequest());
-                }
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
+            String registrationId = obs.getRequest().getUserContext().get(CTX_REGID);
+            byte[] token = obs.getRequest().getToken();
+            Object previousValue = ADD_OBSERVATION.eval(j, 3, toRegIdKey(registrationId), toKey(OBS_TKN, token),
+                    toKey(OBS_TKNS_REGID_IDX, registrationId), serializeObs(obs), token);
+
+            if (previousValue instanceof Long) {
+                throw new IllegalStateException("no registration for this Id");
+            }
+            invalidateToken(token);
+
+            // log any collisions
+            if (previousValue != null && ((byte[]) previousValue).length != 0) {
+                org.eclipse.californium.core.observe.Observation previousObservation = deserializeObs(
+                        (byte[]) previousValue);
+                LOG.warn(
+                        "Token collision ? observation from request [{}] will be replaced by observation from request [{}] ",
+                        previousObservation.getRequest(), obs.getRequest());
             }
         }
     }
@@ -515,82 +682,67 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         try (Jedis j = pool.getResource()) {
             byte[] tokenKey = toKey(OBS_TKN, token);
 
-            // fetch the observation by token
-            byte[] serializedObs = j.get(tokenKey);
-            if (serializedObs == null)
-                return;
-
-            org.eclipse.californium.core.observe.Observation obs = deserializeObs(serializedObs);
-            String registrationId = obs.getRequest().getUserContext().get(CoapRequestBuilder.CTX_REGID);
-            Registration registration = getRegistration(j, registrationId);
-            if (registration == null) {
-                LOG.warn("Unable to remove observation {}, registration {} does not exist anymore", obs.getRequest(),
-                        registrationId);
-                return;
-            }
-
-            String endpoint = registration.getEndpoint();
-            byte[] lockValue = null;
-            byte[] lockKey = toKey(LOCK_EP, endpoint);
-            try {
-                lockValue = RedisLock.acquire(j, lockKey);
-
-                unsafeRemoveObservation(j, registrationId, token);
-            } finally {
-                RedisLock.release(j, lockKey, lockValue);
+            for (int attempt = 1;; attempt++) {
+                // fetch the observation by token to know its registration
+                byte[] serializedObs = j.get(tokenKey);
+                if (serializedObs == null)
+                    return;
+
+                org.eclipse.californium.core.observe.Observation obs = deserializeObs(serializedObs);
+                String registrationId = obs.getRequest().getUserContext().get(CoapRequestBuilder.CTX_REGID);
+
+                // remove it if it was not replaced meanwhile
+                Object removed = REMOVE_OBSERVATION.eval(j, 2, tokenKey, toKey(OBS_TKNS_REGID_IDX, registrationId),
+                        serializedObs, token);
+                if (Long.valueOf(1).equals(removed)) {
+                    invalidateToken(token);
+                    return;
+                }
+                backOff(attempt, "observation " + Hex.encodeHexString(token));
             }
         }
-
     }
 
     @Override
     public org.eclipse.californium.core.observe.Observation get(byte[] token) {
-        try (Jedis j = pool.getResource()) {
-            byte[] obs = j.get(toKey(OBS_TKN, token));
-            if (obs == null) {
-                return null;
-            } else {
-                return deserializeObs(obs);
+        // the serialized observation is cached, as the request is modified by Californium
+        long start = System.nanoTime();
+        long stamp = 0;
+        if (nearCache != null) {
+            byte[] obs = nearCache.getObservation(token);
+            if (obs != null) {
+                org.eclipse.californium.core.observe.Observation observation = deserializeObs(obs);
+                nearCache.recordHit(System.nanoTime() - start);
+                return observation;
             }
+            stamp = nearCache.stamp();
         }
-    }
-
-    /* *************** Observation utility functions **************** */
 
-    private Registration getRegistration(Jedis j, String registrationId) {
-        byte[] ep = j.get(toRegIdKey(registrationId));
-        if (ep == null) {
-            return null;
+        byte[] obs;
+        try (Jedis j = pool.getResource()) {
+            obs = j.get(toKey(OBS_TKN, token));
         }
-        byte[] data = j.get(toEndpointKey(ep));
-        if (data == null) {
+        if (obs == null) {
+            if (nearCache != null)
+                nearCache.recordMiss(System.nanoTime() - start);
             return null;
         }
-
-        return deserializeReg(data);
-    }
-
-    private void unsafeRemoveObservation(Jedis j, String registrationId, byte[] observationId) {
-        if (j.del(toKey(OBS_TKN, observationId)) > 0L) {
-            j.lrem(toKey(OBS_TKNS_REGID_IDX, registrationId), 0, observationId);
+        org.eclipse.californium.core.observe.Observation observation = deserializeObs(obs);
+        if (nearCache != null) {
+            nearCache.putObservation(token, obs, stamp);
+            nearCache.recordMiss(System.nanoTime() - start);
         }
+        return observation;
     }
 
-    private Collection<Observation> unsafeRemoveAllObservations(Jedis j, String registrationId) {
-        Collection<Observation> removed = new ArrayList<>();
-        byte[] regIdKey = toKey(OBS_TKNS_REGID_IDX, registrationId);
+    /* *************** Observation utility functions **************** */
 
-        // fetch all observations by token
-        for (byte[] token : j.lrange(regIdKey, 0, -1)) {
-            byte[] obs = j.get(toKey(OBS_TKN, token));
-            if (obs != null) {
-                removed.add(build(deserializeObs(obs)));
-            }
-            j.del(toKey(OBS_TKN, token));
+    private Registration getRegistration(Jedis j, String registrationId) {
+        byte[] data = (byte[]) GET_REGISTRATION.eval(j, 1, toRegIdKey(registrationId));
+        if (data == null) {
+            return null;
         }
-        j.del(regIdKey);
-
-        return removed;
+        return deserializeReg(data);
     }
 
     @Override
@@ -599,6 +751,8 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
     }
 
     private byte[] serializeObs(org.eclipse.californium.core.observe.Observation obs) {
+        if (compactFormat)
+            return ObservationSerDes.serializeCompact(obs);
         return ObservationSerDes.serialize(obs);
     }
 
@@ -632,17 +786,14 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         return new Observation(cfObs.getRequest().getToken(), regId, new LwM2mPath(lwm2mPath), context);
     }
 
-    private String validateObservation(org.eclipse.californium.core.observe.Observation observation) {
+    private void validateObservation(org.eclipse.californium.core.observe.Observation observation) {
         if (!observation.getRequest().getUserContext().containsKey(CoapRequestBuilder.CTX_REGID))
             throw new IllegalStateException("missing registrationId info in the request context");
         if (!observation.getRequest().getUserContext().containsKey(CoapRequestBuilder.CTX_LWM2M_PATH))
             throw new IllegalStateException("missing lwm2m path info in the request context");
 
-        String endpoint = observation.getRequest().getUserContext().get(CoapRequestBuilder.CTX_ENDPOINT);
-        if (endpoint == null)
+        if (!observation.getRequest().getUserContext().containsKey(CoapRequestBuilder.CTX_ENDPOINT))
             throw new IllegalStateException("missing endpoint info in the request context");
-
-        return endpoint;
     }
 
     /* *************** Expiration handling **************** */
@@ -652,6 +803,8 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
      */
     @Override
     public void start() {
+        if (nearCache != null)
+            nearCache.start();
         schedExecutor.scheduleAtFixedRate(new Cleaner(), cleanPeriod, cleanPeriod, TimeUnit.SECONDS);
     }
 
@@ -660,6 +813,8 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
      */
     @Override
     public void stop() {
+        if (nearCache != null)
+            nearCache.stop();
         schedExecutor.shutdownNow();
         try {
             schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
@@ -668,35 +823,110 @@ public class RedisRegistrationStore implements CaliforniumRegistrationStore, Sta
         }
     }
 
+    /**
+     * Removes the expired registrations. The registrations are indexed by expiration time, so only the expired ones are
+     * read. Only the node which gets the cleaner lease for the current period does the cleaning.
+     */
     private class Cleaner implements Runnable {
 
         @Override
         public void run() {
 
             try (Jedis j = pool.getResource()) {
-                ScanParams params = new ScanParams().match(REG_EP + "*").count(100);
-                String cursor = "0";
-                do {
-                    ScanResult<byte[]> res = j.scan(cursor.getBytes(), params);
-                    for (byte[] key : res.getResult()) {
-                        Registration r = deserializeReg(j.get(key));
-                        if (!r.isAlive(gracePeriod)) {
-                            Deregistration dereg = removeRegistration(j, r.getId(), true);
-                            if (dereg != null)
-                                expirationListener.registrationExpired(dereg.getRegistration(),
-                                        dereg.getObservations());
-                        }
+                // the lease is never released: it expires at the end of the period
+                if (!"OK".equals(j.set(CLEANER_LEASE, leaseOwner, NX_OPTION, PX_OPTION, cleanPeriod * 1000))) {
+                    return;
+                }
+
+                if (!j.exists(EXP_EP_INDEXED)) {
+                    indexAllRegistrations(j);
+                }
+
+                Set<byte[]> previousBatch = null;
+                while (true) {
+                    Set<byte[]> endpoints = j.zrangeByScore(EXP_EP, Double.NEGATIVE_INFINITY,
+                            System.currentTimeMillis(), 0, CLEAN_BATCH_SIZE);
+                    if (endpoints.isEmpty() || sameEndpoints(endpoints, previousBatch)) {
+                        break;
+                    }
+                    for (byte[] endpoint : endpoints) {
+                        cleanEndpoint(j, endpoint);
                     }
-                    cursor = res.getStringCursor();
-                } while (!"0".equals(cursor));
+                    previousBatch = endpoints;
+                }
             } catch (Exception e) {
                 LOG.warn("Unexpected Exception while registration cleaning", e);
             }
         }
+
+        private void cleanEndpoint(Jedis j, byte[] endpoint) {
+            byte[] data = j.get(toKey(REG_EP.getBytes(UTF_8), endpoint));
+            if (data == null) {
+                // remove the stale index entry
+                INDEX_EXPIRATION.eval(j, 2, toKey(REG_EP.getBytes(UTF_8), endpoint), EXP_EP, new byte[0],
+                        new byte[0], endpoint);
+                return;
+            }
+            Registration r = deserializeReg(data);
+            if (!r.isAlive(gracePeriod)) {
+                // only remove it if it was not updated meanwhile
+                Deregistration dereg = removeRegistration(j, r.getId(), data);
+                if (dereg != null)
+                    expirationListener.registrationExpired(dereg.getRegistration(), dereg.getObservations());
+            } else {
+                // the expiration time was indexed with a different grace period
+                INDEX_EXPIRATION.eval(j, 2, toKey(REG_EP.getBytes(UTF_8), endpoint), EXP_EP, data,
+                        toExpirationScore(r), endpoint);
+            }
+        }
+
+        private boolean sameEndpoints(Set<byte[]> endpoints, Set<byte[]> previousEndpoints) {
+            // no progress, the remaining entries will be handled at the next period
+            if (previousEndpoints == null || endpoints.size() != previousEndpoints.size()) {
+                return false;
+            }
+            Iterator<byte[]> it = previousEndpoints.iterator();
+            for (byte[] endpoint : endpoints) {
+                if (!Arrays.equals(endpoint, it.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Indexes the expiration time of the registrations stored before the expiration index existed.
+         */
+        private void indexAllRegistrations(Jedis j) {
+            ScanParams params = new ScanParams().match(REG_EP + "*").count(100);
+            String cursor = "0";
+            do {
+                ScanResult<byte[]> res = j.scan(cursor.getBytes(), params);
+                for (byte[] key : res.getResult()) {
+                    byte[] data = j.get(key);
+                    if (data != null) {
+                        Registration r = deserializeReg(data);
+                        INDEX_EXPIRATION.eval(j, 2, key, EXP_EP, data, toExpirationScore(r),
+                                r.getEndpoint().getBytes(UTF_8));
+                    }
+                }
+                cursor = res.getStringCursor();
+            } while (!"0".equals(cursor));
+            j.set(EXP_EP_INDEXED, "1".getBytes(UTF_8));
+        }
     }
 
     @Override
     public void setExpirationListener(ExpirationListener listener) {
         expirationListener = listener;
     }
+
+    /**
+     * Selects the format of the stored registrations and observations: the compact binary format (default) or JSON.
+     * Both formats are always read, JSON should only be written while nodes which can not read the binary format are
+     * still running.
+     */
+    public void setCompactFormat(boolean compact) {
+        compactFormat = compact;
+    }
 }
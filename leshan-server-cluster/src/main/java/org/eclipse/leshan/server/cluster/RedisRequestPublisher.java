@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.server.cluster.serialization.RequestMessageSerDes;
+import org.eclipse.leshan.util.Validate;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+/**
+ * Publishes the JSON Request Messages handled by the {@link RedisRequestResponseHandler} of the cluster instances.
+ * <p>
+ * The instance responsible for the endpoint (see {@link RedisTokenHandler}) is looked up once and the message is only
+ * published on its {@code LESHAN_REQ#<instanceUID>} channel, so the other instances do not have to parse it. The
+ * message is broadcast on the {@code LESHAN_REQ} channel when the responsible instance is unknown or does not listen.
+ * <p>
+ * When the instances read their durable request queue (see {@link RedisRequestQueue}), the publisher can be
+ * <code>durable</code>: the message is then pushed on the queue of the responsible instance, so it is not lost while
+ * this instance does not listen.
+ * <p>
+ * The publisher can be <code>compact</code>: the messages are then serialized in the binary format of
+ * {@link RequestMessageSerDes}, which the instances read as well as JSON. The durable queue only contains JSON messages.
+ * <p>
+ * The responses are published on the {@code LESHAN_RESP} channel.
+ */
+public class RedisRequestPublisher {
+
+    private final Pool<Jedis> pool;
+    private final boolean durable;
+    private final boolean compact;
+
+    public RedisRequestPublisher(Pool<Jedis> pool) {
+        this(pool, false);
+    }
+
+    /**
+     * @param durable <code>true</code> to push the messages on the queue of the responsible instance.
+     */
+    public RedisRequestPublisher(Pool<Jedis> pool, boolean durable) {
+        this(pool, durable, false);
+    }
+
+    /**
+     * @param durable <code>true</code> to push the messages on the queue of the responsible instance.
+     * @param compact <code>true</code> to send the messages in the compact binary format, not supported by the durable
+     *        queue.
+     */
+    public RedisRequestPublisher(Pool<Jedis> pool, boolean durable, boolean compact) {
+        Validate.notNull(pool);
+        Validate.isTrue(!(durable && compact), "the durable queue only supports JSON messages");
+        this.pool = pool;
+        this.durable = durable;
+        this.compact = compact;
+    }
+
+    /**
+     * Sends a LWM2M request to the given endpoint through the cluster instance responsible for it.
+     *
+     * @param ticket the identifier of the request, used in the response messages
+     */
+    public void send(String ticket, String endpoint, DownlinkRequest<?> request) {
+        if (compact) {
+            publish(endpoint, RequestMessageSerDes.serializeCompact(ticket, endpoint, request));
+        } else {
+            publish(endpoint, RequestMessageSerDes.sSerialize(ticket, endpoint, request));
+        }
+    }
+
+    /**
+     * Publishes a JSON Request Message to the cluster instance responsible for the given endpoint.
+     *
+     * @return <code>true</code> if the message was sent to the responsible instance only, <code>false</code> if it was
+     *         broadcast to all the instances.
+     */
+    public boolean publish(String endpoint, String message) {
+        if (durable) {
+            try (Jedis j = pool.getResource()) {
+                return RedisRequestQueue.enqueue(j, endpoint, message);
+            }
+        }
+        return publish(endpoint, message.getBytes(UTF_8));
+    }
+
+    /**
+     * Publishes a JSON or binary Request Message to the cluster instance responsible for the given endpoint, on the
+     * channels only.
+     *
+     * @return <code>true</code> if the message was sent to the responsible instance only, <code>false</code> if it was
+     *         broadcast to all the instances.
+     */
+    public boolean publish(String endpoint, byte[] message) {
+        try (Jedis j = pool.getResource()) {
+            byte[] instanceUID = j.get((RedisTokenHandler.EP_UID + endpoint).getBytes());
+            if (instanceUID != null) {
+                String channel = RedisRequestResponseHandler.toRequestChannel(new String(instanceUID, UTF_8));
+                if (j.publish(channel.getBytes(UTF_8), message) > 0) {
+                    return true;
+                }
+            }
+            // unknown or stopped instance: each instance checks whether it is responsible
+            j.publish(RedisRequestResponseHandler.REQUEST_CHANNEL.getBytes(UTF_8), message);
+            return false;
+        }
+    }
+}
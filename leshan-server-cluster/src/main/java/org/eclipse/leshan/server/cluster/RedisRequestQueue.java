@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.Pool;
+
+/**
+ * A durable queue of the JSON Request Messages sent to a cluster instance, an alternative to the fire-and-forget
+ * {@code LESHAN_REQ} channels.
+ * <p>
+ * Each instance has a queue ({@code REQ:Q:<instanceUID>} list): the producers push the request messages on the queue
+ * of the instance responsible for the endpoint (see {@link #enqueue(Jedis, String, String)}), and the instance moves
+ * them atomically, by batches, to its pending list ({@code REQ:PENDING:<instanceUID>}) before handling them. A message
+ * stays in the pending list until it is acknowledged, so the messages published while the instance does not listen
+ * are delivered later, and the messages being handled by an instance which stops are delivered again:
+ * <ul>
+ * <li>to the same instance when it restarts with the same UID,</li>
+ * <li>or to another instance when the instance does not refresh its heartbeat ({@code REQ:ALIVE:<instanceUID>}) any
+ * more. This instance checks whether it is responsible for the endpoint and forwards the message otherwise.</li>
+ * </ul>
+ * The delivery is "at least once": a message handled just before the instance stops may be handled again.
+ */
+public class RedisRequestQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisRequestQueue.class);
+
+    // Redis key prefixes
+    private static final String QUEUE = "REQ:Q:"; // the messages to handle by an instance
+    private static final String PENDING = "REQ:PENDING:"; // the messages being handled by an instance
+    private static final String ALIVE = "REQ:ALIVE:"; // the heartbeat of an instance
+    private static final String CONSUMERS = "REQ:CONSUMERS"; // the UIDs of the instances which have a queue
+
+    /** The default number of messages read in one round trip */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    /** The default period of the heartbeat, in seconds. An instance is dead after 3 missed heartbeats. */
+    public static final long DEFAULT_HEARTBEAT_PERIOD = 5;
+
+    private static final int BLOCKING_TIMEOUT = 1; // in seconds
+
+    /* *************** Lua scripts **************** */
+
+    // KEYS[1]=EP#UID#<endpoint> ; ARGV[1]=message
+    // Pushes the message on the queue of the live instance responsible for the endpoint, or publishes it on the
+    // LESHAN_REQ channel when there is none. Returns 1 if the message was queued.
+    private static final RedisScript ENQUEUE = new RedisScript( //
+            "local uid = redis.call('GET', KEYS[1]) " //
+                    + "if uid and redis.call('EXISTS', '" + ALIVE + "' .. uid) == 1 then " //
+                    + "  redis.call('LPUSH', '" + QUEUE + "' .. uid, ARGV[1]) " //
+                    + "  return 1 " //
+                    + "end " //
+                    + "redis.call('PUBLISH', '" + RedisRequestResponseHandler.REQUEST_CHANNEL + "', ARGV[1]) " //
+                    + "return 0");
+
+    // KEYS[1]=queue, KEYS[2]=pending ; ARGV[1]=max number of messages
+    // Moves the oldest messages of the queue to the pending list and returns them.
+    private static final RedisScript POP_BATCH = new RedisScript( //
+            "local messages = {} " //
+                    + "for i = 1, tonumber(ARGV[1]) do " //
+                    + "  local m = redis.call('RPOPLPUSH', KEYS[1], KEYS[2]) " //
+                    + "  if not m then break end " //
+                    + "  messages[i] = m " //
+                    + "end " //
+                    + "return messages");
+
+    // KEYS[1]=pending, KEYS[2]=queue
+    // Moves the pending messages back to the queue, they are read first (oldest first).
+    private static final RedisScript REDELIVER = new RedisScript( //
+            "local count = 0 " //
+                    + "local m = redis.call('LPOP', KEYS[1]) " //
+                    + "while m do " //
+                    + "  redis.call('RPUSH', KEYS[2], m) " //
+                    + "  count = count + 1 " //
+                    + "  m = redis.call('LPOP', KEYS[1]) " //
+                    + "end " //
+                    + "return count");
+
+    // KEYS[1]=pending, KEYS[2]=queue ; ARGV=messages
+    // Moves the given pending messages back to the queue, they are read first.
+    private static final RedisScript RELEASE = new RedisScript( //
+            "for i = #ARGV, 1, -1 do " //
+                    + "  if redis.call('LREM', KEYS[1], -1, ARGV[i]) > 0 then " //
+                    + "    redis.call('RPUSH', KEYS[2], ARGV[i]) " //
+                    + "  end " //
+                    + "end " //
+                    + "return #ARGV");
+
+    // KEYS[1]=heartbeat of the stopped instance, KEYS[2]=pending of the stopped instance, KEYS[3]=queue of the stopped
+    // instance, KEYS[4]=target queue, KEYS[5]=consumers ; ARGV[1]=stopped instance UID
+    // If the instance is still dead, moves its pending messages (read first) then its queued messages to the target
+    // queue. Returns the number of moved messages or -1 if the instance is alive.
+    private static final RedisScript RECLAIM_DEAD = new RedisScript( //
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return -1 end " //
+                    + "redis.call('SREM', KEYS[5], ARGV[1]) " //
+                    + "local count = 0 " //
+                    + "local m = redis.call('LPOP', KEYS[2]) " //
+                    + "while m do " //
+                    + "  redis.call('RPUSH', KEYS[4], m) " //
+                    + "  count = count + 1 " //
+                    + "  m = redis.call('LPOP', KEYS[2]) " //
+                    + "end " //
+                    + "m = redis.call('RPOPLPUSH', KEYS[3], KEYS[4]) " //
+                    + "while m do " //
+                    + "  count = count + 1 " //
+                    + "  m = redis.call('RPOPLPUSH', KEYS[3], KEYS[4]) " //
+                    + "end " //
+                    + "return count");
+
+    /**
+     * Handles the messages read from the queue. {@link RedisRequestQueue#ack(String)} must be called once a message
+     * is handled.
+     */
+    public interface MessageHandler {
+        void handle(String message);
+    }
+
+    private final Pool<Jedis> pool;
+    private final String instanceUID;
+    private final int batchSize;
+    private final long heartbeatPeriod; // in seconds
+    private final ScheduledExecutorService schedExecutor;
+
+    private final byte[] queueKey;
+    private final byte[] pendingKey;
+    private final String aliveKey;
+
+    private volatile boolean running;
+    private Thread consumerThread;
+
+    public RedisRequestQueue(Pool<Jedis> pool, String instanceUID) {
+        this(pool, instanceUID, DEFAULT_BATCH_SIZE, DEFAULT_HEARTBEAT_PERIOD);
+    }
+
+    /**
+     * @param batchSize the maximum number of messages read in one round trip
+     * @param heartbeatPeriod the period of the heartbeat in seconds, the messages of an instance which missed 3
+     *        heartbeats are delivered to the other instances.
+     */
+    public RedisRequestQueue(Pool<Jedis> pool, String instanceUID, int batchSize, long heartbeatPeriod) {
+        Validate.notNull(pool);
+        Validate.notNull(instanceUID);
+        Validate.isTrue(batchSize > 0, "batchSize must be positive");
+        Validate.isTrue(heartbeatPeriod > 0, "heartbeatPeriod must be positive");
+        this.pool = pool;
+        this.instanceUID = instanceUID;
+        this.batchSize = batchSize;
+        this.heartbeatPeriod = heartbeatPeriod;
+        this.queueKey = toQueueKey(instanceUID);
+        this.pendingKey = toKey(PENDING, instanceUID);
+        this.aliveKey = ALIVE + instanceUID;
+        this.schedExecutor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory(String.format("RedisRequestQueue heartbeat (%ds)", heartbeatPeriod)));
+    }
+
+    /* *************** Producer **************** */
+
+    /**
+     * Pushes a JSON Request Message on the queue of the instance responsible for the given endpoint. The message is
+     * published on the {@code LESHAN_REQ} channel if this instance is unknown or dead.
+     *
+     * @return <code>true</code> if the message was queued.
+     */
+    public static boolean enqueue(Jedis j, String endpoint, String message) {
+        Object queued = ENQUEUE.eval(j, 1, (RedisTokenHandler.EP_UID + endpoint).getBytes(UTF_8),
+                message.getBytes(UTF_8));
+        return Long.valueOf(1).equals(queued);
+    }
+
+    /* *************** Consumer **************** */
+
+    /**
+     * Delivers again the messages which were not acknowledged by a previous run of this instance, then starts reading
+     * the queue.
+     */
+    public synchronized void start(final MessageHandler handler) {
+        Validate.notNull(handler);
+        if (running)
+            return;
+        running = true;
+
+        try (Jedis j = pool.getResource()) {
+            heartbeat(j);
+            j.sadd(CONSUMERS, instanceUID);
+            long count = (Long) REDELIVER.eval(j, 2, pendingKey, queueKey);
+            if (count > 0) {
+                LOG.info("{} unacknowledged requests of a previous run are delivered again", count);
+            }
+        }
+        schedExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try (Jedis j = pool.getResource()) {
+                    heartbeat(j);
+                    reclaimDeadInstances(j);
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected exception while refreshing the heartbeat of {}", instanceUID, e);
+                }
+            }
+        }, heartbeatPeriod, heartbeatPeriod, TimeUnit.SECONDS);
+
+        consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        List<String> messages = take();
+                        for (int i = 0; i < messages.size(); i++) {
+                            if (!running) {
+                                // the queue may already be read again
+                                release(messages.subList(i, messages.size()));
+                                break;
+                            }
+                            handler.handle(messages.get(i));
+                        }
+                    } catch (RuntimeException e) {
+                        if (!running)
+                            return;
+                        LOG.warn("Unable to read the request queue of {}", instanceUID, e);
+                        // wait & retry
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e1) {
+                        }
+                    }
+                }
+            }
+        }, String.format("Redis %s%s queue reader", QUEUE, instanceUID));
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Stops reading the queue, waiting for the end of the current blocking read. The messages not acknowledged yet will
+     * be delivered again.
+     */
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        schedExecutor.shutdownNow();
+        consumerThread.interrupt();
+        try {
+            consumerThread.join(TimeUnit.SECONDS.toMillis(BLOCKING_TIMEOUT + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Acknowledges a message delivered to the {@link MessageHandler}: it will not be delivered again.
+     */
+    public void ack(String message) {
+        try (Jedis j = pool.getResource()) {
+            j.lrem(pendingKey, -1, message.getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Puts back on the queue pending messages which will not be handled.
+     */
+    private void release(List<String> messages) {
+        byte[][] params = new byte[messages.size() + 2][];
+        params[0] = pendingKey;
+        params[1] = queueKey;
+        for (int i = 0; i < messages.size(); i++) {
+            params[i + 2] = messages.get(i).getBytes(UTF_8);
+        }
+        try (Jedis j = pool.getResource()) {
+            RELEASE.eval(j, 2, params);
+        }
+    }
+
+    /**
+     * @return the next messages of the queue (at least one unless the blocking read timed out), they are pending until
+     *         acknowledged.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> take() {
+        List<String> messages = new ArrayList<>();
+        try (Jedis j = pool.getResource()) {
+            List<byte[]> batch = (List<byte[]>) POP_BATCH.eval(j, 2, queueKey, pendingKey,
+                    Integer.toString(batchSize).getBytes(UTF_8));
+            if (batch.isEmpty()) {
+                // nothing to read: wait for the next message
+                byte[] message = j.brpoplpush(queueKey, pendingKey, BLOCKING_TIMEOUT);
+                if (message != null) {
+                    messages.add(new String(message, UTF_8));
+                }
+            } else {
+                for (byte[] message : batch) {
+                    messages.add(new String(message, UTF_8));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /* *************** Failure detection **************** */
+
+    private void heartbeat(Jedis j) {
+        // dead after 3 missed heartbeats
+        j.psetex(aliveKey, TimeUnit.SECONDS.toMillis(heartbeatPeriod * 3), "");
+    }
+
+    private void reclaimDeadInstances(Jedis j) {
+        Set<String> consumers = j.smembers(CONSUMERS);
+        for (String uid : consumers) {
+            if (uid.equals(instanceUID))
+                continue;
+            if (j.exists(ALIVE + uid))
+                continue;
+            long count = (Long) RECLAIM_DEAD.eval(j, 5, toKey(ALIVE, uid), toKey(PENDING, uid), toQueueKey(uid),
+                    queueKey, CONSUMERS.getBytes(UTF_8), uid.getBytes(UTF_8));
+            if (count >= 0) {
+                LOG.info("Instance {} is dead, {} of its requests are delivered to {}", uid, count, instanceUID);
+            }
+        }
+    }
+
+    private static byte[] toQueueKey(String instanceUID) {
+        return toKey(QUEUE, instanceUID);
+    }
+
+    private static byte[] toKey(String prefix, String instanceUID) {
+        return (prefix + instanceUID).getBytes(UTF_8);
+    }
+}
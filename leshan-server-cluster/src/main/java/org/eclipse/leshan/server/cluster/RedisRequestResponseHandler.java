@@ -15,74 +15,136 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.cluster;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.eclipse.californium.core.Utils;
 import org.eclipse.leshan.core.node.LwM2mNode;
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.ObserveRequest;
 import org.eclipse.leshan.core.response.ErrorCallback;
 import org.eclipse.leshan.core.response.LwM2mResponse;
 import org.eclipse.leshan.core.response.ObserveResponse;
 import org.eclipse.leshan.core.response.ResponseCallback;
 import org.eclipse.leshan.server.LwM2mServer;
-import org.eclipse.leshan.server.cluster.serialization.DownlinkRequestSerDes;
+import org.eclipse.leshan.server.cluster.serialization.RequestMessageSerDes;
+import org.eclipse.leshan.server.cluster.serialization.RequestMessageSerDes.RequestMessage;
 import org.eclipse.leshan.server.cluster.serialization.ResponseSerDes;
 import org.eclipse.leshan.server.observation.ObservationListener;
 import org.eclipse.leshan.server.observation.ObservationService;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationService;
-import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 
+import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPubSub;
 import redis.clients.util.Pool;
 
 /**
  * Handle Request/Response Redis API.</br>
  * Send LWM2M Request to a registered LWM2M client when JSON Request Message is received on redis {@code LESHAN_REQ}
- * channel.</br>
+ * channel or on the {@code LESHAN_REQ#<instanceUID>} channel of this instance (see {@link RedisRequestPublisher}), or
+ * read from the durable queue of this instance (see {@link RedisRequestQueue}) when it is enabled. The messages of the
+ * channels may also be in the compact binary format of {@link RequestMessageSerDes}.</br>
  * Send JSON Response Message on redis {@code LESHAN_RESP} channel when LWM2M Response is received from LWM2M Client.
+ * <p>
+ * The messages are handled by a bounded {@link KeyedExecutor}, the responses and notifications of a same client are
+ * published in order. When the executor is overloaded:
+ * <ul>
+ * <li>a request received on a channel, a response or an error is answered with an error message,</li>
+ * <li>a request read from the durable queue waits for a free worker, the next requests stay in the queue,</li>
+ * <li>a notification is dropped.</li>
+ * </ul>
+ * The notifications may be published by batches, see {@link RedisBatchPublisher}.
+ * <p>
+ * Before stopping, the instance can be drained (see {@link #drain(RedisClusterMembership)}): its endpoints and their
+ * observations are handed over to the other instances, so the clients do not have to register again.
  */
 public class RedisRequestResponseHandler {
 
     private static final Logger LOG = LoggerFactory.getLogger(RedisRequestResponseHandler.class);
-    private static final String REQUEST_CHANNEL = "LESHAN_REQ";
-    private static final String RESPONSE_CHANNEL = "LESHAN_RESP";
+    static final String REQUEST_CHANNEL = "LESHAN_REQ"; // broadcast to all the instances
+    static final String RESPONSE_CHANNEL = "LESHAN_RESP";
+
+    private static final long QUEUE_RETRY_DELAY = 10; // in milliseconds
 
     private final LwM2mServer server;
     private final Pool<Jedis> pool;
     private final RegistrationService registrationService;
-    private final ExecutorService executorService;
+    private final KeyedExecutor executor;
     private final RedisTokenHandler tokenHandler;
     private final ObservationService observationService;
+    private final RedisRequestQueue requestQueue;
+    private final RedisBatchPublisher notificationPublisher;
+    private final RedisRequestPublisher forwarder;
     private final Map<KeyId, String> observatioIdToTicket = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private BinaryJedisPubSub requestSubscriber;
 
     public RedisRequestResponseHandler(Pool<Jedis> p, LwM2mServer server, RegistrationService registrationService,
             RedisTokenHandler tokenHandler, ObservationService observationService) {
+        this(p, server, registrationService, tokenHandler, observationService, null);
+    }
+
+    /**
+     * @param requestQueue the durable queue of the requests sent to this instance, in addition to the
+     *        {@code LESHAN_REQ} channels. May be <code>null</code>.
+     */
+    public RedisRequestResponseHandler(Pool<Jedis> p, LwM2mServer server, RegistrationService registrationService,
+            RedisTokenHandler tokenHandler, ObservationService observationService, RedisRequestQueue requestQueue) {
+        this(p, server, registrationService, tokenHandler, observationService, requestQueue,
+                new KeyedExecutor(String.format("Redis %s channel writer", RESPONSE_CHANNEL),
+                        KeyedExecutor.DEFAULT_THREADS, KeyedExecutor.DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * @param requestQueue the durable queue of the requests sent to this instance, in addition to the
+     *        {@code LESHAN_REQ} channels. May be <code>null</code>.
+     * @param executor the executor which handles the messages, stopped by {@link #stop()}.
+     */
+    public RedisRequestResponseHandler(Pool<Jedis> p, LwM2mServer server, RegistrationService registrationService,
+            RedisTokenHandler tokenHandler, ObservationService observationService, RedisRequestQueue requestQueue,
+            KeyedExecutor executor) {
+        this(p, server, registrationService, tokenHandler, observationService, requestQueue, executor, null);
+    }
+
+    /**
+     * @param requestQueue the durable queue of the requests sent to this instance, in addition to the
+     *        {@code LESHAN_REQ} channels. May be <code>null</code>.
+     * @param executor the executor which handles the messages, stopped by {@link #stop()}.
+     * @param notificationPublisher the publisher of the notification messages on the {@code LESHAN_RESP} channel,
+     *        started by this handler and stopped by {@link #stop()}. May be <code>null</code> to publish each
+     *        notification immediately.
+     */
+    public RedisRequestResponseHandler(Pool<Jedis> p, LwM2mServer server, RegistrationService registrationService,
+            RedisTokenHandler tokenHandler, ObservationService observationService, RedisRequestQueue requestQueue,
+            KeyedExecutor executor, RedisBatchPublisher notificationPublisher) {
+        Validate.notNull(executor);
         // Listen LWM2M response
         this.server = server;
+        this.requestQueue = requestQueue;
+        this.notificationPublisher = notificationPublisher;
         this.registrationService = registrationService;
         this.observationService = observationService;
         this.tokenHandler = tokenHandler;
-        this.executorService = Executors.newCachedThreadPool(
-                new NamedThreadFactory(String.format("Redis %s channel writer", RESPONSE_CHANNEL)));
+        this.executor = executor;
 
         // Listen LWM2M notification from client
         this.observationService.addListener(new ObservationListener() {
 
             @Override
             public void onResponse(Observation observation, Registration registration, ObserveResponse response) {
-                handleNotification(observation, response.getContent());
+                handleNotification(registration.getEndpoint(), observation, response.getContent());
             }
 
             @Override
@@ -103,22 +165,27 @@ public class RedisRequestResponseHandler {
             }
         });
 
-        // Listen redis "send request" channel
+        // Listen redis "send request" channels: the broadcast one and the one of this instance
         this.pool = p;
+        this.forwarder = new RedisRequestPublisher(p, requestQueue != null);
+        final byte[] instanceChannel = toRequestChannel(tokenHandler.getInstanceUID()).getBytes(UTF_8);
+        requestSubscriber = new BinaryJedisPubSub() {
+            @Override
+            public void onMessage(byte[] channel, byte[] message) {
+                handleSendRequestMessage(message, Arrays.equals(instanceChannel, channel));
+            }
+        };
         new Thread(new Runnable() {
             @Override
             public void run() {
                 do {
                     try (Jedis j = pool.getResource()) {
-                        j.subscribe(new JedisPubSub() {
-                            @Override
-                            public void onMessage(String channel, String message) {
-                                handleSendRequestMessage(message);
-                            }
-                        }, REQUEST_CHANNEL);
+                        j.subscribe(requestSubscriber, REQUEST_CHANNEL.getBytes(UTF_8), instanceChannel);
                     } catch (RuntimeException e) {
                         LOG.warn("Redis SUBSCRIBE interrupted.", e);
                     }
+                    if (!running)
+                        return;
 
                     // wait & re-launch
                     try {
@@ -126,14 +193,28 @@ public class RedisRequestResponseHandler {
                     } catch (InterruptedException e) {
                     }
                     LOG.warn("Relaunch Redis SUBSCRIBE.");
-                } while (true);
+                } while (running);
             }
         }, String.format("Redis %s channel reader", REQUEST_CHANNEL)).start();
 
+        // Publish the notifications by batches
+        if (notificationPublisher != null) {
+            notificationPublisher.start();
+        }
+
+        // Read the durable request queue of this instance
+        if (requestQueue != null) {
+            requestQueue.start(new RedisRequestQueue.MessageHandler() {
+                @Override
+                public void handle(String message) {
+                    handleQueuedRequestMessage(message);
+                }
+            });
+        }
     }
 
     private void handleResponse(String clientEndpoint, final String ticket, final LwM2mResponse response) {
-        executorService.submit(new Runnable() {
+        executeOrReject(clientEndpoint, ticket, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -147,24 +228,28 @@ public class RedisRequestResponseHandler {
         });
     }
 
-    private void handleNotification(final Observation observation, final LwM2mNode value) {
-        executorService.submit(new Runnable() {
-            @Override
-            public void run() {
-                String ticket = observatioIdToTicket.get(new KeyId(observation.getId()));
-                try {
-                    sendNotification(ticket, value);
-                } catch (RuntimeException t) {
-                    LOG.error("Unable to send Notification.", t);
-                    sendError(ticket,
-                            String.format("Expected error while sending LWM2M Notification.(%s)", t.getMessage()));
+    private void handleNotification(String clientEndpoint, final Observation observation, final LwM2mNode value) {
+        try {
+            executor.execute(clientEndpoint, new Runnable() {
+                @Override
+                public void run() {
+                    String ticket = observatioIdToTicket.get(new KeyId(observation.getId()));
+                    try {
+                        sendNotification(ticket, value);
+                    } catch (RuntimeException t) {
+                        LOG.error("Unable to send Notification.", t);
+                        sendError(ticket,
+                                String.format("Expected error while sending LWM2M Notification.(%s)", t.getMessage()));
+                    }
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Overloaded: notification of [{}:{}] dropped", clientEndpoint, observation.getPath());
+        }
     }
 
     private void handlerError(String clientEndpoint, final String ticket, final Exception exception) {
-        executorService.submit(new Runnable() {
+        executeOrReject(clientEndpoint, ticket, new Runnable() {
             @Override
             public void run() {
                 try {
@@ -176,43 +261,142 @@ public class RedisRequestResponseHandler {
         });
     }
 
-    private void handleSendRequestMessage(final String message) {
-        executorService.submit(new Runnable() {
+    /**
+     * Stops listening the request channels. The pending requests are still handled.
+     */
+    public void stop() {
+        running = false;
+        if (requestQueue != null)
+            requestQueue.stop();
+        if (requestSubscriber.isSubscribed())
+            requestSubscriber.unsubscribe();
+        executor.shutdown();
+        if (notificationPublisher != null)
+            notificationPublisher.stop();
+    }
+
+    /**
+     * Hands the endpoints of this instance over to the other live instances of the membership, to stop this instance
+     * without waiting for the clients to register again:
+     * <ul>
+     * <li>this instance leaves the ring, the other instances place the endpoints without it,</li>
+     * <li>the responsibility of each endpoint moves to the instance where the ring places it (see
+     * {@link RedisTokenHandler#handOver(RedisClusterMembership)}). The requests sent to this instance in the meantime
+     * are forwarded to the new owner, which also reads the ones pending in the durable queue,</li>
+     * <li>the observations started through the cluster are started again by the new owner with the same ticket: the
+     * client then sends the notifications to the new owner and this instance forgets the previous observation.</li>
+     * </ul>
+     * The instance still handles the responses and notifications received until it stops.
+     *
+     * @return the number of endpoints handed over.
+     */
+    public int drain(RedisClusterMembership membership) {
+        membership.drain();
+        Map<String, String> handedOver = tokenHandler.handOver(membership);
+
+        int observations = 0;
+        for (String endpoint : handedOver.keySet()) {
+            try {
+                Registration registration = registrationService.getByEndpoint(endpoint);
+                if (registration == null)
+                    continue;
+                for (Observation observation : observationService.getObservations(registration)) {
+                    String ticket = observatioIdToTicket.get(new KeyId(observation.getId()));
+                    if (ticket == null)
+                        continue; // not started through the cluster
+                    ObserveRequest request = new ObserveRequest(observation.getPath().toString());
+                    forwarder.publish(endpoint, RequestMessageSerDes.sSerialize(ticket, endpoint, request));
+                    observations++;
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to hand the observations of {} over", endpoint, e);
+            }
+        }
+        LOG.info("{} endpoints and {} observations handed over", handedOver.size(), observations);
+        return handedOver.size();
+    }
+
+    /**
+     * @return the executor which handles the messages, to monitor its queues.
+     */
+    public KeyedExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the channel of the requests sent to the given instance only.
+     */
+    static String toRequestChannel(String instanceUID) {
+        return REQUEST_CHANNEL + "#" + instanceUID;
+    }
+
+    private void handleSendRequestMessage(final byte[] message, final boolean sentToThisInstance) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendRequest(message, sentToThisInstance);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectRequest(message);
+        }
+    }
+
+    private void handleQueuedRequestMessage(final String message) {
+        // the reader waits for a free worker, the messages which cannot be handled yet stay in the queue
+        executeWhenAccepted(new Runnable() {
             @Override
             public void run() {
-                sendRequest(message);
+                try {
+                    sendRequest(message.getBytes(UTF_8), true);
+                } finally {
+                    // the request was sent to the client, forwarded or answered with an error
+                    try {
+                        requestQueue.ack(message);
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unable to acknowledge request message. ({})", message, e);
+                    }
+                }
             }
         });
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    private void sendRequest(final String message) {
-        // Parse JSON and extract ticket
+    private void sendRequest(final byte[] message, boolean sentToThisInstance) {
+        // Parse JSON or binary message and extract ticket
         final String ticket;
-        JsonObject jMessage;
+        RequestMessage requestMessage;
         try {
-            jMessage = (JsonObject) Json.parse(message);
-            ticket = jMessage.getString("ticket", null);
+            requestMessage = RequestMessageSerDes.deserialize(message);
+            ticket = requestMessage.getTicket();
         } catch (RuntimeException t) {
-            LOG.error(String.format("Unexpected exception during request message handling. (%s)", message), t);
+            LOG.error(String.format("Unexpected exception during request message handling. (%s)", toString(message)),
+                    t);
             return;
         }
 
         // Now if an error occurred we can prevent message sender
         try {
             // Check if we must handle this request
-            String endpoint = jMessage.getString("ep", null);
-            if (!isResponsibleFor(endpoint))
+            String endpoint = requestMessage.getEndpoint();
+            if (!isResponsibleFor(endpoint) && !(sentToThisInstance && tokenHandler.adopt(endpoint))) {
+                if (sentToThisInstance) {
+                    // the endpoint moved to another instance since the request was published
+                    forward(endpoint, message);
+                }
                 return;
+            }
 
             // Get the registration for this endpoint
             final Registration destination = registrationService.getByEndpoint(endpoint);
             if (destination == null) {
                 sendError(ticket, String.format("No registration for this endpoint %s.", endpoint));
+                return;
             }
 
             // Deserialize Request
-            DownlinkRequest<?> request = DownlinkRequestSerDes.deserialize((JsonObject) jMessage.get("req"));
+            DownlinkRequest<?> request = requestMessage.getRequest();
 
             // Ack we will handle this request
             sendAck(ticket);
@@ -238,10 +422,78 @@ public class RedisRequestResponseHandler {
 
     }
 
+    /**
+     * Runs the task after the previous messages of the client, or answers the ticket with an error message if the
+     * executor is overloaded.
+     */
+    private void executeOrReject(String clientEndpoint, String ticket, Runnable task) {
+        try {
+            executor.execute(clientEndpoint, task);
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Overloaded: response of [{}] for ticket [{}] dropped", clientEndpoint, ticket);
+            try {
+                sendError(ticket, "Response dropped: server overloaded.");
+            } catch (RuntimeException t) {
+                LOG.error("Unable to send error message.", t);
+            }
+        }
+    }
+
+    /**
+     * Waits until the executor accepts the task. Gives up when the handler stops: the message is not acknowledged and
+     * will be delivered again.
+     */
+    private void executeWhenAccepted(Runnable task) {
+        while (running) {
+            try {
+                executor.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                try {
+                    Thread.sleep(QUEUE_RETRY_DELAY);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a request which cannot be handled as the executor is overloaded.
+     */
+    private void rejectRequest(byte[] message) {
+        try {
+            RequestMessage requestMessage = RequestMessageSerDes.deserialize(message);
+            if (!isResponsibleFor(requestMessage.getEndpoint()))
+                return;
+            sendError(requestMessage.getTicket(), "Request rejected: server overloaded.");
+        } catch (RuntimeException t) {
+            LOG.error(String.format("Unable to reject request message. (%s)", toString(message)), t);
+        }
+    }
+
     private boolean isResponsibleFor(String endpoint) {
         return tokenHandler.isResponsible(endpoint);
     }
 
+    private void forward(String endpoint, byte[] message) {
+        if (requestQueue != null && !RequestMessageSerDes.isCompact(message)) {
+            // to the queue of the new responsible instance, if any. The queue only contains JSON messages.
+            forwarder.publish(endpoint, new String(message, UTF_8));
+        } else {
+            // to the channel of the new responsible instance, if any
+            forwarder.publish(endpoint, message);
+        }
+    }
+
+    private static String toString(byte[] message) {
+        if (RequestMessageSerDes.isCompact(message)) {
+            return String.format("binary message of %d bytes", message.length);
+        }
+        return new String(message, UTF_8);
+    }
+
     private void sendAck(String ticket) {
         try (Jedis j = pool.getResource()) {
             JsonObject m = Json.object();
@@ -266,10 +518,14 @@ public class RedisRequestResponseHandler {
     }
 
     private void sendNotification(String ticket, LwM2mNode value) {
+        JsonObject m = Json.object();
+        m.add("ticket", ticket);
+        m.add("rep", ResponseSerDes.jSerialize(ObserveResponse.success(value)));
+        if (notificationPublisher != null) {
+            notificationPublisher.publish(m.toString());
+            return;
+        }
         try (Jedis j = pool.getResource()) {
-            JsonObject m = Json.object();
-            m.add("ticket", ticket);
-            m.add("rep", ResponseSerDes.jSerialize(ObserveResponse.success(value)));
             j.publish(RESPONSE_CHANNEL, m.toString());
         }
     }
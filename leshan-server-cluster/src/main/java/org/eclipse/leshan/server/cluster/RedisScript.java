@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.eclipse.leshan.util.Hex;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * A Lua script executed atomically by Redis (see http://redis.io/commands/eval).
+ * <p>
+ * The script is called by its SHA1 digest (EVALSHA), it is only sent in full when it is not yet in the Redis script
+ * cache.
+ */
+public class RedisScript {
+
+    private final byte[] script;
+    private final byte[] sha1;
+
+    public RedisScript(String script) {
+        this.script = script.getBytes(UTF_8);
+        try {
+            this.sha1 = new String(Hex.encodeHex(MessageDigest.getInstance("SHA-1").digest(this.script), true))
+                    .getBytes(UTF_8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Executes the script in a single round trip.
+     *
+     * @param j a Redis connection
+     * @param keyCount the number of keys at the beginning of <code>params</code> (KEYS), the others are arguments (ARGV)
+     * @param params the keys and arguments of the script
+     * @return the Redis reply: <code>byte[]</code> for a bulk reply, <code>Long</code> for an integer reply,
+     *         <code>List</code> for a multi-bulk reply or <code>null</code>.
+     */
+    public Object eval(Jedis j, int keyCount, byte[]... params) {
+        try {
+            return j.evalsha(sha1, keyCount, params);
+        } catch (JedisDataException e) {
+            if (e.getMessage() != null && e.getMessage().startsWith("NOSCRIPT")) {
+                // EVAL loads the script in the cache for the next calls
+                return j.eval(script, keyCount, params);
+            }
+            throw e;
+        }
+    }
+}
@@ -15,16 +15,36 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.cluster;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.leshan.core.observation.Observation;
 import org.eclipse.leshan.server.registration.Registration;
 import org.eclipse.leshan.server.registration.RegistrationListener;
 import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.eclipse.leshan.util.NamedThreadFactory;
 import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
 import redis.clients.util.Pool;
 
 /**
@@ -32,55 +52,607 @@ import redis.clients.util.Pool;
  * due to the DTLS session)</br>
  * This class store the couple Cluster instance / LwM2M client in a Redis Store.</br>
  * Each Cluster instance is identified by a unique UI and each device by its endpoint.
+ * <p>
+ * Each ownership change is published with the new owner and the remaining lease on the {@value #OWNER_CHANNEL}
+ * channel, in the same Lua script as the Redis entry. With the ownership notifications enabled (see
+ * {@link #RedisTokenHandler(Pool, String, long, boolean)}), the endpoints this instance is responsible for are kept
+ * locally with a lease which ends with the registration lifetime and are updated by these messages, so
+ * {@link #isResponsible(String)} does not access Redis. Until subscribed, and by default, the ownership is read from
+ * Redis. The Redis server configuration is not changed.
+ * <p>
+ * The Redis entry is written in one call when a client registers, the leases extended by the registration updates are
+ * written by batches. Extending a lease does not change the owner, so it is not published.
+ * <p>
+ * With a {@link RedisClusterMembership}, the endpoints are not tied to the instance until they register again: a
+ * draining instance hands its endpoints over to the instances where the ring places them (see
+ * {@link #handOver(RedisClusterMembership)}), and the endpoints of a dead instance are adopted by the instances where
+ * the ring places them (see {@link #adoptOrphans(String, RedisClusterMembership)}). The new owner learns about a hand
+ * over from the ownership notifications, or when a request for the endpoint is sent to it (see {@link #adopt(String)}).
+ * The endpoints of each instance are indexed in the {@code CLUSTER:EPS#<uid>} set, written with the ownership, so the
+ * endpoints of an instance are found without scanning the keyspace.
  */
 public class RedisTokenHandler implements RegistrationListener {
 
-    private static final String EP_UID = "EP#UID#";
+    private static final Logger LOG = LoggerFactory.getLogger(RedisTokenHandler.class);
+
+    static final String EP_UID = "EP#UID#"; // the instance responsible for an endpoint
+    static final String INSTANCE_EPS = "CLUSTER:EPS#"; // the endpoints of an instance, an index of EP#UID#
+
+    /** The default period of the batched lease refresh, in milliseconds */
+    public static final long DEFAULT_REFRESH_PERIOD = 1000;
+
+    /**
+     * The channel of the ownership changes. A message is
+     * <code>&lt;owner&gt;\n&lt;lease in ms&gt;\n&lt;endpoint&gt;</code>, the owner is empty when the endpoint is
+     * released.
+     */
+    public static final String OWNER_CHANNEL = "LESHAN_EP_OWNER";
+
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    private static final String LUA_FUNCTIONS = "" //
+            + "local function endpointOf(key) " //
+            + "  return string.sub(key, " + (EP_UID.length() + 1) + ") " //
+            + "end " //
+            // publishes the ownership change of the endpoint of a key, with the owner and the lease (in ms) given
+            + "local function publishOwner(key, owner, ttl) " //
+            + "  redis.call('PUBLISH', '" + OWNER_CHANNEL + "', owner .. '\\n' .. ttl .. '\\n' .. endpointOf(key)) " //
+            + "end " //
+            // gives the endpoint of a key to an owner, moving it from the index of the previous owner
+            + "local function setOwner(key, owner, ttl) " //
+            + "  local previous = redis.call('GET', key) " //
+            + "  if previous and previous ~= owner then " //
+            + "    redis.call('SREM', '" + INSTANCE_EPS + "' .. previous, endpointOf(key)) " //
+            + "  end " //
+            + "  redis.call('PSETEX', key, ttl, owner) " //
+            + "  redis.call('SADD', '" + INSTANCE_EPS + "' .. owner, endpointOf(key)) " //
+            + "  publishOwner(key, owner, ttl) " //
+            + "end ";
+
+    // KEYS[1]=EP#UID#<endpoint> ; ARGV[1]=owner, ARGV[2]=lease in ms
+    private static final RedisScript TAKE = new RedisScript(LUA_FUNCTIONS //
+            + "setOwner(KEYS[1], ARGV[1], ARGV[2])");
+
+    // KEYS[1]=EP#UID#<endpoint>
+    private static final RedisScript RELEASE = new RedisScript(LUA_FUNCTIONS //
+            + "local owner = redis.call('GET', KEYS[1]) " //
+            + "if owner then " //
+            + "  redis.call('DEL', KEYS[1]) " //
+            + "  redis.call('SREM', '" + INSTANCE_EPS + "' .. owner, endpointOf(KEYS[1])) " //
+            + "  publishOwner(KEYS[1], '', 0) " //
+            + "end");
+
+    // KEYS=EP#UID#<endpoint>... ; ARGV[1]=owner, ARGV[2..]=new lease of each key in ms
+    // Extends the leases of the endpoints still owned, and takes again the endpoints whose lease expired before the
+    // update (e.g. during the grace period of the registration). Returns 0 for each endpoint owned by another
+    // instance, 1 otherwise.
+    private static final RedisScript REFRESH = new RedisScript(LUA_FUNCTIONS //
+            + "local refreshed = {} " //
+            + "for i = 1, #KEYS do " //
+            + "  refreshed[i] = 0 " //
+            + "  local owner = redis.call('GET', KEYS[i]) " //
+            + "  if owner == ARGV[1] then " //
+            + "    redis.call('PEXPIRE', KEYS[i], ARGV[i + 1]) " //
+            + "    refreshed[i] = 1 " //
+            + "  elseif not owner then " //
+            + "    setOwner(KEYS[i], ARGV[1], ARGV[i + 1]) " //
+            + "    refreshed[i] = 1 " //
+            + "  end " //
+            + "end " //
+            + "return refreshed");
+
+    // KEYS=EP#UID#<endpoint>... ; ARGV[1]=current owner, ARGV[2..]=new owner of each key
+    // Gives each endpoint still owned by the current owner to its new owner, keeping the lease end, and removes the
+    // others from the index of the current owner. Returns the lease in ms for each endpoint moved, 0 otherwise.
+    private static final RedisScript HAND_OVER = new RedisScript(LUA_FUNCTIONS //
+            + "local moved = {} " //
+            + "for i = 1, #KEYS do " //
+            + "  moved[i] = 0 " //
+            + "  local ttl = 0 " //
+            + "  if redis.call('GET', KEYS[i]) == ARGV[1] then " //
+            + "    ttl = redis.call('PTTL', KEYS[i]) " //
+            + "  end " //
+            + "  if ttl > 0 then " //
+            + "    setOwner(KEYS[i], ARGV[i + 1], ttl) " //
+            + "    moved[i] = ttl " //
+            + "  else " //
+            + "    redis.call('SREM', '" + INSTANCE_EPS + "' .. ARGV[1], endpointOf(KEYS[i])) " //
+            + "  end " //
+            + "end " //
+            + "return moved");
+
+    // KEYS=EP#UID#<endpoint>... ; ARGV[1]=owner
+    // Returns the lease in ms of each endpoint still owned, 0 otherwise. The others are removed from the index of the
+    // owner (their key expired, or they were taken without the index).
+    private static final RedisScript OWNED = new RedisScript(LUA_FUNCTIONS //
+            + "local owned = {} " //
+            + "for i = 1, #KEYS do " //
+            + "  owned[i] = 0 " //
+            + "  if redis.call('GET', KEYS[i]) == ARGV[1] then " //
+            + "    owned[i] = redis.call('PTTL', KEYS[i]) " //
+            + "  end " //
+            + "  if owned[i] <= 0 then " //
+            + "    owned[i] = 0 " //
+            + "    redis.call('SREM', '" + INSTANCE_EPS + "' .. ARGV[1], endpointOf(KEYS[i])) " //
+            + "  end " //
+            + "end " //
+            + "return owned");
+
     private final Pool<Jedis> pool;
     private final String instanceUID;
+    private final byte[] instanceUIDBytes;
+    private final long refreshPeriod; // in milliseconds
+    private final boolean ownershipNotifications;
+
+    // the endpoints this instance is responsible for
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    // the lifetime (in seconds) of the leases to write by the next batched refresh, by endpoint
+    private final ConcurrentHashMap<String, Integer> refreshes = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    // true while the ownership changes are received
+    private volatile boolean subscribed;
+    private JedisPubSub subscriber;
+    private Thread subscriberThread;
+    private ScheduledExecutorService schedExecutor;
 
     public RedisTokenHandler(Pool<Jedis> j, String instanceUID) {
+        this(j, instanceUID, DEFAULT_REFRESH_PERIOD);
+    }
+
+    /**
+     * @param refreshPeriod the period of the batched lease refresh in milliseconds.
+     */
+    public RedisTokenHandler(Pool<Jedis> j, String instanceUID, long refreshPeriod) {
+        this(j, instanceUID, refreshPeriod, false);
+    }
+
+    /**
+     * @param refreshPeriod the period of the batched lease refresh in milliseconds.
+     * @param ownershipNotifications <code>true</code> to keep the ownership locally, updated by the messages of the
+     *        {@value #OWNER_CHANNEL} channel, <code>false</code> to read it from Redis.
+     */
+    public RedisTokenHandler(Pool<Jedis> j, String instanceUID, long refreshPeriod, boolean ownershipNotifications) {
         Validate.notNull(instanceUID);
+        Validate.isTrue(refreshPeriod > 0, "refreshPeriod must be positive");
         this.instanceUID = instanceUID;
+        this.instanceUIDBytes = instanceUID.getBytes(UTF_8);
+        this.refreshPeriod = refreshPeriod;
+        this.ownershipNotifications = ownershipNotifications;
         this.pool = j;
     }
 
+    /* *************** Lifecycle **************** */
+
+    /**
+     * Starts the batched lease refresh and, if enabled, subscribes to the ownership notifications to keep the ownership
+     * locally. Without it, each lease is written immediately.
+     */
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+
+        schedExecutor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory(String.format("RedisTokenHandler lease refresh (%dms)", refreshPeriod)));
+        schedExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flushRefreshes();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected exception while refreshing the leases of {}", instanceUID, e);
+                }
+            }
+        }, refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS);
+
+        if (!ownershipNotifications) {
+            LOG.info("Ownership notifications are off, the ownership of the endpoints is read from Redis");
+            return;
+        }
+        subscriber = new JedisPubSub() {
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                // changes may have been missed until now
+                synchronizeLeases();
+                subscribed = true;
+            }
+
+            @Override
+            public void onMessage(String channel, String message) {
+                onOwnerChange(message);
+            }
+        };
+        subscriberThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try (Jedis j = pool.getResource()) {
+                        try {
+                            j.subscribe(subscriber, OWNER_CHANNEL);
+                        } finally {
+                            // the UNSUBSCRIBE commands are not counted out, which breaks the next pipeline
+                            j.getClient().resetPipelinedCount();
+                        }
+                    } catch (RuntimeException e) {
+                        if (running)
+                            LOG.warn("Redis SUBSCRIBE interrupted.", e);
+                    }
+                    subscribed = false;
+
+                    if (running) {
+                        // wait & re-launch
+                        try {
+                            Thread.sleep(500);
+                        } catch (InterruptedException e) {
+                        }
+                        LOG.warn("Relaunch Redis SUBSCRIBE.");
+                    }
+                }
+            }
+        }, "Redis ownership notifications reader");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running)
+            return;
+        running = false;
+        subscribed = false;
+        if (subscriber != null) {
+            try {
+                if (subscriber.isSubscribed())
+                    subscriber.unsubscribe();
+            } catch (RuntimeException e) {
+                LOG.debug("Unable to unsubscribe from ownership notifications", e);
+            }
+            subscriberThread.interrupt();
+        }
+        // write the last extended leases
+        schedExecutor.shutdown();
+        try {
+            schedExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushRefreshes();
+    }
+
+    /* *************** Registration events **************** */
+
     @Override
     public void registered(Registration registration, Registration previousReg,
             Collection<Observation> previousObsersations) {
-        try (Jedis j = pool.getResource()) {
-            // create registration entry
-            byte[] k = (EP_UID + registration.getEndpoint()).getBytes();
-            j.set(k, instanceUID.getBytes());
-            j.expire(k, registration.getLifeTimeInSec().intValue());
-        }
+        takeLease(registration.getEndpoint(), registration.getLifeTimeInSec().intValue());
     }
 
     @Override
     public void updated(RegistrationUpdate update, Registration updatedRegistration,
             Registration previousRegistration) {
-        try (Jedis j = pool.getResource()) {
-            // create registration entry
-            byte[] k = (EP_UID + updatedRegistration.getEndpoint()).getBytes();
-            j.set(k, instanceUID.getBytes());
-            j.expire(k, updatedRegistration.getLifeTimeInSec().intValue());
+        String endpoint = updatedRegistration.getEndpoint();
+        int lifetime = updatedRegistration.getLifeTimeInSec().intValue();
+        if (running && leases.containsKey(endpoint)) {
+            // still responsible: extend the lease, written by the next batch
+            leases.put(endpoint, Lease.forLifetime(lifetime));
+            refreshes.put(endpoint, lifetime);
+        } else {
+            takeLease(endpoint, lifetime);
         }
     }
 
     @Override
     public void unregistered(Registration registration, Collection<Observation> observations, boolean expired,
             Registration newReg) {
+        String endpoint = registration.getEndpoint();
+        leases.remove(endpoint);
+        refreshes.remove(endpoint);
         try (Jedis j = pool.getResource()) {
-            // create registration entry
-            j.del((EP_UID + registration.getEndpoint()).getBytes());
+            RELEASE.eval(j, 1, toKey(endpoint));
+        }
+    }
+
+    private void takeLease(String endpoint, int lifetime) {
+        leases.put(endpoint, Lease.forLifetime(lifetime));
+        refreshes.remove(endpoint);
+        try (Jedis j = pool.getResource()) {
+            TAKE.eval(j, 1, toKey(endpoint), instanceUIDBytes,
+                    Long.toString(TimeUnit.SECONDS.toMillis(lifetime)).getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Writes the leases extended since the previous batch, in one round trip by {@value #SCAN_BATCH_SIZE} leases. The
+     * leases of the endpoints taken by another instance in the meantime are not extended, the expired ones are taken
+     * again.
+     */
+    private void flushRefreshes() {
+        if (refreshes.isEmpty())
+            return;
+        List<String> endpoints = new ArrayList<>();
+        List<Integer> lifetimes = new ArrayList<>();
+        try (Jedis j = pool.getResource()) {
+            for (Iterator<Map.Entry<String, Integer>> it = refreshes.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Integer> refresh = it.next();
+                endpoints.add(refresh.getKey());
+                lifetimes.add(refresh.getValue());
+                it.remove();
+                if (endpoints.size() == SCAN_BATCH_SIZE) {
+                    refresh(j, endpoints, lifetimes);
+                    endpoints.clear();
+                    lifetimes.clear();
+                }
+            }
+            refresh(j, endpoints, lifetimes);
+        }
+    }
+
+    private void refresh(Jedis j, List<String> endpoints, List<Integer> lifetimes) {
+        if (endpoints.isEmpty())
+            return;
+        byte[][] params = new byte[endpoints.size() * 2 + 1][];
+        for (int i = 0; i < endpoints.size(); i++) {
+            params[i] = toKey(endpoints.get(i));
+            params[endpoints.size() + 1 + i] = Long.toString(TimeUnit.SECONDS.toMillis(lifetimes.get(i)))
+                    .getBytes(UTF_8);
+        }
+        params[endpoints.size()] = instanceUIDBytes;
+
+        List<?> result = (List<?>) REFRESH.eval(j, endpoints.size(), params);
+        for (int i = 0; i < endpoints.size(); i++) {
+            if (((Long) result.get(i)) == 0L) {
+                // taken by another instance
+                leases.remove(endpoints.get(i));
+            }
         }
     }
 
+    /* *************** Ownership **************** */
+
+    public String getInstanceUID() {
+        return instanceUID;
+    }
+
     public boolean isResponsible(String endpoint) {
+        if (endpoint == null)
+            return false;
+        if (subscribed) {
+            Lease lease = leases.get(endpoint);
+            return lease != null && !lease.isExpired();
+        }
+
+        // the ownership changes may be missed: ask Redis
+        try (Jedis j = pool.getResource()) {
+            byte[] data = j.get(toKey(endpoint));
+            return data != null && Arrays.equals(data, instanceUIDBytes);
+        }
+    }
+
+    /**
+     * Checks in Redis whether this instance was made responsible for an endpoint by another instance (see
+     * {@link #handOver(RedisClusterMembership)}), for the requests routed to this instance which
+     * {@link #isResponsible(String)} refuses.
+     *
+     * @return <code>true</code> if this instance is now responsible for the endpoint.
+     */
+    public boolean adopt(String endpoint) {
+        if (endpoint == null)
+            return false;
+        byte[] owner;
+        long ttl;
+        try (Jedis j = pool.getResource()) {
+            Pipeline pipeline = j.pipelined();
+            Response<byte[]> ownerResponse = pipeline.get(toKey(endpoint));
+            Response<Long> ttlResponse = pipeline.pttl(toKey(endpoint));
+            pipeline.sync();
+            owner = ownerResponse.get();
+            ttl = ttlResponse.get();
+        }
+        if (owner == null || !Arrays.equals(owner, instanceUIDBytes) || ttl <= 0)
+            return false;
+        leases.put(endpoint, new Lease(System.currentTimeMillis() + ttl));
+        return true;
+    }
+
+    /**
+     * Hands the endpoints this instance is responsible for over to the instances where the ring of the membership
+     * places them, keeping the end of their lease. The membership must be draining, so this instance is not on the
+     * ring. The endpoints placed nowhere (no other live instance) are kept.
+     *
+     * @return the new owner of the endpoints handed over, by endpoint.
+     */
+    public Map<String, String> handOver(RedisClusterMembership membership) {
+        Validate.isTrue(membership.isDraining(), "the membership must be draining");
+        // the extended leases are handed over
+        flushRefreshes();
+
+        Map<String, String> handedOver = new HashMap<>();
+        List<String> endpoints = new ArrayList<>();
+        List<String> owners = new ArrayList<>();
+        try (Jedis j = pool.getResource()) {
+            for (String endpoint : leases.keySet()) {
+                String owner = membership.getOwner(endpoint);
+                if (owner == null || owner.equals(instanceUID))
+                    continue;
+                // not responsible any more, even if the hand over fails
+                leases.remove(endpoint);
+                refreshes.remove(endpoint);
+                endpoints.add(endpoint);
+                owners.add(owner);
+                if (endpoints.size() == SCAN_BATCH_SIZE) {
+                    handOver(j, instanceUID, endpoints, owners, handedOver, null);
+                    endpoints.clear();
+                    owners.clear();
+                }
+            }
+            handOver(j, instanceUID, endpoints, owners, handedOver, null);
+        }
+        LOG.info("{} handed {} endpoints over", instanceUID, handedOver.size());
+        return handedOver;
+    }
+
+    /**
+     * Takes the responsibility of the endpoints of a dead instance which the ring of the membership places on this
+     * instance, keeping the end of their lease. Each live instance adopts its part of the endpoints.
+     * <p>
+     * Only the endpoints of the dead instance are read, from its {@code CLUSTER:EPS#<uid>} index. This can take a while
+     * for a large instance: do not call it from the heartbeat thread of the membership.
+     *
+     * @return the number of endpoints adopted.
+     */
+    public int adoptOrphans(String deadInstanceUID, RedisClusterMembership membership) {
+        Validate.notNull(deadInstanceUID);
+        if (deadInstanceUID.equals(instanceUID))
+            return 0;
+        Map<String, String> adopted = new HashMap<>();
+        Map<String, Long> ttls = new HashMap<>();
         try (Jedis j = pool.getResource()) {
-            byte[] k = (EP_UID + endpoint).getBytes();
-            byte[] data = j.get(k);
-            return data != null && Arrays.equals(data, instanceUID.getBytes());
+            ScanParams params = new ScanParams().count(SCAN_BATCH_SIZE);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = j.sscan(INSTANCE_EPS + deadInstanceUID, cursor, params);
+                List<String> endpoints = new ArrayList<>();
+                for (String endpoint : result.getResult()) {
+                    if (instanceUID.equals(membership.getOwner(endpoint))) {
+                        endpoints.add(endpoint);
+                    }
+                }
+                handOver(j, deadInstanceUID, endpoints, Collections.nCopies(endpoints.size(), instanceUID), adopted,
+                        ttls);
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> ttl : ttls.entrySet()) {
+            leases.put(ttl.getKey(), new Lease(now + ttl.getValue()));
+        }
+        LOG.info("{} adopted {} endpoints of {}", instanceUID, adopted.size(), deadInstanceUID);
+        return adopted.size();
+    }
+
+    /**
+     * Moves the endpoints from their current owner to their new owner in one round trip.
+     *
+     * @param moved the new owner of the endpoints moved, by endpoint
+     * @param ttls the lease in milliseconds of the endpoints moved, by endpoint, if not <code>null</code>
+     */
+    private static void handOver(Jedis j, String currentOwner, List<String> endpoints, List<String> newOwners,
+            Map<String, String> moved, Map<String, Long> ttls) {
+        if (endpoints.isEmpty())
+            return;
+        byte[][] params = new byte[endpoints.size() * 2 + 1][];
+        for (int i = 0; i < endpoints.size(); i++) {
+            params[i] = toKey(endpoints.get(i));
+            params[endpoints.size() + 1 + i] = newOwners.get(i).getBytes(UTF_8);
+        }
+        params[endpoints.size()] = currentOwner.getBytes(UTF_8);
+
+        List<?> result = (List<?>) HAND_OVER.eval(j, endpoints.size(), params);
+        for (int i = 0; i < endpoints.size(); i++) {
+            long ttl = (Long) result.get(i);
+            if (ttl > 0L) {
+                moved.put(endpoints.get(i), newOwners.get(i));
+                if (ttls != null)
+                    ttls.put(endpoints.get(i), ttl);
+            }
+        }
+    }
+
+    /**
+     * Applies an ownership change received on the {@value #OWNER_CHANNEL} channel, without accessing Redis.
+     */
+    private void onOwnerChange(String message) {
+        int ownerEnd = message.indexOf('\n');
+        int ttlEnd = ownerEnd < 0 ? -1 : message.indexOf('\n', ownerEnd + 1);
+        if (ttlEnd < 0) {
+            LOG.warn("Invalid ownership change [{}]", message);
+            return;
+        }
+        String owner = message.substring(0, ownerEnd);
+        String endpoint = message.substring(ttlEnd + 1);
+        long ttl;
+        try {
+            ttl = Long.parseLong(message.substring(ownerEnd + 1, ttlEnd));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid ownership change [{}]", message);
+            return;
+        }
+
+        if (owner.equals(instanceUID) && ttl > 0) {
+            // this instance took the endpoint, or was given it: the lease may already be extended
+            Lease lease = new Lease(System.currentTimeMillis() + ttl);
+            while (true) {
+                Lease current = leases.putIfAbsent(endpoint, lease);
+                if (current == null || current.expirationTime >= lease.expirationTime
+                        || leases.replace(endpoint, current, lease))
+                    break;
+            }
+        } else {
+            leases.remove(endpoint);
+        }
+    }
+
+    /**
+     * Reloads the endpoints this instance is responsible for from its {@code CLUSTER:EPS#<uid>} index, and removes
+     * the endpoints it does not own any more from the index.
+     */
+    private void synchronizeLeases() {
+        Map<String, Lease> owned = new HashMap<>();
+        try (Jedis j = pool.getResource()) {
+            ScanParams params = new ScanParams().count(SCAN_BATCH_SIZE);
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = j.sscan(INSTANCE_EPS + instanceUID, cursor, params);
+                List<String> endpoints = result.getResult();
+                if (!endpoints.isEmpty()) {
+                    byte[][] keys = new byte[endpoints.size() + 1][];
+                    for (int i = 0; i < endpoints.size(); i++) {
+                        keys[i] = toKey(endpoints.get(i));
+                    }
+                    keys[endpoints.size()] = instanceUIDBytes;
+                    List<?> ttls = (List<?>) OWNED.eval(j, endpoints.size(), keys);
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < endpoints.size(); i++) {
+                        long ttl = (Long) ttls.get(i);
+                        if (ttl > 0) {
+                            owned.put(endpoints.get(i), new Lease(now + ttl));
+                        }
+                    }
+                }
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        }
+
+        for (Map.Entry<String, Lease> lease : leases.entrySet()) {
+            if (!owned.containsKey(lease.getKey()))
+                leases.remove(lease.getKey(), lease.getValue());
+        }
+        for (Map.Entry<String, Lease> lease : owned.entrySet()) {
+            leases.putIfAbsent(lease.getKey(), lease.getValue());
+        }
+        LOG.debug("{} is responsible for {} endpoints", instanceUID, leases.size());
+    }
+
+    private static byte[] toKey(String endpoint) {
+        return (EP_UID + endpoint).getBytes(UTF_8);
+    }
+
+    /**
+     * The responsibility of an endpoint until the expiration of its registration.
+     */
+    private static class Lease {
+        final long expirationTime; // in milliseconds
+
+        Lease(long expirationTime) {
+            this.expirationTime = expirationTime;
+        }
+
+        static Lease forLifetime(int lifetimeInSec) {
+            return new Lease(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifetimeInSec));
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expirationTime;
         }
     }
 }
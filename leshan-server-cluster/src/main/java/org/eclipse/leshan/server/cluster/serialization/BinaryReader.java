@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+
+/**
+ * Reads the values written by a {@link BinaryWriter}.
+ * <p>
+ * An {@link IllegalArgumentException} is raised if the content is truncated or invalid.
+ */
+public class BinaryReader {
+
+    private final byte[] buffer;
+    private final int end;
+    private int position;
+
+    public BinaryReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public BinaryReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    public int readByte() {
+        if (position >= end) {
+            throw new IllegalArgumentException("Unexpected end of content");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint");
+    }
+
+    public int readVarInt() {
+        long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid varint " + value);
+        }
+        return (int) value;
+    }
+
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public double readDouble() {
+        checkRemaining(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buffer[position++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Reads <code>length</code> raw bytes.
+     */
+    public byte[] readRaw(int length) {
+        checkRemaining(length);
+        byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    public byte[] readBytes() {
+        return readRaw(readVarInt());
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        checkRemaining(length);
+        String value = new String(buffer, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    public String readNullableString() {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        checkRemaining(length - 1);
+        String value = new String(buffer, position, length - 1, UTF_8);
+        position += length - 1;
+        return value;
+    }
+
+    public int remaining() {
+        return end - position;
+    }
+
+    private void checkRemaining(int length) {
+        if (length > end - position) {
+            throw new IllegalArgumentException("Unexpected end of content");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+
+/**
+ * An unsynchronized growable buffer used to write the compact binary formats.
+ * <p>
+ * Integers are written as varints: 7 bits per byte, least significant group first, the high bit set on all bytes but
+ * the last one. Signed integers are zigzag encoded first so small negative values stay small.
+ */
+public class BinaryWriter {
+
+    private byte[] buffer;
+    private int size;
+
+    public BinaryWriter() {
+        this(128);
+    }
+
+    public BinaryWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    public BinaryWriter writeByte(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+        return this;
+    }
+
+    public BinaryWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeSignedVarLong(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes the 8 bytes of the IEEE 754 representation, most significant first.
+     */
+    public BinaryWriter writeDouble(double value) {
+        ensureCapacity(8);
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (bits >>> shift);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the raw bytes, without length.
+     */
+    public BinaryWriter writeRaw(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        return this;
+    }
+
+    /**
+     * Writes the length of the byte array followed by its content.
+     */
+    public BinaryWriter writeBytes(byte[] bytes) {
+        writeVarLong(bytes.length);
+        return writeRaw(bytes);
+    }
+
+    public BinaryWriter writeString(String value) {
+        return writeBytes(value.getBytes(UTF_8));
+    }
+
+    /**
+     * Writes a string which may be <code>null</code>: the length is shifted by one, 0 meaning <code>null</code>.
+     */
+    public BinaryWriter writeNullableString(String value) {
+        if (value == null) {
+            return writeVarLong(0);
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarLong(bytes.length + 1L);
+        return writeRaw(bytes);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+        }
+    }
+}
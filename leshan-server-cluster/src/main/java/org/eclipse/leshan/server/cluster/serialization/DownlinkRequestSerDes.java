@@ -41,10 +41,23 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 /**
- * Functions for serialize and deserialize a LWM2M Downlink request in JSON.
+ * Functions for serialize and deserialize a LWM2M Downlink request in JSON or in a compact binary format.
+ * <p>
+ * The binary format starts with a byte which can not start a JSON document, followed by the format version, so
+ * {@link #deserialize(byte[])} reads both formats.
  */
 public class DownlinkRequestSerDes {
 
+    // request kinds of the binary format
+    private static final int READ = 0;
+    private static final int OBSERVE = 1;
+    private static final int DISCOVER = 2;
+    private static final int WRITE = 3;
+    private static final int WRITE_ATTRIBUTES = 4;
+    private static final int EXECUTE = 5;
+    private static final int CREATE = 6;
+    private static final int DELETE = 7;
+
     public static JsonObject jSerialize(DownlinkRequest<?> r) {
         final JsonObject o = Json.object();
         o.add("path", r.getPath().toString());
@@ -166,4 +179,153 @@ public class DownlinkRequestSerDes {
         }
     }
 
+    /**
+     * Serializes the request in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version request
+     * request: kind path ( contentFormat+1                      (read, observe: 0 for no content format)
+     *                    | contentFormat mode node              (write)
+     *                    | observeSpec                          (write attributes)
+     *                    | parameters                           (execute: length+1, 0 for null)
+     *                    | contentFormat instanceId count node* (create)
+     *                    | nothing )                            (discover, delete)
+     * </pre>
+     *
+     * The nodes are written by {@link LwM2mNodeSerDes#serializeCompact(BinaryWriter, LwM2mNode)}.
+     */
+    public static byte[] serializeCompact(DownlinkRequest<?> r) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(LwM2mNodeSerDes.BINARY_MARKER).writeByte(LwM2mNodeSerDes.BINARY_VERSION);
+        serializeCompact(w, r);
+        return w.toByteArray();
+    }
+
+    /**
+     * Writes the request in the compact binary format, without marker and version.
+     */
+    public static void serializeCompact(final BinaryWriter w, DownlinkRequest<?> r) {
+        final String path = r.getPath().toString();
+        r.accept(new DownLinkRequestVisitorAdapter() {
+            @Override
+            public void visit(ObserveRequest request) {
+                w.writeByte(OBSERVE).writeString(path);
+                writeNullableContentFormat(w, request.getContentFormat());
+            }
+
+            @Override
+            public void visit(DeleteRequest request) {
+                w.writeByte(DELETE).writeString(path);
+            }
+
+            @Override
+            public void visit(DiscoverRequest request) {
+                w.writeByte(DISCOVER).writeString(path);
+            }
+
+            @Override
+            public void visit(CreateRequest request) {
+                w.writeByte(CREATE).writeString(path);
+                w.writeVarLong(request.getContentFormat().getCode());
+                w.writeSignedVarLong(request.getInstanceId() == null ? LwM2mObjectInstance.UNDEFINED
+                        : request.getInstanceId());
+                w.writeVarLong(request.getResources().size());
+                for (LwM2mResource resource : request.getResources()) {
+                    LwM2mNodeSerDes.serializeCompact(w, resource);
+                }
+            }
+
+            @Override
+            public void visit(ExecuteRequest request) {
+                w.writeByte(EXECUTE).writeString(path);
+                w.writeNullableString(request.getParameters());
+            }
+
+            @Override
+            public void visit(WriteAttributesRequest request) {
+                w.writeByte(WRITE_ATTRIBUTES).writeString(path);
+                w.writeString(request.getObserveSpec().toString());
+            }
+
+            @Override
+            public void visit(WriteRequest request) {
+                w.writeByte(WRITE).writeString(path);
+                w.writeVarLong(request.getContentFormat().getCode());
+                w.writeByte(request.isPartialUpdateRequest() ? 1 : 0);
+                LwM2mNodeSerDes.serializeCompact(w, request.getNode());
+            }
+
+            @Override
+            public void visit(ReadRequest request) {
+                w.writeByte(READ).writeString(path);
+                writeNullableContentFormat(w, request.getContentFormat());
+            }
+        });
+    }
+
+    /**
+     * Deserializes a request serialized by {@link #bSerialize(DownlinkRequest)} (JSON) or by
+     * {@link #serializeCompact(DownlinkRequest)} (binary).
+     */
+    public static DownlinkRequest<?> deserialize(byte[] data) {
+        if (data.length > 0 && (data[0] & 0xFF) == LwM2mNodeSerDes.BINARY_MARKER) {
+            BinaryReader r = new BinaryReader(data);
+            r.readByte(); // marker
+            int version = r.readByte();
+            if (version != LwM2mNodeSerDes.BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported request format version " + version);
+            }
+            return deserializeCompact(r);
+        }
+        return deserialize((JsonObject) Json.parse(new String(data)));
+    }
+
+    /**
+     * Reads a request written by {@link #serializeCompact(BinaryWriter, DownlinkRequest)}.
+     */
+    public static DownlinkRequest<?> deserializeCompact(BinaryReader r) {
+        int kind = r.readByte();
+        String path = r.readString();
+        switch (kind) {
+        case OBSERVE:
+            return new ObserveRequest(readNullableContentFormat(r), path);
+        case DELETE:
+            return new DeleteRequest(path);
+        case DISCOVER:
+            return new DiscoverRequest(path);
+        case CREATE: {
+            ContentFormat format = ContentFormat.fromCode(r.readVarInt());
+            int instanceId = (int) r.readSignedVarLong();
+            int count = r.readVarInt();
+            Collection<LwM2mResource> resources = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                resources.add((LwM2mResource) LwM2mNodeSerDes.deserializeCompact(r));
+            }
+            return new CreateRequest(format, path, new LwM2mObjectInstance(instanceId, resources));
+        }
+        case EXECUTE:
+            return new ExecuteRequest(path, r.readNullableString());
+        case WRITE_ATTRIBUTES:
+            return new WriteAttributesRequest(path, ObserveSpec.parse(r.readString()));
+        case WRITE: {
+            ContentFormat format = ContentFormat.fromCode(r.readVarInt());
+            Mode mode = r.readByte() == 0 ? Mode.REPLACE : Mode.UPDATE;
+            LwM2mNode node = LwM2mNodeSerDes.deserializeCompact(r);
+            return new WriteRequest(mode, format, path, node);
+        }
+        case READ:
+            return new ReadRequest(readNullableContentFormat(r), path);
+        default:
+            throw new IllegalArgumentException("Invalid request kind " + kind);
+        }
+    }
+
+    private static void writeNullableContentFormat(BinaryWriter w, ContentFormat format) {
+        w.writeVarLong(format == null ? 0 : format.getCode() + 1L);
+    }
+
+    private static ContentFormat readNullableContentFormat(BinaryReader r) {
+        int code = r.readVarInt();
+        return code == 0 ? null : ContentFormat.fromCode(code - 1);
+    }
 }
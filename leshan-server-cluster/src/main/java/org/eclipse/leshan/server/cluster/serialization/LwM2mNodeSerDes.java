@@ -36,9 +36,22 @@ import com.eclipsesource.json.JsonObject.Member;
 import com.eclipsesource.json.JsonValue;
 
 /**
- * Functions for serialize and deserialize a LWM2M node in JSON.
+ * Functions for serialize and deserialize a LWM2M node in JSON or in a compact binary format.
+ * <p>
+ * The binary format starts with a byte which can not start a JSON document, followed by the format version, so
+ * {@link #deserialize(byte[])} reads both formats.
  */
 public class LwM2mNodeSerDes {
+
+    static final int BINARY_MARKER = 0xFF; // never the first byte of an UTF-8 JSON document
+    static final int BINARY_VERSION = 1;
+
+    // node kinds of the binary format
+    private static final int OBJECT = 0;
+    private static final int INSTANCE = 1;
+    private static final int SINGLE_RESOURCE = 2;
+    private static final int MULTIPLE_RESOURCE = 3;
+
     public static JsonObject jSerialize(LwM2mNode n) {
         JsonObject o = Json.object();
         o.add("id", n.getId());
@@ -134,4 +147,121 @@ public class LwM2mNodeSerDes {
             throw new IllegalStateException("Invalid LwM2mNode missing kind attribute");
         }
     }
+
+    /**
+     * Serializes the node in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version node
+     * node: kind id ( instanceCount node*           (object)
+     *               | resourceCount node*           (object instance)
+     *               | type value                    (single resource)
+     *               | type count (id value)* )      (multiple resource)
+     * </pre>
+     *
+     * Integers are varints, the values are written by {@link ValueSerDes#serializeCompact(BinaryWriter, Object, Type)}.
+     */
+    public static byte[] serializeCompact(LwM2mNode n) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(BINARY_MARKER).writeByte(BINARY_VERSION);
+        serializeCompact(w, n);
+        return w.toByteArray();
+    }
+
+    /**
+     * Writes the node in the compact binary format, without marker and version.
+     */
+    public static void serializeCompact(BinaryWriter w, LwM2mNode n) {
+        if (n instanceof LwM2mObject) {
+            w.writeByte(OBJECT).writeSignedVarLong(n.getId());
+            Map<Integer, LwM2mObjectInstance> instances = ((LwM2mObject) n).getInstances();
+            w.writeVarLong(instances.size());
+            for (LwM2mObjectInstance instance : instances.values()) {
+                serializeCompact(w, instance);
+            }
+        } else if (n instanceof LwM2mObjectInstance) {
+            w.writeByte(INSTANCE).writeSignedVarLong(n.getId());
+            Map<Integer, LwM2mResource> resources = ((LwM2mObjectInstance) n).getResources();
+            w.writeVarLong(resources.size());
+            for (LwM2mResource resource : resources.values()) {
+                serializeCompact(w, resource);
+            }
+        } else if (n instanceof LwM2mResource) {
+            LwM2mResource r = (LwM2mResource) n;
+            if (r.isMultiInstances()) {
+                w.writeByte(MULTIPLE_RESOURCE).writeSignedVarLong(n.getId());
+                w.writeByte(ValueSerDes.toCompactType(r.getType()));
+                w.writeVarLong(r.getValues().size());
+                for (Entry<Integer, ?> value : r.getValues().entrySet()) {
+                    w.writeVarLong(value.getKey());
+                    ValueSerDes.serializeCompact(w, value.getValue(), r.getType());
+                }
+            } else {
+                w.writeByte(SINGLE_RESOURCE).writeSignedVarLong(n.getId());
+                w.writeByte(ValueSerDes.toCompactType(r.getType()));
+                ValueSerDes.serializeCompact(w, r.getValue(), r.getType());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported node " + n);
+        }
+    }
+
+    /**
+     * Deserializes a node serialized by {@link #bSerialize(LwM2mNode)} (JSON) or by
+     * {@link #serializeCompact(LwM2mNode)} (binary).
+     */
+    public static LwM2mNode deserialize(byte[] data) {
+        if (data.length > 0 && (data[0] & 0xFF) == BINARY_MARKER) {
+            BinaryReader r = new BinaryReader(data);
+            r.readByte(); // marker
+            int version = r.readByte();
+            if (version != BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported node format version " + version);
+            }
+            return deserializeCompact(r);
+        }
+        return deserialize((JsonObject) Json.parse(new String(data)));
+    }
+
+    /**
+     * Reads a node written by {@link #serializeCompact(BinaryWriter, LwM2mNode)}.
+     */
+    public static LwM2mNode deserializeCompact(BinaryReader r) {
+        int kind = r.readByte();
+        int id = (int) r.readSignedVarLong();
+        switch (kind) {
+        case OBJECT: {
+            int count = r.readVarInt();
+            Collection<LwM2mObjectInstance> instances = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                instances.add((LwM2mObjectInstance) deserializeCompact(r));
+            }
+            return new LwM2mObject(id, instances);
+        }
+        case INSTANCE: {
+            int count = r.readVarInt();
+            Collection<LwM2mResource> resources = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                resources.add((LwM2mResource) deserializeCompact(r));
+            }
+            return new LwM2mObjectInstance(id, resources);
+        }
+        case SINGLE_RESOURCE: {
+            Type type = ValueSerDes.fromCompactType(r.readByte());
+            return LwM2mSingleResource.newResource(id, ValueSerDes.deserializeCompact(r, type), type);
+        }
+        case MULTIPLE_RESOURCE: {
+            Type type = ValueSerDes.fromCompactType(r.readByte());
+            int count = r.readVarInt();
+            Map<Integer, Object> values = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                int valueId = r.readVarInt();
+                values.put(valueId, ValueSerDes.deserializeCompact(r, type));
+            }
+            return LwM2mMultipleResource.newResource(id, values, type);
+        }
+        default:
+            throw new IllegalArgumentException("Invalid node kind " + kind);
+        }
+    }
 }
@@ -26,6 +26,7 @@ import org.eclipse.californium.core.network.serialization.UdpDataParser;
 import org.eclipse.californium.core.network.serialization.UdpDataSerializer;
 import org.eclipse.californium.core.observe.Observation;
 import org.eclipse.californium.elements.RawData;
+import org.eclipse.leshan.server.californium.impl.CoapRequestBuilder;
 import org.eclipse.leshan.util.Hex;
 
 import com.eclipsesource.json.Json;
@@ -33,16 +34,27 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 /**
- * Functions for serializing and deserializing a Californium {@link Observation} in JSON.
+ * Functions for serializing and deserializing a Californium {@link Observation} in JSON or in a compact binary format.
  * 
  * The embedded CoAP request is serialized using the Californium network serialization (see {@link UdpDataParser} and
  * {@link UdpDataSerializer}).
+ * <p>
+ * Neither format holds the security context of the observation (the DTLS session of the request): a deserialized
+ * {@link Observation} has none.
  */
 public class ObservationSerDes {
 
     private static final DataSerializer serializer = new UdpDataSerializer();
     private static final DataParser parser = new UdpDataParser();
 
+    private static final int BINARY_MARKER = 0xFF; // never the first byte of an UTF-8 JSON document
+    private static final int BINARY_VERSION = 1;
+
+    // the context keys set by leshan are written as their index in this table (shifted by one), 0 is followed by the
+    // key itself
+    private static final String[] KNOWN_CONTEXT_KEYS = { CoapRequestBuilder.CTX_ENDPOINT, CoapRequestBuilder.CTX_REGID,
+            CoapRequestBuilder.CTX_LWM2M_PATH };
+
     public static byte[] serialize(Observation obs) {
         JsonObject o = Json.object();
 
@@ -58,7 +70,46 @@ public class ObservationSerDes {
         return o.toString().getBytes();
     }
 
+    /**
+     * Serializes the observation in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version requestLength request contextCount+1 (keyIndex [key] value)*
+     * </pre>
+     *
+     * The request is written as raw CoAP bytes. Integers are varints, strings are prefixed by their length.
+     */
+    public static byte[] serializeCompact(Observation obs) {
+        byte[] request = serializer.serializeRequest(obs.getRequest()).bytes;
+        BinaryWriter w = new BinaryWriter(request.length + 128);
+        w.writeByte(BINARY_MARKER).writeByte(BINARY_VERSION);
+        w.writeBytes(request);
+
+        Map<String, String> context = obs.getRequest().getUserContext();
+        if (context == null) {
+            w.writeVarLong(0);
+        } else {
+            w.writeVarLong(context.size() + 1L);
+            for (Entry<String, String> e : context.entrySet()) {
+                int keyIndex = knownContextKey(e.getKey());
+                w.writeVarLong(keyIndex + 1L);
+                if (keyIndex < 0) {
+                    w.writeString(e.getKey());
+                }
+                w.writeNullableString(e.getValue());
+            }
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * Deserializes an observation serialized by {@link #serialize(Observation)} (JSON) or by
+     * {@link #serializeCompact(Observation)} (binary).
+     */
     public static Observation deserialize(byte[] data) {
+        if (data.length > 0 && (data[0] & 0xFF) == BINARY_MARKER) {
+            return deserializeCompact(data);
+        }
         JsonObject v = (JsonObject) Json.parse(new String(data));
 
         byte[] req = Hex.decodeHex(v.getString("request", null).toCharArray());
@@ -78,4 +129,42 @@ public class ObservationSerDes {
         return new Observation(request, null);
     }
 
+    private static Observation deserializeCompact(byte[] data) {
+        BinaryReader r = new BinaryReader(data);
+        r.readByte(); // marker
+        int version = r.readByte();
+        if (version != BINARY_VERSION) {
+            throw new IllegalArgumentException("Unsupported observation format version " + version);
+        }
+        Request request = (Request) parser.parseMessage(new RawData(r.readBytes(), null, 0));
+
+        int contextSize = r.readVarInt();
+        if (contextSize > 0) {
+            Map<String, String> context = new HashMap<>();
+            for (int i = 0; i < contextSize - 1; i++) {
+                int keyIndex = r.readVarInt();
+                String key;
+                if (keyIndex == 0) {
+                    key = r.readString();
+                } else if (keyIndex <= KNOWN_CONTEXT_KEYS.length) {
+                    key = KNOWN_CONTEXT_KEYS[keyIndex - 1];
+                } else {
+                    throw new IllegalArgumentException("Invalid context key index " + keyIndex);
+                }
+                context.put(key, r.readNullableString());
+            }
+            request.setUserContext(context);
+        }
+
+        return new Observation(request, null);
+    }
+
+    private static int knownContextKey(String key) {
+        for (int i = 0; i < KNOWN_CONTEXT_KEYS.length; i++) {
+            if (KNOWN_CONTEXT_KEYS[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
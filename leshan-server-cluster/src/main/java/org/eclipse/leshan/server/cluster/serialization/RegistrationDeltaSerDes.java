@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.Registration;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+
+/**
+ * Functions for serialize and apply the changes made to a Registration by an update, in JSON.
+ * <p>
+ * The delta always contains the registration id ({@code regId}) and the last update date ({@code lastUp}), the other
+ * fields which a registration update may change are only present when they changed. They use the names of
+ * {@link RegistrationSerDes}: {@code address}, {@code port}, {@code lt}, {@code sms} (<code>null</code> when
+ * removed), {@code bnd} and {@code objLink}.
+ */
+public class RegistrationDeltaSerDes {
+
+    public static JsonObject jSerialize(Registration previous, Registration updated) {
+        JsonObject o = Json.object();
+        o.add("regId", updated.getId());
+        o.add("lastUp", updated.getLastUpdate().getTime());
+        if (!updated.getAddress().equals(previous.getAddress())) {
+            o.add("address", updated.getAddress().getHostAddress());
+        }
+        if (updated.getPort() != previous.getPort()) {
+            o.add("port", updated.getPort());
+        }
+        if (updated.getLifeTimeInSec().longValue() != previous.getLifeTimeInSec().longValue()) {
+            o.add("lt", updated.getLifeTimeInSec());
+        }
+        if (!equals(updated.getSmsNumber(), previous.getSmsNumber())) {
+            o.add("sms", updated.getSmsNumber() == null ? Json.NULL : Json.value(updated.getSmsNumber()));
+        }
+        if (updated.getBindingMode() != previous.getBindingMode()) {
+            o.add("bnd", updated.getBindingMode().name());
+        }
+        if (!Arrays.equals(updated.getObjectLinks(), previous.getObjectLinks())) {
+            o.add("objLink", RegistrationSerDes.jSerializeLinks(updated.getObjectLinks()));
+        }
+        return o;
+    }
+
+    public static String sSerialize(Registration previous, Registration updated) {
+        return jSerialize(previous, updated).toString();
+    }
+
+    /**
+     * Applies a delta to the registration it was computed from.
+     *
+     * @return the updated registration.
+     * @throws IllegalArgumentException if the delta is about another registration.
+     */
+    public static Registration apply(Registration registration, JsonObject delta) {
+        String registrationId = delta.getString("regId", null);
+        if (!registration.getId().equals(registrationId)) {
+            throw new IllegalArgumentException(String.format("Delta of registration %s can not be applied to %s",
+                    registrationId, registration.getId()));
+        }
+
+        InetAddress address = registration.getAddress();
+        if (delta.get("address") != null) {
+            try {
+                address = InetAddress.getByName(delta.getString("address", null));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid address in registration delta", e);
+            }
+        }
+        int port = delta.getInt("port", registration.getPort());
+        Registration.Builder b = new Registration.Builder(registration.getId(), registration.getEndpoint(), address,
+                port, registration.getRegistrationEndpointAddress());
+        b.lwM2mVersion(registration.getLwM2mVersion());
+        b.registrationDate(registration.getRegistrationDate());
+        b.additionalRegistrationAttributes(registration.getAdditionalRegistrationAttributes());
+        b.lastUpdate(new Date(delta.getLong("lastUp", 0)));
+        b.lifeTimeInSec(delta.getLong("lt", registration.getLifeTimeInSec()));
+
+        JsonValue sms = delta.get("sms");
+        if (sms == null) {
+            b.smsNumber(registration.getSmsNumber());
+        } else if (!sms.isNull()) {
+            b.smsNumber(sms.asString());
+        }
+        JsonValue binding = delta.get("bnd");
+        b.bindingMode(binding == null ? registration.getBindingMode() : BindingMode.valueOf(binding.asString()));
+        JsonValue links = delta.get("objLink");
+        Link[] objectLinks = links == null ? registration.getObjectLinks()
+                : RegistrationSerDes.deserializeLinks((JsonArray) links);
+        b.objectLinks(objectLinks);
+        return b.build();
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -15,9 +15,13 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.cluster.serialization;
 
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.leshan.Link;
@@ -30,10 +34,26 @@ import com.eclipsesource.json.JsonObject;
 import com.eclipsesource.json.JsonValue;
 
 /**
- * Functions for serialize and deserialize a Client in JSON.
+ * Functions for serialize and deserialize a Client in JSON or in a compact binary format.
+ * <p>
+ * The binary format starts with a byte which can not start a JSON document, followed by the format version, so
+ * {@link #deserialize(byte[])} reads both formats.
  */
 public class RegistrationSerDes {
 
+    private static final int BINARY_MARKER = 0xFF; // never the first byte of an UTF-8 JSON document
+    private static final int BINARY_VERSION = 1;
+
+    // address kinds of the binary format
+    private static final int HOST_NAME = 0; // unresolved address, written as a string
+    private static final int IPV4 = 4;
+    private static final int IPV6 = 16;
+
+    // link attribute value types of the binary format
+    private static final int ATTR_NULL = 0;
+    private static final int ATTR_INT = 1;
+    private static final int ATTR_STRING = 2;
+
     public static JsonObject jSerialize(Registration r) {
         JsonObject o = Json.object();
         o.add("regDate", r.getRegistrationDate().getTime());
@@ -50,8 +70,20 @@ public class RegistrationSerDes {
         o.add("ep", r.getEndpoint());
         o.add("regId", r.getId());
 
+        o.add("objLink", jSerializeLinks(r.getObjectLinks()));
+        JsonObject addAttr = Json.object();
+        for (Map.Entry<String, String> e : r.getAdditionalRegistrationAttributes().entrySet()) {
+            addAttr.add(e.getKey(), e.getValue());
+        }
+        o.add("addAttr", addAttr);
+        o.add("root", r.getRootPath());
+        o.add("lastUp", r.getLastUpdate().getTime());
+        return o;
+    }
+
+    static JsonArray jSerializeLinks(Link[] objectLinks) {
         JsonArray links = new JsonArray();
-        for (Link l : r.getObjectLinks()) {
+        for (Link l : objectLinks) {
             JsonObject ol = Json.object();
             ol.add("url", l.getUrl());
             JsonObject at = Json.object();
@@ -65,15 +97,7 @@ public class RegistrationSerDes {
             ol.add("at", at);
             links.add(ol);
         }
-        o.add("objLink", links);
-        JsonObject addAttr = Json.object();
-        for (Map.Entry<String, String> e : r.getAdditionalRegistrationAttributes().entrySet()) {
-            addAttr.add(e.getKey(), e.getValue());
-        }
-        o.add("addAttr", addAttr);
-        o.add("root", r.getRootPath());
-        o.add("lastUp", r.getLastUpdate().getTime());
-        return o;
+        return links;
     }
 
     public static String sSerialize(Registration r) {
@@ -98,7 +122,18 @@ public class RegistrationSerDes {
             b.smsNumber(jObj.getString("sms", ""));
         }
 
-        JsonArray links = (JsonArray) jObj.get("objLink");
+        b.objectLinks(deserializeLinks((JsonArray) jObj.get("objLink")));
+        Map<String, String> addAttr = new HashMap<>();
+        JsonObject o = (JsonObject) jObj.get("addAttr");
+        for (String k : o.names()) {
+            addAttr.put(k, o.getString(k, ""));
+        }
+        b.additionalRegistrationAttributes(addAttr);
+
+        return b.build();
+    }
+
+    static Link[] deserializeLinks(JsonArray links) {
         Link[] linkObjs = new Link[links.size()];
         for (int i = 0; i < links.size(); i++) {
             JsonObject ol = (JsonObject) links.get(i);
@@ -116,18 +151,212 @@ public class RegistrationSerDes {
             Link o = new Link(ol.getString("url", null), attMap);
             linkObjs[i] = o;
         }
-        b.objectLinks(linkObjs);
+        return linkObjs;
+    }
+
+    /**
+     * Serializes the registration in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version
+     * regId ep address port regAddress regPort regDate lastUpdate-regDate lt sms? ver bnd
+     * strings: count string*                           (link attribute names and string values)
+     * links: count+1 (url attributeCount (name valueType value)*)*    (0 for null links)
+     * addAttr: count (name value)*
+     * </pre>
+     *
+     * Integers are varints, strings are prefixed by their length. Addresses are written as their raw 4 or 16 bytes.
+     * Link attribute names and string values are written once in the string table and referenced by index.
+     */
+    public static byte[] serializeCompact(Registration r) {
+        BinaryWriter w = new BinaryWriter(256);
+        w.writeByte(BINARY_MARKER).writeByte(BINARY_VERSION);
+        w.writeString(r.getId());
+        w.writeString(r.getEndpoint());
+        writeAddress(w, r.getAddress());
+        w.writeVarLong(r.getPort());
+        writeSocketAddress(w, r.getRegistrationEndpointAddress());
+        long regDate = r.getRegistrationDate().getTime();
+        w.writeSignedVarLong(regDate);
+        w.writeSignedVarLong(r.getLastUpdate().getTime() - regDate);
+        w.writeVarLong(r.getLifeTimeInSec());
+        w.writeNullableString(r.getSmsNumber());
+        w.writeString(r.getLwM2mVersion());
+        w.writeString(r.getBindingMode().name());
+
+        Link[] links = r.getObjectLinks();
+        if (links == null) {
+            w.writeVarLong(0); // empty string table
+            w.writeVarLong(0);
+        } else {
+            // intern the attribute names and string values
+            Map<String, Integer> indexes = new HashMap<>();
+            List<String> strings = new ArrayList<>();
+            for (Link l : links) {
+                if (l == null)
+                    continue;
+                for (Map.Entry<String, Object> e : l.getAttributes().entrySet()) {
+                    intern(e.getKey(), indexes, strings);
+                    if (e.getValue() != null && !(e.getValue() instanceof Integer)) {
+                        intern(e.getValue().toString(), indexes, strings);
+                    }
+                }
+            }
+            w.writeVarLong(strings.size());
+            for (String string : strings) {
+                w.writeString(string);
+            }
+
+            w.writeVarLong(links.length + 1L);
+            for (Link l : links) {
+                if (l == null) {
+                    // a null url marks a null link
+                    w.writeNullableString(null);
+                    continue;
+                }
+                w.writeNullableString(l.getUrl());
+                w.writeVarLong(l.getAttributes().size());
+                for (Map.Entry<String, Object> e : l.getAttributes().entrySet()) {
+                    w.writeVarLong(indexes.get(e.getKey()));
+                    Object value = e.getValue();
+                    if (value == null) {
+                        w.writeByte(ATTR_NULL);
+                    } else if (value instanceof Integer) {
+                        w.writeByte(ATTR_INT).writeSignedVarLong((Integer) value);
+                    } else {
+                        w.writeByte(ATTR_STRING).writeVarLong(indexes.get(value.toString()));
+                    }
+                }
+            }
+        }
+
+        Map<String, String> addAttr = r.getAdditionalRegistrationAttributes();
+        w.writeVarLong(addAttr.size());
+        for (Map.Entry<String, String> e : addAttr.entrySet()) {
+            w.writeString(e.getKey());
+            w.writeNullableString(e.getValue());
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * Deserializes a registration serialized by {@link #bSerialize(Registration)} (JSON) or by
+     * {@link #serializeCompact(Registration)} (binary).
+     */
+    public static Registration deserialize(byte[] data) {
+        if (data.length > 0 && (data[0] & 0xFF) == BINARY_MARKER) {
+            return deserializeCompact(data);
+        }
+        return deserialize((JsonObject) Json.parse(new String(data)));
+    }
+
+    private static Registration deserializeCompact(byte[] data) {
+        BinaryReader r = new BinaryReader(data);
+        r.readByte(); // marker
+        int version = r.readByte();
+        if (version != BINARY_VERSION) {
+            throw new IllegalArgumentException("Unsupported registration format version " + version);
+        }
+        String id = r.readString();
+        String endpoint = r.readString();
+        InetAddress address = readAddress(r, r.readByte());
+        int port = r.readVarInt();
+        InetSocketAddress regAddress = readSocketAddress(r);
+
+        Registration.Builder b = new Registration.Builder(id, endpoint, address, port, regAddress);
+        long regDate = r.readSignedVarLong();
+        b.registrationDate(new Date(regDate));
+        b.lastUpdate(new Date(regDate + r.readSignedVarLong()));
+        b.lifeTimeInSec(r.readVarLong());
+        b.smsNumber(r.readNullableString());
+        b.lwM2mVersion(r.readString());
+        b.bindingMode(BindingMode.valueOf(r.readString()));
+
+        String[] strings = new String[r.readVarInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = r.readString();
+        }
+        int nbLinks = r.readVarInt();
+        if (nbLinks > 0) {
+            Link[] links = new Link[nbLinks - 1];
+            for (int i = 0; i < links.length; i++) {
+                String url = r.readNullableString();
+                if (url == null)
+                    continue;
+                int nbAttributes = r.readVarInt();
+                Map<String, Object> attributes = new HashMap<>();
+                for (int j = 0; j < nbAttributes; j++) {
+                    String name = strings[r.readVarInt()];
+                    int type = r.readByte();
+                    switch (type) {
+                    case ATTR_NULL:
+                        attributes.put(name, null);
+                        break;
+                    case ATTR_INT:
+                        attributes.put(name, (int) r.readSignedVarLong());
+                        break;
+                    case ATTR_STRING:
+                        attributes.put(name, strings[r.readVarInt()]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Invalid link attribute type " + type);
+                    }
+                }
+                links[i] = new Link(url, attributes);
+            }
+            b.objectLinks(links);
+        }
+
+        int nbAddAttr = r.readVarInt();
         Map<String, String> addAttr = new HashMap<>();
-        JsonObject o = (JsonObject) jObj.get("addAttr");
-        for (String k : o.names()) {
-            addAttr.put(k, o.getString(k, ""));
+        for (int i = 0; i < nbAddAttr; i++) {
+            addAttr.put(r.readString(), r.readNullableString());
         }
         b.additionalRegistrationAttributes(addAttr);
 
         return b.build();
     }
 
-    public static Registration deserialize(byte[] data) {
-        return deserialize((JsonObject) Json.parse(new String(data)));
+    private static void intern(String value, Map<String, Integer> indexes, List<String> strings) {
+        if (!indexes.containsKey(value)) {
+            indexes.put(value, strings.size());
+            strings.add(value);
+        }
+    }
+
+    private static void writeAddress(BinaryWriter w, InetAddress address) {
+        byte[] raw = address.getAddress();
+        w.writeByte(raw.length).writeRaw(raw);
+    }
+
+    private static void writeSocketAddress(BinaryWriter w, InetSocketAddress address) {
+        if (address.isUnresolved()) {
+            w.writeByte(HOST_NAME).writeString(address.getHostString());
+        } else {
+            writeAddress(w, address.getAddress());
+        }
+        w.writeVarLong(address.getPort());
+    }
+
+    private static InetAddress readAddress(BinaryReader r, int kind) {
+        if (kind != IPV4 && kind != IPV6) {
+            throw new IllegalArgumentException("Invalid address kind " + kind);
+        }
+        try {
+            return InetAddress.getByAddress(r.readRaw(kind));
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static InetSocketAddress readSocketAddress(BinaryReader r) {
+        int kind = r.readByte();
+        if (kind == HOST_NAME) {
+            // resolved like the JSON format does
+            String host = r.readString();
+            return new InetSocketAddress(host, r.readVarInt());
+        }
+        InetAddress address = readAddress(r, kind);
+        return new InetSocketAddress(address, r.readVarInt());
     }
 }
\ No newline at end of file
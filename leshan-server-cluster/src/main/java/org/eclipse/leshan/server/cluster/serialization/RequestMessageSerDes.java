@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import org.eclipse.leshan.core.request.DownlinkRequest;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+/**
+ * Functions for serialize and deserialize the Request Messages sent to the cluster instances (a ticket, the endpoint
+ * of the client and the LWM2M request) in JSON or in a compact binary format.
+ * <p>
+ * The binary format starts with a byte which can not start a JSON document, followed by the format version, so
+ * {@link #deserialize(byte[])} reads both formats.
+ */
+public class RequestMessageSerDes {
+
+    /**
+     * A Request Message, the LWM2M request is only deserialized when needed.
+     */
+    public static class RequestMessage {
+        private final String ticket;
+        private final String endpoint;
+        private final JsonObject jRequest;
+        private final BinaryReader bRequest;
+
+        private RequestMessage(String ticket, String endpoint, JsonObject jRequest, BinaryReader bRequest) {
+            this.ticket = ticket;
+            this.endpoint = endpoint;
+            this.jRequest = jRequest;
+            this.bRequest = bRequest;
+        }
+
+        public String getTicket() {
+            return ticket;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public DownlinkRequest<?> getRequest() {
+            if (bRequest != null) {
+                return DownlinkRequestSerDes.deserializeCompact(bRequest);
+            }
+            return DownlinkRequestSerDes.deserialize((JsonObject) jRequest.get("req"));
+        }
+    }
+
+    public static JsonObject jSerialize(String ticket, String endpoint, DownlinkRequest<?> request) {
+        JsonObject m = Json.object();
+        m.add("ticket", ticket);
+        m.add("ep", endpoint);
+        m.add("req", DownlinkRequestSerDes.jSerialize(request));
+        return m;
+    }
+
+    public static String sSerialize(String ticket, String endpoint, DownlinkRequest<?> request) {
+        return jSerialize(ticket, endpoint, request).toString();
+    }
+
+    /**
+     * Serializes the message in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version ticket endpoint request
+     * </pre>
+     *
+     * The ticket is prefixed by its length+1 (0 for null), the endpoint by its length. The request is written by
+     * {@link DownlinkRequestSerDes#serializeCompact(BinaryWriter, DownlinkRequest)}.
+     */
+    public static byte[] serializeCompact(String ticket, String endpoint, DownlinkRequest<?> request) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(LwM2mNodeSerDes.BINARY_MARKER).writeByte(LwM2mNodeSerDes.BINARY_VERSION);
+        w.writeNullableString(ticket);
+        w.writeString(endpoint);
+        DownlinkRequestSerDes.serializeCompact(w, request);
+        return w.toByteArray();
+    }
+
+    /**
+     * @return <code>true</code> if the message is in the compact binary format.
+     */
+    public static boolean isCompact(byte[] data) {
+        return data.length > 0 && (data[0] & 0xFF) == LwM2mNodeSerDes.BINARY_MARKER;
+    }
+
+    /**
+     * Deserializes a message in JSON or in the compact binary format.
+     */
+    public static RequestMessage deserialize(byte[] data) {
+        if (!isCompact(data)) {
+            return deserialize(new String(data, UTF_8));
+        }
+        BinaryReader r = new BinaryReader(data);
+        r.readByte(); // marker
+        int version = r.readByte();
+        if (version != LwM2mNodeSerDes.BINARY_VERSION) {
+            throw new IllegalArgumentException("Unsupported request message format version " + version);
+        }
+        String ticket = r.readNullableString();
+        String endpoint = r.readString();
+        return new RequestMessage(ticket, endpoint, null, r);
+    }
+
+    /**
+     * Deserializes a message in JSON.
+     */
+    public static RequestMessage deserialize(String data) {
+        JsonObject o = (JsonObject) Json.parse(data);
+        return new RequestMessage(o.getString("ticket", null), o.getString("ep", null), o, null);
+    }
+}
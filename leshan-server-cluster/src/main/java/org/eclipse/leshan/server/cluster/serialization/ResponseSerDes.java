@@ -32,10 +32,23 @@ import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonObject;
 
 /**
- * Functions for serialize and deserialize a LWM2M response in JSON.
+ * Functions for serialize and deserialize a LWM2M response in JSON or in a compact binary format.
+ * <p>
+ * The binary format starts with a byte which can not start a JSON document, followed by the format version, so
+ * {@link #deserialize(byte[])} reads both formats.
  */
 public class ResponseSerDes {
 
+    // response kinds of the binary format
+    private static final int READ = 0;
+    private static final int OBSERVE = 1;
+    private static final int DISCOVER = 2;
+    private static final int WRITE = 3;
+    private static final int WRITE_ATTRIBUTES = 4;
+    private static final int EXECUTE = 5;
+    private static final int CREATE = 6;
+    private static final int DELETE = 7;
+
     public static JsonObject jSerialize(LwM2mResponse r) {
         final JsonObject o = Json.object();
         o.add("code", r.getCode().toString());
@@ -118,4 +131,122 @@ public class ResponseSerDes {
             throw new IllegalStateException("Invalid response missing kind attribute");
         }
     }
+
+    /**
+     * Serializes the response in the compact binary format (version 1):
+     *
+     * <pre>
+     * marker(0xFF) version response
+     * response: kind code errorMessage ( hasContent node?    (read, observe)
+     *                                  | objectLinks         (discover)
+     *                                  | location            (create)
+     *                                  | nothing )           (others)
+     * </pre>
+     *
+     * The code is a varint, the strings are prefixed by their length+1 (0 for null). The nodes are written by
+     * {@link LwM2mNodeSerDes#serializeCompact(BinaryWriter, LwM2mNode)}.
+     */
+    public static byte[] serializeCompact(LwM2mResponse r) {
+        BinaryWriter w = new BinaryWriter();
+        w.writeByte(LwM2mNodeSerDes.BINARY_MARKER).writeByte(LwM2mNodeSerDes.BINARY_VERSION);
+        serializeCompact(w, r);
+        return w.toByteArray();
+    }
+
+    /**
+     * Writes the response in the compact binary format, without marker and version.
+     */
+    public static void serializeCompact(BinaryWriter w, LwM2mResponse r) {
+        // ObserveResponse is a ReadResponse
+        if (r instanceof ObserveResponse) {
+            writeHeader(w, OBSERVE, r);
+            writeNullableNode(w, ((ObserveResponse) r).getContent());
+        } else if (r instanceof ReadResponse) {
+            writeHeader(w, READ, r);
+            writeNullableNode(w, ((ReadResponse) r).getContent());
+        } else if (r instanceof DiscoverResponse) {
+            writeHeader(w, DISCOVER, r);
+            Link[] links = ((DiscoverResponse) r).getObjectLinks();
+            w.writeNullableString(links == null ? null : Link.serialize(links));
+        } else if (r instanceof DeleteResponse) {
+            writeHeader(w, DELETE, r);
+        } else if (r instanceof ExecuteResponse) {
+            writeHeader(w, EXECUTE, r);
+        } else if (r instanceof WriteResponse) {
+            writeHeader(w, WRITE, r);
+        } else if (r instanceof WriteAttributesResponse) {
+            writeHeader(w, WRITE_ATTRIBUTES, r);
+        } else if (r instanceof CreateResponse) {
+            writeHeader(w, CREATE, r);
+            w.writeNullableString(((CreateResponse) r).getLocation());
+        } else {
+            throw new IllegalArgumentException("Unsupported response " + r);
+        }
+    }
+
+    /**
+     * Deserializes a response serialized by {@link #bSerialize(LwM2mResponse)} (JSON) or by
+     * {@link #serializeCompact(LwM2mResponse)} (binary).
+     */
+    public static LwM2mResponse deserialize(byte[] data) {
+        if (data.length > 0 && (data[0] & 0xFF) == LwM2mNodeSerDes.BINARY_MARKER) {
+            BinaryReader r = new BinaryReader(data);
+            r.readByte(); // marker
+            int version = r.readByte();
+            if (version != LwM2mNodeSerDes.BINARY_VERSION) {
+                throw new IllegalArgumentException("Unsupported response format version " + version);
+            }
+            return deserializeCompact(r);
+        }
+        return deserialize((JsonObject) Json.parse(new String(data)));
+    }
+
+    /**
+     * Reads a response written by {@link #serializeCompact(BinaryWriter, LwM2mResponse)}.
+     */
+    public static LwM2mResponse deserializeCompact(BinaryReader r) {
+        int kind = r.readByte();
+        ResponseCode code = ResponseCode.fromCode(r.readVarInt());
+        String errorMessage = r.readNullableString();
+        switch (kind) {
+        case OBSERVE:
+            return new ObserveResponse(code, readNullableNode(r), null, null, errorMessage);
+        case READ:
+            return new ReadResponse(code, readNullableNode(r), errorMessage);
+        case DISCOVER: {
+            String objectLinks = r.readNullableString();
+            return new DiscoverResponse(code, objectLinks == null ? null : Link.parse(objectLinks.getBytes()),
+                    errorMessage);
+        }
+        case DELETE:
+            return new DeleteResponse(code, errorMessage);
+        case EXECUTE:
+            return new ExecuteResponse(code, errorMessage);
+        case WRITE:
+            return new WriteResponse(code, errorMessage);
+        case WRITE_ATTRIBUTES:
+            return new WriteAttributesResponse(code, errorMessage);
+        case CREATE:
+            return new CreateResponse(code, r.readNullableString(), errorMessage);
+        default:
+            throw new IllegalArgumentException("Invalid response kind " + kind);
+        }
+    }
+
+    private static void writeHeader(BinaryWriter w, int kind, LwM2mResponse r) {
+        w.writeByte(kind).writeVarLong(r.getCode().getCode()).writeNullableString(r.getErrorMessage());
+    }
+
+    private static void writeNullableNode(BinaryWriter w, LwM2mNode node) {
+        if (node == null) {
+            w.writeByte(0);
+        } else {
+            w.writeByte(1);
+            LwM2mNodeSerDes.serializeCompact(w, node);
+        }
+    }
+
+    private static LwM2mNode readNullableNode(BinaryReader r) {
+        return r.readByte() == 0 ? null : LwM2mNodeSerDes.deserializeCompact(r);
+    }
 }
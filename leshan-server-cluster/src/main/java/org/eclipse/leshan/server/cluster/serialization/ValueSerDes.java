@@ -18,13 +18,14 @@ package org.eclipse.leshan.server.cluster.serialization;
 import java.util.Date;
 
 import org.eclipse.leshan.core.model.ResourceModel.Type;
+import org.eclipse.leshan.core.node.ObjectLink;
 import org.eclipse.leshan.util.Base64;
 
 import com.eclipsesource.json.Json;
 import com.eclipsesource.json.JsonValue;
 
 /**
- * Functions for serialize and deserialize a value of LWM2M resource in JSON.
+ * Functions for serialize and deserialize a value of LWM2M resource in JSON or in a compact binary format.
  */
 public class ValueSerDes {
 
@@ -73,4 +74,104 @@ public class ValueSerDes {
             throw new IllegalArgumentException(String.format("Type %s is not supported", type.name()));
         }
     }
+
+    /**
+     * Writes a value in the compact binary format: integers and times as signed varints, floats as 8 bytes, opaque
+     * values and strings prefixed by their length, object links as 2 varints.
+     */
+    public static void serializeCompact(BinaryWriter w, Object value, Type type) {
+        switch (type) {
+        case INTEGER:
+            w.writeSignedVarLong((long) value);
+            break;
+        case FLOAT:
+            w.writeDouble((double) value);
+            break;
+        case BOOLEAN:
+            w.writeByte((boolean) value ? 1 : 0);
+            break;
+        case OPAQUE:
+            w.writeBytes((byte[]) value);
+            break;
+        case STRING:
+            w.writeString((String) value);
+            break;
+        case TIME:
+            w.writeSignedVarLong(((Date) value).getTime());
+            break;
+        case OBJLNK:
+            ObjectLink link = (ObjectLink) value;
+            w.writeVarLong(link.getObjectId());
+            w.writeVarLong(link.getObjectInstanceId());
+            break;
+        default:
+            throw new IllegalArgumentException(String.format("Type %s is not supported", type.name()));
+        }
+    }
+
+    public static Object deserializeCompact(BinaryReader r, Type type) {
+        switch (type) {
+        case INTEGER:
+            return r.readSignedVarLong();
+        case FLOAT:
+            return r.readDouble();
+        case BOOLEAN:
+            return r.readByte() != 0;
+        case OPAQUE:
+            return r.readBytes();
+        case STRING:
+            return r.readString();
+        case TIME:
+            return new Date(r.readSignedVarLong());
+        case OBJLNK:
+            return new ObjectLink(r.readVarInt(), r.readVarInt());
+        default:
+            throw new IllegalArgumentException(String.format("Type %s is not supported", type.name()));
+        }
+    }
+
+    /**
+     * @return the code of the type in the compact binary format.
+     */
+    static int toCompactType(Type type) {
+        switch (type) {
+        case STRING:
+            return 0;
+        case INTEGER:
+            return 1;
+        case FLOAT:
+            return 2;
+        case BOOLEAN:
+            return 3;
+        case OPAQUE:
+            return 4;
+        case TIME:
+            return 5;
+        case OBJLNK:
+            return 6;
+        default:
+            throw new IllegalArgumentException(String.format("Type %s is not supported", type.name()));
+        }
+    }
+
+    static Type fromCompactType(int code) {
+        switch (code) {
+        case 0:
+            return Type.STRING;
+        case 1:
+            return Type.INTEGER;
+        case 2:
+            return Type.FLOAT;
+        case 3:
+            return Type.BOOLEAN;
+        case 4:
+            return Type.OPAQUE;
+        case 5:
+            return Type.TIME;
+        case 6:
+            return Type.OBJLNK;
+        default:
+            throw new IllegalArgumentException("Invalid resource type " + code);
+        }
+    }
 }
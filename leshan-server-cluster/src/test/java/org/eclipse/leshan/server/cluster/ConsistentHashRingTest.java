@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void empty_ring_places_nothing() {
+        ConsistentHashRing ring = new ConsistentHashRing(Collections.<String> emptySet());
+        assertTrue(ring.isEmpty());
+        assertNull(ring.getNode("urn:endpoint:1"));
+    }
+
+    @Test
+    public void rings_of_the_same_nodes_place_keys_the_same_way() {
+        ConsistentHashRing ring1 = new ConsistentHashRing(Arrays.asList("node-a", "node-b", "node-c"));
+        ConsistentHashRing ring2 = new ConsistentHashRing(Arrays.asList("node-c", "node-a", "node-b"));
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(ring1.getNode(key(i)), ring2.getNode(key(i)));
+        }
+    }
+
+    @Test
+    public void keys_are_spread_over_the_nodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("node-a", "node-b", "node-c", "node-d"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String node = ring.getNode(key(i));
+            counts.put(node, counts.containsKey(node) ? counts.get(node) + 1 : 1);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // 2500 expected by node
+            assertTrue("unbalanced ring: " + counts, count > 1500 && count < 3500);
+        }
+    }
+
+    @Test
+    public void only_the_keys_of_a_removed_node_move() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("node-a", "node-b", "node-c"));
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("node-a", "node-c"));
+        for (int i = 0; i < KEYS; i++) {
+            String node = before.getNode(key(i));
+            if (!"node-b".equals(node)) {
+                assertEquals(node, after.getNode(key(i)));
+            } else {
+                assertNotEquals("node-b", after.getNode(key(i)));
+            }
+        }
+    }
+
+    private static String key(int i) {
+        return "urn:endpoint:" + i;
+    }
+}
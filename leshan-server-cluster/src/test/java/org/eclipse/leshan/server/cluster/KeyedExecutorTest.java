@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class KeyedExecutorTest {
+
+    private KeyedExecutor executor;
+
+    @After
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    @Test
+    public void tasks_of_a_key_run_in_order() throws InterruptedException {
+        executor = new KeyedExecutor("test", 4, 4000);
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            final int n = i;
+            executor.execute("urn:endpoint:1", new Runnable() {
+                @Override
+                public void run() {
+                    done.add(n);
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, done.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void task_is_rejected_when_the_queue_is_full() throws InterruptedException {
+        executor = new KeyedExecutor("test", 1, 2);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute("ep", new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // fill the queue
+        executor.execute("ep", new NoOp());
+        executor.execute(new NoOp());
+        assertEquals(2, executor.getQueueSize());
+        try {
+            executor.execute("ep", new NoOp());
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, executor.getRejectedCount());
+
+        release.countDown();
+        for (int i = 0; i < 100 && executor.getCompletedCount() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, executor.getCompletedCount());
+        assertEquals(0, executor.getQueueSize());
+        assertTrue(executor.getMaxWaitTime() > 0);
+        assertTrue(executor.getAverageWaitTime() <= executor.getMaxWaitTime());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void task_is_rejected_after_shutdown() {
+        executor = new KeyedExecutor("test", 2, 10);
+        executor.shutdown();
+        executor.execute("ep", new NoOp());
+    }
+
+    private static class NoOp implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
@@ -15,15 +15,21 @@
  *******************************************************************************/
 package org.eclipse.leshan.server.cluster.serialization;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
 import org.eclipse.leshan.server.cluster.serialization.RegistrationSerDes;
 import org.eclipse.leshan.server.registration.Registration;
 import org.junit.Test;
@@ -51,4 +57,53 @@ public class ClientSerDesTest {
 
         assertEquals(r, r2);
     }
+
+    @Test
+    public void compact_ser_and_des_are_equals() throws Exception {
+        Map<String, String> addAttr = new HashMap<>();
+        addAttr.put("foo", "bar");
+        Registration r = new Registration.Builder("registrationId", "endpoint",
+                InetAddress.getByName("::1"), 56830, InetSocketAddress.createUnresolved("localhost", 5683))
+                        .objectLinks(Link.parse("</>;rt=\"oma.lwm2m\";ct=11543,</1/0>,</3/0>;ver=\"1.1\";obs,</3303/0>"
+                                .getBytes(StandardCharsets.UTF_8)))
+                        .registrationDate(new Date(100L)).lastUpdate(new Date(101L)).lifeTimeInSec(300L)
+                        .smsNumber("+3312345678").bindingMode(BindingMode.UQS).lwM2mVersion("1.1")
+                        .additionalRegistrationAttributes(addAttr).build();
+
+        byte[] ser = RegistrationSerDes.serializeCompact(r);
+        Registration r2 = RegistrationSerDes.deserialize(ser);
+
+        assertEquals(r.getId(), r2.getId());
+        assertEquals(r.getEndpoint(), r2.getEndpoint());
+        assertEquals(r.getAddress(), r2.getAddress());
+        assertEquals(r.getPort(), r2.getPort());
+        assertEquals("localhost", r2.getRegistrationEndpointAddress().getHostString());
+        assertEquals(5683, r2.getRegistrationEndpointAddress().getPort());
+        assertEquals(r.getRegistrationDate(), r2.getRegistrationDate());
+        assertEquals(r.getLastUpdate(), r2.getLastUpdate());
+        assertEquals(r.getLifeTimeInSec(), r2.getLifeTimeInSec());
+        assertEquals(r.getSmsNumber(), r2.getSmsNumber());
+        assertEquals(r.getBindingMode(), r2.getBindingMode());
+        assertEquals(r.getLwM2mVersion(), r2.getLwM2mVersion());
+        assertArrayEquals(r.getObjectLinks(), r2.getObjectLinks());
+        assertEquals("/", r2.getRootPath());
+        assertEquals(addAttr, r2.getAdditionalRegistrationAttributes());
+    }
+
+    @Test
+    public void compact_format_is_smaller_than_json() throws Exception {
+        Registration r = new Registration.Builder("registrationId", "endpoint", Inet4Address.getByName("127.0.0.1"),
+                1, new InetSocketAddress(Inet4Address.getByName("127.0.0.1"), 5683))
+                        .objectLinks(Link.parse("</1/0>,</3/0>;ver=\"1.1\",</4/0>;ver=\"1.1\",</5/0>;ver=\"1.1\""
+                                .getBytes(StandardCharsets.UTF_8)))
+                        .build();
+
+        byte[] compact = RegistrationSerDes.serializeCompact(r);
+        byte[] json = RegistrationSerDes.bSerialize(r);
+
+        assertTrue(compact.length * 3 < json.length);
+        // both formats are read
+        assertEquals(r.getId(), RegistrationSerDes.deserialize(json).getId());
+        assertNull(RegistrationSerDes.deserialize(compact).getSmsNumber());
+    }
 }
@@ -17,8 +17,13 @@ package org.eclipse.leshan.server.cluster.serialization;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.leshan.ObserveSpec;
+import org.eclipse.leshan.core.model.ResourceModel.Type;
 import org.eclipse.leshan.core.node.LwM2mResource;
 import org.eclipse.leshan.core.node.LwM2mSingleResource;
 import org.eclipse.leshan.core.request.ContentFormat;
@@ -81,10 +86,47 @@ public class DownlinkRequestSerDesTest {
         ser_and_des_are_equals(new WriteAttributesRequest(3, 0, 1, os));
     }
 
+    @Test
+    public void compact_ser_and_des_read_request_without_content_format() throws Exception {
+        // the JSON format reads TLV when no content format is given
+        compact_ser_and_des_are_equals(new ReadRequest(3, 0, 1));
+    }
+
+    @Test
+    public void ser_and_des_write_opaque_request() throws Exception {
+        compact_ser_and_des_are_equals(
+                new WriteRequest(ContentFormat.OPAQUE, 3, 0, 1, new byte[] { 0x00, (byte) 0xFF, 0x7F }));
+    }
+
+    @Test
+    public void ser_and_des_write_multiple_resource_request() throws Exception {
+        Map<Integer, Long> values = new HashMap<>();
+        values.put(0, -1L);
+        values.put(5, Long.MAX_VALUE);
+        compact_ser_and_des_are_equals(new WriteRequest(ContentFormat.TLV, 3, 0, 7, values, Type.INTEGER));
+    }
+
     public void ser_and_des_are_equals(DownlinkRequest<?> request) throws Exception {
         JsonObject ser = DownlinkRequestSerDes.jSerialize(request);
         DownlinkRequest<?> r2 = DownlinkRequestSerDes.deserialize(ser);
         assertEquals(request, r2);
+
+        compact_ser_and_des_are_equals(request);
+    }
+
+    public void compact_ser_and_des_are_equals(DownlinkRequest<?> request) throws Exception {
+        byte[] ser = DownlinkRequestSerDes.serializeCompact(request);
+        assertEquals(request, DownlinkRequestSerDes.deserialize(ser));
+    }
+
+    @Test
+    public void des_json_and_compact_request() throws Exception {
+        ReadRequest request = new ReadRequest(ContentFormat.TLV, 3, 0, 1);
+
+        assertEquals(request, DownlinkRequestSerDes.deserialize(DownlinkRequestSerDes.bSerialize(request)));
+        byte[] compact = DownlinkRequestSerDes.serializeCompact(request);
+        assertEquals(request, DownlinkRequestSerDes.deserialize(compact));
+        assertTrue(compact.length < DownlinkRequestSerDes.bSerialize(request).length);
     }
 
     @Test
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.observe.Observation;
+import org.eclipse.leshan.server.californium.impl.CoapRequestBuilder;
+import org.junit.Test;
+
+public class ObservationSerDesTest {
+
+    @Test
+    public void compact_ser_and_des_are_equals() {
+        Observation obs = givenAnObservation(true);
+
+        Observation obs2 = ObservationSerDes.deserialize(ObservationSerDes.serializeCompact(obs));
+
+        assertArrayEquals(obs.getRequest().getToken(), obs2.getRequest().getToken());
+        assertEquals("3/0/13", obs2.getRequest().getOptions().getUriPathString());
+        assertTrue(obs2.getRequest().getOptions().hasObserve());
+        assertEquals(obs.getRequest().getUserContext(), obs2.getRequest().getUserContext());
+    }
+
+    @Test
+    public void compact_ser_and_des_without_context() {
+        Observation obs = givenAnObservation(false);
+
+        Observation obs2 = ObservationSerDes.deserialize(ObservationSerDes.serializeCompact(obs));
+
+        assertArrayEquals(obs.getRequest().getToken(), obs2.getRequest().getToken());
+        assertNull(obs2.getRequest().getUserContext());
+    }
+
+    @Test
+    public void json_format_is_still_read() {
+        Observation obs = givenAnObservation(true);
+
+        byte[] json = ObservationSerDes.serialize(obs);
+        byte[] compact = ObservationSerDes.serializeCompact(obs);
+        Observation obs2 = ObservationSerDes.deserialize(json);
+
+        assertTrue(compact.length * 2 < json.length);
+        assertArrayEquals(obs.getRequest().getToken(), obs2.getRequest().getToken());
+        assertEquals(obs.getRequest().getUserContext(), obs2.getRequest().getUserContext());
+    }
+
+    private Observation givenAnObservation(boolean withContext) {
+        Request coapRequest = Request.newGet();
+        coapRequest.setToken(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        coapRequest.getOptions().setUriPath("/3/0/13");
+        coapRequest.setObserve();
+        if (withContext) {
+            Map<String, String> context = new HashMap<>();
+            context.put(CoapRequestBuilder.CTX_ENDPOINT, "urn:imei:359072061234567");
+            context.put(CoapRequestBuilder.CTX_REGID, "MHsV0bT6lP");
+            context.put(CoapRequestBuilder.CTX_LWM2M_PATH, "/3/0/13");
+            context.put("custom", "value");
+            coapRequest.setUserContext(context);
+        }
+        return new Observation(coapRequest, null);
+    }
+}
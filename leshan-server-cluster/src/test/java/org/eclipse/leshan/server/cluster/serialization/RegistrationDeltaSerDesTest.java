@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.cluster.serialization;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.registration.Registration;
+import org.eclipse.leshan.server.registration.RegistrationUpdate;
+import org.junit.Test;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonObject;
+
+public class RegistrationDeltaSerDesTest {
+
+    @Test
+    public void lifetime_refresh_only_sends_the_last_update() throws Exception {
+        Registration previous = givenARegistration();
+        Registration updated = new RegistrationUpdate(previous.getId(), previous.getAddress(), previous.getPort(),
+                null, null, null, null).update(previous);
+
+        JsonObject delta = RegistrationDeltaSerDes.jSerialize(previous, updated);
+
+        assertEquals(2, delta.size());
+        assertEquals(previous.getId(), delta.getString("regId", null));
+        assertEquals(updated.getLastUpdate().getTime(), delta.getLong("lastUp", 0));
+        assertEquals(updated, RegistrationDeltaSerDes.apply(previous, delta));
+
+        // an order of magnitude smaller than the full registration
+        int deltaSize = RegistrationDeltaSerDes.sSerialize(previous, updated).length();
+        int fullSize = RegistrationSerDes.sSerialize(updated).length();
+        assertTrue(deltaSize + " bytes vs " + fullSize, deltaSize * 10 < fullSize);
+    }
+
+    @Test
+    public void changed_fields_are_applied() throws Exception {
+        Registration previous = givenARegistration();
+        Registration updated = new RegistrationUpdate(previous.getId(), InetAddress.getByName("10.0.0.2"), 40000,
+                600L, null, BindingMode.UQ, Link.parse("</1/0>,</3/0>".getBytes(StandardCharsets.UTF_8)))
+                        .update(previous);
+
+        JsonObject delta = (JsonObject) Json.parse(RegistrationDeltaSerDes.sSerialize(previous, updated));
+
+        assertEquals("10.0.0.2", delta.getString("address", null));
+        assertEquals(40000, delta.getInt("port", 0));
+        assertEquals(600L, delta.getLong("lt", 0));
+        assertEquals("UQ", delta.getString("bnd", null));
+        assertNotNull(delta.get("objLink"));
+        assertNull(delta.get("sms"));
+        assertEquals(updated, RegistrationDeltaSerDes.apply(previous, delta));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void delta_of_another_registration_is_refused() throws Exception {
+        Registration previous = givenARegistration();
+        JsonObject delta = Json.object().add("regId", "anotherId").add("lastUp", 1000L);
+
+        RegistrationDeltaSerDes.apply(previous, delta);
+    }
+
+    private Registration givenARegistration() throws Exception {
+        return new Registration.Builder("registrationId", "urn:imei:123456789012345",
+                InetAddress.getByName("10.0.0.1"), 56830, new InetSocketAddress(InetAddress.getLoopbackAddress(), 5683))
+                        .objectLinks(Link.parse(
+                                "</>;rt=\"oma.lwm2m\";ct=11543,</1/0>,</3/0>,</4/0>,</5/0>,</6/0>,</3303/0>,</3303/1>,</3311/0>"
+                                        .getBytes(StandardCharsets.UTF_8)))
+                        .registrationDate(new Date(1500000000000L)).lastUpdate(new Date(1500000000000L))
+                        .lifeTimeInSec(300L).smsNumber("+3312345678").bindingMode(BindingMode.UQS).build();
+    }
+}
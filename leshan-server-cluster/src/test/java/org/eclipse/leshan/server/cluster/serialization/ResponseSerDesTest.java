@@ -16,13 +16,23 @@
 package org.eclipse.leshan.server.cluster.serialization;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.eclipse.leshan.Link;
+import org.eclipse.leshan.core.node.LwM2mMultipleResource;
+import org.eclipse.leshan.core.node.LwM2mObject;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mSingleResource;
+import org.eclipse.leshan.core.node.ObjectLink;
 import org.eclipse.leshan.core.response.DiscoverResponse;
+import org.eclipse.leshan.core.response.ExecuteResponse;
 import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.core.response.ObserveResponse;
+import org.eclipse.leshan.core.response.ReadResponse;
 import org.junit.Test;
 
 import com.eclipsesource.json.JsonObject;
@@ -43,5 +53,41 @@ public class ResponseSerDesTest {
         LwM2mResponse dr2 = ResponseSerDes.deserialize(obj);
 
         assertEquals(dr.toString(), dr2.toString());
+
+        LwM2mResponse dr3 = ResponseSerDes.deserialize(ResponseSerDes.serializeCompact(dr));
+        assertEquals(dr.toString(), dr3.toString());
+    }
+
+    @Test
+    public void ser_and_des_compact_read_response() throws Exception {
+        Map<Integer, String> values = new HashMap<>();
+        values.put(0, "first");
+        values.put(3, "second");
+        LwM2mObjectInstance instance = new LwM2mObjectInstance(1,
+                LwM2mSingleResource.newIntegerResource(0, -42), LwM2mSingleResource.newFloatResource(1, 3.14d),
+                LwM2mSingleResource.newBooleanResource(2, true),
+                LwM2mSingleResource.newBinaryResource(3, new byte[] { 0x01, (byte) 0xFF }),
+                LwM2mSingleResource.newDateResource(4, new Date(1500000000000L)),
+                LwM2mSingleResource.newObjectLinkResource(5, new ObjectLink(3, 0)),
+                LwM2mMultipleResource.newStringResource(6, values));
+        ReadResponse response = ReadResponse.success(new LwM2mObject(1, instance));
+
+        LwM2mResponse response2 = ResponseSerDes.deserialize(ResponseSerDes.serializeCompact(response));
+
+        assertTrue(response2 instanceof ReadResponse);
+        assertEquals(response.getCode(), response2.getCode());
+        assertEquals(response.getContent(), ((ReadResponse) response2).getContent());
+    }
+
+    @Test
+    public void ser_and_des_compact_observe_and_error_responses() throws Exception {
+        ObserveResponse observe = ObserveResponse.success(LwM2mSingleResource.newStringResource(15, "Europe/Paris"));
+        LwM2mResponse observe2 = ResponseSerDes.deserialize(ResponseSerDes.serializeCompact(observe));
+        assertTrue(observe2 instanceof ObserveResponse);
+        assertEquals(observe.getContent(), ((ObserveResponse) observe2).getContent());
+
+        ExecuteResponse error = ExecuteResponse.badRequest("invalid arguments");
+        LwM2mResponse error2 = ResponseSerDes.deserialize(ResponseSerDes.serializeCompact(error));
+        assertEquals(error.toString(), error2.toString());
     }
 }
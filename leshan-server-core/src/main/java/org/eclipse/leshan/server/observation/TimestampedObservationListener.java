@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.observation;
+
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.observation.Observation;
+import org.eclipse.leshan.core.response.ObserveResponse;
+import org.eclipse.leshan.server.registration.Registration;
+
+/**
+ * An {@link ObservationListener} which receives the time-stamped values of a notification one by one, as soon as
+ * they are decoded. A device which flushes hours of buffered samples can send thousands of values in one
+ * notification: they are forwarded without waiting for the whole notification to be decoded.
+ * <p>
+ * For each notification, {@link #onTimestampedValue(Observation, Registration, TimestampedLwM2mNode)} is called for
+ * each value in the order of the payload, then {@link #onResponse(Observation, Registration, ObserveResponse)} or
+ * {@link #onError(Observation, Registration, Exception)} is called. When all the listeners are
+ * {@link TimestampedObservationListener}s, the values are not kept: the {@link ObserveResponse} contains the most
+ * recent value only and {@link ObserveResponse#getTimestampedLwM2mNode()} returns <code>null</code>.
+ */
+public interface TimestampedObservationListener extends ObservationListener {
+
+    /**
+     * Called for each decoded value of a new notification.
+     * 
+     * @param observation the observation for which new data are received
+     * @param registration the registration concerned by this observation
+     * @param value a value of the notification
+     */
+    void onTimestampedValue(Observation observation, Registration registration, TimestampedLwM2mNode value);
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A thread-safe queue of registration ids ordered by expiration time.
+ * <p>
+ * Expiration times are rounded up to a time slot (1 second by default) and registrations expiring in the same slot
+ * share the same bucket. Scheduling or cancelling an expiration only touches the bucket of the registration, and
+ * polling the expired registrations only visits the buckets which are due. So, unlike scanning all the registrations
+ * periodically, the cost does not depend on the number of registrations which are not expiring.
+ * <p>
+ * This queue only tracks expiration times: a registration store should check the registration is really expired
+ * (e.g. it was not updated concurrently) before removing it.
+ */
+public class RegistrationExpirationQueue {
+
+    /** Default duration of a time slot in milliseconds */
+    public static final long DEFAULT_SLOT_DURATION = 1000;
+
+    private final long slotDuration; // in ms
+
+    private final ConcurrentNavigableMap<Long /* slot */, Bucket> buckets = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String /* registration id */, Long /* slot */> slotsByRegId = new ConcurrentHashMap<>();
+
+    public RegistrationExpirationQueue() {
+        this(DEFAULT_SLOT_DURATION);
+    }
+
+    /**
+     * @param slotDurationInMs the precision of the expiration time in milliseconds.
+     */
+    public RegistrationExpirationQueue(long slotDurationInMs) {
+        Validate.isTrue(slotDurationInMs > 0, "slot duration must be strictly positive");
+        this.slotDuration = slotDurationInMs;
+    }
+
+    /**
+     * Computes the expiration time of a registration.
+     *
+     * @param registration the registration
+     * @param gracePeriodInSec an extra time added to the registration lifetime.
+     * @return the time in milliseconds when the registration expires.
+     */
+    public static long expirationTime(Registration registration, long gracePeriodInSec) {
+        return registration.getLastUpdate().getTime() + registration.getLifeTimeInSec() * 1000
+                + gracePeriodInSec * 1000;
+    }
+
+    /**
+     * Schedules (or re-schedules) the expiration of a registration. A previous expiration for the same registration id
+     * is replaced.
+     *
+     * @param registrationId the id of the registration
+     * @param expirationTime the time in milliseconds when the registration expires.
+     */
+    public void schedule(String registrationId, long expirationTime) {
+        Long slot = toSlot(expirationTime);
+        Long previousSlot = slotsByRegId.put(registrationId, slot);
+        if (previousSlot != null) {
+            if (previousSlot.equals(slot)) {
+                return;
+            }
+            removeFromBucket(previousSlot, registrationId);
+        }
+
+        while (true) {
+            Bucket bucket = buckets.get(slot);
+            if (bucket == null) {
+                Bucket newBucket = new Bucket();
+                bucket = buckets.putIfAbsent(slot, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            synchronized (bucket) {
+                // a closed bucket was removed by a poll, we must use a new one.
+                if (!bucket.closed) {
+                    bucket.registrationIds.add(registrationId);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the expiration of a registration (e.g. when it is removed).
+     *
+     * @param registrationId the id of the registration
+     */
+    public void cancel(String registrationId) {
+        Long slot = slotsByRegId.remove(registrationId);
+        if (slot != null) {
+            removeFromBucket(slot, registrationId);
+        }
+    }
+
+    /**
+     * Removes and returns the ids of the registrations which expire before the given time.
+     *
+     * @param now the current time in milliseconds.
+     * @return the ids of expired registrations or an empty collection.
+     */
+    public Collection<String> pollExpired(long now) {
+        Collection<String> expired = null;
+        // a slot is due when all its expiration times are in the past.
+        long lastDueSlot = now / slotDuration;
+
+        Entry<Long, Bucket> entry;
+        while ((entry = buckets.firstEntry()) != null && entry.getKey() <= lastDueSlot) {
+            Bucket bucket = entry.getValue();
+            if (!buckets.remove(entry.getKey(), bucket)) {
+                continue;
+            }
+            Set<String> registrationIds;
+            synchronized (bucket) {
+                bucket.closed = true;
+                registrationIds = bucket.registrationIds;
+            }
+            for (String registrationId : registrationIds) {
+                // the registration could have been re-scheduled or cancelled meanwhile.
+                if (slotsByRegId.remove(registrationId, entry.getKey())) {
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(registrationId);
+                }
+            }
+        }
+        if (expired == null) {
+            return Collections.emptyList();
+        }
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled registrations.
+     */
+    public int size() {
+        return slotsByRegId.size();
+    }
+
+    private Long toSlot(long expirationTime) {
+        // round up: the registration is expired only when the whole slot is in the past.
+        return (expirationTime + slotDuration - 1) / slotDuration;
+    }
+
+    private void removeFromBucket(Long slot, String registrationId) {
+        Bucket bucket = buckets.get(slot);
+        if (bucket != null) {
+            synchronized (bucket) {
+                if (!bucket.closed) {
+                    bucket.registrationIds.remove(registrationId);
+                    if (bucket.registrationIds.isEmpty()) {
+                        bucket.closed = true;
+                        buckets.remove(slot, bucket);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Bucket {
+        private final Set<String> registrationIds = new HashSet<>();
+        private boolean closed = false;
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Sierra Wireless and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *    http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *    http://www.eclipse.org/org/documents/edl-v10.html.
+ *
+ * Contributors:
+ *     Sierra Wireless - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.leshan.server.registration;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RegistrationExpirationQueueTest {
+
+    RegistrationExpirationQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new RegistrationExpirationQueue(1000);
+    }
+
+    @Test
+    public void poll_only_expired_registrations() {
+        queue.schedule("1", 10_000);
+        queue.schedule("2", 20_000);
+        queue.schedule("3", 20_500);
+
+        Assert.assertTrue(queue.pollExpired(9_999).isEmpty());
+        Assert.assertEquals(Arrays.asList("1"), queue.pollExpired(10_000));
+        Assert.assertTrue(queue.pollExpired(19_999).isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("2", "3")), new HashSet<>(queue.pollExpired(21_000)));
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void expiration_is_rounded_up_to_the_slot() {
+        queue.schedule("1", 10_001);
+
+        Assert.assertTrue(queue.pollExpired(10_500).isEmpty());
+        Assert.assertEquals(Arrays.asList("1"), queue.pollExpired(11_000));
+    }
+
+    @Test
+    public void reschedule_replaces_previous_expiration() {
+        queue.schedule("1", 10_000);
+        queue.schedule("1", 30_000);
+
+        Assert.assertEquals(1, queue.size());
+        Assert.assertTrue(queue.pollExpired(20_000).isEmpty());
+        Assert.assertEquals(Arrays.asList("1"), queue.pollExpired(30_000));
+    }
+
+    @Test
+    public void cancelled_registration_is_not_polled() {
+        queue.schedule("1", 10_000);
+        queue.schedule("2", 10_000);
+        queue.cancel("1");
+
+        Assert.assertEquals(Arrays.asList("2"), queue.pollExpired(10_000));
+        Assert.assertTrue(queue.pollExpired(100_000).isEmpty());
+    }
+
+    @Test
+    public void schedule_after_poll_of_the_same_slot() {
+        queue.schedule("1", 10_000);
+        Assert.assertEquals(Arrays.asList("1"), queue.pollExpired(10_000));
+
+        queue.schedule("2", 10_000);
+        Assert.assertEquals(Arrays.asList("2"), queue.pollExpired(10_000));
+    }
+
+    @Test
+    public void expiration_time_includes_grace_period() throws UnknownHostException {
+        Registration registration = new Registration.Builder("id", "endpoint", Inet4Address.getByName("127.0.0.1"), 1,
+                new InetSocketAddress(212)).lifeTimeInSec(60L).lastUpdate(new Date(1_000_000L)).build();
+
+        Assert.assertEquals(1_060_000L, RegistrationExpirationQueue.expirationTime(registration, 0));
+        Assert.assertEquals(1_070_000L, RegistrationExpirationQueue.expirationTime(registration, 10));
+    }
+
+    @Test
+    public void poll_many_registrations() {
+        for (int i = 0; i < 10_000; i++) {
+            queue.schedule("reg" + i, i * 10L);
+        }
+        Collection<String> expired = queue.pollExpired(50_000);
+        Assert.assertEquals(5_001, expired.size());
+        Assert.assertEquals(4_999, queue.size());
+    }
+}